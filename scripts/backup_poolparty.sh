@@ -5,6 +5,10 @@
 # or set the environment variables catalina_base and
 # TOOLKIT_ROOT to point to it.
 
+# Instead of running this script from cron, backups can be run
+# by the Toolkit itself, by setting the property
+# Toolkit.schedule.backup in toolkit.properties.
+
 : ${catalina_base:=~tomcat}
 : ${TOOLKIT_ROOT:=~tomcat/webapps-ands/vocabtoolkit}
 
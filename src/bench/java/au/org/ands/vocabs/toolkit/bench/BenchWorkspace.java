@@ -0,0 +1,88 @@
+/** See the file "LICENSE" for the full license governing this code. */
+package au.org.ands.vocabs.toolkit.bench;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Properties;
+
+import au.org.ands.vocabs.toolkit.utils.PropertyConstants;
+import au.org.ands.vocabs.toolkit.utils.ToolkitConfig;
+
+/** The workspace of the benchmarks. All the data of the benchmarks
+ * is kept in a workspace directory, given by the system property
+ * {@link #WORKSPACE_PROPERTY}. Generated vocabularies are kept in its
+ * {@link SkosGenerator#INPUTS} subdirectory, and reused by later runs.
+ * The Toolkit properties used by a benchmark are generated in the
+ * directory that the benchmark uses for its own data.
+ */
+public final class BenchWorkspace {
+
+    /** Name of the system property that gives the path of the
+     * workspace directory. */
+    public static final String WORKSPACE_PROPERTY = "bench.workspace";
+
+    /** Default path of the workspace directory. */
+    private static final String DEFAULT_WORKSPACE = "build-bench/workspace";
+
+    /** Private constructor for a utility class. */
+    private BenchWorkspace() {
+    }
+
+    /** Get the path of the workspace directory.
+     * @return The absolute path of the workspace directory.
+     */
+    public static Path getRoot() {
+        return Paths.get(System.getProperty(WORKSPACE_PROPERTY,
+                DEFAULT_WORKSPACE)).toAbsolutePath();
+    }
+
+    /** Create the Toolkit properties and metadata rewrite map in
+     * a directory, and make the Toolkit use them. The Toolkit stores
+     * its files in the directory, unless the properties say otherwise.
+     * The Toolkit properties are loaded once, when first used,
+     * so this must be done before any use of them.
+     * @param dir The directory.
+     * @param props Toolkit properties to be set, in addition to those
+     *      that give the paths of the Toolkit's files.
+     * @throws IOException If the files can not be written.
+     * @throws IllegalStateException If the Toolkit properties
+     *      have already been loaded.
+     */
+    public static void configure(final Path dir, final Properties props)
+            throws IOException {
+        Files.createDirectories(dir);
+        Path rewriteMap = dir.resolve("metadatarewritemap.conf");
+        Files.write(rewriteMap, ("[dcterms:publisher]\n"
+                + "BenchPublisher = Rewritten publisher\n"
+                + "[dcterms:creator]\n"
+                + "BenchCreator = Rewritten creator\n").
+                getBytes(StandardCharsets.UTF_8));
+        Properties allProps = new Properties();
+        allProps.setProperty(PropertyConstants.TOOLKIT_STORAGEPATH,
+                dir.toString());
+        allProps.setProperty(PropertyConstants.TOOLKIT_VOCABSPATH,
+                dir.resolve("vocabs").toString());
+        allProps.setProperty(PropertyConstants.TOOLKIT_TEMPPATH,
+                dir.resolve("temp").toString());
+        allProps.setProperty(PropertyConstants.TOOLKIT_METADATAREWRITEMAPPATH,
+                rewriteMap.toString());
+        allProps.putAll(props);
+        Path propsFile = dir.resolve("toolkit.properties");
+        try (OutputStream out = Files.newOutputStream(propsFile)) {
+            allProps.store(out, "Generated by the benchmarks");
+        }
+        System.setProperty("PROPS_FILE", propsFile.toString());
+        // Check that the properties took effect, i.e., that they
+        // were not loaded before this.
+        if (!ToolkitConfig.ROOT_FILES_PATH.equals(allProps.getProperty(
+                PropertyConstants.TOOLKIT_STORAGEPATH))) {
+            throw new IllegalStateException("Toolkit properties were "
+                    + "loaded before the workspace was prepared");
+        }
+    }
+
+}
@@ -0,0 +1,153 @@
+/** See the file "LICENSE" for the full license governing this code. */
+package au.org.ands.vocabs.toolkit.bench;
+
+import java.text.CollationKey;
+import java.text.Collator;
+import java.util.Comparator;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Benchmarks of the ways of sorting the siblings of a concept tree
+ * by prefLabel, as done by the JsonTree transform: each benchmark adds
+ * the prefLabels of a large set of siblings to a TreeSet.
+ *
+ * The labels are compared case-insensitively, either as Strings,
+ * by a Collator at each comparison, or by CollationKeys computed
+ * once for each label beforehand, which is what the transform does.
+ * The time taken to compute the keys is included.
+ *
+ * Run with the "bench" target of build.xml; see README.md.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 2)
+@Measurement(iterations = 3)
+public class ConceptSortBenchmark {
+
+    /** Seed of the generator of labels, so that every run sorts
+     * the same labels. */
+    private static final long SEED = 42;
+
+    /** The number of words in each label. */
+    private static final int WORDS = 3;
+
+    /** The maximum length of each word. */
+    private static final int WORD_LENGTH = 10;
+
+    /** The letters of labels of the ASCII kind. */
+    private static final String ASCII_LETTERS =
+            "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ";
+
+    /** The first of the accented letters of Latin-1, which are
+     * added to the letters of labels of the ACCENTED kind. */
+    private static final char FIRST_ACCENTED = '\u00c0';
+
+    /** The last of the accented letters of Latin-1. */
+    private static final char LAST_ACCENTED = '\u00ff';
+
+    /** The number of siblings. */
+    @Param({"100000", "1000000"})
+    private int size;
+
+    /** The kind of the labels: ASCII or ACCENTED. */
+    @Param({"ASCII", "ACCENTED"})
+    private String kind;
+
+    /** The labels to be sorted. */
+    private String[] labels;
+
+    /** The collator, configured as by the JsonTree transform. */
+    private Collator collator;
+
+    /** Generate the labels, and create the collator. */
+    @Setup
+    public final void setUp() {
+        StringBuilder sb = new StringBuilder(ASCII_LETTERS);
+        if ("ACCENTED".equals(kind)) {
+            for (char c = FIRST_ACCENTED; c <= LAST_ACCENTED; c++) {
+                // Skip the multiplication and division signs.
+                if (Character.isLetter(c)) {
+                    sb.append(c);
+                }
+            }
+        }
+        String letters = sb.toString();
+        Random random = new Random(SEED);
+        labels = new String[size];
+        for (int i = 0; i < size; i++) {
+            sb.setLength(0);
+            for (int w = 0; w < WORDS; w++) {
+                if (w > 0) {
+                    sb.append(' ');
+                }
+                int length = 1 + random.nextInt(WORD_LENGTH);
+                for (int c = 0; c < length; c++) {
+                    sb.append(letters.charAt(
+                            random.nextInt(letters.length())));
+                }
+            }
+            labels[i] = sb.toString();
+        }
+        collator = Collator.getInstance(Locale.ENGLISH);
+        collator.setStrength(Collator.SECONDARY);
+        collator.setDecomposition(Collator.CANONICAL_DECOMPOSITION);
+    }
+
+    /** Sort by String.compareToIgnoreCase(), as the transform
+     * did before it used collation.
+     * @return The sorted labels.
+     */
+    @Benchmark
+    public final TreeSet<String> compareToIgnoreCase() {
+        TreeSet<String> sorted = new TreeSet<String>(
+                String.CASE_INSENSITIVE_ORDER);
+        for (String label : labels) {
+            sorted.add(label);
+        }
+        return sorted;
+    }
+
+    /** Sort by the collator, which compares the labels afresh
+     * at each comparison.
+     * @return The sorted labels.
+     */
+    @Benchmark
+    public final TreeSet<Object> collatorCompare() {
+        @SuppressWarnings("unchecked")
+        TreeSet<Object> sorted = new TreeSet<Object>(
+                (Comparator<Object>) (Comparator<?>) collator);
+        for (String label : labels) {
+            sorted.add(label);
+        }
+        return sorted;
+    }
+
+    /** Sort by collation keys, computed once for each label.
+     * @return The sorted collation keys.
+     */
+    @Benchmark
+    public final TreeSet<CollationKey> collationKeys() {
+        TreeSet<CollationKey> sorted = new TreeSet<CollationKey>();
+        for (String label : labels) {
+            sorted.add(collator.getCollationKey(label));
+        }
+        return sorted;
+    }
+
+}
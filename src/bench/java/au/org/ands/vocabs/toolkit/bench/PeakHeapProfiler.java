@@ -0,0 +1,78 @@
+/** See the file "LICENSE" for the full license governing this code. */
+package au.org.ands.vocabs.toolkit.bench;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.Collection;
+import java.util.Collections;
+
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.infra.IterationParams;
+import org.openjdk.jmh.profile.InternalProfiler;
+import org.openjdk.jmh.results.AggregationPolicy;
+import org.openjdk.jmh.results.IterationResult;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.ScalarResult;
+
+/** JMH profiler that reports the peak use of the heap during each
+ * iteration. JMH's own "gc" profiler reports the allocation rate,
+ * but not how much of the heap was in use at once, which is what
+ * determines whether a transform fits in the heap given to Tomcat.
+ *
+ * The peak is the sum of the peaks of the heap memory pools, so it
+ * may be somewhat more than the true peak, as the pools need not
+ * reach their peaks at the same time.
+ *
+ * Use it with the option
+ * {@code -prof au.org.ands.vocabs.toolkit.bench.PeakHeapProfiler}.
+ */
+public class PeakHeapProfiler implements InternalProfiler {
+
+    /** Number of bytes in a megabyte. */
+    private static final double BYTES_PER_MB = 1024 * 1024;
+
+    /** {@inheritDoc} */
+    @Override
+    public final String getDescription() {
+        return "Peak heap use";
+    }
+
+    /** Reset the peaks of the heap memory pools.
+     * @param benchmarkParams The parameters of the benchmark.
+     * @param iterationParams The parameters of the iteration.
+     */
+    @Override
+    public final void beforeIteration(final BenchmarkParams benchmarkParams,
+            final IterationParams iterationParams) {
+        for (MemoryPoolMXBean pool
+                : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+            }
+        }
+    }
+
+    /** Get the peak use of the heap during the iteration.
+     * @param benchmarkParams The parameters of the benchmark.
+     * @param iterationParams The parameters of the iteration.
+     * @param result The result of the iteration.
+     * @return The peak use of the heap, in megabytes.
+     */
+    @Override
+    public final Collection<? extends Result> afterIteration(
+            final BenchmarkParams benchmarkParams,
+            final IterationParams iterationParams,
+            final IterationResult result) {
+        long peak = 0;
+        for (MemoryPoolMXBean pool
+                : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return Collections.singletonList(new ScalarResult("heap.peak",
+                peak / BYTES_PER_MB, "MB", AggregationPolicy.MAX));
+    }
+
+}
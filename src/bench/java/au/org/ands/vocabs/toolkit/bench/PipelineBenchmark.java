@@ -0,0 +1,559 @@
+/** See the file "LICENSE" for the full license governing this code. */
+package au.org.ands.vocabs.toolkit.bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.persistence.EntityManager;
+
+import org.apache.commons.io.FileUtils;
+import org.openrdf.repository.manager.RepositoryProvider;
+import org.openrdf.rio.RDFFormat;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import au.org.ands.vocabs.toolkit.db.DBContext;
+import au.org.ands.vocabs.toolkit.db.TaskStatusJournal;
+import au.org.ands.vocabs.toolkit.db.TaskUtils;
+import au.org.ands.vocabs.toolkit.db.model.Task;
+import au.org.ands.vocabs.toolkit.db.model.Version;
+import au.org.ands.vocabs.toolkit.db.model.Vocabulary;
+import au.org.ands.vocabs.toolkit.tasks.LeaseHeartbeat;
+import au.org.ands.vocabs.toolkit.tasks.TaskControl;
+import au.org.ands.vocabs.toolkit.tasks.TaskInfo;
+import au.org.ands.vocabs.toolkit.tasks.TaskProgress;
+import au.org.ands.vocabs.toolkit.tasks.TaskRunner;
+import au.org.ands.vocabs.toolkit.tasks.TaskStatus;
+import au.org.ands.vocabs.toolkit.utils.PropertyConstants;
+import au.org.ands.vocabs.toolkit.utils.ToolkitFileUtils;
+import au.org.ands.vocabs.toolkit.utils.ToolkitNetUtils;
+
+/** End-to-end benchmark of the task pipeline. Tasks are run through
+ * {@link TaskRunner}, as they are by the runTask restlet, with
+ * concurrency as set. Each task harvests a generated vocabulary from
+ * a {@link PoolPartyStandIn}, runs the JsonList, JsonTree, and SolrIndex
+ * transforms, imports the vocabulary into Sesame, and publishes it
+ * with SISSVoc. The database is an H2 database, created afresh for
+ * each run. By default, Sesame repositories are created in-process,
+ * in the directory of the run, which needs the additional Sesame JARs
+ * listed in libbench/README; a Sesame server can be used instead.
+ *
+ * The time taken by each subtask is taken from the "subtask-end"
+ * progress events of the task (see {@link TaskProgress}). For each
+ * phase (i.e., subtask type and provider), and for tasks as a whole,
+ * the percentiles of the times taken are reported, together with the
+ * throughput. The results are also written as JSON.
+ *
+ * The options, all optional, are given as pairs of arguments:
+ * <ul>
+ *   <li>--tasks: the number of tasks, each on its own vocabulary
+ *      (default {@value #DEFAULT_TASKS}).</li>
+ *   <li>--concurrency: the number of tasks run at once
+ *      (default {@value #DEFAULT_CONCURRENCY}).</li>
+ *   <li>--size: the number of concepts of each vocabulary
+ *      (default {@value #DEFAULT_SIZE}).</li>
+ *   <li>--shape: the shape of each vocabulary; see
+ *      {@link SkosGenerator.Shape} (default {@value #DEFAULT_SHAPE}).</li>
+ *   <li>--format: the format of the harvest from PoolParty
+ *      (default {@value #DEFAULT_FORMAT}).</li>
+ *   <li>--sesame: the URL of the Sesame server into which vocabularies
+ *      are imported, or "none", to skip the import (default: in-process
+ *      repositories).</li>
+ *   <li>--results: the file to which the results are written
+ *      (default {@value #DEFAULT_RESULTS}).</li>
+ * </ul>
+ * Run with the "bench-pipeline" target of build.xml; see README.md.
+ */
+public final class PipelineBenchmark {
+
+    /** Default number of tasks. */
+    private static final int DEFAULT_TASKS = 20;
+
+    /** Default number of tasks run at once. */
+    private static final int DEFAULT_CONCURRENCY = 4;
+
+    /** Default number of concepts of each vocabulary. */
+    private static final int DEFAULT_SIZE = 10000;
+
+    /** Default shape of each vocabulary. */
+    private static final String DEFAULT_SHAPE = "DEEP";
+
+    /** Default format of the harvest from PoolParty. */
+    private static final String DEFAULT_FORMAT = "TriG";
+
+    /** Default path of the file to which the results are written. */
+    private static final String DEFAULT_RESULTS =
+            "build-bench/pipeline-results.json";
+
+    /** The transform providers run by each task. */
+    private static final String[] TRANSFORMS =
+        {"JsonList", "JsonTree", "SolrIndex"};
+
+    /** The percentiles reported. */
+    private static final int[] PERCENTILES = {50, 90, 99};
+
+    /** Value of the --sesame option that means that vocabularies
+     * are not imported. */
+    private static final String NO_SESAME = "none";
+
+    /** Name of the phase that is the whole of a task. */
+    private static final String TASK_PHASE = "task";
+
+    /** Number of nanoseconds in a millisecond. */
+    private static final long NS_PER_MS = 1000000;
+
+    /** One hundred percent. */
+    private static final double PERCENT = 100;
+
+    /** Number of milliseconds in a minute. */
+    private static final double MS_PER_MINUTE = 60000;
+
+    /** Extra database connections, over and above one per task
+     * run at once, for use by the heartbeat and journal. */
+    private static final int EXTRA_CONNECTIONS = 2;
+
+    /** The JSON object mapper. */
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    /** The number of tasks. */
+    private int tasks = DEFAULT_TASKS;
+
+    /** The number of tasks run at once. */
+    private int concurrency = DEFAULT_CONCURRENCY;
+
+    /** The number of concepts of each vocabulary. */
+    private int size = DEFAULT_SIZE;
+
+    /** The shape of each vocabulary. */
+    private SkosGenerator.Shape shape =
+            SkosGenerator.Shape.valueOf(DEFAULT_SHAPE);
+
+    /** The format of the harvest from PoolParty. */
+    private String format = DEFAULT_FORMAT;
+
+    /** The URL of the Sesame server, {@link #NO_SESAME}, or null,
+     * to use in-process repositories. */
+    private String sesameUrl;
+
+    /** The file to which the results are written. */
+    private Path resultsFile = Paths.get(DEFAULT_RESULTS);
+
+    /** The times taken, in milliseconds, keyed by phase.
+     * Guarded by the map. */
+    private final Map<String, List<Long>> times =
+            new LinkedHashMap<String, List<Long>>();
+
+    /** The number of tasks that did not succeed. */
+    private final AtomicInteger failures = new AtomicInteger();
+
+    /** Private constructor; use {@link #main(String[])}. */
+    private PipelineBenchmark() {
+    }
+
+    /** Run the benchmark.
+     * @param args The command-line arguments.
+     * @throws Exception If the benchmark can not be run.
+     */
+    public static void main(final String[] args) throws Exception {
+        PipelineBenchmark benchmark = new PipelineBenchmark();
+        benchmark.parseArgs(args);
+        int failed = benchmark.run();
+        if (failed > 0) {
+            System.exit(1);
+        }
+        System.exit(0);
+    }
+
+    /** Parse the command-line arguments.
+     * @param args The command-line arguments.
+     * @throws IllegalArgumentException If an argument is not valid.
+     */
+    private void parseArgs(final String[] args) {
+        if (args.length % 2 != 0) {
+            throw new IllegalArgumentException("Options must be given "
+                    + "as pairs of arguments, e.g., --tasks 20");
+        }
+        for (int i = 0; i < args.length; i += 2) {
+            String value = args[i + 1];
+            switch (args[i]) {
+            case "--tasks":
+                tasks = Integer.parseInt(value);
+                break;
+            case "--concurrency":
+                concurrency = Integer.parseInt(value);
+                break;
+            case "--size":
+                size = Integer.parseInt(value);
+                break;
+            case "--shape":
+                shape = SkosGenerator.Shape.valueOf(
+                        value.toUpperCase(Locale.ROOT));
+                break;
+            case "--format":
+                format = value;
+                break;
+            case "--sesame":
+                sesameUrl = value;
+                break;
+            case "--results":
+                resultsFile = Paths.get(value);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown option: "
+                        + args[i]);
+            }
+        }
+        if (RDFFormat.valueOf(format) == null) {
+            throw new IllegalArgumentException("Unsupported format: "
+                    + format);
+        }
+    }
+
+    /** Run the benchmark, and report the results.
+     * @return The number of tasks that did not succeed.
+     * @throws Exception If the benchmark can not be run.
+     */
+    private int run() throws Exception {
+        Path root = BenchWorkspace.getRoot();
+        Path dir = root.resolve("pipeline");
+        // Start from scratch; the generated vocabularies are kept.
+        FileUtils.deleteDirectory(dir.toFile());
+        boolean inProcessSesame = sesameUrl == null;
+        if (inProcessSesame) {
+            sesameUrl = dir.resolve("sesame").toUri().toString();
+        }
+        try (PoolPartyStandIn standIn = new PoolPartyStandIn(
+                root.resolve(SkosGenerator.INPUTS), 0)) {
+            for (int i = 0; i < tasks; i++) {
+                standIn.addProject(getProjectId(i), size, shape);
+            }
+            standIn.prepare(RDFFormat.valueOf(format));
+            standIn.start();
+            BenchWorkspace.configure(dir,
+                    getProperties(dir, standIn.getUrl()));
+            try {
+                List<Integer> taskIds = createTasks();
+                long start = System.nanoTime();
+                runTasks(taskIds);
+                report((System.nanoTime() - start) / NS_PER_MS);
+            } finally {
+                shutdown(inProcessSesame);
+            }
+        }
+        return failures.get();
+    }
+
+    /** Get the Toolkit properties for the run.
+     * @param dir The directory in which the Toolkit stores its files.
+     * @param poolPartyUrl The URL of the PoolParty stand-in.
+     * @return The Toolkit properties.
+     */
+    private Properties getProperties(final Path dir,
+            final String poolPartyUrl) {
+        Properties props = new Properties();
+        props.setProperty("javax.persistence.jdbc.url", "jdbc:h2:"
+                + dir.resolve("h2db").resolve("pipeline")
+                + ";LOCK_TIMEOUT=10000");
+        props.setProperty("javax.persistence.jdbc.driver", "org.h2.Driver");
+        props.setProperty("javax.persistence.jdbc.user", "bench");
+        props.setProperty("javax.persistence.jdbc.password", "bench");
+        props.setProperty(
+                "javax.persistence.schema-generation.database.action",
+                "drop-and-create");
+        props.setProperty("hibernate.connection.isolation", "2");
+        props.setProperty("hibernate.c3p0.max_size",
+                Integer.toString(concurrency + EXTRA_CONNECTIONS));
+        props.setProperty(PropertyConstants.POOLPARTYHARVESTER_REMOTEURL,
+                poolPartyUrl);
+        props.setProperty(PropertyConstants.POOLPARTYHARVESTER_USERNAME,
+                "bench");
+        props.setProperty(PropertyConstants.POOLPARTYHARVESTER_PASSWORD,
+                "bench");
+        props.setProperty(PropertyConstants.POOLPARTYHARVESTER_DEFAULTFORMAT,
+                format);
+        props.setProperty(
+                PropertyConstants.POOLPARTYHARVESTER_DEFAULTEXPORTMODULE,
+                PoolPartyStandIn.EXPORT_MODULE);
+        if (!NO_SESAME.equals(sesameUrl)) {
+            props.setProperty(PropertyConstants.SESAMEIMPORTER_SERVERURL,
+                    sesameUrl);
+        }
+        props.setProperty(PropertyConstants.SESAMEIMPORTER_SPARQLPREFIX,
+                "http://localhost/repository/api/sparql");
+        props.setProperty(PropertyConstants.SISSVOC_SPECSPATH,
+                dir.resolve("specs").toString());
+        props.setProperty(PropertyConstants.SISSVOC_SPECTEMPLATE,
+                Paths.get("conf", "ANDS-ELDAConfig-template.ttl.sample").
+                toAbsolutePath().toString());
+        props.setProperty(PropertyConstants.SISSVOC_ENDPOINTSPREFIX,
+                "http://localhost/repository/api/lda");
+        return props;
+    }
+
+    /** Create the vocabularies, versions, and tasks in the database.
+     * @return The ids of the tasks.
+     */
+    private List<Integer> createTasks() {
+        List<Integer> taskIds = new ArrayList<Integer>();
+        for (int i = 0; i < tasks; i++) {
+            EntityManager em = DBContext.getEntityManager();
+            try {
+                em.getTransaction().begin();
+                Vocabulary vocabulary = new Vocabulary();
+                vocabulary.setTitle("Benchmark vocabulary " + i);
+                vocabulary.setSlug("bench-" + i);
+                vocabulary.setOwner("bench");
+                vocabulary.setStatus("published");
+                em.persist(vocabulary);
+                Version version = new Version();
+                version.setTitle("v1");
+                version.setStatus("current");
+                version.setVocabId(vocabulary.getId());
+                em.persist(version);
+                em.getTransaction().commit();
+                Task task = new Task();
+                task.setVocabularyId(vocabulary.getId());
+                task.setVersionId(version.getId());
+                task.setParams(getParams(getProjectId(i),
+                        !NO_SESAME.equals(sesameUrl)).toString());
+                TaskUtils.saveTask(task);
+                taskIds.add(task.getId());
+            } finally {
+                if (em.getTransaction().isActive()) {
+                    em.getTransaction().rollback();
+                }
+                em.close();
+            }
+        }
+        return taskIds;
+    }
+
+    /** Get the subtasks of a task.
+     * @param projectId The PoolParty project id of the vocabulary.
+     * @param doImport Whether to import the vocabulary into Sesame.
+     * @return The subtasks.
+     */
+    private static ArrayNode getParams(final String projectId,
+            final boolean doImport) {
+        ArrayNode params = JsonNodeFactory.instance.arrayNode();
+        params.addObject().put("type", "HARVEST").
+            put("provider_type", "PoolParty").put("project_id", projectId);
+        for (String transform : TRANSFORMS) {
+            params.addObject().put("type", "TRANSFORM").
+                put("provider_type", transform);
+        }
+        if (doImport) {
+            params.addObject().put("type", "IMPORT").
+                put("provider_type", "Sesame");
+        }
+        params.addObject().put("type", "PUBLISH").
+            put("provider_type", "SISSVoc");
+        return params;
+    }
+
+    /** Get the PoolParty project id of a vocabulary.
+     * @param i The number of the vocabulary.
+     * @return The project id.
+     */
+    private static String getProjectId(final int i) {
+        return "bench-project-" + i;
+    }
+
+    /** Run the tasks, with the concurrency as set, and wait for them
+     * to finish.
+     * @param taskIds The ids of the tasks.
+     * @throws Exception If a task could not be run.
+     */
+    private void runTasks(final List<Integer> taskIds) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+        try {
+            List<Future<?>> futures = new ArrayList<Future<?>>();
+            for (Integer taskId : taskIds) {
+                futures.add(executor.submit(() -> runTask(taskId)));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /** Run one task, and record the times taken.
+     * @param taskId The id of the task.
+     */
+    private void runTask(final int taskId) {
+        TaskProgress progress = TaskProgress.forTask(taskId);
+        BlockingQueue<String> events = progress.subscribe();
+        long start = System.nanoTime();
+        TaskInfo taskInfo = ToolkitFileUtils.getTaskInfo(taskId);
+        if (taskInfo == null) {
+            progress.unsubscribe(events);
+            failures.incrementAndGet();
+            System.err.println("Task " + taskId + " could not be fetched");
+            return;
+        }
+        TaskRunner runner = new TaskRunner(taskInfo);
+        runner.runTask();
+        long elapsed = (System.nanoTime() - start) / NS_PER_MS;
+        progress.unsubscribe(events);
+        if (!TaskStatus.SUCCESS.equals(runner.getStatus())) {
+            failures.incrementAndGet();
+            System.err.println("Task " + taskId + " failed: "
+                    + runner.getResults());
+            return;
+        }
+        ArrayNode subtasks = TaskUtils.getSubtasks(
+                taskInfo.getTask().getParams());
+        List<String> texts = new ArrayList<String>();
+        events.drainTo(texts);
+        for (String text : texts) {
+            JsonNode data = parseSubtaskEnd(text);
+            if (data != null) {
+                JsonNode subtask = subtasks.get(data.get("index").asInt());
+                record(subtask.get("type").asText() + " "
+                        + subtask.get("provider_type").asText(),
+                        data.get("durationMs").asLong());
+            }
+        }
+        record(TASK_PHASE, elapsed);
+    }
+
+    /** Parse a "subtask-end" progress event.
+     * @param text The event, as taken from the subscriber's queue.
+     * @return The data of the event, or null, if the event is not
+     *      a "subtask-end" event.
+     */
+    private static JsonNode parseSubtaskEnd(final String text) {
+        String prefix = "event: subtask-end\ndata: ";
+        if (!text.startsWith(prefix)) {
+            return null;
+        }
+        return TaskUtils.jsonStringToTree(text.substring(prefix.length()).
+                trim());
+    }
+
+    /** Record the time taken by a phase.
+     * @param phase The name of the phase.
+     * @param millis The time taken, in milliseconds.
+     */
+    private void record(final String phase, final long millis) {
+        synchronized (times) {
+            times.computeIfAbsent(phase, k -> new ArrayList<Long>()).
+                add(millis);
+        }
+    }
+
+    /** Report the results, and write them to the results file.
+     * @param wallMs The time taken by the whole run, in milliseconds.
+     * @throws IOException If the results file can not be written.
+     */
+    private void report(final long wallMs) throws IOException {
+        ObjectNode results = JsonNodeFactory.instance.objectNode();
+        ObjectNode config = results.putObject("config");
+        config.put("tasks", tasks);
+        config.put("concurrency", concurrency);
+        config.put("size", size);
+        config.put("shape", shape.toString());
+        config.put("format", format);
+        results.put("wallMs", wallMs);
+        results.put("failures", failures.get());
+        double throughput = (tasks - failures.get()) * MS_PER_MINUTE
+                / Math.max(wallMs, 1);
+        results.put("tasksPerMinute", throughput);
+        ObjectNode phases = results.putObject("phases");
+
+        System.out.println();
+        System.out.println(String.format(Locale.ROOT,
+                "%d tasks (%d failed), %d at once, %d %s concepts each, "
+                + "in %d ms: %.2f tasks/min", tasks, failures.get(),
+                concurrency, size, shape, wallMs, throughput));
+        System.out.println(String.format(Locale.ROOT,
+                "%-22s %6s %8s %8s %8s %8s %8s", "phase (ms)", "count",
+                "mean", "p50", "p90", "p99", "max"));
+        synchronized (times) {
+            for (Map.Entry<String, List<Long>> entry : times.entrySet()) {
+                List<Long> sorted = new ArrayList<Long>(entry.getValue());
+                Collections.sort(sorted);
+                ObjectNode phase = phases.putObject(entry.getKey());
+                phase.put("count", sorted.size());
+                long total = 0;
+                for (Long millis : sorted) {
+                    total += millis;
+                }
+                long mean = total / sorted.size();
+                phase.put("mean", mean);
+                StringBuilder line = new StringBuilder(String.format(
+                        Locale.ROOT, "%-22s %6d %8d", entry.getKey(),
+                        sorted.size(), mean));
+                for (int p : PERCENTILES) {
+                    long value = percentile(sorted, p);
+                    phase.put("p" + p, value);
+                    line.append(String.format(Locale.ROOT, " %8d", value));
+                }
+                long max = sorted.get(sorted.size() - 1);
+                phase.put("max", max);
+                line.append(String.format(Locale.ROOT, " %8d", max));
+                System.out.println(line);
+            }
+        }
+        if (resultsFile.getParent() != null) {
+            Files.createDirectories(resultsFile.getParent());
+        }
+        MAPPER.writerWithDefaultPrettyPrinter().writeValue(
+                resultsFile.toFile(), results);
+        System.out.println("Results written to " + resultsFile);
+    }
+
+    /** Get a percentile of a list of values, by the nearest-rank
+     * method.
+     * @param sorted The values, in ascending order. The list must
+     *      not be empty.
+     * @param p The percentile.
+     * @return The value at the percentile.
+     */
+    private static long percentile(final List<Long> sorted, final int p) {
+        int rank = (int) Math.ceil(p / PERCENT * sorted.size());
+        return sorted.get(Math.max(rank, 1) - 1);
+    }
+
+    /** Release the resources of the Toolkit, as is done on webapp
+     * shutdown.
+     * @param inProcessSesame Whether in-process Sesame repositories
+     *      were used.
+     */
+    private void shutdown(final boolean inProcessSesame) {
+        if (inProcessSesame) {
+            try {
+                RepositoryProvider.getRepositoryManager(sesameUrl).
+                    shutDown();
+            } catch (Exception e) {
+                System.err.println("Unable to shut down Sesame: " + e);
+            }
+        }
+        TaskControl.doShutdown();
+        LeaseHeartbeat.doShutdown();
+        TaskStatusJournal.doShutdown();
+        DBContext.doShutdown();
+        ToolkitNetUtils.doShutdown();
+    }
+
+}
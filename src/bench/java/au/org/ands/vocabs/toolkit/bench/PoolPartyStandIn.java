@@ -0,0 +1,333 @@
+/** See the file "LICENSE" for the full license governing this code. */
+package au.org.ands.vocabs.toolkit.bench;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.openrdf.rio.RDFFormat;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/** A stand-in for the PoolParty API, for use by benchmarks. It serves
+ * only the requests made by the PoolParty harvest provider:
+ * <ul>
+ *   <li>GET {@link #PATH}: the list of projects, as JSON.</li>
+ *   <li>GET {@link #PATH}/<i>projectId</i>/export?format=<i>f</i>&amp;
+ *      exportModules=<i>m</i>: export module <i>m</i> of a project, in
+ *      format <i>f</i>, which is one of the formats accepted
+ *      by PoolParty, e.g., "TriG".</li>
+ * </ul>
+ * The concepts of each project are a vocabulary generated by
+ * {@link SkosGenerator}. The "adms" and "void" modules, used to get
+ * the metadata of a project, are both just the concept scheme,
+ * without any concepts. Vocabularies are generated when first
+ * requested, and kept for reuse. Credentials are accepted, but
+ * not checked.
+ */
+public final class PoolPartyStandIn implements AutoCloseable {
+
+    /** Path of the projects API, as used in the value of the
+     * PoolPartyHarvester.remoteUrl property. */
+    public static final String PATH = "/PoolParty/api/projects";
+
+    /** The export module that contains the concepts. */
+    public static final String EXPORT_MODULE = "concepts";
+
+    /** The export modules that contain metadata. */
+    private static final List<String> METADATA_MODULES =
+            Arrays.asList("adms", "void");
+
+    /** HTTP status code for success. */
+    private static final int OK = 200;
+
+    /** HTTP status code for a bad request. */
+    private static final int BAD_REQUEST = 400;
+
+    /** HTTP status code for a resource that was not found. */
+    private static final int NOT_FOUND = 404;
+
+    /** Number of command-line arguments before the project ids. */
+    private static final int ARGS = 3;
+
+    /** The JSON object mapper. */
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    /** The HTTP server. */
+    private final HttpServer server;
+
+    /** The threads that handle requests. */
+    private final ExecutorService executor;
+
+    /** The directory in which generated vocabularies are kept. */
+    private final Path inputs;
+
+    /** The projects, keyed by project id. */
+    private final Map<String, Project> projects =
+            new ConcurrentHashMap<String, Project>();
+
+    /** Constructor. The server is started by {@link #start()}.
+     * @param anInputs The directory in which generated vocabularies
+     *      are kept.
+     * @param port The port on which to listen, or 0, to use any free
+     *      port.
+     * @throws IOException If the server can not be created.
+     */
+    public PoolPartyStandIn(final Path anInputs, final int port)
+            throws IOException {
+        inputs = anInputs;
+        server = HttpServer.create(new InetSocketAddress(
+                InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext(PATH, this::handle);
+        executor = Executors.newCachedThreadPool(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r) {
+                Thread thread = new Thread(r, "PoolPartyStandIn");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        server.setExecutor(executor);
+    }
+
+    /** Add a project.
+     * @param projectId The project id.
+     * @param size The number of concepts of the project.
+     * @param shape The shape of the vocabulary of the project.
+     */
+    public void addProject(final String projectId, final int size,
+            final SkosGenerator.Shape shape) {
+        projects.put(projectId, new Project(size, shape));
+    }
+
+    /** Generate the vocabularies of all the projects in one format,
+     * so that the time taken to do so is not included in the time
+     * taken by harvests.
+     * @param format The format.
+     * @throws IOException If a vocabulary can not be generated.
+     */
+    public void prepare(final RDFFormat format) throws IOException {
+        for (Project project : projects.values()) {
+            getFile(project, format);
+        }
+    }
+
+    /** Start the server. */
+    public void start() {
+        server.start();
+    }
+
+    /** Get the URL of the projects API, for use as the value of
+     * the PoolPartyHarvester.remoteUrl property.
+     * @return The URL of the projects API.
+     */
+    public String getUrl() {
+        return "http://localhost:" + server.getAddress().getPort() + PATH;
+    }
+
+    /** Stop the server. */
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /** Handle a request.
+     * @param exchange The request and response.
+     * @throws IOException If the response can not be sent.
+     */
+    private void handle(final HttpExchange exchange) throws IOException {
+        try {
+            String path = exchange.getRequestURI().getPath().
+                    substring(PATH.length());
+            if (path.isEmpty() || "/".equals(path)) {
+                sendProjectList(exchange);
+                return;
+            }
+            String[] segments = path.substring(1).split("/");
+            if (segments.length != 2 || !"export".equals(segments[1])) {
+                sendError(exchange, NOT_FOUND, "No such resource: " + path);
+                return;
+            }
+            Project project = projects.get(segments[0]);
+            if (project == null) {
+                sendError(exchange, NOT_FOUND,
+                        "No such project: " + segments[0]);
+                return;
+            }
+            Map<String, String> query = parseQuery(
+                    exchange.getRequestURI().getRawQuery());
+            String module = query.get("exportModules");
+            if (METADATA_MODULES.contains(module)) {
+                project = new Project(0, project.shape);
+            } else if (!EXPORT_MODULE.equals(module)) {
+                sendError(exchange, NOT_FOUND,
+                        "Unsupported export module: " + module);
+                return;
+            }
+            RDFFormat format = null;
+            if (query.get("format") != null) {
+                format = RDFFormat.valueOf(query.get("format"));
+            }
+            if (format == null) {
+                sendError(exchange, BAD_REQUEST,
+                        "Unsupported format: " + query.get("format"));
+                return;
+            }
+            Path file = getFile(project, format);
+            exchange.getResponseHeaders().set("Content-Type",
+                    format.getDefaultMIMEType());
+            exchange.sendResponseHeaders(OK, Files.size(file));
+            try (OutputStream out = exchange.getResponseBody()) {
+                Files.copy(file, out);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /** Send the list of projects.
+     * @param exchange The request and response.
+     * @throws IOException If the response can not be sent.
+     */
+    private void sendProjectList(final HttpExchange exchange)
+            throws IOException {
+        ArrayNode list = JsonNodeFactory.instance.arrayNode();
+        for (Map.Entry<String, Project> entry : projects.entrySet()) {
+            ObjectNode project = list.addObject();
+            project.put("id", entry.getKey());
+            project.put("title", entry.getValue().shape + " "
+                    + entry.getValue().size);
+        }
+        byte[] body = MAPPER.writeValueAsBytes(list);
+        exchange.getResponseHeaders().set("Content-Type",
+                "application/json");
+        exchange.sendResponseHeaders(OK, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    /** Send an error response.
+     * @param exchange The request and response.
+     * @param code The HTTP status code.
+     * @param message The message sent as the body of the response.
+     * @throws IOException If the response can not be sent.
+     */
+    private static void sendError(final HttpExchange exchange,
+            final int code, final String message) throws IOException {
+        byte[] body = message.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain");
+        exchange.sendResponseHeaders(code, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    /** Get the file containing the vocabulary of a project,
+     * generating it if necessary. Generation is serialized, so that
+     * concurrent requests do not generate the same file at once.
+     * @param project The project.
+     * @param format The format of the file.
+     * @return The file.
+     * @throws IOException If the file can not be generated.
+     */
+    private synchronized Path getFile(final Project project,
+            final RDFFormat format) throws IOException {
+        Path file = inputs.resolve(SkosGenerator.getFileName(project.size,
+                project.shape, format));
+        SkosGenerator.generate(file, project.size, project.shape, format);
+        return file;
+    }
+
+    /** Parse the query component of a URI.
+     * @param rawQuery The query component, not decoded, or null.
+     * @return The parameters, keyed by name.
+     * @throws UnsupportedEncodingException Not thrown, as UTF-8
+     *      is always supported.
+     */
+    private static Map<String, String> parseQuery(final String rawQuery)
+            throws UnsupportedEncodingException {
+        Map<String, String> query = new HashMap<String, String>();
+        if (rawQuery == null) {
+            return query;
+        }
+        for (String parameter : rawQuery.split("&")) {
+            int equals = parameter.indexOf('=');
+            if (equals > 0) {
+                query.put(URLDecoder.decode(parameter.substring(0, equals),
+                        "UTF-8"), URLDecoder.decode(
+                                parameter.substring(equals + 1), "UTF-8"));
+            }
+        }
+        return query;
+    }
+
+    /** Run the stand-in from the command line, until it is killed.
+     * The arguments are the directory in which generated vocabularies
+     * are kept, the port, the number of concepts and the shape of the
+     * vocabulary of every project, and the project ids, e.g.:
+     * {@code PoolPartyStandIn inputs 8081 1000 DEEP p1 p2}.
+     * @param args The command-line arguments.
+     * @throws IOException If the server can not be started.
+     */
+    public static void main(final String[] args) throws IOException {
+        if (args.length < ARGS + 2) {
+            System.err.println("Usage: PoolPartyStandIn directory port "
+                    + "size shape projectId...");
+            System.exit(1);
+        }
+        PoolPartyStandIn standIn = new PoolPartyStandIn(Paths.get(args[0]),
+                Integer.parseInt(args[1]));
+        int size = Integer.parseInt(args[2]);
+        SkosGenerator.Shape shape = SkosGenerator.Shape.valueOf(
+                args[ARGS].toUpperCase(Locale.ROOT));
+        for (int i = ARGS + 1; i < args.length; i++) {
+            standIn.addProject(args[i], size, shape);
+        }
+        standIn.start();
+        System.out.println("Serving " + (args.length - ARGS - 1)
+                + " projects at " + standIn.getUrl());
+    }
+
+    /** A project served by the stand-in. */
+    private static final class Project {
+
+        /** The number of concepts. */
+        private final int size;
+
+        /** The shape of the vocabulary. */
+        private final SkosGenerator.Shape shape;
+
+        /** Constructor.
+         * @param aSize The number of concepts.
+         * @param aShape The shape of the vocabulary.
+         */
+        private Project(final int aSize, final SkosGenerator.Shape aShape) {
+            size = aSize;
+            shape = aShape;
+        }
+    }
+
+}
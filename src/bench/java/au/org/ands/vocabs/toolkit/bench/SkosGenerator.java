@@ -0,0 +1,319 @@
+/** See the file "LICENSE" for the full license governing this code. */
+package au.org.ands.vocabs.toolkit.bench;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Locale;
+import java.util.Random;
+
+import org.openrdf.model.URI;
+import org.openrdf.model.Value;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.model.impl.ValueFactoryImpl;
+import org.openrdf.model.vocabulary.DCTERMS;
+import org.openrdf.model.vocabulary.RDF;
+import org.openrdf.model.vocabulary.SKOS;
+import org.openrdf.rio.RDFFormat;
+import org.openrdf.rio.RDFHandlerException;
+import org.openrdf.rio.RDFWriter;
+import org.openrdf.rio.Rio;
+
+/** Generator of synthetic SKOS vocabularies, for use as input
+ * to benchmarks. The concepts of a vocabulary form a forest, in which
+ * concept i (counting from 0) has as its broader concept the concept
+ * (i - 1) / fanout, and the shape of the vocabulary determines the
+ * fanout, and what else is generated. Broader and narrower
+ * relationships are both generated, as PoolParty does.
+ * Generation is streamed, so that large vocabularies can be generated
+ * without holding them in memory. The output is deterministic.
+ *
+ * It can also be run from the command line; see {@link #main(String[])}.
+ */
+public final class SkosGenerator {
+
+    /** Namespace of the generated concepts. */
+    private static final String NAMESPACE = "http://example.org/bench/";
+
+    /** Seed for the generation of text. */
+    private static final long SEED = 42;
+
+    /** Languages of the labels of literal-heavy vocabularies. */
+    private static final String[] LANGUAGES = {"en", "fr", "de"};
+
+    /** Number of alternative labels of each concept of literal-heavy
+     * vocabularies, per language. */
+    private static final int ALT_LABELS = 3;
+
+    /** Number of words in the definitions of literal-heavy
+     * vocabularies. */
+    private static final int DEFINITION_WORDS = 60;
+
+    /** Words from which text is generated. */
+    private static final String[] WORDS = {"soil", "water", "carbon",
+        "marine", "climate", "species", "habitat", "sediment", "rock",
+        "mineral", "forest", "river", "coastal", "survey", "sample",
+        "method", "measure", "station", "region", "observation"};
+
+    /** For polyhierarchies, every concept whose number is a multiple
+     * of this has a second broader concept. */
+    private static final int POLY_INTERVAL = 10;
+
+    /** The shape of a generated vocabulary. */
+    public enum Shape {
+        /** Very broad and shallow: each concept has up to 1000
+         * narrower concepts. */
+        FLAT(1000),
+        /** Deep: each concept has up to two narrower concepts, so
+         * the depth is the base-2 logarithm of the size. */
+        DEEP(2),
+        /** A polyhierarchy: like a tree with up to five narrower
+         * concepts per concept, but some concepts also have a second
+         * broader concept, in a different branch. */
+        POLYHIERARCHY(5),
+        /** Literal-heavy: up to ten narrower concepts per concept, and
+         * each concept has labels in several languages, alternative
+         * labels, a long definition, and a scope note. */
+        LITERAL_HEAVY(10);
+
+        /** The maximum number of narrower concepts of a concept. */
+        private final int fanout;
+
+        /** Constructor.
+         * @param aFanout The maximum number of narrower concepts
+         *      of a concept.
+         */
+        Shape(final int aFanout) {
+            fanout = aFanout;
+        }
+    }
+
+    /** Name of the directory, within a benchmark workspace, in which
+     * generated vocabularies are kept. */
+    public static final String INPUTS = "inputs";
+
+    /** Number of command-line arguments. */
+    private static final int ARGS = 4;
+
+    /** Position of the format among the command-line arguments. */
+    private static final int ARG_FORMAT = 3;
+
+    /** The value factory. */
+    private final ValueFactory vf = ValueFactoryImpl.getInstance();
+
+    /** Generator of text. */
+    private final Random random = new Random(SEED);
+
+    /** The writer of the output. */
+    private final RDFWriter writer;
+
+    /** Constructor.
+     * @param aWriter The writer of the output.
+     */
+    private SkosGenerator(final RDFWriter aWriter) {
+        writer = aWriter;
+    }
+
+    /** Generate a vocabulary, unless it has already been generated.
+     * @param file The file to which the vocabulary is written.
+     * @param size The number of concepts.
+     * @param shape The shape of the vocabulary.
+     * @param format The format of the file.
+     * @throws IOException If the file can not be written.
+     */
+    public static void generate(final Path file, final int size,
+            final Shape shape, final RDFFormat format) throws IOException {
+        if (Files.exists(file)) {
+            return;
+        }
+        Files.createDirectories(file.getParent());
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (OutputStream out = new BufferedOutputStream(
+                Files.newOutputStream(temporary))) {
+            new SkosGenerator(Rio.createWriter(format, out)).
+                write(size, shape);
+        } catch (RDFHandlerException e) {
+            throw new IOException("Unable to generate " + file, e);
+        }
+        Files.move(temporary, file);
+    }
+
+    /** Generate a vocabulary from the command line. The arguments are
+     * the file to be written, the number of concepts, the shape, and
+     * the format, e.g.:
+     * {@code SkosGenerator deep-1000.ttl 1000 DEEP TURTLE}.
+     * An existing file is not overwritten.
+     * @param args The command-line arguments.
+     * @throws IOException If the file can not be written.
+     */
+    public static void main(final String[] args) throws IOException {
+        if (args.length != ARGS) {
+            System.err.println("Usage: SkosGenerator file size shape format");
+            System.err.println("  shape: DEEP, FLAT, POLYHIERARCHY, "
+                    + "or LITERAL_HEAVY");
+            System.err.println("  format: RDFXML, TURTLE, NTRIPLES, or TRIG");
+            System.exit(1);
+        }
+        generate(Paths.get(args[0]), Integer.parseInt(args[1]),
+                Shape.valueOf(args[2].toUpperCase(Locale.ROOT)),
+                getFormat(args[ARG_FORMAT]));
+    }
+
+    /** Get an RDF format by the name used in the benchmark parameters.
+     * @param name The name of the format: RDFXML, TURTLE, NTRIPLES,
+     *      or TRIG.
+     * @return The RDF format.
+     * @throws IllegalArgumentException If the format is not supported.
+     */
+    public static RDFFormat getFormat(final String name) {
+        switch (name.toUpperCase(Locale.ROOT)) {
+        case "RDFXML":
+            return RDFFormat.RDFXML;
+        case "TURTLE":
+            return RDFFormat.TURTLE;
+        case "NTRIPLES":
+            return RDFFormat.NTRIPLES;
+        case "TRIG":
+            return RDFFormat.TRIG;
+        default:
+            throw new IllegalArgumentException("Unsupported format: "
+                    + name);
+        }
+    }
+
+    /** Get the name of the file in which a vocabulary is kept,
+     * within a directory of generated vocabularies.
+     * @param size The number of concepts.
+     * @param shape The shape of the vocabulary.
+     * @param format The format of the file.
+     * @return The name of the file.
+     */
+    public static String getFileName(final int size, final Shape shape,
+            final RDFFormat format) {
+        return shape.toString().toLowerCase(Locale.ROOT) + "-" + size
+                + "." + format.getDefaultFileExtension();
+    }
+
+    /** Write a vocabulary.
+     * @param size The number of concepts.
+     * @param shape The shape of the vocabulary.
+     * @throws RDFHandlerException If the vocabulary can not be written.
+     */
+    private void write(final int size, final Shape shape)
+            throws RDFHandlerException {
+        writer.startRDF();
+        writer.handleNamespace("skos", SKOS.NAMESPACE);
+        writer.handleNamespace("dcterms", DCTERMS.NAMESPACE);
+        writer.handleNamespace("bench", NAMESPACE);
+        URI scheme = vf.createURI(NAMESPACE, "scheme");
+        statement(scheme, RDF.TYPE, SKOS.CONCEPT_SCHEME);
+        statement(scheme, DCTERMS.TITLE, vf.createLiteral(
+                "Benchmark vocabulary " + shape + " " + size, "en"));
+        statement(scheme, DCTERMS.DESCRIPTION, vf.createLiteral(
+                text(DEFINITION_WORDS), "en"));
+        statement(scheme, DCTERMS.PUBLISHER,
+                vf.createLiteral("BenchPublisher"));
+        statement(scheme, DCTERMS.CREATOR, vf.createLiteral("BenchCreator"));
+        statement(scheme, DCTERMS.LICENSE, vf.createLiteral("CC-BY"));
+        for (int i = 0; i < size; i++) {
+            URI concept = concept(i);
+            statement(concept, RDF.TYPE, SKOS.CONCEPT);
+            statement(concept, SKOS.IN_SCHEME, scheme);
+            statement(concept, SKOS.NOTATION,
+                    vf.createLiteral(Integer.toString(i)));
+            if (shape == Shape.LITERAL_HEAVY) {
+                writeLiterals(concept, i);
+            } else {
+                statement(concept, SKOS.PREF_LABEL, vf.createLiteral(
+                        WORDS[i % WORDS.length] + " " + i, "en"));
+                statement(concept, SKOS.DEFINITION, vf.createLiteral(
+                        "Definition of concept " + i, "en"));
+            }
+            if (i == 0) {
+                statement(scheme, SKOS.HAS_TOP_CONCEPT, concept);
+            } else {
+                broader(concept, concept((i - 1) / shape.fanout));
+            }
+            if (shape == Shape.POLYHIERARCHY && i > POLY_INTERVAL
+                    && i % POLY_INTERVAL == 0) {
+                // A second broader concept, in the branch
+                // to the "left" of the first.
+                broader(concept,
+                        concept((i - 1) / shape.fanout - 1));
+            }
+        }
+        writer.endRDF();
+    }
+
+    /** Write the literals of a concept of a literal-heavy vocabulary.
+     * @param concept The concept.
+     * @param i The number of the concept.
+     * @throws RDFHandlerException If the literals can not be written.
+     */
+    private void writeLiterals(final URI concept, final int i)
+            throws RDFHandlerException {
+        for (String language : LANGUAGES) {
+            statement(concept, SKOS.PREF_LABEL, vf.createLiteral(
+                    text(2) + " " + i, language));
+            for (int j = 0; j < ALT_LABELS; j++) {
+                statement(concept, SKOS.ALT_LABEL, vf.createLiteral(
+                        text(2) + " " + i + "." + j, language));
+            }
+        }
+        statement(concept, SKOS.DEFINITION, vf.createLiteral(
+                text(DEFINITION_WORDS), "en"));
+        statement(concept, SKOS.SCOPE_NOTE, vf.createLiteral(
+                text(DEFINITION_WORDS / 2), "en"));
+    }
+
+    /** Write the relationships between a concept and one
+     * of its broader concepts.
+     * @param concept The concept.
+     * @param broader The broader concept.
+     * @throws RDFHandlerException If the statements can not be written.
+     */
+    private void broader(final URI concept, final URI broader)
+            throws RDFHandlerException {
+        statement(concept, SKOS.BROADER, broader);
+        statement(broader, SKOS.NARROWER, concept);
+    }
+
+    /** Get the IRI of a concept.
+     * @param i The number of the concept.
+     * @return The IRI of the concept.
+     */
+    private URI concept(final int i) {
+        return vf.createURI(NAMESPACE, "c" + i);
+    }
+
+    /** Write a statement.
+     * @param subject The subject.
+     * @param predicate The predicate.
+     * @param object The object.
+     * @throws RDFHandlerException If the statement can not be written.
+     */
+    private void statement(final URI subject, final URI predicate,
+            final Value object) throws RDFHandlerException {
+        writer.handleStatement(vf.createStatement(subject, predicate,
+                object));
+    }
+
+    /** Generate text.
+     * @param words The number of words.
+     * @return The text.
+     */
+    private String text(final int words) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            if (i > 0) {
+                sb.append(' ');
+            }
+            sb.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return sb.toString();
+    }
+
+}
@@ -0,0 +1,239 @@
+/** See the file "LICENSE" for the full license governing this code. */
+package au.org.ands.vocabs.toolkit.bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openrdf.rio.RDFFormat;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import au.org.ands.vocabs.toolkit.db.model.Task;
+import au.org.ands.vocabs.toolkit.db.model.Version;
+import au.org.ands.vocabs.toolkit.db.model.Vocabulary;
+import au.org.ands.vocabs.toolkit.provider.transform.GetMetadataTransformProvider;
+import au.org.ands.vocabs.toolkit.provider.transform.JsonListTransformProvider;
+import au.org.ands.vocabs.toolkit.provider.transform.JsonTreeTransformProvider;
+import au.org.ands.vocabs.toolkit.provider.transform.PropertyRewriterTransformProvider;
+import au.org.ands.vocabs.toolkit.provider.transform.SolrIndexTransformProvider;
+import au.org.ands.vocabs.toolkit.tasks.TaskInfo;
+import au.org.ands.vocabs.toolkit.utils.ToolkitFileUtils;
+
+/** Benchmarks of the transform providers, run on synthetic SKOS
+ * vocabularies generated by {@link SkosGenerator}. Each benchmark runs
+ * one transform on the harvested data of one version, in the same way
+ * as a task does, but without the database: the task, vocabulary, and
+ * version are constructed, not fetched.
+ *
+ * All the data is kept in the benchmark workspace; see
+ * {@link BenchWorkspace}.
+ *
+ * Run with the "bench" target of build.xml; see README.md.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MINUTES)
+@Fork(1)
+@Warmup(iterations = 2)
+@Measurement(iterations = 3)
+public class TransformBenchmark {
+
+    /** Id of the task of every benchmark. The transform output of
+     * PropertyRewriter uses it in its name. */
+    private static final int TASK_ID = 1;
+
+    /** Name of the temporary directory used by PropertyRewriter. */
+    private static final String REWRITER_NAME = "PropertyRewriter_"
+            + TASK_ID;
+
+    /** The number of concepts of the vocabulary. */
+    @Param({"1000", "10000", "100000", "1000000"})
+    private int size;
+
+    /** The shape of the vocabulary. */
+    @Param({"DEEP", "FLAT", "POLYHIERARCHY", "LITERAL_HEAVY"})
+    private SkosGenerator.Shape shape;
+
+    /** The format of the harvested file. */
+    @Param({"RDFXML", "TURTLE", "NTRIPLES"})
+    private String format;
+
+    /** The task run by the benchmarks. */
+    private TaskInfo taskInfo;
+
+    /** The PoolParty project id used by the GetMetadata benchmark. */
+    private String projectId;
+
+    // The providers load the Toolkit properties when their classes
+    // are initialized, so they are created only once the workspace
+    // has been prepared.
+
+    /** The JsonTree provider. */
+    private JsonTreeTransformProvider jsonTree;
+
+    /** The JsonList provider. */
+    private JsonListTransformProvider jsonList;
+
+    /** The SolrIndex provider. */
+    private SolrIndexTransformProvider solrIndex;
+
+    /** The PropertyRewriter provider. */
+    private PropertyRewriterTransformProvider propertyRewriter;
+
+    /** The GetMetadata provider. */
+    private GetMetadataTransformProvider getMetadata;
+
+    /** Prepare the workspace, and the harvested data of the version.
+     * @throws IOException If the workspace can not be prepared.
+     */
+    @Setup(Level.Trial)
+    public final void setUp() throws IOException {
+        Path workspace = BenchWorkspace.getRoot();
+        BenchWorkspace.configure(workspace, new Properties());
+        RDFFormat rdfFormat = SkosGenerator.getFormat(format);
+        String name = shape.toString().toLowerCase(Locale.ROOT) + "-" + size;
+        Path input = workspace.resolve(SkosGenerator.INPUTS).resolve(
+                SkosGenerator.getFileName(size, shape, rdfFormat));
+        SkosGenerator.generate(input, size, shape, rdfFormat);
+        jsonTree = new JsonTreeTransformProvider();
+        jsonList = new JsonListTransformProvider();
+        solrIndex = new SolrIndexTransformProvider();
+        propertyRewriter = new PropertyRewriterTransformProvider();
+        getMetadata = new GetMetadataTransformProvider();
+
+        Vocabulary vocabulary = new Vocabulary();
+        vocabulary.setOwner("bench");
+        vocabulary.setSlug(name);
+        Version version = new Version();
+        version.setTitle(format);
+        version.setStatus("current");
+        Task task = new Task();
+        task.setId(TASK_ID);
+        taskInfo = new TaskInfo(task, vocabulary, version);
+
+        FileUtils.deleteQuietly(Paths.get(
+                ToolkitFileUtils.getTaskOutputPath(taskInfo, null)).toFile());
+        copyInput(input,
+                Paths.get(ToolkitFileUtils.getTaskHarvestOutputPath(taskInfo)));
+        projectId = name + "-" + format;
+        copyInput(input,
+                Paths.get(ToolkitFileUtils.getMetadataOutputPath(projectId)));
+    }
+
+    /** Put back the harvested data replaced by PropertyRewriter, so
+     * that each invocation has the same input.
+     * @throws IOException If the data can not be put back.
+     */
+    @TearDown(Level.Invocation)
+    public final void restoreHarvest() throws IOException {
+        Path before = Paths.get(ToolkitFileUtils.getTaskOutputPath(taskInfo,
+                "before_" + REWRITER_NAME));
+        if (Files.exists(before)) {
+            Path harvest = Paths.get(
+                    ToolkitFileUtils.getTaskHarvestOutputPath(taskInfo));
+            FileUtils.deleteDirectory(harvest.toFile());
+            Files.move(before, harvest);
+        }
+    }
+
+    /** Run JsonTree.
+     * @return The results of the transform.
+     */
+    @Benchmark
+    public final HashMap<String, String> jsonTree() {
+        return transform(jsonTree::transform);
+    }
+
+    /** Run JsonList.
+     * @return The results of the transform.
+     */
+    @Benchmark
+    public final HashMap<String, String> jsonList() {
+        return transform(jsonList::transform);
+    }
+
+    /** Run SolrIndex.
+     * @return The results of the transform.
+     */
+    @Benchmark
+    public final HashMap<String, String> solrIndex() {
+        return transform(solrIndex::transform);
+    }
+
+    /** Run PropertyRewriter.
+     * @return The results of the transform.
+     */
+    @Benchmark
+    public final HashMap<String, String> propertyRewriter() {
+        return transform(propertyRewriter::transform);
+    }
+
+    /** Run GetMetadata. This provider is not run as a subtask, but
+     * on the files harvested from a PoolParty project for metadata.
+     * @return The results of the metadata extraction.
+     */
+    @Benchmark
+    public final HashMap<String, Object> getMetadata() {
+        return getMetadata.extractMetadata(projectId);
+    }
+
+    /** Run a transform, and check that it succeeded.
+     * @param transform The transform.
+     * @return The results of the transform.
+     */
+    private HashMap<String, String> transform(final Transform transform) {
+        HashMap<String, String> results = new HashMap<String, String>();
+        if (!transform.run(taskInfo, null, results)) {
+            throw new IllegalStateException("Transform failed: " + results);
+        }
+        return results;
+    }
+
+    /** Copy the input file into an empty directory.
+     * @param input The input file.
+     * @param dir The directory.
+     * @throws IOException If the file can not be copied.
+     */
+    private static void copyInput(final Path input, final Path dir)
+            throws IOException {
+        FileUtils.deleteQuietly(dir.toFile());
+        Files.createDirectories(dir);
+        Files.copy(input, dir.resolve(input.getFileName()));
+    }
+
+    /** The transform method of a transform provider. */
+    @FunctionalInterface
+    private interface Transform {
+
+        /** Run the transform.
+         * @param taskInfo The task.
+         * @param subtask The subtask; the providers benchmarked
+         *      here do not use it.
+         * @param results The results of the transform.
+         * @return True, iff the transform succeeded.
+         */
+        boolean run(TaskInfo taskInfo, JsonNode subtask,
+                HashMap<String, String> results);
+    }
+
+}
@@ -5,9 +5,14 @@ import java.io.IOException;
 import java.lang.invoke.MethodHandles;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Hashtable;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Properties;
 
@@ -26,6 +31,7 @@ import com.fasterxml.jackson.databind.JsonNode;
 import au.org.ands.vocabs.toolkit.db.model.AccessPoint;
 import au.org.ands.vocabs.toolkit.db.model.Version;
 import au.org.ands.vocabs.toolkit.restlet.Download;
+import au.org.ands.vocabs.toolkit.restlet.DownloadCache;
 import au.org.ands.vocabs.toolkit.utils.PropertyConstants;
 import au.org.ands.vocabs.toolkit.utils.ToolkitProperties;
 
@@ -118,7 +124,8 @@ public final class AccessPointUtils {
      * @return A list of AccessPoints
      */
     public static List<AccessPoint> getAllAccessPoints() {
-        EntityManager em = DBContext.getEntityManager();
+        EntityManager em = DBContext.getEntityManager(
+                "AccessPointUtils.getAllAccessPoints");
         TypedQuery<AccessPoint> query =
                 em.createNamedQuery(AccessPoint.GET_ALL_ACCESSPOINTS,
                         AccessPoint.class);
@@ -132,7 +139,8 @@ public final class AccessPointUtils {
      * @return the access point
      */
     public static AccessPoint getAccessPointById(final int id) {
-        EntityManager em = DBContext.getEntityManager();
+        EntityManager em = DBContext.getEntityManager(
+                "AccessPointUtils.getAccessPointById");
         AccessPoint ap = em.find(AccessPoint.class, id);
         em.close();
         return ap;
@@ -144,7 +152,8 @@ public final class AccessPointUtils {
      */
     public static List<AccessPoint> getAccessPointsForVersion(
             final Version version) {
-        EntityManager em = DBContext.getEntityManager();
+        EntityManager em = DBContext.getEntityManager(
+                "AccessPointUtils.getAccessPointsForVersion");
         TypedQuery<AccessPoint> q = em.createNamedQuery(
                 AccessPoint.GET_ACCESSPOINTS_FOR_VERSION,
                 AccessPoint.class).
@@ -163,7 +172,8 @@ public final class AccessPointUtils {
      */
     public static List<AccessPoint> getAccessPointsForVersionAndType(
             final Version version, final String type) {
-        EntityManager em = DBContext.getEntityManager();
+        EntityManager em = DBContext.getEntityManager(
+                "AccessPointUtils.getAccessPointsForVersionAndType");
         TypedQuery<AccessPoint> q = em.createNamedQuery(
                 AccessPoint.GET_ACCESSPOINTS_FOR_VERSION_AND_TYPE,
                 AccessPoint.class).
@@ -184,7 +194,8 @@ public final class AccessPointUtils {
      */
     public static void deleteAccessPointsForVersionAndType(
             final Version version, final String type) {
-        EntityManager em = DBContext.getEntityManager();
+        EntityManager em = DBContext.getEntityManager(
+                "AccessPointUtils.deleteAccessPointsForVersionAndType");
         em.getTransaction().begin();
         Query q = em.createNamedQuery(
                 AccessPoint.DELETE_ACCESSPOINTS_FOR_VERSION_AND_TYPE).
@@ -196,6 +207,10 @@ public final class AccessPointUtils {
         q.executeUpdate();
         em.getTransaction().commit();
         em.close();
+        // A bulk delete bypasses the persistence context, so evict
+        // all access points from the second-level cache.
+        DBContext.evictAll(AccessPoint.class);
+        DownloadCache.invalidateVersion(version.getId());
     }
 
     /** Get the portal's format setting for a file access point.
@@ -208,8 +223,7 @@ public final class AccessPointUtils {
             // Not the right type.
             return null;
         }
-        JsonNode dataJson = TaskUtils.jsonStringToTree(ap.getPortalData());
-        JsonNode format = dataJson.get("format");
+        JsonNode format = ap.getPortalDataJson().get("format");
         if (format == null) {
             return null;
         }
@@ -227,17 +241,28 @@ public final class AccessPointUtils {
             // Not the right type.
             return;
         }
-        JsonNode dataJson = TaskUtils.jsonStringToTree(ap.getPortalData());
+        setFormat(ap, newFormat);
+        updateAccessPoint(ap);
+    }
+
+    /** Set the portal's format setting for a file access point,
+     * without saving the change to the database.
+     * @param ap the access point
+     * @param newFormat the access point's new format setting.
+     */
+    private static void setFormat(final AccessPoint ap,
+            final String newFormat) {
         JsonObjectBuilder jobPortal = Json.createObjectBuilder();
         Iterator<Entry<String, JsonNode>> dataJsonIterator =
-                dataJson.fields();
+                ap.getPortalDataJson().fields();
         while (dataJsonIterator.hasNext()) {
             Entry<String, JsonNode> entry = dataJsonIterator.next();
-            jobPortal.add(entry.getKey(), entry.getValue().asText());
+            if (!"format".equals(entry.getKey())) {
+                jobPortal.add(entry.getKey(), entry.getValue().asText());
+            }
         }
         jobPortal.add("format", newFormat);
         ap.setPortalData(jobPortal.build().toString());
-        updateAccessPoint(ap);
     }
 
     /** Get the Toolkit's path setting for a file access point.
@@ -250,8 +275,7 @@ public final class AccessPointUtils {
             // Not the right type.
             return null;
         }
-        JsonNode dataJson = TaskUtils.jsonStringToTree(ap.getToolkitData());
-        JsonNode path = dataJson.get("path");
+        JsonNode path = ap.getToolkitDataJson().get("path");
         if (path == null) {
             return null;
         }
@@ -269,8 +293,7 @@ public final class AccessPointUtils {
             // Not the right type.
             return null;
         }
-        JsonNode dataJson = TaskUtils.jsonStringToTree(ap.getPortalData());
-        JsonNode uri = dataJson.get("uri");
+        JsonNode uri = ap.getPortalDataJson().get("uri");
         if (uri == null) {
             return null;
         }
@@ -287,8 +310,7 @@ public final class AccessPointUtils {
             // Not the right type.
             return null;
         }
-        JsonNode dataJson = TaskUtils.jsonStringToTree(ap.getToolkitData());
-        JsonNode uri = dataJson.get("uri");
+        JsonNode uri = ap.getToolkitDataJson().get("uri");
         if (uri == null) {
             return null;
         }
@@ -299,22 +321,35 @@ public final class AccessPointUtils {
      * @param ap The access point to be saved.
      */
     public static void saveAccessPoint(final AccessPoint ap) {
-        EntityManager em = DBContext.getEntityManager();
+        EntityManager em = DBContext.getEntityManager(
+                "AccessPointUtils.saveAccessPoint");
         em.getTransaction().begin();
         em.persist(ap);
         em.getTransaction().commit();
         em.close();
+        invalidateCaches(ap.getId());
     }
 
     /** Update an existing access point in the database.
      * @param ap The access point to be update.
      */
     public static void updateAccessPoint(final AccessPoint ap) {
-        EntityManager em = DBContext.getEntityManager();
+        EntityManager em = DBContext.getEntityManager(
+                "AccessPointUtils.updateAccessPoint");
         em.getTransaction().begin();
         em.merge(ap);
         em.getTransaction().commit();
         em.close();
+        invalidateCaches(ap.getId());
+    }
+
+    /** Invalidate cached copies of an access point, after it
+     * has been saved or updated.
+     * @param id The id of the access point.
+     */
+    private static void invalidateCaches(final Integer id) {
+        DBContext.evict(AccessPoint.class, id);
+        DownloadCache.invalidate(id);
     }
 
     /** Create an access point for a version, for a file. Don't duplicate it,
@@ -327,82 +362,133 @@ public final class AccessPointUtils {
     public static void createFileAccessPoint(final Version version,
             final String format,
             final Path targetPath) {
-        String targetPathString;
-        try {
-            targetPathString = targetPath.toRealPath().toString();
-        } catch (IOException e) {
-            LOGGER.error("createFileAccessPoint failed calling "
-                    + "toRealPath() on file: " + targetPath.toString(), e);
-            // Try toAbsolutePath() instead.
-            targetPathString = targetPath.toAbsolutePath().toString();
+        createFileAccessPoints(version, format,
+                Collections.singletonList(targetPath));
+    }
+
+    /** Create access points for a version, for a collection of files.
+     * Don't duplicate any of them, if they already exist.
+     * All of the work is done within one transaction.
+     * @param version The version for which the access points are to be
+     * created.
+     * @param format The format of the access points. If null, attempt
+     * to deduce a format from each filename.
+     * @param targetPaths The paths to the existing files.
+     */
+    public static void createFileAccessPoints(final Version version,
+            final String format,
+            final Collection<Path> targetPaths) {
+        if (targetPaths.isEmpty()) {
+            return;
         }
-        List<AccessPoint> aps = getAccessPointsForVersionAndType(
-                version, AccessPoint.FILE_TYPE);
-        for (AccessPoint ap : aps) {
-            if (targetPathString.equals(getToolkitPath(ap))) {
+        EntityManager em = DBContext.getEntityManager(
+                "AccessPointUtils.createFileAccessPoints");
+        em.getTransaction().begin();
+        TypedQuery<AccessPoint> q = em.createNamedQuery(
+                AccessPoint.GET_ACCESSPOINTS_FOR_VERSION_AND_TYPE,
+                AccessPoint.class).
+                setParameter(AccessPoint.
+                        GET_ACCESSPOINTS_FOR_VERSION_AND_TYPE_VERSIONID,
+                        version.getId()).
+                setParameter(AccessPoint.
+                        GET_ACCESSPOINTS_FOR_VERSION_AND_TYPE_TYPE,
+                        AccessPoint.FILE_TYPE);
+        // Index the existing access points by path.
+        Map<String, AccessPoint> existingAps =
+                new HashMap<String, AccessPoint>();
+        for (AccessPoint ap : q.getResultList()) {
+            existingAps.put(getToolkitPath(ap), ap);
+        }
+        List<Integer> changedIds = new ArrayList<Integer>();
+        for (Path targetPath : targetPaths) {
+            String targetPathString;
+            try {
+                targetPathString = targetPath.toRealPath().toString();
+            } catch (IOException e) {
+                LOGGER.error("createFileAccessPoints failed calling "
+                        + "toRealPath() on file: " + targetPath.toString(), e);
+                // Try toAbsolutePath() instead.
+                targetPathString = targetPath.toAbsolutePath().toString();
+            }
+            AccessPoint ap = existingAps.get(targetPathString);
+            if (ap != null) {
                 // Already exists. Check the format.
                 if (format != null && !format.equals(getFormat(ap))) {
-                    // Format changed.
-                    updateFormat(ap, format);
+                    // Format changed. The access point is managed,
+                    // so the change is saved on commit.
+                    setFormat(ap, format);
+                    changedIds.add(ap.getId());
                 }
-                return;
+                continue;
             }
+            // No existing access point for this file, so create a new one.
+            ap = new AccessPoint();
+            ap.setVersionId(version.getId());
+            ap.setType(AccessPoint.FILE_TYPE);
+            JsonObjectBuilder jobPortal = Json.createObjectBuilder();
+            JsonObjectBuilder jobToolkit = Json.createObjectBuilder();
+            jobToolkit.add("path", targetPathString);
+            // toolkitData is now done.
+            ap.setToolkitData(jobToolkit.build().toString());
+            ap.setPortalData("");
+            // Persist what we have ...
+            em.persist(ap);
+            em.flush();
+            // ... so that now we can get access to the
+            // ID of the persisted object with ap.getId().
+            String baseFilename = targetPath.getFileName().toString();
+            jobPortal.add("uri", downloadPrefixProperty + ap.getId()
+                    + "/" + baseFilename);
+            if (format == null) {
+                // The format was not provided to us, so try to deduce it.
+                jobPortal.add("format",
+                        deduceFormat(targetPath, baseFilename));
+            } else {
+                // The format was provided to us, so use that. Much easier.
+                jobPortal.add("format", format);
+            }
+            // portalData is now complete.
+            ap.setPortalData(jobPortal.build().toString());
+            existingAps.put(targetPathString, ap);
+            changedIds.add(ap.getId());
         }
-        // No existing access point for this file, so create a new one.
-        AccessPoint ap = new AccessPoint();
-        ap.setVersionId(version.getId());
-        ap.setType(AccessPoint.FILE_TYPE);
-        JsonObjectBuilder jobPortal = Json.createObjectBuilder();
-        JsonObjectBuilder jobToolkit = Json.createObjectBuilder();
-        jobToolkit.add("path", targetPathString);
-        // toolkitData is now done.
-        ap.setToolkitData(jobToolkit.build().toString());
-        ap.setPortalData("");
-        // Persist what we have ...
-        AccessPointUtils.saveAccessPoint(ap);
-        // ... so that now we can get access to the
-        // ID of the persisted object with ap.getId().
-        String baseFilename = targetPath.getFileName().toString();
-        jobPortal.add("uri", downloadPrefixProperty + ap.getId()
-                + "/" + baseFilename);
-        // Now work on the format. The following is messy. It's really very
-        // much for the best if the portal provides the format.
-        String deducedFormat;
-        if (format == null) {
-            // The format was not provided to us, so try to deduce it.
-            // First, try the extension.
-            String extension = FilenameUtils.getExtension(baseFilename);
-            deducedFormat = EXTENSION_TO_FILE_FORMAT_MAP.get(extension);
-            if (deducedFormat == null) {
-                // No luck with the extension, so try probing.
-                try {
-                    String mimeType = Files.probeContentType(targetPath);
-                    if (mimeType == null) {
-                        // Give up.
-                        deducedFormat = "Unknown";
-                    } else {
-                        deducedFormat = MIMETYPE_TO_FILE_FORMAT_MAP
-                                .get(mimeType);
-                        if (deducedFormat == null) {
-                            // Give up.
-                            deducedFormat = "Unknown";
-                        }
-                    }
-                } catch (IOException e) {
-                    LOGGER.error("createFileAccessPoint failed to get "
-                            + "MIME type of file: " + targetPathString, e);
-                    // Give up.
-                    deducedFormat = "Unknown";
-                }
+        em.getTransaction().commit();
+        em.close();
+        for (Integer id : changedIds) {
+            invalidateCaches(id);
+        }
+    }
+
+    /** Deduce the format of a file. The following is messy. It's really
+     * very much for the best if the portal provides the format.
+     * @param targetPath The path to the file.
+     * @param baseFilename The filename component of the path.
+     * @return The deduced format, or "Unknown", if the format could
+     * not be deduced.
+     */
+    private static String deduceFormat(final Path targetPath,
+            final String baseFilename) {
+        // First, try the extension.
+        String extension = FilenameUtils.getExtension(baseFilename);
+        String deducedFormat = EXTENSION_TO_FILE_FORMAT_MAP.get(extension);
+        if (deducedFormat != null) {
+            return deducedFormat;
+        }
+        // No luck with the extension, so try probing.
+        try {
+            String mimeType = Files.probeContentType(targetPath);
+            if (mimeType != null) {
+                deducedFormat = MIMETYPE_TO_FILE_FORMAT_MAP.get(mimeType);
             }
-        } else {
-            // The format was provided to us, so use that. Much easier.
-            deducedFormat = format;
+        } catch (IOException e) {
+            LOGGER.error("createFileAccessPoints failed to get "
+                    + "MIME type of file: " + targetPath.toString(), e);
         }
-        jobPortal.add("format", deducedFormat);
-        // portalData is now complete.
-        ap.setPortalData(jobPortal.build().toString());
-        AccessPointUtils.updateAccessPoint(ap);
+        if (deducedFormat == null) {
+            // Give up.
+            return "Unknown";
+        }
+        return deducedFormat;
     }
 
     /** Create an access point for a version, for a SPARQL endpoint.
@@ -460,17 +546,26 @@ public final class AccessPointUtils {
         JsonObjectBuilder jobToolkit = Json.createObjectBuilder();
         jobToolkit.add("uri", toolkitUri);
         ap.setToolkitData(jobToolkit.build().toString());
+        // The filename doesn't depend on the ID, so work it out
+        // before starting the transaction.
+        String downloadFilename = Download.downloadFilename(ap, "");
+        EntityManager em = DBContext.getEntityManager(
+                "AccessPointUtils.createSesameDownloadAccessPoint");
+        em.getTransaction().begin();
         // Persist what we have ...
-        AccessPointUtils.saveAccessPoint(ap);
+        em.persist(ap);
+        em.flush();
         // ... so that now we can get access to the
         // ID of the persisted object with ap.getId().
         JsonObjectBuilder jobPortal = Json.createObjectBuilder();
         jobPortal.add("uri",
                 downloadPrefixProperty + ap.getId()
                 + "/"
-                + Download.downloadFilename(ap, ""));
+                + downloadFilename);
         ap.setPortalData(jobPortal.build().toString());
-        AccessPointUtils.updateAccessPoint(ap);
+        em.getTransaction().commit();
+        em.close();
+        invalidateCaches(ap.getId());
     }
 
     /** Create a sissvoc access point for a version.
@@ -0,0 +1,226 @@
+/** See the file "LICENSE" for the full license governing this code. */
+package au.org.ands.vocabs.toolkit.db;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.persistence.EntityManager;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Predicate;
+import javax.persistence.criteria.Root;
+
+import au.org.ands.vocabs.toolkit.db.model.BulkJob;
+import au.org.ands.vocabs.toolkit.db.model.Version;
+import au.org.ands.vocabs.toolkit.db.model.Vocabulary;
+import au.org.ands.vocabs.toolkit.tasks.TaskStatus;
+
+/** Work with database bulk jobs. Leases on bulk jobs work in the
+ * same way as leases on tasks; see {@link TaskLeaseUtils}. */
+public final class BulkJobUtils {
+
+    /** The statuses of jobs that have not finished. */
+    private static final List<String> UNFINISHED_STATUSES =
+            Arrays.asList(BulkJob.STATUS_QUEUED, BulkJob.STATUS_RUNNING);
+
+    /** Private constructor for a utility class. */
+    private BulkJobUtils() {
+    }
+
+    /** Get a bulk job by id.
+     * @param id The id of the job.
+     * @return The job, or null, if there is no job with this id.
+     */
+    public static BulkJob getBulkJobById(final int id) {
+        EntityManager em = DBContext.getEntityManager(
+                "BulkJobUtils.getBulkJobById");
+        BulkJob job = em.find(BulkJob.class, id);
+        em.close();
+        return job;
+    }
+
+    /** Save a new bulk job to the database. On return, the job's
+     * id has been set.
+     * @param job The job to be saved.
+     */
+    public static void saveBulkJob(final BulkJob job) {
+        EntityManager em = DBContext.getEntityManager(
+                "BulkJobUtils.saveBulkJob");
+        em.getTransaction().begin();
+        em.persist(job);
+        em.getTransaction().commit();
+        em.close();
+    }
+
+    /** Save the status and progress of a bulk job, unless it has
+     * been cancelled. Only the status and progress columns are
+     * updated, so that neither the lease on the job, nor a
+     * cancellation made by another node, is overwritten.
+     * @param job The job, with its status and progress set.
+     * @return True, iff the job was updated; false, if it has been
+     *      given status {@link TaskStatus#CANCELLED}.
+     */
+    public static boolean updateBulkJobProgress(final BulkJob job) {
+        return TaskLeaseUtils.executeUpdate(BulkJob.UPDATE_BULK_JOB_PROGRESS,
+                BulkJob.LEASE_ID, job.getId(),
+                BulkJob.UPDATE_STATUS, job.getStatus(),
+                BulkJob.UPDATE_LAST_VERSION_ID, job.getLastVersionId(),
+                BulkJob.UPDATE_PROCESSED, job.getProcessed(),
+                BulkJob.UPDATE_FAILED, job.getFailed(),
+                BulkJob.UPDATE_ELAPSED_MS, job.getElapsedMillis(),
+                BulkJob.UPDATE_CANCELLED, TaskStatus.CANCELLED) == 1;
+    }
+
+    /** Give a bulk job that has not finished status
+     * {@link TaskStatus#CANCELLED}. Only the status is updated.
+     * @param jobId The id of the job.
+     * @return True, iff the job was cancelled; false, if there is
+     *      no such job, or it has already finished.
+     */
+    public static boolean cancelBulkJob(final int jobId) {
+        return TaskLeaseUtils.executeUpdate(BulkJob.CANCEL_BULK_JOB,
+                BulkJob.LEASE_ID, jobId,
+                BulkJob.UPDATE_STATUS, TaskStatus.CANCELLED,
+                BulkJob.LEASE_STATUSES, UNFINISHED_STATUSES) == 1;
+    }
+
+    /** Get the ids of the versions selected by a bulk job, in
+     * ascending order.
+     * @param job The job.
+     * @param afterId If not null, only ids greater than this
+     *      are returned.
+     * @param limit The maximum number of ids to return.
+     * @return The ids of the selected versions.
+     */
+    public static List<Integer> getSelectedVersionIds(final BulkJob job,
+            final Integer afterId, final int limit) {
+        EntityManager em = DBContext.getEntityManager(
+                "BulkJobUtils.getSelectedVersionIds");
+        CriteriaBuilder cb = em.getCriteriaBuilder();
+        CriteriaQuery<Integer> cq = cb.createQuery(Integer.class);
+        Root<Version> v = cq.from(Version.class);
+        cq.select(v.<Integer>get("id"));
+        List<Predicate> predicates = selectionPredicates(job, cb, cq, v);
+        if (afterId != null) {
+            predicates.add(cb.gt(v.<Integer>get("id"), afterId));
+        }
+        cq.where(predicates.toArray(new Predicate[predicates.size()]));
+        cq.orderBy(cb.asc(v.get("id")));
+        List<Integer> ids = em.createQuery(cq).
+                setMaxResults(limit).
+                getResultList();
+        em.close();
+        return ids;
+    }
+
+    /** Count the versions selected by a bulk job.
+     * @param job The job.
+     * @return The number of selected versions.
+     */
+    public static int countSelectedVersions(final BulkJob job) {
+        EntityManager em = DBContext.getEntityManager(
+                "BulkJobUtils.countSelectedVersions");
+        CriteriaBuilder cb = em.getCriteriaBuilder();
+        CriteriaQuery<Long> cq = cb.createQuery(Long.class);
+        Root<Version> v = cq.from(Version.class);
+        cq.select(cb.count(v));
+        List<Predicate> predicates = selectionPredicates(job, cb, cq, v);
+        cq.where(predicates.toArray(new Predicate[predicates.size()]));
+        Long count = em.createQuery(cq).getSingleResult();
+        em.close();
+        return count.intValue();
+    }
+
+    /** Build the predicates that express the selection of versions
+     * of a bulk job.
+     * @param job The job.
+     * @param cb The CriteriaBuilder.
+     * @param cq The query.
+     * @param v The root of the query.
+     * @return The predicates, in a list to which more may be added.
+     */
+    private static List<Predicate> selectionPredicates(final BulkJob job,
+            final CriteriaBuilder cb, final CriteriaQuery<?> cq,
+            final Root<Version> v) {
+        List<Predicate> predicates = new ArrayList<Predicate>();
+        if (job.getVocabularyId() != null) {
+            predicates.add(cb.equal(v.get("vocabId"), job.getVocabularyId()));
+        }
+        if (job.getVersionStatus() != null) {
+            predicates.add(cb.equal(v.get("status"), job.getVersionStatus()));
+        }
+        if (job.getOwner() != null) {
+            Root<Vocabulary> voc = cq.from(Vocabulary.class);
+            predicates.add(cb.equal(voc.get("id"), v.get("vocabId")));
+            predicates.add(cb.equal(voc.get("owner"), job.getOwner()));
+        }
+        return predicates;
+    }
+
+    /** Claim a bulk job. A job can be claimed only if it has not
+     * finished, and nobody holds an unexpired lease on it.
+     * @param jobId The id of the job.
+     * @param owner The owner of the lease.
+     * @param duration How long the lease lasts, in milliseconds.
+     * @return True, iff the job was claimed.
+     */
+    public static boolean claimBulkJob(final int jobId, final String owner,
+            final long duration) {
+        long now = System.currentTimeMillis();
+        return TaskLeaseUtils.executeUpdate(BulkJob.CLAIM_BULK_JOB,
+                BulkJob.LEASE_ID, jobId,
+                BulkJob.LEASE_OWNER, owner,
+                BulkJob.LEASE_EXPIRY, now + duration,
+                BulkJob.LEASE_STATUSES, UNFINISHED_STATUSES,
+                BulkJob.LEASE_NOW, now) == 1;
+    }
+
+    /** Renew the lease on a bulk job.
+     * @param jobId The id of the job.
+     * @param owner The owner of the lease.
+     * @param duration How long the renewed lease lasts,
+     *      in milliseconds.
+     * @return True, iff the lease was renewed.
+     */
+    public static boolean renewBulkJobLease(final int jobId,
+            final String owner, final long duration) {
+        return TaskLeaseUtils.executeUpdate(BulkJob.RENEW_BULK_JOB_LEASE,
+                BulkJob.LEASE_ID, jobId,
+                BulkJob.LEASE_OWNER, owner,
+                BulkJob.LEASE_EXPIRY,
+                System.currentTimeMillis() + duration) == 1;
+    }
+
+    /** Release the lease on a bulk job.
+     * @param jobId The id of the job.
+     * @param owner The owner of the lease.
+     */
+    public static void releaseBulkJobLease(final int jobId,
+            final String owner) {
+        TaskLeaseUtils.executeUpdate(BulkJob.RELEASE_BULK_JOB_LEASE,
+                BulkJob.LEASE_ID, jobId,
+                BulkJob.LEASE_OWNER, owner);
+    }
+
+    /** Get the ids of bulk jobs that have not finished, and on which
+     * nobody holds an unexpired lease.
+     * @return The ids of the jobs, in ascending order.
+     */
+    public static List<Integer> getResumableBulkJobIds() {
+        EntityManager em = DBContext.getEntityManager(
+                "BulkJobUtils.getResumableBulkJobIds");
+        try {
+            return em.createNamedQuery(BulkJob.GET_RESUMABLE_BULK_JOB_IDS,
+                    Integer.class).
+                    setParameter(BulkJob.LEASE_STATUSES,
+                            UNFINISHED_STATUSES).
+                    setParameter(BulkJob.LEASE_NOW,
+                            System.currentTimeMillis()).
+                    getResultList();
+        } finally {
+            em.close();
+        }
+    }
+
+}
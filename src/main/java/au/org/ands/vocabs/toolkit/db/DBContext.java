@@ -1,10 +1,25 @@
 /** See the file "LICENSE" for the full license governing this code. */
 package au.org.ands.vocabs.toolkit.db;
 
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+
 import javax.persistence.EntityManager;
 import javax.persistence.EntityManagerFactory;
+import javax.persistence.EntityTransaction;
 import javax.persistence.Persistence;
+import javax.persistence.Query;
+
+import org.hibernate.jpa.HibernateEntityManagerFactory;
+import org.hibernate.stat.SecondLevelCacheStatistics;
+import org.hibernate.stat.Statistics;
 
+import au.org.ands.vocabs.toolkit.utils.Metrics;
 import au.org.ands.vocabs.toolkit.utils.ToolkitProperties;
 
 /** Provide access to the vocabulary database. */
@@ -13,27 +28,310 @@ public final class DBContext {
     /** The persistence unit name as specified in persistence.xml. */
     public static final String UNIT_NAME = "ANDS-Vocabs-Toolkit";
 
-    /** Access to persistence context. */
-    private static EntityManagerFactory entityManagerFactory =
-            Persistence.createEntityManagerFactory(UNIT_NAME,
-                    ToolkitProperties.getProperties());
+    /** Name of the Hibernate property that specifies the cache
+     * region factory. The second-level cache is only enabled if
+     * this property is set in the Toolkit properties. */
+    public static final String CACHE_REGION_FACTORY_PROPERTY =
+            "hibernate.cache.region.factory_class";
+
+    /** Timer of the uses of entity managers returned by
+     * {@link #getEntityManager(String)}, from creation to closing. */
+    private static final Metrics.Histogram DB_OPERATION_SECONDS =
+            Metrics.timer("db_operation_duration_seconds",
+                    "Time taken by database operations.", "operation");
+
+    /** Counter of the uses of entity managers returned by
+     * {@link #getEntityManager(String)}, by outcome. */
+    private static final Metrics.Counter DB_OPERATIONS =
+            Metrics.counter("db_operations_total",
+                    "Database operations, by outcome.", "operation",
+                    Metrics.OUTCOME);
+
+    /** Access to persistence context. It is created on first use,
+     * by {@link #getEntityManagerFactory()}, rather than in a static
+     * initializer, so that if it can not be created, e.g., because
+     * the database is not available, a later attempt can succeed. */
+    private static EntityManagerFactory entityManagerFactory;
+
+    /** Whether {@link #doShutdown()} has been called. */
+    private static boolean shutdown;
 
     /** Private constructor for a utility class. */
     private DBContext() {
     }
 
+    /** Get the EntityManagerFactory, creating it if it
+     * has not yet been created.
+     * @return The EntityManagerFactory.
+     * @throws javax.persistence.PersistenceException If the
+     *      EntityManagerFactory can not be created.
+     * @throws IllegalStateException If {@link #doShutdown()}
+     *      has been called.
+     */
+    private static synchronized EntityManagerFactory getEntityManagerFactory() {
+        if (shutdown) {
+            throw new IllegalStateException("Database access has been "
+                    + "shut down");
+        }
+        if (entityManagerFactory == null) {
+            entityManagerFactory = Persistence.createEntityManagerFactory(
+                    UNIT_NAME, getPersistenceProperties());
+        }
+        return entityManagerFactory;
+    }
+
+    /** Get the properties with which to create the
+     * EntityManagerFactory. These are the Toolkit properties, with
+     * settings for the second-level cache added.
+     * The entity classes are marked as Cacheable,
+     * and persistence.xml enables caching of them.
+     * If no cache region factory has been configured, Hibernate
+     * would refuse to start, so in that case, caching is turned off.
+     * If a cache region factory has been configured, the query cache
+     * is enabled and read-write concurrency is used by default, unless
+     * the Toolkit properties say otherwise.
+     * @return The properties to be used to create the
+     *      EntityManagerFactory.
+     */
+    private static Properties getPersistenceProperties() {
+        Properties props = new Properties();
+        props.putAll(ToolkitProperties.getProperties());
+        if (props.getProperty(CACHE_REGION_FACTORY_PROPERTY) == null) {
+            props.setProperty("javax.persistence.sharedCache.mode", "NONE");
+            props.setProperty("hibernate.cache.use_second_level_cache",
+                    "false");
+            props.setProperty("hibernate.cache.use_query_cache", "false");
+        } else {
+            setDefault(props, "hibernate.cache.use_second_level_cache",
+                    "true");
+            setDefault(props, "hibernate.cache.use_query_cache", "true");
+            setDefault(props,
+                    "hibernate.cache.default_cache_concurrency_strategy",
+                    "read-write");
+        }
+        return props;
+    }
+
+    /** Set a property, if it does not already have a value.
+     * @param props The properties to be modified.
+     * @param name The name of the property.
+     * @param value The default value of the property.
+     */
+    private static void setDefault(final Properties props,
+            final String name, final String value) {
+        if (props.getProperty(name) == null) {
+            props.setProperty(name, value);
+        }
+    }
+
     /** Return an entity manager.
      * @return an entity manager
      */
     public static EntityManager getEntityManager() {
-        return entityManagerFactory.createEntityManager();
+        return getEntityManagerFactory().createEntityManager();
+    }
+
+    /** Return an entity manager whose use is metered. The time from
+     * its creation to its closing is recorded, as a success.
+     * If, before then, any of its methods, or those of its
+     * transaction, or of the queries it creates, throws an exception,
+     * the time up to that point is recorded instead, as an error;
+     * so errors are counted even by callers that do not close the
+     * entity manager when an exception is thrown. The entity manager
+     * must be closed.
+     * @param operation The name of the operation for which the
+     *      entity manager is used, e.g., "TaskUtils.getTaskById".
+     * @return an entity manager
+     */
+    public static EntityManager getEntityManager(final String operation) {
+        return (EntityManager) Proxy.newProxyInstance(
+                DBContext.class.getClassLoader(),
+                new Class<?>[] {EntityManager.class},
+                new MeteredEntityManager(getEntityManager(),
+                        Metrics.start(DB_OPERATION_SECONDS, DB_OPERATIONS,
+                                operation)));
+    }
+
+    /** Evict an entity from the second-level cache. Call this
+     * after modifying an entity of a cached type.
+     * This is harmless if the second-level cache is not enabled.
+     * @param entityClass The class of the entity.
+     * @param id The id of the entity.
+     */
+    public static void evict(final Class<?> entityClass, final Object id) {
+        if (id == null) {
+            return;
+        }
+        getEntityManagerFactory().getCache().evict(entityClass, id);
+    }
+
+    /** Evict all entities of a class from the second-level cache.
+     * Call this after a bulk update or delete of entities of a cached
+     * type. This is harmless if the second-level cache is not enabled.
+     * @param entityClass The class of the entities.
+     */
+    public static void evictAll(final Class<?> entityClass) {
+        getEntityManagerFactory().getCache().evict(entityClass);
+    }
+
+    /** Get statistics about the use of the second-level and
+     * query caches. Statistics are only gathered if the
+     * hibernate.generate_statistics property is set to true.
+     * @return A map of statistics. If statistics are not being
+     *      gathered, the map contains only an "enabled" entry,
+     *      with value false.
+     */
+    public static Map<String, Object> getCacheStatistics() {
+        Map<String, Object> result = new LinkedHashMap<String, Object>();
+        EntityManagerFactory emf = getEntityManagerFactory();
+        if (!(emf instanceof HibernateEntityManagerFactory)) {
+            result.put("enabled", false);
+            return result;
+        }
+        Statistics statistics = ((HibernateEntityManagerFactory)
+                emf).getSessionFactory().getStatistics();
+        result.put("enabled", statistics.isStatisticsEnabled());
+        if (!statistics.isStatisticsEnabled()) {
+            return result;
+        }
+        result.put("secondLevelCacheHits",
+                statistics.getSecondLevelCacheHitCount());
+        result.put("secondLevelCacheMisses",
+                statistics.getSecondLevelCacheMissCount());
+        result.put("secondLevelCachePuts",
+                statistics.getSecondLevelCachePutCount());
+        result.put("queryCacheHits", statistics.getQueryCacheHitCount());
+        result.put("queryCacheMisses", statistics.getQueryCacheMissCount());
+        result.put("queryCachePuts", statistics.getQueryCachePutCount());
+        Map<String, Map<String, Long>> regions =
+                new LinkedHashMap<String, Map<String, Long>>();
+        for (String regionName
+                : statistics.getSecondLevelCacheRegionNames()) {
+            SecondLevelCacheStatistics regionStatistics =
+                    statistics.getSecondLevelCacheStatistics(regionName);
+            if (regionStatistics == null) {
+                continue;
+            }
+            Map<String, Long> region = new LinkedHashMap<String, Long>();
+            region.put("hits", regionStatistics.getHitCount());
+            region.put("misses", regionStatistics.getMissCount());
+            region.put("puts", regionStatistics.getPutCount());
+            region.put("elementsInMemory",
+                    regionStatistics.getElementCountInMemory());
+            regions.put(regionName, region);
+        }
+        result.put("regions", regions);
+        return result;
     }
 
     /** Prepare for shutdown. Call this only in webapp context shutdown!
      */
-    public static void doShutdown() {
-        entityManagerFactory.close();
-        entityManagerFactory = null;
+    public static synchronized void doShutdown() {
+        shutdown = true;
+        if (entityManagerFactory != null) {
+            entityManagerFactory.close();
+            entityManagerFactory = null;
+        }
+    }
+
+    /** Handler of the methods of a metered entity manager. */
+    private static final class MeteredEntityManager
+        implements InvocationHandler {
+
+        /** The entity manager that does the work. */
+        private final EntityManager em;
+
+        /** The operation for which the entity manager is used. */
+        private final Metrics.Operation operation;
+
+        /** Whether the outcome of the operation has been recorded. */
+        private boolean recorded;
+
+        /** Constructor.
+         * @param anEm The entity manager that does the work.
+         * @param anOperation The operation for which the entity manager
+         *      is used.
+         */
+        private MeteredEntityManager(final EntityManager anEm,
+                final Metrics.Operation anOperation) {
+            em = anEm;
+            operation = anOperation;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public Object invoke(final Object proxy, final Method method,
+                final Object[] args) throws Throwable {
+            if ("close".equals(method.getName())) {
+                try {
+                    return call(em, method, args);
+                } finally {
+                    // If close() threw, the error has been recorded.
+                    record(true);
+                }
+            }
+            Object result = call(em, method, args);
+            Class<?> type = method.getReturnType();
+            if (result != null && (type == EntityTransaction.class
+                    || Query.class.isAssignableFrom(type))) {
+                return meter(result, type);
+            }
+            return result;
+        }
+
+        /** Wrap a transaction or query of the entity manager, so that
+         * an exception thrown by any of its methods is recorded.
+         * @param target The transaction or query.
+         * @param type The interface of the target to be wrapped, as
+         *      declared by the method of the entity manager that
+         *      returned it.
+         * @return The wrapped transaction or query.
+         */
+        private Object meter(final Object target, final Class<?> type) {
+            return Proxy.newProxyInstance(DBContext.class.getClassLoader(),
+                    new Class<?>[] {type},
+                    (p, m, a) -> {
+                        Object result = call(target, m, a);
+                        if (result == target) {
+                            // Keep chained calls, e.g., of
+                            // setParameter(), going through the proxy.
+                            return p;
+                        }
+                        return result;
+                    });
+        }
+
+        /** Call a method of the entity manager, or of its transaction
+         * or queries. If it throws an exception, the operation is
+         * recorded as an error.
+         * @param target The entity manager, transaction, or query.
+         * @param method The method.
+         * @param args The arguments of the method.
+         * @return The result of the method.
+         * @throws Throwable The exception thrown by the method.
+         */
+        private Object call(final Object target, final Method method,
+                final Object[] args) throws Throwable {
+            try {
+                return method.invoke(target, args);
+            } catch (InvocationTargetException e) {
+                record(false);
+                throw e.getCause();
+            }
+        }
+
+        /** Record the duration and outcome of the operation,
+         * unless they have already been recorded.
+         * @param success Whether the operation succeeded.
+         */
+        private synchronized void record(final boolean success) {
+            if (recorded) {
+                return;
+            }
+            recorded = true;
+            operation.complete(success);
+            operation.close();
+        }
     }
 
 
@@ -0,0 +1,284 @@
+/** See the file "LICENSE" for the full license governing this code. */
+package au.org.ands.vocabs.toolkit.db;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.UUID;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceException;
+import javax.persistence.Query;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import au.org.ands.vocabs.toolkit.db.model.Task;
+import au.org.ands.vocabs.toolkit.db.model.VersionLock;
+import au.org.ands.vocabs.toolkit.tasks.TaskStatus;
+import au.org.ands.vocabs.toolkit.utils.PropertyConstants;
+import au.org.ands.vocabs.toolkit.utils.ToolkitProperties;
+
+/** Work with leases on tasks and locks on versions, which are held
+ * in the database, so that several Toolkit nodes sharing
+ * the database can run tasks without getting in each other's way.
+ *
+ * A node claims a task by setting the task's lease owner and
+ * lease expiry with a conditional UPDATE, which succeeds only if
+ * nobody else holds an unexpired lease. While running the task,
+ * the node renews the lease at intervals. If the node dies, its
+ * lease expires, and another node can claim the task.
+ * Locks on versions work in the same way, using the version_lock
+ * table.
+ *
+ * Lease expiry times are in milliseconds since the epoch, according
+ * to the clock of the node that set them; the clocks of nodes must
+ * be synchronized to well within the lease duration.
+ *
+ * All methods take the owner of the lease as a parameter. Nodes
+ * use {@link #getNodeId()} for task leases.
+ */
+public final class TaskLeaseUtils {
+
+    /** Logger for this class. */
+    private static final Logger LOGGER = LoggerFactory.getLogger(
+            MethodHandles.lookup().lookupClass());
+
+    /** Default duration of leases, in seconds. */
+    private static final int DEFAULT_LEASE_DURATION = 60;
+
+    /** Number of milliseconds in a second. */
+    private static final long MS_PER_SECOND = 1000;
+
+    /** Length of the random part of generated node ids. */
+    private static final int NODE_ID_RANDOM_LENGTH = 8;
+
+    /** Duration of leases, in milliseconds. */
+    private static final long LEASE_DURATION = MS_PER_SECOND
+            * Integer.parseInt(ToolkitProperties.getProperty(
+                    PropertyConstants.TOOLKIT_TASKLEASEDURATION,
+                    Integer.toString(DEFAULT_LEASE_DURATION)));
+
+    /** The id of this node. */
+    private static final String NODE_ID = ToolkitProperties.getProperty(
+            PropertyConstants.TOOLKIT_NODEID,
+            ManagementFactory.getRuntimeMXBean().getName() + "/"
+            + UUID.randomUUID().toString().substring(0,
+                    NODE_ID_RANDOM_LENGTH));
+
+    /** Private constructor for a utility class. */
+    private TaskLeaseUtils() {
+    }
+
+    /** Get the id of this node. This is the value of the property
+     * {@link PropertyConstants#TOOLKIT_NODEID}, if set; otherwise,
+     * it is generated from the process id, host name, and a random
+     * value, so that it is different for each webapp instance.
+     * @return The id of this node.
+     */
+    public static String getNodeId() {
+        return NODE_ID;
+    }
+
+    /** Get the duration of leases.
+     * @return The duration of leases, in milliseconds.
+     */
+    public static long getLeaseDuration() {
+        return LEASE_DURATION;
+    }
+
+    /** Claim a task, and give it status {@link TaskStatus#CLAIMED}.
+     * @param taskId The id of the task.
+     * @param owner The owner of the lease.
+     * @param duration How long the lease lasts, in milliseconds.
+     * @return True, iff the task was claimed; false, if someone else
+     *      holds an unexpired lease on it.
+     */
+    public static boolean claimTask(final int taskId, final String owner,
+            final long duration) {
+        long now = System.currentTimeMillis();
+        return executeUpdate(Task.CLAIM_TASK,
+                Task.LEASE_ID, taskId,
+                Task.LEASE_OWNER, owner,
+                Task.LEASE_EXPIRY, now + duration,
+                Task.CLAIM_TASK_STATUS, TaskStatus.CLAIMED,
+                Task.LEASE_NOW, now) == 1;
+    }
+
+    /** Claim a task that has not finished, and give it status
+     * {@link TaskStatus#CLAIMED}. Use this, rather than
+     * {@link #claimTask(int, String, long)}, after waiting for another
+     * node to release its lease on the task.
+     * @param taskId The id of the task.
+     * @param owner The owner of the lease.
+     * @param duration How long the lease lasts, in milliseconds.
+     * @return True, iff the task was claimed; false, if someone else
+     *      holds an unexpired lease on it, or it has finished.
+     */
+    public static boolean claimUnfinishedTask(final int taskId,
+            final String owner, final long duration) {
+        long now = System.currentTimeMillis();
+        return executeUpdate(Task.CLAIM_UNFINISHED_TASK,
+                Task.LEASE_ID, taskId,
+                Task.LEASE_OWNER, owner,
+                Task.LEASE_EXPIRY, now + duration,
+                Task.CLAIM_TASK_STATUS, TaskStatus.CLAIMED,
+                Task.LEASE_NOW, now,
+                Task.LEASE_TERMINAL_STATUSES,
+                TaskStatus.getTerminalStatuses()) == 1;
+    }
+
+    /** Renew the lease on a task.
+     * @param taskId The id of the task.
+     * @param owner The owner of the lease.
+     * @param duration How long the renewed lease lasts,
+     *      in milliseconds.
+     * @return True, iff the lease was renewed; false, if the owner
+     *      no longer holds the lease, or the task has been cancelled.
+     */
+    public static boolean renewTaskLease(final int taskId,
+            final String owner, final long duration) {
+        return executeUpdate(Task.RENEW_TASK_LEASE,
+                Task.LEASE_ID, taskId,
+                Task.LEASE_OWNER, owner,
+                Task.LEASE_EXPIRY, System.currentTimeMillis() + duration,
+                Task.RENEW_TASK_LEASE_CANCELLED,
+                TaskStatus.CANCELLED) == 1;
+    }
+
+    /** Release the lease on a task.
+     * @param taskId The id of the task.
+     * @param owner The owner of the lease.
+     */
+    public static void releaseTaskLease(final int taskId,
+            final String owner) {
+        executeUpdate(Task.RELEASE_TASK_LEASE,
+                Task.LEASE_ID, taskId,
+                Task.LEASE_OWNER, owner);
+    }
+
+    /** Get the ids of tasks that have been claimed, but have not
+     * finished, and on which nobody holds an unexpired lease.
+     * Tasks that have never been claimed are not included.
+     * @param limit The maximum number of ids to return.
+     * @return The ids of the tasks, in ascending order.
+     */
+    public static List<Integer> getClaimableTaskIds(final int limit) {
+        EntityManager em = DBContext.getEntityManager(
+                "TaskLeaseUtils.getClaimableTaskIds");
+        try {
+            return em.createNamedQuery(Task.GET_CLAIMABLE_TASK_IDS,
+                    Integer.class).
+                    setParameter(Task.CLAIM_TASK_STATUS,
+                            TaskStatus.CLAIMED).
+                    setParameter(Task.LEASE_NOW,
+                            System.currentTimeMillis()).
+                    setMaxResults(limit).
+                    getResultList();
+        } finally {
+            em.close();
+        }
+    }
+
+    /** Take the lock on a version. The lock can be taken if nobody
+     * holds it, or if it has expired, or if the owner already
+     * holds it.
+     * @param versionId The id of the version.
+     * @param owner The owner of the lock.
+     * @param duration How long the lock lasts, in milliseconds.
+     * @return True, iff the lock was taken.
+     */
+    public static boolean takeVersionLock(final int versionId,
+            final String owner, final long duration) {
+        long now = System.currentTimeMillis();
+        if (executeUpdate(VersionLock.TAKE_VERSION_LOCK,
+                VersionLock.LOCK_VERSION_ID, versionId,
+                VersionLock.LOCK_OWNER, owner,
+                VersionLock.LOCK_EXPIRY, now + duration,
+                VersionLock.LOCK_NOW, now) == 1) {
+            return true;
+        }
+        // There is no row for the version, or someone else holds
+        // the lock. Try to insert a row; the primary key
+        // constraint means that only one node can succeed.
+        EntityManager em = DBContext.getEntityManager(
+                "TaskLeaseUtils.takeVersionLock");
+        try {
+            em.getTransaction().begin();
+            VersionLock lock = new VersionLock();
+            lock.setVersionId(versionId);
+            lock.setOwner(owner);
+            lock.setExpiry(now + duration);
+            em.persist(lock);
+            em.getTransaction().commit();
+            return true;
+        } catch (PersistenceException e) {
+            LOGGER.debug("Version lock for version " + versionId
+                    + " is held by someone else");
+            return false;
+        } finally {
+            if (em.getTransaction().isActive()) {
+                em.getTransaction().rollback();
+            }
+            em.close();
+        }
+    }
+
+    /** Renew the lock on a version.
+     * @param versionId The id of the version.
+     * @param owner The owner of the lock.
+     * @param duration How long the renewed lock lasts,
+     *      in milliseconds.
+     * @return True, iff the lock was renewed; false, if the owner
+     *      no longer holds the lock.
+     */
+    public static boolean renewVersionLock(final int versionId,
+            final String owner, final long duration) {
+        return executeUpdate(VersionLock.RENEW_VERSION_LOCK,
+                VersionLock.LOCK_VERSION_ID, versionId,
+                VersionLock.LOCK_OWNER, owner,
+                VersionLock.LOCK_EXPIRY,
+                System.currentTimeMillis() + duration) == 1;
+    }
+
+    /** Release the lock on a version.
+     * @param versionId The id of the version.
+     * @param owner The owner of the lock.
+     */
+    public static void releaseVersionLock(final int versionId,
+            final String owner) {
+        executeUpdate(VersionLock.RELEASE_VERSION_LOCK,
+                VersionLock.LOCK_VERSION_ID, versionId,
+                VersionLock.LOCK_OWNER, owner);
+    }
+
+    /** Execute a named update query in its own transaction.
+     * Also used for the leases on bulk jobs; see {@link BulkJobUtils}.
+     * @param queryName The name of the query.
+     * @param parameters The query parameters, as alternating
+     *      names and values.
+     * @return The number of rows updated.
+     */
+    static int executeUpdate(final String queryName,
+            final Object... parameters) {
+        // Meter each query separately.
+        EntityManager em = DBContext.getEntityManager(queryName);
+        try {
+            em.getTransaction().begin();
+            Query query = em.createNamedQuery(queryName);
+            for (int i = 0; i < parameters.length; i += 2) {
+                query.setParameter((String) parameters[i],
+                        parameters[i + 1]);
+            }
+            int updated = query.executeUpdate();
+            em.getTransaction().commit();
+            return updated;
+        } finally {
+            if (em.getTransaction().isActive()) {
+                em.getTransaction().rollback();
+            }
+            em.close();
+        }
+    }
+
+}
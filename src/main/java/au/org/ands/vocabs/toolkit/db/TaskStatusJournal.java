@@ -0,0 +1,283 @@
+/** See the file "LICENSE" for the full license governing this code. */
+package au.org.ands.vocabs.toolkit.db;
+
+import java.lang.invoke.MethodHandles;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import au.org.ands.vocabs.toolkit.db.model.Task;
+import au.org.ands.vocabs.toolkit.tasks.SubtaskCheckpoint;
+import au.org.ands.vocabs.toolkit.tasks.SubtaskTiming;
+import au.org.ands.vocabs.toolkit.tasks.TaskStatus;
+import au.org.ands.vocabs.toolkit.utils.PropertyConstants;
+import au.org.ands.vocabs.toolkit.utils.ToolkitProperties;
+
+/** Write-behind journal of task status updates.
+ * Tasks update their status and response many times while they run.
+ * Rather than writing each update to the database as it happens,
+ * updates are recorded here, and only the most recent update of
+ * each task is written. Pending updates are written by a background
+ * thread at a fixed interval, using a targeted UPDATE of just
+ * the status and response columns.
+ * An update to a terminal status (see {@link TaskStatus#isTerminal})
+ * is written immediately, before {@link #record} returns.
+ * An update to any other status is not written if the task has been
+ * given status {@link TaskStatus#CANCELLED} in the database, e.g.,
+ * by another node; the node running the task finds out about the
+ * cancellation when it next renews its lease on the task.
+ * If a response would not fit in the response column of the task
+ * table, the subtask timings, and then the checkpoints, are left
+ * out of it.
+ */
+public final class TaskStatusJournal {
+
+    /** Logger for this class. */
+    private static final Logger LOGGER = LoggerFactory.getLogger(
+            MethodHandles.lookup().lookupClass());
+
+    /** Default interval between writes of pending updates,
+     * in milliseconds. */
+    private static final int DEFAULT_FLUSH_INTERVAL = 2000;
+
+    /** Interval between writes of pending updates, in milliseconds.
+     * If zero or negative, every update is written immediately. */
+    private static final long FLUSH_INTERVAL = Long.parseLong(
+            ToolkitProperties.getProperty(
+                    PropertyConstants.TOOLKIT_TASKSTATUSFLUSHINTERVAL,
+                    Integer.toString(DEFAULT_FLUSH_INTERVAL)));
+
+    /** Maximum size of the response of a task, in bytes of UTF-8.
+     * This is the size of the response column of the task table. */
+    private static final int MAX_RESPONSE_BYTES = 65535;
+
+    /** Keys of the results entries that are left out of the response
+     * of a task, in this order, if it would otherwise be too big.
+     * Without its checkpoints, a task that is resumed runs all of
+     * its subtasks again. */
+    private static final String[] OPTIONAL_RESULTS = {
+        SubtaskTiming.RESULTS_KEY,
+        SubtaskCheckpoint.RESULTS_KEY,
+    };
+
+    /** Pending updates, keyed by task id. Only the most recent
+     * update of each task is kept. All access to this map must be
+     * synchronized on the map. */
+    private static final Map<Integer, Update> PENDING =
+            new LinkedHashMap<Integer, Update>();
+
+    /** Lock held while writing updates to the database. This
+     * ensures that an update taken from {@link #PENDING} is written
+     * before any later update of the same task. */
+    private static final ReentrantLock WRITE_LOCK = new ReentrantLock();
+
+    /** Executor that periodically writes pending updates. Created
+     * on first use. */
+    private static ScheduledExecutorService executor;
+
+    /** Private constructor for a utility class. */
+    private TaskStatusJournal() {
+    }
+
+    /** Record an update of the status and results of a task.
+     * The task object's status is set immediately. The results are
+     * copied, so the caller may continue to modify its map.
+     * @param task The task being updated.
+     * @param status The new status of the task.
+     * @param results The results of the task so far.
+     */
+    public static void record(final Task task, final String status,
+            final Map<String, String> results) {
+        task.setStatus(status);
+        Update update = new Update(task, status,
+                new HashMap<String, String>(results));
+        if (FLUSH_INTERVAL <= 0 || TaskStatus.isTerminal(status)) {
+            WRITE_LOCK.lock();
+            try {
+                synchronized (PENDING) {
+                    PENDING.remove(task.getId());
+                }
+                write(Collections.singleton(update));
+            } finally {
+                WRITE_LOCK.unlock();
+            }
+            return;
+        }
+        synchronized (PENDING) {
+            PENDING.put(task.getId(), update);
+            if (executor == null) {
+                startExecutor();
+            }
+        }
+    }
+
+    /** Write all pending updates to the database. If they can not
+     * be written, they are put back, to be tried again at the next
+     * flush, unless a later update of the same task has been
+     * recorded in the meantime. */
+    public static void flush() {
+        WRITE_LOCK.lock();
+        try {
+            List<Update> updates;
+            synchronized (PENDING) {
+                if (PENDING.isEmpty()) {
+                    return;
+                }
+                updates = new ArrayList<Update>(PENDING.values());
+                PENDING.clear();
+            }
+            try {
+                write(updates);
+            } catch (RuntimeException e) {
+                LOGGER.error("Exception writing task status updates; "
+                        + "will try again", e);
+                synchronized (PENDING) {
+                    for (Update update : updates) {
+                        PENDING.putIfAbsent(update.task.getId(), update);
+                    }
+                }
+            }
+        } finally {
+            WRITE_LOCK.unlock();
+        }
+    }
+
+    /** Write any pending updates, and stop the background thread.
+     * Call this only in webapp context shutdown! */
+    public static void doShutdown() {
+        synchronized (PENDING) {
+            if (executor != null) {
+                executor.shutdown();
+                executor = null;
+            }
+        }
+        flush();
+    }
+
+    /** Start the executor that periodically writes pending updates.
+     * Must be called while synchronized on {@link #PENDING}. */
+    private static void startExecutor() {
+        executor = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(final Runnable r) {
+                        Thread thread = new Thread(r, "TaskStatusJournal");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                flush();
+            } }, FLUSH_INTERVAL, FLUSH_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    /** Write updates to the database, in one transaction.
+     * Must be called while holding {@link #WRITE_LOCK}.
+     * @param updates The updates to be written.
+     */
+    private static void write(final Iterable<Update> updates) {
+        EntityManager em = DBContext.getEntityManager();
+        try {
+            em.getTransaction().begin();
+            for (Update update : updates) {
+                String response = toResponse(update);
+                Query query;
+                if (TaskStatus.isTerminal(update.status)) {
+                    query = em.createNamedQuery(
+                            Task.UPDATE_TASK_STATUS_AND_RESPONSE);
+                } else {
+                    query = em.createNamedQuery(
+                            Task.UPDATE_UNCANCELLED_TASK_STATUS_AND_RESPONSE).
+                        setParameter(
+                            Task.UPDATE_TASK_STATUS_AND_RESPONSE_CANCELLED,
+                            TaskStatus.CANCELLED);
+                }
+                query.setParameter(Task.UPDATE_TASK_STATUS_AND_RESPONSE_ID,
+                            update.task.getId()).
+                    setParameter(Task.UPDATE_TASK_STATUS_AND_RESPONSE_STATUS,
+                            update.status).
+                    setParameter(
+                            Task.UPDATE_TASK_STATUS_AND_RESPONSE_RESPONSE,
+                            response).
+                    executeUpdate();
+                update.task.setResponse(response);
+            }
+            em.getTransaction().commit();
+        } finally {
+            if (em.getTransaction().isActive()) {
+                em.getTransaction().rollback();
+            }
+            em.close();
+        }
+    }
+
+    /** Convert the results of an update to a response, leaving out
+     * the entries in {@link #OPTIONAL_RESULTS}, as needed, so that
+     * it fits in the database.
+     * @param update The update.
+     * @return The response, in JSON format.
+     */
+    private static String toResponse(final Update update) {
+        String response = TaskUtils.mapToJSONString(update.results);
+        for (String key : OPTIONAL_RESULTS) {
+            if (response.getBytes(StandardCharsets.UTF_8).length
+                    <= MAX_RESPONSE_BYTES) {
+                return response;
+            }
+            if (update.results.remove(key) != null) {
+                LOGGER.warn("Response of task " + update.task.getId()
+                        + " is too big; leaving out " + key);
+                response = TaskUtils.mapToJSONString(update.results);
+            }
+        }
+        if (response.getBytes(StandardCharsets.UTF_8).length
+                > MAX_RESPONSE_BYTES) {
+            LOGGER.error("Response of task " + update.task.getId()
+                    + " is too big to be stored");
+        }
+        return response;
+    }
+
+    /** A recorded update of a task. */
+    private static final class Update {
+
+        /** The task being updated. */
+        private final Task task;
+
+        /** The new status of the task. */
+        private final String status;
+
+        /** A copy of the results of the task. */
+        private final Map<String, String> results;
+
+        /** Constructor.
+         * @param aTask The task being updated.
+         * @param aStatus The new status of the task.
+         * @param aResults A copy of the results of the task.
+         */
+        Update(final Task aTask, final String aStatus,
+                final Map<String, String> aResults) {
+            task = aTask;
+            status = aStatus;
+            results = aResults;
+        }
+    }
+
+}
@@ -3,6 +3,7 @@ package au.org.ands.vocabs.toolkit.db;
 
 import java.io.IOException;
 import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
@@ -10,6 +11,10 @@ import java.util.Map;
 
 import javax.persistence.EntityManager;
 import javax.persistence.TypedQuery;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Predicate;
+import javax.persistence.criteria.Root;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -20,6 +25,8 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 
 import au.org.ands.vocabs.toolkit.db.model.Task;
+import au.org.ands.vocabs.toolkit.db.model.TaskSummary;
+import au.org.ands.vocabs.toolkit.tasks.TaskProgress;
 import au.org.ands.vocabs.toolkit.tasks.TaskStatus;
 
 /** Work with database tasks. */
@@ -29,6 +36,11 @@ public final class TaskUtils {
     private static Logger logger = LoggerFactory.getLogger(
             MethodHandles.lookup().lookupClass());
 
+    /** Jackson ObjectMapper shared by all conversions to and from JSON.
+     * ObjectMapper is thread-safe once configured, and is expensive
+     * to construct, so a single instance is used. */
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
     /** Private constructor for a utility class. */
     private TaskUtils() {
     }
@@ -38,7 +50,7 @@ public final class TaskUtils {
      * @return The task
      */
     public static Task getTaskById(final int id) {
-        EntityManager em = DBContext.getEntityManager();
+        EntityManager em = DBContext.getEntityManager("TaskUtils.getTaskById");
         Task t = em.find(Task.class, id);
         em.close();
         return t;
@@ -48,7 +60,7 @@ public final class TaskUtils {
      * @return A list of Tasks
      */
     public static List<Task> getAllTasks() {
-        EntityManager em = DBContext.getEntityManager();
+        EntityManager em = DBContext.getEntityManager("TaskUtils.getAllTasks");
         TypedQuery<Task> query = em.createNamedQuery(Task.GET_ALL_TASKS,
                 Task.class);
         List<Task> tasks = query.getResultList();
@@ -56,6 +68,111 @@ public final class TaskUtils {
         return tasks;
     }
 
+    /** Get summaries of tasks, optionally filtered, one page at a time.
+     * Only the id, status, vocabulary id, and version id columns
+     * are fetched; the params and response columns are not.
+     * Tasks are returned in order of id.
+     * @param status If not null, only return tasks with this status.
+     * @param vocabularyId If not null, only return tasks for this
+     *      vocabulary.
+     * @param versionId If not null, only return tasks for this version.
+     * @param sinceId If not null, only return tasks with an id
+     *      greater than this. As task ids are allocated in increasing
+     *      order, this selects the tasks created since this task.
+     * @param offset The number of matching tasks to skip.
+     * @param limit The maximum number of tasks to return.
+     * @return A list of task summaries.
+     */
+    public static List<TaskSummary> getTaskSummaries(final String status,
+            final Integer vocabularyId, final Integer versionId,
+            final Integer sinceId, final int offset, final int limit) {
+        EntityManager em = DBContext.getEntityManager(
+                "TaskUtils.getTaskSummaries");
+        CriteriaBuilder cb = em.getCriteriaBuilder();
+        CriteriaQuery<TaskSummary> cq = cb.createQuery(TaskSummary.class);
+        Root<Task> t = cq.from(Task.class);
+        cq.select(cb.construct(TaskSummary.class,
+                t.get("id"), t.get("status"),
+                t.get("vocabularyId"), t.get("versionId")));
+        List<Predicate> predicates = new ArrayList<Predicate>();
+        if (status != null) {
+            predicates.add(cb.equal(t.get("status"), status));
+        }
+        if (vocabularyId != null) {
+            predicates.add(cb.equal(t.get("vocabularyId"), vocabularyId));
+        }
+        if (versionId != null) {
+            predicates.add(cb.equal(t.get("versionId"), versionId));
+        }
+        if (sinceId != null) {
+            predicates.add(cb.gt(t.<Integer>get("id"), sinceId));
+        }
+        cq.where(predicates.toArray(new Predicate[predicates.size()]));
+        cq.orderBy(cb.asc(t.get("id")));
+        List<TaskSummary> summaries = em.createQuery(cq).
+                setFirstResult(offset).
+                setMaxResults(limit).
+                getResultList();
+        em.close();
+        return summaries;
+    }
+
+    /** Get the most recent task of a version, i.e., the one
+     * with the highest id.
+     * @param versionId The id of the version.
+     * @return The most recent task, or null, if the version
+     *      has no tasks.
+     */
+    public static Task getLatestTaskOfVersion(final int versionId) {
+        EntityManager em = DBContext.getEntityManager(
+                "TaskUtils.getLatestTaskOfVersion");
+        try {
+            List<Task> tasks = em.createNamedQuery(
+                    Task.GET_TASKS_OF_VERSION_LATEST_FIRST, Task.class).
+                    setParameter(Task.OF_VERSION_VERSION_ID, versionId).
+                    setMaxResults(1).
+                    getResultList();
+            if (tasks.isEmpty()) {
+                return null;
+            }
+            return tasks.get(0);
+        } finally {
+            em.close();
+        }
+    }
+
+    /** Decide whether a version has a task that has not finished.
+     * @param versionId The id of the version.
+     * @return True, iff the version has a task whose status is not
+     *      terminal.
+     */
+    public static boolean hasUnfinishedTask(final int versionId) {
+        EntityManager em = DBContext.getEntityManager(
+                "TaskUtils.hasUnfinishedTask");
+        try {
+            return em.createNamedQuery(
+                    Task.COUNT_UNFINISHED_TASKS_OF_VERSION, Long.class).
+                    setParameter(Task.OF_VERSION_VERSION_ID, versionId).
+                    setParameter(Task.OF_VERSION_TERMINAL_STATUSES,
+                            TaskStatus.getTerminalStatuses()).
+                    getSingleResult() > 0;
+        } finally {
+            em.close();
+        }
+    }
+
+    /** Save a new task to the database. On return, the task's
+     * id has been set.
+     * @param task The task to be saved.
+     */
+    public static void saveTask(final Task task) {
+        EntityManager em = DBContext.getEntityManager("TaskUtils.saveTask");
+        em.getTransaction().begin();
+        em.persist(task);
+        em.getTransaction().commit();
+        em.close();
+    }
+
     /** Set the status and data fields for a task.
      * @param task The task being updated
      * @param status The updated status information
@@ -63,7 +180,8 @@ public final class TaskUtils {
      */
     public static void setTaskStatusAndData(final Task task,
             final String status, final String response) {
-        EntityManager em = DBContext.getEntityManager();
+        EntityManager em = DBContext.getEntityManager(
+                "TaskUtils.setTaskStatusAndData");
         em.getTransaction().begin();
         task.setStatus(status);
         task.setResponse(response);
@@ -72,7 +190,25 @@ public final class TaskUtils {
         em.close();
     }
 
+    /** Give a task that has not finished status
+     * {@link TaskStatus#CANCELLED}. Only the status is updated;
+     * the response of the task is kept.
+     * @param taskId The id of the task.
+     * @return True, iff the task was cancelled; false, if there is
+     *      no such task, or it has already finished.
+     */
+    public static boolean cancelTask(final int taskId) {
+        return TaskLeaseUtils.executeUpdate(Task.CANCEL_TASK,
+                Task.CANCEL_TASK_ID, taskId,
+                Task.CANCEL_TASK_CANCELLED, TaskStatus.CANCELLED,
+                Task.CANCEL_TASK_TERMINAL_STATUSES,
+                TaskStatus.getTerminalStatuses()) == 1;
+    }
+
     /** Update both message and task status.
+     * The update is recorded in the {@link TaskStatusJournal}; it
+     * is written to the database immediately only if the status
+     * is terminal.
      * @param callerLogger The Logger to use.
      * @param task The Task object.
      * @param results The HashMap of results.
@@ -89,7 +225,11 @@ public final class TaskUtils {
             callerLogger.debug(details);
         }
         results.put("status", status);
-        setTaskStatusAndData(task, status, mapToJSONString(results));
+        TaskStatusJournal.record(task, status, results);
+        TaskProgress progress = TaskProgress.get(task.getId());
+        if (progress != null) {
+            progress.status(status, details);
+        }
     }
 
     /** Convert a Map to a String in JSON format. The Map can
@@ -106,9 +246,8 @@ public final class TaskUtils {
      */
     public static String mapToJSONString(
             final Map<?, ?> map) {
-        ObjectMapper mapper = new ObjectMapper();
         try {
-            return mapper.writeValueAsString(map);
+            return MAPPER.writeValueAsString(map);
         } catch (JsonProcessingException e) {
             logger.error("Exception in mapToJSONString", e);
             return "{\"exception\":\"Exception while "
@@ -128,9 +267,8 @@ public final class TaskUtils {
      */
     public static String collectionToJSONString(
             final Collection<?> map) {
-        ObjectMapper mapper = new ObjectMapper();
         try {
-            return mapper.writeValueAsString(map);
+            return MAPPER.writeValueAsString(map);
         } catch (JsonProcessingException e) {
             logger.error("Exception in collectionToJSONString", e);
             return "{\"exception\":\"Exception while "
@@ -144,9 +282,8 @@ public final class TaskUtils {
      */
     public static JsonNode jsonStringToTree(
             final String jsonString) {
-        ObjectMapper mapper = new ObjectMapper();
         try {
-            return mapper.readTree(jsonString);
+            return MAPPER.readTree(jsonString);
         } catch (IOException e) {
             logger.error("Exception in jsonStringToTree", e);
             return null;
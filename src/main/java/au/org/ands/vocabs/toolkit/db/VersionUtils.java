@@ -20,7 +20,8 @@ public final class VersionUtils {
      * @return The Version.
      */
     public static Version getVersionById(final int id) {
-        EntityManager em = DBContext.getEntityManager();
+        EntityManager em = DBContext.getEntityManager(
+                "VersionUtils.getVersionById");
         Version v = em.find(Version.class, id);
         em.close();
         return v;
@@ -30,7 +31,8 @@ public final class VersionUtils {
      * @return an array of all versions
      */
     public static List<Version> getAllVersions() {
-        EntityManager em = DBContext.getEntityManager();
+        EntityManager em = DBContext.getEntityManager(
+                "VersionUtils.getAllVersions");
         TypedQuery<Version> q = em.createNamedQuery(Version.GET_ALL_VERSIONS,
                 Version.class);
         List<Version> v = q.getResultList();
@@ -17,7 +17,8 @@ public final class VocabularyUtils {
      * @return The Vocabulary.
      */
     public static Vocabulary getVocabularyById(final int id) {
-        EntityManager em = DBContext.getEntityManager();
+        EntityManager em = DBContext.getEntityManager(
+                "VocabularyUtils.getVocabularyById");
         Vocabulary v = em.find(Vocabulary.class, id);
         em.close();
         return v;
@@ -1,6 +1,7 @@
 /** See the file "LICENSE" for the full license governing this code. */
 package au.org.ands.vocabs.toolkit.db.model;
 
+import javax.persistence.Cacheable;
 import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
@@ -8,12 +9,20 @@ import javax.persistence.GenerationType;
 import javax.persistence.Id;
 import javax.persistence.NamedQueries;
 import javax.persistence.NamedQuery;
+import javax.persistence.QueryHint;
 import javax.persistence.Table;
+import javax.persistence.Transient;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.MissingNode;
+
+import au.org.ands.vocabs.toolkit.db.TaskUtils;
 
 /**
  * Access Point model class.
  */
 @Entity
+@Cacheable
 @Table(name = "access_points")
 /* Rather than including the text of the queries directly in the
  * annotations, we use constants defined in the class itself.
@@ -25,16 +34,25 @@ import javax.persistence.Table;
             query = AccessPoint.GET_ALL_ACCESSPOINTS_QUERY),
     @NamedQuery(
             name = AccessPoint.GET_ACCESSPOINTS_FOR_VERSION,
-            query = AccessPoint.GET_ACCESSPOINTS_FOR_VERSION_QUERY),
+            query = AccessPoint.GET_ACCESSPOINTS_FOR_VERSION_QUERY,
+            hints = {@QueryHint(name = AccessPoint.CACHEABLE_HINT,
+                    value = "true")}),
     @NamedQuery(
             name = AccessPoint.GET_ACCESSPOINTS_FOR_VERSION_AND_TYPE,
-            query = AccessPoint.GET_ACCESSPOINTS_FOR_VERSION_AND_TYPE_QUERY),
+            query = AccessPoint.GET_ACCESSPOINTS_FOR_VERSION_AND_TYPE_QUERY,
+            hints = {@QueryHint(name = AccessPoint.CACHEABLE_HINT,
+                    value = "true")}),
     @NamedQuery(
             name = AccessPoint.DELETE_ACCESSPOINTS_FOR_VERSION_AND_TYPE,
             query = AccessPoint.DELETE_ACCESSPOINTS_FOR_VERSION_AND_TYPE_QUERY)
 })
 public class AccessPoint {
 
+    /** Name of the Hibernate query hint that enables the query cache
+     * for a query. The hint has no effect unless the query cache
+     * is enabled; see {@link au.org.ands.vocabs.toolkit.db.DBContext}. */
+    public static final String CACHEABLE_HINT = "org.hibernate.cacheable";
+
     /** Name of getAllAccessPoints query. */
     public static final String GET_ALL_ACCESSPOINTS = "getAllAccessPoints";
     /** Query of getAllAccessPoints query. */
@@ -100,6 +118,12 @@ public class AccessPoint {
     private String portalData;
     /** toolkit data. */
     private String toolkitData;
+    /** portal data, parsed as JSON. Parsed on demand, and
+     * discarded when the portal data is set. */
+    private JsonNode portalDataJson;
+    /** toolkit data, parsed as JSON. Parsed on demand, and
+     * discarded when the toolkit data is set. */
+    private JsonNode toolkitDataJson;
 
     /** Value of the apiSparql access point type. */
     public static final String API_SPARQL_TYPE = "apiSparql";
@@ -182,6 +206,7 @@ public class AccessPoint {
      */
     public void setPortalData(final String aPortalData) {
         portalData = aPortalData;
+        portalDataJson = null;
     }
 
     /** Get the toolkit data.
@@ -197,6 +222,53 @@ public class AccessPoint {
      */
     public void setToolkitData(final String aToolkitData) {
         toolkitData = aToolkitData;
+        toolkitDataJson = null;
+    }
+
+    /** Get the portal data, parsed as JSON. The result is cached,
+     * so callers must not modify it.
+     * Note the Transient annotation, as this is not a column in the table.
+     * @return The portal data as a JSON tree. If there is no
+     *      portal data, or it can not be parsed, a MissingNode is
+     *      returned, so that lookups of fields return null.
+     */
+    @Transient
+    public JsonNode getPortalDataJson() {
+        if (portalDataJson == null) {
+            portalDataJson = parseData(portalData);
+        }
+        return portalDataJson;
+    }
+
+    /** Get the toolkit data, parsed as JSON. The result is cached,
+     * so callers must not modify it.
+     * Note the Transient annotation, as this is not a column in the table.
+     * @return The toolkit data as a JSON tree. If there is no
+     *      toolkit data, or it can not be parsed, a MissingNode is
+     *      returned, so that lookups of fields return null.
+     */
+    @Transient
+    public JsonNode getToolkitDataJson() {
+        if (toolkitDataJson == null) {
+            toolkitDataJson = parseData(toolkitData);
+        }
+        return toolkitDataJson;
+    }
+
+    /** Parse one of the data columns as JSON.
+     * @param data The value of the data column.
+     * @return The data as a JSON tree, or a MissingNode, if
+     *      there is no data, or it can not be parsed.
+     */
+    private static JsonNode parseData(final String data) {
+        if (data == null || data.isEmpty()) {
+            return MissingNode.getInstance();
+        }
+        JsonNode dataJson = TaskUtils.jsonStringToTree(data);
+        if (dataJson == null) {
+            return MissingNode.getInstance();
+        }
+        return dataJson;
     }
 
 }
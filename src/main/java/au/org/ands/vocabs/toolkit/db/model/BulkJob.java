@@ -0,0 +1,388 @@
+/** See the file "LICENSE" for the full license governing this code. */
+package au.org.ands.vocabs.toolkit.db.model;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.NamedQueries;
+import javax.persistence.NamedQuery;
+import javax.persistence.Table;
+import javax.xml.bind.annotation.XmlRootElement;
+
+/**
+ * BulkJob model class. A bulk job runs the same subtasks on each
+ * of a selection of versions, e.g., to regenerate the outputs of
+ * a transform after it has been changed. The job records its
+ * progress, so that it can be resumed after a restart.
+ * Like tasks, jobs are claimed by a node using a lease; see
+ * {@link au.org.ands.vocabs.toolkit.db.BulkJobUtils}.
+ */
+@Entity
+@Table(name = "bulk_job")
+/* Rather than including the text of the queries directly in the
+ * annotations, we use constants defined in the class itself.
+ * This way, they can be found (fully expanded!) in the generated Javadoc
+ * in the "Constant Field Values" page. */
+@NamedQueries({
+    @NamedQuery(
+            name = BulkJob.CLAIM_BULK_JOB,
+            query = BulkJob.CLAIM_BULK_JOB_QUERY),
+    @NamedQuery(
+            name = BulkJob.RENEW_BULK_JOB_LEASE,
+            query = BulkJob.RENEW_BULK_JOB_LEASE_QUERY),
+    @NamedQuery(
+            name = BulkJob.RELEASE_BULK_JOB_LEASE,
+            query = BulkJob.RELEASE_BULK_JOB_LEASE_QUERY),
+    @NamedQuery(
+            name = BulkJob.UPDATE_BULK_JOB_PROGRESS,
+            query = BulkJob.UPDATE_BULK_JOB_PROGRESS_QUERY),
+    @NamedQuery(
+            name = BulkJob.CANCEL_BULK_JOB,
+            query = BulkJob.CANCEL_BULK_JOB_QUERY),
+    @NamedQuery(
+            name = BulkJob.GET_RESUMABLE_BULK_JOB_IDS,
+            query = BulkJob.GET_RESUMABLE_BULK_JOB_IDS_QUERY)
+})
+@XmlRootElement
+public class BulkJob {
+
+    /** Status of a job that has been created, but not yet run. */
+    public static final String STATUS_QUEUED = "queued";
+
+    /** Status of a job that is running, or that was running when
+     * its node stopped. */
+    public static final String STATUS_RUNNING = "running";
+
+    /** Name of bulk job lease queries' id parameter. */
+    public static final String LEASE_ID = "id";
+    /** Name of bulk job lease queries' owner parameter. */
+    public static final String LEASE_OWNER = "owner";
+    /** Name of bulk job lease queries' expiry parameter. */
+    public static final String LEASE_EXPIRY = "expiry";
+    /** Name of bulk job lease queries' now parameter. */
+    public static final String LEASE_NOW = "now";
+    /** Name of bulk job lease queries' statuses parameter. */
+    public static final String LEASE_STATUSES = "statuses";
+
+    /** Name of claimBulkJob query. */
+    public static final String CLAIM_BULK_JOB = "claimBulkJob";
+    /** Query of claimBulkJob query. A job can be claimed only if it
+     * has not finished, and nobody holds an unexpired lease on it. */
+    protected static final String CLAIM_BULK_JOB_QUERY =
+            "UPDATE BulkJob j SET j.leaseOwner = :" + LEASE_OWNER
+            + ", j.leaseExpiry = :" + LEASE_EXPIRY
+            + " WHERE j.id = :" + LEASE_ID
+            + " AND j.status IN (:" + LEASE_STATUSES + ")"
+            + " AND (j.leaseOwner IS NULL OR j.leaseExpiry < :"
+            + LEASE_NOW + ")";
+
+    /** Name of renewBulkJobLease query. */
+    public static final String RENEW_BULK_JOB_LEASE = "renewBulkJobLease";
+    /** Query of renewBulkJobLease query. */
+    protected static final String RENEW_BULK_JOB_LEASE_QUERY =
+            "UPDATE BulkJob j SET j.leaseExpiry = :" + LEASE_EXPIRY
+            + " WHERE j.id = :" + LEASE_ID
+            + " AND j.leaseOwner = :" + LEASE_OWNER;
+
+    /** Name of releaseBulkJobLease query. */
+    public static final String RELEASE_BULK_JOB_LEASE =
+            "releaseBulkJobLease";
+    /** Query of releaseBulkJobLease query. */
+    protected static final String RELEASE_BULK_JOB_LEASE_QUERY =
+            "UPDATE BulkJob j SET j.leaseOwner = NULL, j.leaseExpiry = NULL"
+            + " WHERE j.id = :" + LEASE_ID
+            + " AND j.leaseOwner = :" + LEASE_OWNER;
+
+    /** Name of updateBulkJobProgress query. */
+    public static final String UPDATE_BULK_JOB_PROGRESS =
+            "updateBulkJobProgress";
+    /** Name of updateBulkJobProgress and cancelBulkJob queries'
+     * status parameter. */
+    public static final String UPDATE_STATUS = "status";
+    /** Name of updateBulkJobProgress query's last version id
+     * parameter. */
+    public static final String UPDATE_LAST_VERSION_ID = "lastVersionId";
+    /** Name of updateBulkJobProgress query's processed parameter. */
+    public static final String UPDATE_PROCESSED = "processed";
+    /** Name of updateBulkJobProgress query's failed parameter. */
+    public static final String UPDATE_FAILED = "failed";
+    /** Name of updateBulkJobProgress query's elapsed time parameter. */
+    public static final String UPDATE_ELAPSED_MS = "elapsedMillis";
+    /** Name of updateBulkJobProgress query's cancelled status
+     * parameter. */
+    public static final String UPDATE_CANCELLED = "cancelled";
+    /** Query of updateBulkJobProgress query. Only the status and
+     * progress of the job are updated, and only if the job has not
+     * been given the cancelled status, so that a cancellation made
+     * by another node is not overwritten. */
+    protected static final String UPDATE_BULK_JOB_PROGRESS_QUERY =
+            "UPDATE BulkJob j SET j.status = :" + UPDATE_STATUS
+            + ", j.lastVersionId = :" + UPDATE_LAST_VERSION_ID
+            + ", j.processed = :" + UPDATE_PROCESSED
+            + ", j.failed = :" + UPDATE_FAILED
+            + ", j.elapsedMillis = :" + UPDATE_ELAPSED_MS
+            + " WHERE j.id = :" + LEASE_ID
+            + " AND (j.status IS NULL OR j.status <> :"
+            + UPDATE_CANCELLED + ")";
+
+    /** Name of cancelBulkJob query. */
+    public static final String CANCEL_BULK_JOB = "cancelBulkJob";
+    /** Query of cancelBulkJob query. Only the status of the job
+     * is updated, and only if the job has not finished. */
+    protected static final String CANCEL_BULK_JOB_QUERY =
+            "UPDATE BulkJob j SET j.status = :" + UPDATE_STATUS
+            + " WHERE j.id = :" + LEASE_ID
+            + " AND j.status IN (:" + LEASE_STATUSES + ")";
+
+    /** Name of getResumableBulkJobIds query. */
+    public static final String GET_RESUMABLE_BULK_JOB_IDS =
+            "getResumableBulkJobIds";
+    /** Query of getResumableBulkJobIds query. */
+    protected static final String GET_RESUMABLE_BULK_JOB_IDS_QUERY =
+            "SELECT j.id FROM BulkJob j"
+            + " WHERE j.status IN (:" + LEASE_STATUSES + ")"
+            + " AND (j.leaseOwner IS NULL OR j.leaseExpiry < :"
+            + LEASE_NOW + ")"
+            + " ORDER BY j.id";
+
+    /** id. */
+    private Integer id;
+    /** vocabularyId. */
+    private Integer vocabularyId;
+    /** versionStatus. */
+    private String versionStatus;
+    /** owner. */
+    private String owner;
+    /** params. */
+    private String params;
+    /** status. */
+    private String status;
+    /** lastVersionId. */
+    private Integer lastVersionId;
+    /** total. */
+    private Integer total;
+    /** processed. */
+    private Integer processed;
+    /** failed. */
+    private Integer failed;
+    /** elapsedMillis. */
+    private Long elapsedMillis;
+    /** leaseOwner. */
+    private String leaseOwner;
+    /** leaseExpiry. */
+    private Long leaseExpiry;
+
+    /** Get the id.
+     * @return The id
+     */
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @Column(name = "id", unique = true, nullable = false)
+    public Integer getId() {
+        return id;
+    }
+
+    /** Set the id.
+     * @param anId the id
+     */
+    public void setId(final Integer anId) {
+        id = anId;
+    }
+
+    /** Get the vocabulary id. If set, only versions of this
+     * vocabulary are selected.
+     * @return The vocabulary id
+     */
+    @Column(name = "vocabulary_id")
+    public Integer getVocabularyId() {
+        return vocabularyId;
+    }
+
+    /** Set the vocabulary id.
+     * @param aVocabularyId the vocabulary id
+     */
+    public void setVocabularyId(final Integer aVocabularyId) {
+        vocabularyId = aVocabularyId;
+    }
+
+    /** Get the version status. If set, only versions with this
+     * status are selected.
+     * @return The version status
+     */
+    @Column(name = "version_status", length = 45)
+    public String getVersionStatus() {
+        return versionStatus;
+    }
+
+    /** Set the version status.
+     * @param aVersionStatus the version status
+     */
+    public void setVersionStatus(final String aVersionStatus) {
+        versionStatus = aVersionStatus;
+    }
+
+    /** Get the owner. If set, only versions of vocabularies with
+     * this owner are selected.
+     * @return The owner
+     */
+    @Column(name = "owner", length = 255)
+    public String getOwner() {
+        return owner;
+    }
+
+    /** Set the owner.
+     * @param anOwner the owner
+     */
+    public void setOwner(final String anOwner) {
+        owner = anOwner;
+    }
+
+    /** Get the params. These are the subtasks to be run on each
+     * selected version, as a JSON array.
+     * @return The params
+     */
+    @Column(name = "params", length = 65535)
+    public String getParams() {
+        return params;
+    }
+
+    /** Set the params.
+     * @param aParams the params
+     */
+    public void setParams(final String aParams) {
+        params = aParams;
+    }
+
+    /** Get the status.
+     * @return The status
+     */
+    @Column(name = "status", length = 45)
+    public String getStatus() {
+        return status;
+    }
+
+    /** Set the status.
+     * @param aStatus the status
+     */
+    public void setStatus(final String aStatus) {
+        status = aStatus;
+    }
+
+    /** Get the id of the last version processed. Versions are
+     * processed in order of id, so the job resumes after this one.
+     * @return The last version id
+     */
+    @Column(name = "last_version_id")
+    public Integer getLastVersionId() {
+        return lastVersionId;
+    }
+
+    /** Set the last version id.
+     * @param aLastVersionId the last version id
+     */
+    public void setLastVersionId(final Integer aLastVersionId) {
+        lastVersionId = aLastVersionId;
+    }
+
+    /** Get the total number of versions selected when the job
+     * started.
+     * @return The total
+     */
+    @Column(name = "total")
+    public Integer getTotal() {
+        return total;
+    }
+
+    /** Set the total.
+     * @param aTotal the total
+     */
+    public void setTotal(final Integer aTotal) {
+        total = aTotal;
+    }
+
+    /** Get the number of versions processed so far.
+     * @return The number of versions processed
+     */
+    @Column(name = "processed")
+    public Integer getProcessed() {
+        return processed;
+    }
+
+    /** Set the number of versions processed so far.
+     * @param aProcessed the number of versions processed
+     */
+    public void setProcessed(final Integer aProcessed) {
+        processed = aProcessed;
+    }
+
+    /** Get the number of versions whose task did not succeed.
+     * @return The number of versions that failed
+     */
+    @Column(name = "failed")
+    public Integer getFailed() {
+        return failed;
+    }
+
+    /** Set the number of versions whose task did not succeed.
+     * @param aFailed the number of versions that failed
+     */
+    public void setFailed(final Integer aFailed) {
+        failed = aFailed;
+    }
+
+    /** Get the elapsed time. This is the time spent processing
+     * so far, in milliseconds, over all runs of the job. It includes
+     * the time spent waiting for the rate limit between versions.
+     * @return The elapsed time
+     */
+    @Column(name = "elapsed_ms")
+    public Long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    /** Set the elapsed time.
+     * @param anElapsedMillis the elapsed time
+     */
+    public void setElapsedMillis(final Long anElapsedMillis) {
+        elapsedMillis = anElapsedMillis;
+    }
+
+    /** Get the lease owner. This is the node that is running
+     * the job, or null, if no node is running it.
+     * The lease columns are written only by the lease queries,
+     * so that saving the progress of a job does not overwrite
+     * a lease renewed since the job was read.
+     * @return The lease owner
+     */
+    @Column(name = "lease_owner", length = 255,
+            insertable = false, updatable = false)
+    public String getLeaseOwner() {
+        return leaseOwner;
+    }
+
+    /** Set the lease owner.
+     * @param aLeaseOwner the lease owner
+     */
+    public void setLeaseOwner(final String aLeaseOwner) {
+        leaseOwner = aLeaseOwner;
+    }
+
+    /** Get the lease expiry, in milliseconds since the epoch.
+     * @return The lease expiry
+     */
+    @Column(name = "lease_expiry", insertable = false, updatable = false)
+    public Long getLeaseExpiry() {
+        return leaseExpiry;
+    }
+
+    /** Set the lease expiry.
+     * @param aLeaseExpiry the lease expiry, in milliseconds since
+     *      the epoch
+     */
+    public void setLeaseExpiry(final Long aLeaseExpiry) {
+        leaseExpiry = aLeaseExpiry;
+    }
+
+}
@@ -6,22 +6,58 @@ import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.NamedQueries;
 import javax.persistence.NamedQuery;
 import javax.persistence.Table;
 import javax.xml.bind.annotation.XmlRootElement;
+import javax.xml.bind.annotation.XmlTransient;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
 
 /**
  * Task model class.
  */
 @Entity
 @Table(name = "task")
-/* Rather than including the text of the query directly in the
- * annotation, we use a constant defined in the class itself.
- * This way, it can be found in the generated Javadoc
+/* Rather than including the text of the queries directly in the
+ * annotations, we use constants defined in the class itself.
+ * This way, they can be found (fully expanded!) in the generated Javadoc
  * in the "Constant Field Values" page. */
-@NamedQuery(
-        name = Task.GET_ALL_TASKS,
-        query = Task.GET_ALL_TASKS_QUERY)
+@NamedQueries({
+    @NamedQuery(
+            name = Task.GET_ALL_TASKS,
+            query = Task.GET_ALL_TASKS_QUERY),
+    @NamedQuery(
+            name = Task.GET_TASKS_OF_VERSION_LATEST_FIRST,
+            query = Task.GET_TASKS_OF_VERSION_LATEST_FIRST_QUERY),
+    @NamedQuery(
+            name = Task.COUNT_UNFINISHED_TASKS_OF_VERSION,
+            query = Task.COUNT_UNFINISHED_TASKS_OF_VERSION_QUERY),
+    @NamedQuery(
+            name = Task.UPDATE_TASK_STATUS_AND_RESPONSE,
+            query = Task.UPDATE_TASK_STATUS_AND_RESPONSE_QUERY),
+    @NamedQuery(
+            name = Task.UPDATE_UNCANCELLED_TASK_STATUS_AND_RESPONSE,
+            query = Task.UPDATE_UNCANCELLED_TASK_STATUS_AND_RESPONSE_QUERY),
+    @NamedQuery(
+            name = Task.CANCEL_TASK,
+            query = Task.CANCEL_TASK_QUERY),
+    @NamedQuery(
+            name = Task.CLAIM_TASK,
+            query = Task.CLAIM_TASK_QUERY),
+    @NamedQuery(
+            name = Task.CLAIM_UNFINISHED_TASK,
+            query = Task.CLAIM_UNFINISHED_TASK_QUERY),
+    @NamedQuery(
+            name = Task.RENEW_TASK_LEASE,
+            query = Task.RENEW_TASK_LEASE_QUERY),
+    @NamedQuery(
+            name = Task.RELEASE_TASK_LEASE,
+            query = Task.RELEASE_TASK_LEASE_QUERY),
+    @NamedQuery(
+            name = Task.GET_CLAIMABLE_TASK_IDS,
+            query = Task.GET_CLAIMABLE_TASK_IDS_QUERY)
+})
 @XmlRootElement
 public class Task {
 
@@ -30,6 +66,168 @@ public class Task {
     /** Query of getAllTasks query. */
     protected static final String GET_ALL_TASKS_QUERY = "SELECT t FROM Task t";
 
+    /** Name of getTasksOfVersionLatestFirst query. */
+    public static final String GET_TASKS_OF_VERSION_LATEST_FIRST =
+            "getTasksOfVersionLatestFirst";
+    /** Name of getTasksOfVersionLatestFirst and
+     * countUnfinishedTasksOfVersion queries' version id parameter. */
+    public static final String OF_VERSION_VERSION_ID = "versionId";
+    /** Query of getTasksOfVersionLatestFirst query. */
+    protected static final String GET_TASKS_OF_VERSION_LATEST_FIRST_QUERY =
+            "SELECT t FROM Task t WHERE t.versionId = :"
+            + OF_VERSION_VERSION_ID
+            + " ORDER BY t.id DESC";
+
+    /** Name of countUnfinishedTasksOfVersion query. */
+    public static final String COUNT_UNFINISHED_TASKS_OF_VERSION =
+            "countUnfinishedTasksOfVersion";
+    /** Name of countUnfinishedTasksOfVersion query's terminal
+     * statuses parameter. */
+    public static final String OF_VERSION_TERMINAL_STATUSES =
+            "terminalStatuses";
+    /** Query of countUnfinishedTasksOfVersion query. */
+    protected static final String COUNT_UNFINISHED_TASKS_OF_VERSION_QUERY =
+            "SELECT COUNT(t) FROM Task t WHERE t.versionId = :"
+            + OF_VERSION_VERSION_ID
+            + " AND (t.status IS NULL OR t.status NOT IN :"
+            + OF_VERSION_TERMINAL_STATUSES + ")";
+
+    /** Name of updateTaskStatusAndResponse query. */
+    public static final String UPDATE_TASK_STATUS_AND_RESPONSE =
+            "updateTaskStatusAndResponse";
+    /** Name of updateTaskStatusAndResponse query's id parameter. */
+    public static final String UPDATE_TASK_STATUS_AND_RESPONSE_ID = "id";
+    /** Name of updateTaskStatusAndResponse query's status parameter. */
+    public static final String UPDATE_TASK_STATUS_AND_RESPONSE_STATUS =
+            "status";
+    /** Name of updateTaskStatusAndResponse query's response parameter. */
+    public static final String UPDATE_TASK_STATUS_AND_RESPONSE_RESPONSE =
+            "response";
+    /** Query of updateTaskStatusAndResponse query. */
+    protected static final String UPDATE_TASK_STATUS_AND_RESPONSE_QUERY =
+            "UPDATE Task t SET t.status = :"
+            + UPDATE_TASK_STATUS_AND_RESPONSE_STATUS
+            + ", t.response = :"
+            + UPDATE_TASK_STATUS_AND_RESPONSE_RESPONSE
+            + " WHERE t.id = :"
+            + UPDATE_TASK_STATUS_AND_RESPONSE_ID;
+
+    /** Name of updateUncancelledTaskStatusAndResponse query. */
+    public static final String UPDATE_UNCANCELLED_TASK_STATUS_AND_RESPONSE =
+            "updateUncancelledTaskStatusAndResponse";
+    /** Name of updateUncancelledTaskStatusAndResponse query's
+     * cancelled status parameter. */
+    public static final String UPDATE_TASK_STATUS_AND_RESPONSE_CANCELLED =
+            "cancelled";
+    /** Query of updateUncancelledTaskStatusAndResponse query.
+     * As updateTaskStatusAndResponse, but the task is not updated
+     * if it has been given the cancelled status, so that a
+     * cancellation made by another node is not overwritten before
+     * the node running the task finds out about it. */
+    protected static final String
+        UPDATE_UNCANCELLED_TASK_STATUS_AND_RESPONSE_QUERY =
+            UPDATE_TASK_STATUS_AND_RESPONSE_QUERY
+            + " AND (t.status IS NULL OR t.status <> :"
+            + UPDATE_TASK_STATUS_AND_RESPONSE_CANCELLED + ")";
+
+    /** Name of cancelTask query. */
+    public static final String CANCEL_TASK = "cancelTask";
+    /** Name of cancelTask query's id parameter. */
+    public static final String CANCEL_TASK_ID = "id";
+    /** Name of cancelTask query's cancelled status parameter. */
+    public static final String CANCEL_TASK_CANCELLED = "cancelled";
+    /** Name of cancelTask query's terminal statuses parameter. */
+    public static final String CANCEL_TASK_TERMINAL_STATUSES =
+            "terminalStatuses";
+    /** Query of cancelTask query. Only the status of the task is
+     * updated, and only if the task has not finished. The response
+     * is left as it is, so that the results of the subtasks that
+     * have been completed, and their checkpoints, are kept. */
+    protected static final String CANCEL_TASK_QUERY =
+            "UPDATE Task t SET t.status = :" + CANCEL_TASK_CANCELLED
+            + " WHERE t.id = :" + CANCEL_TASK_ID
+            + " AND (t.status IS NULL OR t.status NOT IN :"
+            + CANCEL_TASK_TERMINAL_STATUSES + ")";
+
+    /** Name of claimTask query. */
+    public static final String CLAIM_TASK = "claimTask";
+    /** Name of lease queries' id parameter. */
+    public static final String LEASE_ID = "id";
+    /** Name of lease queries' owner parameter. */
+    public static final String LEASE_OWNER = "owner";
+    /** Name of lease queries' expiry parameter. */
+    public static final String LEASE_EXPIRY = "expiry";
+    /** Name of lease queries' now parameter. */
+    public static final String LEASE_NOW = "now";
+    /** Name of claimUnfinishedTask query's
+     * terminal statuses parameter. */
+    public static final String LEASE_TERMINAL_STATUSES = "terminalStatuses";
+    /** Name of claimTask and getClaimableTaskIds queries'
+     * status parameter. */
+    public static final String CLAIM_TASK_STATUS = "status";
+    /** Query of claimTask query. The task is claimed only if nobody
+     * holds an unexpired lease on it. A task that has finished
+     * can be claimed, so that it can be run again. */
+    protected static final String CLAIM_TASK_QUERY =
+            "UPDATE Task t SET t.leaseOwner = :" + LEASE_OWNER
+            + ", t.leaseExpiry = :" + LEASE_EXPIRY
+            + ", t.status = :" + CLAIM_TASK_STATUS
+            + " WHERE t.id = :" + LEASE_ID
+            + " AND (t.leaseOwner IS NULL OR t.leaseExpiry < :"
+            + LEASE_NOW + ")";
+
+    /** Name of claimUnfinishedTask query. */
+    public static final String CLAIM_UNFINISHED_TASK =
+            "claimUnfinishedTask";
+    /** Query of claimUnfinishedTask query. As claimTask, but the task
+     * is claimed only if it has not finished. A node that has waited
+     * for another node to release the lease uses this, so that it
+     * does not run again a task that the other node has run. */
+    protected static final String CLAIM_UNFINISHED_TASK_QUERY =
+            CLAIM_TASK_QUERY
+            + " AND (t.status IS NULL OR t.status NOT IN :"
+            + LEASE_TERMINAL_STATUSES + ")";
+
+    /** Name of renewTaskLease query. */
+    public static final String RENEW_TASK_LEASE = "renewTaskLease";
+    /** Name of renewTaskLease query's cancelled status parameter. */
+    public static final String RENEW_TASK_LEASE_CANCELLED = "cancelled";
+    /** Query of renewTaskLease query. The lease is not renewed
+     * if the task has been given the cancelled status, so that
+     * the node running it finds out that it has been cancelled. */
+    protected static final String RENEW_TASK_LEASE_QUERY =
+            "UPDATE Task t SET t.leaseExpiry = :" + LEASE_EXPIRY
+            + " WHERE t.id = :" + LEASE_ID
+            + " AND t.leaseOwner = :" + LEASE_OWNER
+            + " AND (t.status IS NULL OR t.status <> :"
+            + RENEW_TASK_LEASE_CANCELLED + ")";
+
+    /** Name of releaseTaskLease query. */
+    public static final String RELEASE_TASK_LEASE = "releaseTaskLease";
+    /** Query of releaseTaskLease query. */
+    protected static final String RELEASE_TASK_LEASE_QUERY =
+            "UPDATE Task t SET t.leaseOwner = NULL, t.leaseExpiry = NULL"
+            + " WHERE t.id = :" + LEASE_ID
+            + " AND t.leaseOwner = :" + LEASE_OWNER;
+
+    /** Name of getClaimableTaskIds query. */
+    public static final String GET_CLAIMABLE_TASK_IDS =
+            "getClaimableTaskIds";
+    /** Query of getClaimableTaskIds query. Only tasks that have been
+     * claimed, but not finished, are included, i.e., those with
+     * status claimed; tasks that have never been claimed, such as
+     * those created before leases were introduced, are not.
+     * Tasks whose lease has expired are included, so that tasks of
+     * a node that has died are reclaimed, as are tasks whose lease
+     * was released before they finished, e.g., because their node
+     * was shut down. */
+    protected static final String GET_CLAIMABLE_TASK_IDS_QUERY =
+            "SELECT t.id FROM Task t"
+            + " WHERE t.status = :" + CLAIM_TASK_STATUS
+            + " AND (t.leaseOwner IS NULL OR t.leaseExpiry < :"
+            + LEASE_NOW + ")"
+            + " ORDER BY t.id";
+
     /** id. */
     private Integer id;
     /** status. */
@@ -42,6 +240,10 @@ public class Task {
     private Integer vocabularyId;
     /** versionId. */
     private Integer versionId;
+    /** leaseOwner. */
+    private String leaseOwner;
+    /** leaseExpiry. */
+    private Long leaseExpiry;
 
     /** Get the id.
      * @return The id
@@ -135,4 +337,46 @@ public class Task {
         versionId = aVersionId;
     }
 
+    /** Get the lease owner. This is the node that has claimed
+     * the task, or null, if no node has claimed it.
+     * The lease columns are written only by the lease queries,
+     * so that merging a Task that has been read earlier does not
+     * overwrite a lease taken or renewed since.
+     * The lease columns are internal to the Toolkit, and are not
+     * included in the JSON and XML representations of a task.
+     * @return The lease owner
+     */
+    @XmlTransient
+    @JsonIgnore
+    @Column(name = "lease_owner", length = 255,
+            insertable = false, updatable = false)
+    public String getLeaseOwner() {
+        return leaseOwner;
+    }
+
+    /** Set the lease owner.
+     * @param aLeaseOwner the lease owner
+     */
+    public void setLeaseOwner(final String aLeaseOwner) {
+        leaseOwner = aLeaseOwner;
+    }
+
+    /** Get the lease expiry, in milliseconds since the epoch.
+     * @return The lease expiry
+     */
+    @XmlTransient
+    @JsonIgnore
+    @Column(name = "lease_expiry", insertable = false, updatable = false)
+    public Long getLeaseExpiry() {
+        return leaseExpiry;
+    }
+
+    /** Set the lease expiry.
+     * @param aLeaseExpiry the lease expiry, in milliseconds since
+     *      the epoch
+     */
+    public void setLeaseExpiry(final Long aLeaseExpiry) {
+        leaseExpiry = aLeaseExpiry;
+    }
+
 }
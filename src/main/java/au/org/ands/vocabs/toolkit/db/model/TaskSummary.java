@@ -0,0 +1,63 @@
+/** See the file "LICENSE" for the full license governing this code. */
+package au.org.ands.vocabs.toolkit.db.model;
+
+/**
+ * Summary of a task, without its (potentially large) params and
+ * response values. This is not an entity; instances are
+ * created by queries that select only the summary columns of
+ * the task table.
+ */
+public class TaskSummary {
+
+    /** id. */
+    private Integer id;
+    /** status. */
+    private String status;
+    /** vocabularyId. */
+    private Integer vocabularyId;
+    /** versionId. */
+    private Integer versionId;
+
+    /** Constructor. Used by queries that select task summaries.
+     * @param anId The task id
+     * @param aStatus The task status
+     * @param aVocabularyId The vocabulary id of the task
+     * @param aVersionId The version id of the task
+     */
+    public TaskSummary(final Integer anId, final String aStatus,
+            final Integer aVocabularyId, final Integer aVersionId) {
+        id = anId;
+        status = aStatus;
+        vocabularyId = aVocabularyId;
+        versionId = aVersionId;
+    }
+
+    /** Get the id.
+     * @return The id
+     */
+    public Integer getId() {
+        return id;
+    }
+
+    /** Get the status.
+     * @return The status
+     */
+    public String getStatus() {
+        return status;
+    }
+
+    /** Get the vocabulary id.
+     * @return The vocabulary id
+     */
+    public Integer getVocabularyId() {
+        return vocabularyId;
+    }
+
+    /** Get the version id.
+     * @return The version id
+     */
+    public Integer getVersionId() {
+        return versionId;
+    }
+
+}
@@ -1,6 +1,7 @@
 /** See the file "LICENSE" for the full license governing this code. */
 package au.org.ands.vocabs.toolkit.db.model;
 
+import javax.persistence.Cacheable;
 import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
@@ -18,6 +19,7 @@ import au.org.ands.vocabs.toolkit.db.TaskUtils;
  * Version model class.
  */
 @Entity
+@Cacheable
 @Table(name = "versions")
 /* Rather than including the text of the query directly in the
  * annotation, we use a constant defined in the class itself.
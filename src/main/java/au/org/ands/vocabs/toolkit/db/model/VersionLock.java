@@ -0,0 +1,129 @@
+/** See the file "LICENSE" for the full license governing this code. */
+package au.org.ands.vocabs.toolkit.db.model;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.NamedQueries;
+import javax.persistence.NamedQuery;
+import javax.persistence.Table;
+import javax.xml.bind.annotation.XmlRootElement;
+
+/**
+ * VersionLock model class. A row of the version_lock table
+ * records that a node holds the lock for a vocabulary version,
+ * until the lock expires. Tasks on the same version hold the lock
+ * while they run, so that they do not run at the same time,
+ * even on different nodes.
+ */
+@Entity
+@Table(name = "version_lock")
+/* Rather than including the text of the queries directly in the
+ * annotations, we use constants defined in the class itself.
+ * This way, they can be found (fully expanded!) in the generated Javadoc
+ * in the "Constant Field Values" page. */
+@NamedQueries({
+    @NamedQuery(
+            name = VersionLock.TAKE_VERSION_LOCK,
+            query = VersionLock.TAKE_VERSION_LOCK_QUERY),
+    @NamedQuery(
+            name = VersionLock.RENEW_VERSION_LOCK,
+            query = VersionLock.RENEW_VERSION_LOCK_QUERY),
+    @NamedQuery(
+            name = VersionLock.RELEASE_VERSION_LOCK,
+            query = VersionLock.RELEASE_VERSION_LOCK_QUERY)
+})
+@XmlRootElement
+public class VersionLock {
+
+    /** Name of version lock queries' versionId parameter. */
+    public static final String LOCK_VERSION_ID = "versionId";
+    /** Name of version lock queries' owner parameter. */
+    public static final String LOCK_OWNER = "owner";
+    /** Name of version lock queries' expiry parameter. */
+    public static final String LOCK_EXPIRY = "expiry";
+    /** Name of version lock queries' now parameter. */
+    public static final String LOCK_NOW = "now";
+
+    /** Name of takeVersionLock query. */
+    public static final String TAKE_VERSION_LOCK = "takeVersionLock";
+    /** Query of takeVersionLock query. An existing lock row is
+     * taken over only if it has expired, or is already owned by
+     * the same owner. */
+    protected static final String TAKE_VERSION_LOCK_QUERY =
+            "UPDATE VersionLock v SET v.owner = :" + LOCK_OWNER
+            + ", v.expiry = :" + LOCK_EXPIRY
+            + " WHERE v.versionId = :" + LOCK_VERSION_ID
+            + " AND (v.owner = :" + LOCK_OWNER
+            + " OR v.expiry < :" + LOCK_NOW + ")";
+
+    /** Name of renewVersionLock query. */
+    public static final String RENEW_VERSION_LOCK = "renewVersionLock";
+    /** Query of renewVersionLock query. */
+    protected static final String RENEW_VERSION_LOCK_QUERY =
+            "UPDATE VersionLock v SET v.expiry = :" + LOCK_EXPIRY
+            + " WHERE v.versionId = :" + LOCK_VERSION_ID
+            + " AND v.owner = :" + LOCK_OWNER;
+
+    /** Name of releaseVersionLock query. */
+    public static final String RELEASE_VERSION_LOCK = "releaseVersionLock";
+    /** Query of releaseVersionLock query. */
+    protected static final String RELEASE_VERSION_LOCK_QUERY =
+            "DELETE FROM VersionLock v"
+            + " WHERE v.versionId = :" + LOCK_VERSION_ID
+            + " AND v.owner = :" + LOCK_OWNER;
+
+    /** versionId. */
+    private Integer versionId;
+    /** owner. */
+    private String owner;
+    /** expiry. */
+    private Long expiry;
+
+    /** Get the version id.
+     * @return The version id
+     */
+    @Id
+    @Column(name = "version_id", unique = true, nullable = false)
+    public Integer getVersionId() {
+        return versionId;
+    }
+
+    /** Set the version id.
+     * @param aVersionId the version id
+     */
+    public void setVersionId(final Integer aVersionId) {
+        versionId = aVersionId;
+    }
+
+    /** Get the owner.
+     * @return The owner
+     */
+    @Column(name = "owner", length = 255, nullable = false)
+    public String getOwner() {
+        return owner;
+    }
+
+    /** Set the owner.
+     * @param anOwner the owner
+     */
+    public void setOwner(final String anOwner) {
+        owner = anOwner;
+    }
+
+    /** Get the expiry, in milliseconds since the epoch.
+     * @return The expiry
+     */
+    @Column(name = "expiry", nullable = false)
+    public Long getExpiry() {
+        return expiry;
+    }
+
+    /** Set the expiry.
+     * @param anExpiry the expiry, in milliseconds since the epoch
+     */
+    public void setExpiry(final Long anExpiry) {
+        expiry = anExpiry;
+    }
+
+}
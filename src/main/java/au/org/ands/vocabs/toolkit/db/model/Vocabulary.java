@@ -3,6 +3,7 @@ package au.org.ands.vocabs.toolkit.db.model;
 
 import java.util.Date;
 
+import javax.persistence.Cacheable;
 import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
@@ -16,6 +17,7 @@ import javax.persistence.TemporalType;
  * Vocabulary model class.
  */
 @Entity
+@Cacheable
 @Table(name = "vocabularies")
 public class Vocabulary {
 
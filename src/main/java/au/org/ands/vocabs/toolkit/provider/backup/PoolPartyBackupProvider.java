@@ -28,6 +28,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import au.org.ands.vocabs.toolkit.tasks.TaskStatus;
+import au.org.ands.vocabs.toolkit.utils.FlightEvents;
+import au.org.ands.vocabs.toolkit.utils.Metrics;
 import au.org.ands.vocabs.toolkit.utils.PropertyConstants;
 import au.org.ands.vocabs.toolkit.utils.ToolkitFileUtils;
 import au.org.ands.vocabs.toolkit.utils.ToolkitNetUtils;
@@ -40,6 +42,9 @@ public class PoolPartyBackupProvider extends BackupProvider {
     private final Logger logger = LoggerFactory.getLogger(
             MethodHandles.lookup().lookupClass());
 
+    /** The name of the service, as used in metrics. */
+    private static final String SERVICE = "PoolParty";
+
     /** Get all PoolParty project IDs.
      * @return An ArrayList of all IDs as Strings.
      */
@@ -62,7 +67,13 @@ public class PoolPartyBackupProvider extends BackupProvider {
         Invocation.Builder invocationBuilder =
                 target.request(MediaType.APPLICATION_JSON);
 
-        Response response = invocationBuilder.get();
+        Response response;
+        try (Metrics.Operation operation =
+                ToolkitNetUtils.startRequest(SERVICE, "projects")) {
+            response = invocationBuilder.get();
+            operation.complete(response.getStatus()
+                    < Response.Status.BAD_REQUEST.getStatusCode());
+        }
 
         InputStream is = response.readEntity(InputStream.class);
 
@@ -137,11 +148,23 @@ public class PoolPartyBackupProvider extends BackupProvider {
         Invocation.Builder invocationBuilder =
                 thisTarget.request(MediaType.APPLICATION_XML);
 
-        Response response = invocationBuilder.get();
+        Response response;
+        String responseData = null;
+        FlightEvents.Span span = FlightEvents.httpExport(SERVICE,
+                "backup", thisTarget.getUri().toString());
+        try (Metrics.Operation operation =
+                ToolkitNetUtils.startRequest(SERVICE, "backup")) {
+            response = invocationBuilder.get();
+            if (response.getStatus()
+                    < Response.Status.BAD_REQUEST.getStatusCode()) {
+                responseData = response.readEntity(String.class);
+                operation.complete(true);
+            }
+        } finally {
+            span.close();
+        }
 
-        if (response.getStatus()
-                < Response.Status.BAD_REQUEST.getStatusCode()) {
-            String responseData = response.readEntity(String.class);
+        if (responseData != null) {
             Date date = new Date();
             SimpleDateFormat dateFormat = new SimpleDateFormat(
                     "yyyy-MM-dd'T'HH:mm:ss");
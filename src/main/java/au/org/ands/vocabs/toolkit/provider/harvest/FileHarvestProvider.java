@@ -3,14 +3,15 @@ package au.org.ands.vocabs.toolkit.provider.harvest;
 
 import java.io.IOException;
 import java.lang.invoke.MethodHandles;
-import java.nio.file.AccessDeniedException;
 import java.nio.file.DirectoryIteratorException;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -63,6 +64,12 @@ public class FileHarvestProvider extends HarvestProvider {
         ToolkitFileUtils.requireDirectory(outputPath);
         Path filePathPath = Paths.get(filePath);
         Path outputPathPath = Paths.get(outputPath);
+        // The files that have been copied, for which access points
+        // are to be created.
+        List<Path> targets = new ArrayList<>();
+        // The files that have been copied, that are to be deleted
+        // once access points have been created.
+        List<Path> toDelete = new ArrayList<>();
         if (Files.isDirectory(filePathPath)) {
             logger.debug("Harvesting file(s) from directory " + filePath);
             try (DirectoryStream<Path> stream =
@@ -76,17 +83,8 @@ public class FileHarvestProvider extends HarvestProvider {
                                 entry.getFileName());
                         Files.copy(entry, target,
                                 StandardCopyOption.REPLACE_EXISTING);
-                        AccessPointUtils.createFileAccessPoint(version,
-                                format, target);
-                        if (delete) {
-                            logger.debug("Deleting file: " + entry.toString());
-                            try {
-                                Files.delete(entry);
-                            } catch (AccessDeniedException e) {
-                                logger.error("Unable to delete file: "
-                                        + entry.toString(), e);
-                            }
-                        }
+                        targets.add(target);
+                        toDelete.add(entry);
                     }
                 }
             } catch (DirectoryIteratorException
@@ -104,17 +102,8 @@ public class FileHarvestProvider extends HarvestProvider {
                         filePathPath.getFileName());
                 Files.copy(filePathPath, target,
                         StandardCopyOption.REPLACE_EXISTING);
-                AccessPointUtils.createFileAccessPoint(version,
-                        format, target);
-                if (delete) {
-                    logger.debug("Deleting file: " + filePathPath.toString());
-                    try {
-                        Files.delete(filePathPath);
-                    } catch (AccessDeniedException e) {
-                        logger.error("Unable to delete file: "
-                                + filePathPath.toString(), e);
-                    }
-                }
+                targets.add(target);
+                toDelete.add(filePathPath);
             } catch (IOException e) {
                 results.put(TaskStatus.EXCEPTION,
                         "Exception in getHarvestFiles while copying file");
@@ -123,6 +112,19 @@ public class FileHarvestProvider extends HarvestProvider {
                 return false;
             }
         }
+        // Create all the access points in one go.
+        AccessPointUtils.createFileAccessPoints(version, format, targets);
+        if (delete) {
+            for (Path entry : toDelete) {
+                logger.debug("Deleting file: " + entry.toString());
+                try {
+                    Files.delete(entry);
+                } catch (IOException e) {
+                    logger.error("Unable to delete file: "
+                            + entry.toString(), e);
+                }
+            }
+        }
         // If we reached here, success, so return true.
         return true;
     }
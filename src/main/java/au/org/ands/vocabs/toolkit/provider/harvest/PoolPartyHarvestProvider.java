@@ -5,7 +5,11 @@ import java.lang.invoke.MethodHandles;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
+import javax.ws.rs.ProcessingException;
 import javax.ws.rs.client.Client;
 import javax.ws.rs.client.Invocation;
 import javax.ws.rs.client.WebTarget;
@@ -19,8 +23,12 @@ import org.slf4j.LoggerFactory;
 import com.fasterxml.jackson.databind.JsonNode;
 
 import au.org.ands.vocabs.toolkit.db.TaskUtils;
+import au.org.ands.vocabs.toolkit.tasks.ProgressListener;
+import au.org.ands.vocabs.toolkit.tasks.TaskControl;
 import au.org.ands.vocabs.toolkit.tasks.TaskInfo;
 import au.org.ands.vocabs.toolkit.tasks.TaskStatus;
+import au.org.ands.vocabs.toolkit.utils.FlightEvents;
+import au.org.ands.vocabs.toolkit.utils.Metrics;
 import au.org.ands.vocabs.toolkit.utils.PropertyConstants;
 import au.org.ands.vocabs.toolkit.utils.ToolkitFileUtils;
 import au.org.ands.vocabs.toolkit.utils.ToolkitNetUtils;
@@ -32,6 +40,9 @@ public class PoolPartyHarvestProvider extends HarvestProvider {
     private final Logger logger = LoggerFactory.getLogger(
             MethodHandles.lookup().lookupClass());
 
+    /** The name of the service, as used in metrics. */
+    private static final String SERVICE = "PoolParty";
+
     @Override
     public final String getInfo() {
         String remoteUrl = PROPS.getProperty(
@@ -52,18 +63,24 @@ public class PoolPartyHarvestProvider extends HarvestProvider {
         Invocation.Builder invocationBuilder =
                 target.request(MediaType.APPLICATION_JSON);
 
-        Response response = invocationBuilder.get();
-
-        // This is how you do it if you want to parse the JSON.
-        //            InputStream is = response.readEntity(InputStream.class);
-        //            JsonReader jsonReader = Json.createReader(is);
-        //            JsonStructure jsonStructure = jsonReader.readArray();
-        //            return jsonStructure.toString();
+        try (Metrics.Operation operation =
+                ToolkitNetUtils.startRequest(SERVICE, "projects")) {
+            Response response = invocationBuilder.get();
 
-        // Oops, for tidyness, should close the Response object here.
-        // But the Jersey implementation closes the underlying
-        // resources as part of readEntity().
-        return response.readEntity(String.class);
+            // This is how you do it if you want to parse the JSON.
+            //        InputStream is = response.readEntity(InputStream.class);
+            //        JsonReader jsonReader = Json.createReader(is);
+            //        JsonStructure jsonStructure = jsonReader.readArray();
+            //        return jsonStructure.toString();
+
+            // Oops, for tidyness, should close the Response object here.
+            // But the Jersey implementation closes the underlying
+            // resources as part of readEntity().
+            String info = response.readEntity(String.class);
+            operation.complete(response.getStatus()
+                    < Response.Status.BAD_REQUEST.getStatusCode());
+            return info;
+        }
     }
 
     /** Do a harvest. Update the message parameter with the result
@@ -81,6 +98,34 @@ public class PoolPartyHarvestProvider extends HarvestProvider {
             final boolean getMetadata,
             final boolean returnOutputPaths,
             final HashMap<String, String> results) {
+        return getHarvestFiles(ppProjectId, outputPath, getMetadata,
+                returnOutputPaths, results, null);
+    }
+
+    /** Do a harvest, under the control of a task. Update the message
+     * parameter with the result of the harvest.
+     * @param ppProjectId The PoolParty project id.
+     * @param outputPath The directory in which to store output files.
+     * @param getMetadata Whether or not to get ADMS and VOID metadata
+     * @param returnOutputPaths Whether or not to store the full path
+     * of each harvested file in the results map.
+     * @param results HashMap representing the result of the harvest.
+     * @param taskInfo The TaskInfo object of the task, or null,
+     * if the harvest is not part of a task.
+     * @return True, iff the harvest succeeded.
+     */
+    public final boolean getHarvestFiles(final String ppProjectId,
+            final String outputPath,
+            final boolean getMetadata,
+            final boolean returnOutputPaths,
+            final HashMap<String, String> results,
+            final TaskInfo taskInfo) {
+        TaskControl control = null;
+        ProgressListener listener = ProgressListener.NONE;
+        if (taskInfo != null) {
+            control = taskInfo.getControl();
+            listener = taskInfo.getProgressListener();
+        }
         String remoteUrl = PROPS.getProperty(
                 PropertyConstants.POOLPARTYHARVESTER_REMOTEURL);
         String username = PROPS.getProperty(
@@ -124,21 +169,53 @@ public class PoolPartyHarvestProvider extends HarvestProvider {
             Invocation.Builder invocationBuilder =
                     thisTarget.request(MediaType.APPLICATION_XML);
 
-            Response response = invocationBuilder.get();
-
-            if (response.getStatus()
-                    >= Response.Status.BAD_REQUEST.getStatusCode()) {
-                logger.error("getHarvestFiles got an error from PoolParty; "
-                        + "response code = " + response.getStatus());
-
-                results.put(TaskStatus.ERROR,
-                        "PoolPartyHarvestProvider.getHarvestFiles() "
-                        + "got an error from PoolParty; "
-                        + "response code = " + response.getStatus());
-                return false;
+            Response response;
+            String responseData;
+            FlightEvents.Span span = FlightEvents.httpExport(
+                    SERVICE, exportModule, thisTarget.getUri().toString());
+            try (Metrics.Operation operation =
+                    ToolkitNetUtils.startRequest(SERVICE, "export")) {
+                response = getResponse(invocationBuilder, control);
+
+                if (response.getStatus()
+                        >= Response.Status.BAD_REQUEST.getStatusCode()) {
+                    logger.error("getHarvestFiles got an error from "
+                            + "PoolParty; response code = "
+                            + response.getStatus());
+
+                    results.put(TaskStatus.ERROR,
+                            "PoolPartyHarvestProvider.getHarvestFiles() "
+                            + "got an error from PoolParty; "
+                            + "response code = " + response.getStatus());
+                    return false;
+                }
+
+                if (control == null) {
+                    responseData = response.readEntity(String.class);
+                } else {
+                    // Closing the response aborts reading of the body.
+                    AutoCloseable responseCloser =
+                            control.register(response::close);
+                    try {
+                        responseData = response.readEntity(String.class);
+                    } catch (ProcessingException e) {
+                        control.checkpoint();
+                        throw e;
+                    } finally {
+                        control.unregister(responseCloser);
+                    }
+                }
+                operation.complete(true);
+            } finally {
+                span.close();
             }
 
-            String responseData = response.readEntity(String.class);
+            long length = response.getLength();
+            if (length < 0) {
+                // No Content-Length; use the number of characters.
+                length = responseData.length();
+            }
+            listener.increment(ProgressListener.BYTES_DOWNLOADED, length);
 
             String filePath = ToolkitFileUtils.saveFile(
                     outputPath,
@@ -154,6 +231,40 @@ public class PoolPartyHarvestProvider extends HarvestProvider {
         return true;
     }
 
+    /** Send a GET request to PoolParty. If the request is made
+     * under the control of a task, it is sent asynchronously,
+     * so that it can be abandoned if the task is cancelled.
+     * @param invocationBuilder The builder for the request.
+     * @param control The control for cancellation and time budgets
+     * of the task, or null, if the request is not part of a task.
+     * @return The response.
+     */
+    private Response getResponse(final Invocation.Builder invocationBuilder,
+            final TaskControl control) {
+        if (control == null) {
+            return invocationBuilder.get();
+        }
+        control.checkpoint();
+        Future<Response> future = invocationBuilder.async().get();
+        AutoCloseable canceller = control.register(() -> future.cancel(true));
+        try {
+            return future.get();
+        } catch (CancellationException e) {
+            control.checkpoint();
+            throw e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ProcessingException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new ProcessingException(e.getCause());
+        } finally {
+            control.unregister(canceller);
+        }
+    }
+
     /** Do a harvest. Update the result parameter with the result
      * of the harvest.
      * @param taskInfo The TaskInfo object describing the entire task.
@@ -176,7 +287,7 @@ public class PoolPartyHarvestProvider extends HarvestProvider {
         String projectId = subtask.get("project_id").textValue();
         return getHarvestFiles(projectId,
                 ToolkitFileUtils.getTaskHarvestOutputPath(taskInfo),
-                false, true, results);
+                false, true, results, taskInfo);
     }
 
     /** Get metadata for a PoolParty project.
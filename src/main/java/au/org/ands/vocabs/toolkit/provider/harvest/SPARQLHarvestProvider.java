@@ -24,8 +24,12 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import au.org.ands.vocabs.toolkit.db.TaskUtils;
+import au.org.ands.vocabs.toolkit.tasks.CancellableRDFHandler;
+import au.org.ands.vocabs.toolkit.tasks.ProgressListener;
+import au.org.ands.vocabs.toolkit.tasks.TaskControl;
 import au.org.ands.vocabs.toolkit.tasks.TaskInfo;
 import au.org.ands.vocabs.toolkit.tasks.TaskStatus;
+import au.org.ands.vocabs.toolkit.utils.FlightEvents;
 import au.org.ands.vocabs.toolkit.utils.ToolkitFileUtils;
 
 import com.fasterxml.jackson.databind.JsonNode;
@@ -78,6 +82,7 @@ public class SPARQLHarvestProvider extends HarvestProvider {
 
         Repository remoteRepository;
         RepositoryConnection conn;
+        TaskControl control = taskInfo.getControl();
 
         try {
             logger.debug("SPARQL harvest attempting to connect to remote "
@@ -85,16 +90,27 @@ public class SPARQLHarvestProvider extends HarvestProvider {
             remoteRepository = new SPARQLRepository(sparqlEndpoint);
             remoteRepository.initialize();
             conn = remoteRepository.getConnection();
+            // If the task is cancelled, closing the connection
+            // aborts a query that is waiting on the endpoint.
+            AutoCloseable connCloser = control.register(conn::close);
             String queryString = "CONSTRUCT {?s ?p ?o} WHERE {?s ?p ?o}";
             GraphQuery query = conn.prepareGraphQuery(QueryLanguage.SPARQL,
                     queryString);
 
-            OutputStream output = new FileOutputStream(outputFileRDF);
+            OutputStream output = control.register(
+                    new FileOutputStream(outputFileRDF));
 //            RDFXMLWriter rdfxmlWriter = new RDFXMLWriter(output);
             RDFWriter rdfxmlWriter = Rio.createWriter(RDFFormat.RDFXML, output);
 
             // Evaluate the query and store the results.
-            query.evaluate(rdfxmlWriter);
+            FlightEvents.Span span = FlightEvents.httpExport(
+                    "SPARQL", "construct", sparqlEndpoint);
+            try {
+                query.evaluate(new CancellableRDFHandler(rdfxmlWriter,
+                        taskInfo, ProgressListener.STATEMENTS_PARSED));
+            } finally {
+                span.close();
+            }
 
         // If needed: here's code to generate JSON output.
 //        String outputFileJSON =
@@ -109,8 +125,10 @@ public class SPARQLHarvestProvider extends HarvestProvider {
 //        logger.debug("exportSesame Saved RDF as :" + outputFileJSON);
 
             output.write('\n');
+            control.unregister(output);
             output.close();
             logger.debug("SPARQL harvest saved RDF as: " + outputFileRDF);
+            control.unregister(connCloser);
             conn.close();
             remoteRepository.shutDown();
         } catch (RepositoryException | IOException
@@ -26,7 +26,10 @@ import com.fasterxml.jackson.databind.JsonNode;
 import au.org.ands.vocabs.toolkit.db.TaskUtils;
 import au.org.ands.vocabs.toolkit.tasks.TaskInfo;
 import au.org.ands.vocabs.toolkit.tasks.TaskStatus;
+import au.org.ands.vocabs.toolkit.utils.FlightEvents;
+import au.org.ands.vocabs.toolkit.utils.Metrics;
 import au.org.ands.vocabs.toolkit.utils.ToolkitFileUtils;
+import au.org.ands.vocabs.toolkit.utils.ToolkitNetUtils;
 
 /** Harvest provider for Sesame. */
 public class SesameHarvestProvider extends HarvestProvider {
@@ -35,6 +38,9 @@ public class SesameHarvestProvider extends HarvestProvider {
     private final Logger logger = LoggerFactory.getLogger(
             MethodHandles.lookup().lookupClass());
 
+    /** The name of the service, as used in metrics. */
+    private static final String SERVICE = "Sesame";
+
     @Override
     public final String getInfo() {
         // Future work: get info from a remote Sesame repository
@@ -124,7 +130,15 @@ public class SesameHarvestProvider extends HarvestProvider {
                         dir.resolve(repositoryId + ".rdf").toString());
                 OutputStream output = new FileOutputStream(outputFile);
                 RDFXMLWriter rdfxmlfWriter = new RDFXMLWriter(output);
-                con.export(rdfxmlfWriter);
+                FlightEvents.Span span = FlightEvents.httpExport(
+                        SERVICE, repositoryId, remoteBase);
+                try (Metrics.Operation operation =
+                        ToolkitNetUtils.startRequest(SERVICE, "export")) {
+                    con.export(rdfxmlfWriter);
+                    operation.complete(true);
+                } finally {
+                    span.close();
+                }
 //                output.write('\n');
 
             } catch (FileNotFoundException e) {
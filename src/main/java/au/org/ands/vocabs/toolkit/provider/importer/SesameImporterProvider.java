@@ -4,7 +4,9 @@ package au.org.ands.vocabs.toolkit.provider.importer;
 // Disable LineLength check just for Eclipse-maintained imports.
 //CHECKSTYLE:OFF: LineLength
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.lang.invoke.MethodHandles;
 import java.nio.file.DirectoryIteratorException;
 import java.nio.file.DirectoryStream;
@@ -18,6 +20,7 @@ import java.util.Properties;
 import javax.ws.rs.client.Client;
 import javax.ws.rs.client.WebTarget;
 
+import org.openrdf.model.Statement;
 import org.openrdf.repository.Repository;
 import org.openrdf.repository.RepositoryConnection;
 import org.openrdf.repository.RepositoryException;
@@ -28,8 +31,14 @@ import org.openrdf.repository.manager.RepositoryInfo;
 import org.openrdf.repository.manager.RepositoryManager;
 import org.openrdf.repository.manager.RepositoryProvider;
 import org.openrdf.repository.sail.config.SailRepositoryConfig;
+import org.openrdf.repository.util.RDFInserter;
+import org.openrdf.rio.RDFFormat;
+import org.openrdf.rio.RDFHandler;
+import org.openrdf.rio.RDFHandlerException;
 import org.openrdf.rio.RDFParseException;
+import org.openrdf.rio.RDFParser;
 import org.openrdf.rio.Rio;
+import org.openrdf.rio.helpers.RDFHandlerWrapper;
 import org.openrdf.sail.config.SailImplConfig;
 import org.openrdf.sail.inferencer.fc.config.ForwardChainingRDFSInferencerConfig;
 import org.openrdf.sail.memory.config.MemoryStoreConfig;
@@ -41,8 +50,12 @@ import com.fasterxml.jackson.databind.JsonNode;
 
 import au.org.ands.vocabs.toolkit.db.AccessPointUtils;
 import au.org.ands.vocabs.toolkit.db.model.AccessPoint;
+import au.org.ands.vocabs.toolkit.tasks.ProgressListener;
+import au.org.ands.vocabs.toolkit.tasks.TaskControl;
 import au.org.ands.vocabs.toolkit.tasks.TaskInfo;
 import au.org.ands.vocabs.toolkit.tasks.TaskStatus;
+import au.org.ands.vocabs.toolkit.utils.FlightEvents;
+import au.org.ands.vocabs.toolkit.utils.Metrics;
 import au.org.ands.vocabs.toolkit.utils.PropertyConstants;
 import au.org.ands.vocabs.toolkit.utils.ToolkitFileUtils;
 import au.org.ands.vocabs.toolkit.utils.ToolkitNetUtils;
@@ -56,6 +69,9 @@ public class SesameImporterProvider extends ImporterProvider {
     private final Logger logger = LoggerFactory.getLogger(
             MethodHandles.lookup().lookupClass());
 
+    /** The name of the service, as used in metrics. */
+    private static final String SERVICE = "Sesame";
+
     /** Access to the Toolkit properties. */
     protected static final Properties PROPS = ToolkitProperties.getProperties();
 
@@ -105,9 +121,13 @@ public class SesameImporterProvider extends ImporterProvider {
         RepositoryManager manager = null;
         try {
             manager = RepositoryProvider.getRepositoryManager(sesameServer);
-            Collection<RepositoryInfo> infos =
-                    manager.getAllRepositoryInfos(true);
-            return infos;
+            try (Metrics.Operation operation =
+                    ToolkitNetUtils.startRequest(SERVICE, "repositories")) {
+                Collection<RepositoryInfo> infos =
+                        manager.getAllRepositoryInfos(true);
+                operation.complete(true);
+                return infos;
+            }
         } catch (RepositoryConfigException | RepositoryException e) {
             logger.error("Exception in Sesame getInfo()", e);
         }
@@ -205,7 +225,12 @@ public class SesameImporterProvider extends ImporterProvider {
             RepositoryConfig repConfig =
                   new RepositoryConfig(repositoryID, repositoryTitle,
                           repositoryTypeSpec);
-            manager.addRepositoryConfig(repConfig);
+            try (Metrics.Operation operation =
+                    ToolkitNetUtils.startRequest(SERVICE,
+                            "createRepository")) {
+                manager.addRepositoryConfig(repConfig);
+                operation.complete(true);
+            }
 
             return true;
         } catch (RepositoryConfigException | RepositoryException e) {
@@ -239,25 +264,56 @@ public class SesameImporterProvider extends ImporterProvider {
                 return false;
             }
 
+            TaskControl control = taskInfo.getControl();
             RepositoryConnection con = null;
+            AutoCloseable conCloser = null;
             try {
                 con = repository.getConnection();
+                conCloser = control.register(con::close);
                 // If required, remove all existing triples
                 if (subtask.get("clear") != null
                         && subtask.get("clear").booleanValue()) {
-                    con.clear();
+                    FlightEvents.Span span =
+                            FlightEvents.sesameTransaction("clear",
+                                    repositoryID, null);
+                    try (Metrics.Operation operation =
+                            ToolkitNetUtils.startRequest(SERVICE,
+                                    "clear")) {
+                        con.clear();
+                        operation.complete(true);
+                    } finally {
+                        span.close();
+                    }
                 }
                 Path dir = Paths.get(ToolkitFileUtils.getTaskHarvestOutputPath(
                         taskInfo));
                 try (DirectoryStream<Path> stream =
                         Files.newDirectoryStream(dir)) {
                     for (Path entry: stream) {
+                        control.checkpoint();
                         File file = new File(entry.toString());
                         logger.debug("Full path:"
                                 + entry.toAbsolutePath().toString());
-                        con.add(file, "",
-                                Rio.getParserFormatForFileName(
-                                        entry.toString()));
+                        FlightEvents.Span span =
+                                FlightEvents.sesameTransaction("upload",
+                                        repositoryID, entry.toString());
+                        try (Metrics.Operation operation =
+                                ToolkitNetUtils.startRequest(SERVICE,
+                                        "upload")) {
+                            long added = addFile(con, file,
+                                    Rio.getParserFormatForFileName(
+                                            entry.toString()));
+                            operation.complete(true);
+                            taskInfo.getProgressListener().increment(
+                                    ProgressListener.STATEMENTS_IMPORTED,
+                                    added);
+                        } finally {
+                            span.close();
+                        }
+                        taskInfo.getProgressListener().increment(
+                                ProgressListener.FILES_PROCESSED, 1);
+                        taskInfo.getProgressListener().increment(
+                                ProgressListener.BYTES_READ, file.length());
                     }
                 } catch (DirectoryIteratorException | IOException ex) {
                     // I/O error encountered during the iteration,
@@ -273,6 +329,9 @@ public class SesameImporterProvider extends ImporterProvider {
                 logger.error("Sesame uploadRDF, error parsing RDF: ", e);
                 return false;
             } finally {
+                if (conCloser != null) {
+                    control.unregister(conCloser);
+                }
                 if (con != null) {
                     con.close();
                 }
@@ -287,6 +346,86 @@ public class SesameImporterProvider extends ImporterProvider {
         return false;
     }
 
+    /** Add the contents of a file to a repository, in one transaction,
+     * counting the statements as they are parsed. This is
+     * what RepositoryConnection.add(File, String, RDFFormat) does,
+     * apart from the counting. Counting the statements this way,
+     * rather than asking the repository for its size, means that
+     * only the statements of this file are counted, and that
+     * no additional request is made to the server.
+     * @param con The connection to the repository.
+     * @param file The file to be added.
+     * @param format The format of the file.
+     * @return The number of statements parsed from the file.
+     * @throws IOException If the file can not be read.
+     * @throws RDFParseException If the file can not be parsed.
+     * @throws RepositoryException If the statements can not be added.
+     */
+    private long addFile(final RepositoryConnection con, final File file,
+            final RDFFormat format)
+            throws IOException, RDFParseException, RepositoryException {
+        RDFParser parser = Rio.createParser(format,
+                con.getValueFactory());
+        parser.setParserConfig(con.getParserConfig());
+        StatementCounter counter =
+                new StatementCounter(new RDFInserter(con));
+        parser.setRDFHandler(counter);
+        boolean localTransaction = !con.isActive();
+        if (localTransaction) {
+            con.begin();
+        }
+        try (InputStream in = new FileInputStream(file)) {
+            parser.parse(in, "");
+            if (localTransaction) {
+                con.commit();
+            }
+        } catch (RDFHandlerException e) {
+            if (localTransaction) {
+                con.rollback();
+            }
+            // The inserter only throws RDFHandlerExceptions that
+            // wrap RepositoryExceptions.
+            if (e.getCause() instanceof RepositoryException) {
+                throw (RepositoryException) e.getCause();
+            }
+            throw new RepositoryException(e);
+        } catch (IOException | RDFParseException | RuntimeException e) {
+            if (localTransaction) {
+                con.rollback();
+            }
+            throw e;
+        }
+        return counter.getCount();
+    }
+
+    /** RDF handler that counts the statements passed through it. */
+    private static final class StatementCounter extends RDFHandlerWrapper {
+
+        /** The number of statements handled so far. */
+        private long count;
+
+        /** Constructor.
+         * @param handler The handler to which statements are passed.
+         */
+        StatementCounter(final RDFHandler handler) {
+            super(handler);
+        }
+
+        @Override
+        public void handleStatement(final Statement st)
+                throws RDFHandlerException {
+            super.handleStatement(st);
+            count++;
+        }
+
+        /** Get the number of statements handled so far.
+         * @return The number of statements handled so far.
+         */
+        long getCount() {
+            return count;
+        }
+    }
+
     @Override
     public final boolean unimport(final TaskInfo taskInfo,
             final JsonNode subtask,
@@ -309,7 +448,12 @@ public class SesameImporterProvider extends ImporterProvider {
                  logger.debug("Sesame unimport: nothing to do.");
                 return true;
             }
-            manager.removeRepository(repositoryID);
+            try (Metrics.Operation operation =
+                    ToolkitNetUtils.startRequest(SERVICE,
+                            "removeRepository")) {
+                manager.removeRepository(repositoryID);
+                operation.complete(true);
+            }
             // Seems to be necessary to invoke refresh() to make
             // the manager "forget" about the repository.
             // Without it, if you immediately reimport,
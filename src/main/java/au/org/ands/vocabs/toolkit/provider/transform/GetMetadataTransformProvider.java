@@ -2,7 +2,6 @@
 package au.org.ands.vocabs.toolkit.provider.transform;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.lang.invoke.MethodHandles;
 import java.nio.file.DirectoryIteratorException;
@@ -113,9 +112,8 @@ public class GetMetadataTransformProvider extends TransformProvider {
                         entry.toString());
                 RDFParser rdfParser = Rio.createParser(format);
                 rdfParser.setRDFHandler(conceptHandler);
-                FileInputStream is = new FileInputStream(entry.toString());
                 logger.debug("Reading RDF:" + entry.toString());
-                rdfParser.parse(is, entry.toString());
+                parseRDF(rdfParser, entry);
             }
         } catch (DirectoryIteratorException
                 | IOException
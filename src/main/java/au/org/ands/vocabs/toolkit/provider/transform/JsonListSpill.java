@@ -0,0 +1,243 @@
+/** See the file "LICENSE" for the full license governing this code. */
+package au.org.ands.vocabs.toolkit.provider.transform;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.openrdf.model.Statement;
+import org.openrdf.model.URI;
+import org.openrdf.model.vocabulary.SKOS;
+import org.openrdf.rio.RDFHandlerException;
+import org.openrdf.rio.helpers.RDFHandlerBase;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import au.org.ands.vocabs.toolkit.tasks.TaskControl;
+import au.org.ands.vocabs.toolkit.utils.ExternalSorter;
+
+/** Spill mode of {@link JsonListTransformProvider}, for vocabularies
+ * too big to be held in the heap. The prefLabels, notations, and
+ * broader and narrower relations of each resource are written as
+ * {@link SpillRecord}s, which are sorted on disk by IRI. The JSON
+ * object is then written one resource at a time. The result is the
+ * same as that of the transform's ConceptHandler, except that the keys
+ * are in order of IRI, and the file is always encoded as UTF-8.
+ *
+ * Use an instance in a try-with-resources statement, so that its
+ * temporary files are deleted. */
+final class JsonListSpill extends RDFHandlerBase implements Closeable {
+
+    /** Number of records written between checks for cancellation. */
+    private static final int CHECK_INTERVAL = 1 << 16;
+
+    /** The control of the task. */
+    private final TaskControl control;
+
+    /** The directory of the temporary files. */
+    private final Path directory;
+
+    /** The sorter of the records. */
+    private final ExternalSorter<SpillRecord> sorter;
+
+    /** The number of records added so far. */
+    private long sequence;
+
+    /** The subject of the previous statement. */
+    private String lastSubject;
+
+    /** Constructor.
+     * @param aControl The control of the task, used to check for
+     *      cancellation while the output is written.
+     * @throws IOException If the directory of the temporary files
+     *      can not be created.
+     */
+    JsonListSpill(final TaskControl aControl) throws IOException {
+        control = aControl;
+        directory = Spill.createDirectory("json-list-");
+        sorter = new ExternalSorter<SpillRecord>(directory,
+                Spill.getHeapBudget(), SpillRecord.CODEC, SpillRecord.ORDER);
+    }
+
+    @Override
+    public void handleStatement(final Statement st)
+            throws RDFHandlerException {
+        String subject = st.getSubject().stringValue();
+        URI predicate = st.getPredicate();
+        try {
+            // As in ConceptHandler, every subject gets an entry,
+            // even if none of its properties are of interest.
+            if (!subject.equals(lastSubject)) {
+                add(subject, SpillRecord.SUBJECT, null);
+                lastSubject = subject;
+            }
+            if (predicate.equals(SKOS.PREF_LABEL)) {
+                add(subject, SpillRecord.PREF_LABEL,
+                        st.getObject().stringValue());
+            } else if (predicate.equals(SKOS.NOTATION)) {
+                add(subject, SpillRecord.NOTATION,
+                        st.getObject().stringValue());
+            } else if (predicate.equals(SKOS.BROADER)) {
+                add(subject, SpillRecord.BROADER,
+                        st.getObject().stringValue());
+            } else if (predicate.equals(SKOS.NARROWER)) {
+                add(subject, SpillRecord.NARROWER,
+                        st.getObject().stringValue());
+            }
+        } catch (IOException e) {
+            throw new RDFHandlerException(e);
+        }
+    }
+
+    /** Add a record.
+     * @param iri The IRI of the resource.
+     * @param kind The kind of record.
+     * @param value The value of the record.
+     * @throws IOException If the record can not be spilled.
+     */
+    private void add(final String iri, final byte kind, final String value)
+            throws IOException {
+        sorter.add(new SpillRecord(iri, sequence, kind, value));
+        sequence++;
+    }
+
+    /** Write the concept list.
+     * @param out The file to which the list is written.
+     * @return The number of resources in the list.
+     * @throws IOException If the list can not be written.
+     */
+    long write(final File out) throws IOException {
+        long count = 0;
+        try (ExternalSorter.Cursor<SpillRecord> cursor = sorter.sort();
+                JsonGenerator generator = new JsonFactory().createGenerator(
+                        out, JsonEncoding.UTF8)) {
+            generator.writeStartObject();
+            Resource resource = null;
+            SpillRecord record;
+            while ((record = cursor.next()) != null) {
+                if (resource == null
+                        || !resource.iri.equals(record.getIri())) {
+                    if (resource != null) {
+                        resource.write(generator);
+                    }
+                    resource = new Resource(record.getIri());
+                    count++;
+                    if (count % CHECK_INTERVAL == 0) {
+                        control.checkpoint();
+                    }
+                }
+                resource.add(record);
+            }
+            if (resource != null) {
+                resource.write(generator);
+            }
+            generator.writeEndObject();
+        }
+        return count;
+    }
+
+    /** Delete the temporary files. */
+    @Override
+    public void close() {
+        sorter.close();
+        Spill.deleteDirectory(directory);
+    }
+
+    /** The properties of one resource, gathered from its records. */
+    private static final class Resource {
+
+        /** The IRI of the resource. */
+        private final String iri;
+
+        /** The prefLabel of the resource. */
+        private String prefLabel;
+
+        /** The notation of the resource. */
+        private String notation;
+
+        /** The broader resources of the resource. */
+        private List<String> broader;
+
+        /** The narrower resources of the resource. */
+        private List<String> narrower;
+
+        /** Constructor.
+         * @param anIri The IRI of the resource.
+         */
+        private Resource(final String anIri) {
+            iri = anIri;
+        }
+
+        /** Add the property given by a record. As in ConceptHandler,
+         * later prefLabels and notations replace earlier ones.
+         * @param record The record.
+         */
+        private void add(final SpillRecord record) {
+            switch (record.getKind()) {
+            case SpillRecord.PREF_LABEL:
+                prefLabel = record.getValue();
+                break;
+            case SpillRecord.NOTATION:
+                notation = record.getValue();
+                break;
+            case SpillRecord.BROADER:
+                if (broader == null) {
+                    broader = new ArrayList<String>();
+                }
+                broader.add(record.getValue());
+                break;
+            case SpillRecord.NARROWER:
+                if (narrower == null) {
+                    narrower = new ArrayList<String>();
+                }
+                narrower.add(record.getValue());
+                break;
+            default:
+                break;
+            }
+        }
+
+        /** Write the resource as a field of the concept list.
+         * @param generator The generator of the concept list.
+         * @throws IOException If the resource can not be written.
+         */
+        private void write(final JsonGenerator generator)
+                throws IOException {
+            generator.writeObjectFieldStart(iri);
+            if (prefLabel != null) {
+                generator.writeStringField("prefLabel", prefLabel);
+            }
+            if (notation != null) {
+                generator.writeStringField("notation", notation);
+            }
+            writeList(generator, "broader", broader);
+            writeList(generator, "narrower", narrower);
+            generator.writeEndObject();
+        }
+
+        /** Write a list of IRIs as a field, if there is a list.
+         * @param generator The generator of the concept list.
+         * @param name The name of the field.
+         * @param list The list, or null.
+         * @throws IOException If the list can not be written.
+         */
+        private static void writeList(final JsonGenerator generator,
+                final String name, final List<String> list)
+                throws IOException {
+            if (list == null) {
+                return;
+            }
+            generator.writeArrayFieldStart(name);
+            for (String value : list) {
+                generator.writeString(value);
+            }
+            generator.writeEndArray();
+        }
+    }
+
+}
@@ -1,38 +1,35 @@
 /** See the file "LICENSE" for the full license governing this code. */
 package au.org.ands.vocabs.toolkit.provider.transform;
 
+import java.io.Closeable;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.lang.invoke.MethodHandles;
 import java.nio.file.DirectoryIteratorException;
-import java.nio.file.DirectoryStream;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Properties;
 
-import org.apache.commons.io.FileUtils;
 import org.openrdf.model.Statement;
 import org.openrdf.model.vocabulary.SKOS;
-import org.openrdf.rio.RDFFormat;
 import org.openrdf.rio.RDFHandlerException;
 import org.openrdf.rio.RDFParseException;
-import org.openrdf.rio.RDFParser;
-import org.openrdf.rio.Rio;
 import org.openrdf.rio.UnsupportedRDFormatException;
 import org.openrdf.rio.helpers.RDFHandlerBase;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import au.org.ands.vocabs.toolkit.db.TaskUtils;
+import au.org.ands.vocabs.toolkit.tasks.ProgressListener;
 import au.org.ands.vocabs.toolkit.tasks.TaskInfo;
 import au.org.ands.vocabs.toolkit.tasks.TaskStatus;
+import au.org.ands.vocabs.toolkit.utils.TermDictionary;
 import au.org.ands.vocabs.toolkit.utils.ToolkitFileUtils;
 import au.org.ands.vocabs.toolkit.utils.ToolkitProperties;
 
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.JsonNode;
 
 /** Transform provider for generating a list-like representation of the
@@ -46,6 +43,9 @@ public class JsonListTransformProvider extends TransformProvider {
     /** Access to the Toolkit properties. */
     protected static final Properties PROPS = ToolkitProperties.getProperties();
 
+    /** Initial capacity of the arrays of ids. */
+    private static final int INITIAL_CAPACITY = 1 << 10;
+
     @Override
     public final String getInfo() {
         // TODO Auto-generated method stub
@@ -56,21 +56,15 @@ public class JsonListTransformProvider extends TransformProvider {
     public final boolean transform(final TaskInfo taskInfo,
             final JsonNode subtask,
             final HashMap<String, String> results) {
-        Path dir = Paths.get(ToolkitFileUtils.getTaskHarvestOutputPath(
-                taskInfo));
         ConceptHandler conceptHandler = new ConceptHandler();
-        try (DirectoryStream<Path> stream =
-                Files.newDirectoryStream(dir)) {
-            for (Path entry: stream) {
-                RDFFormat format = Rio.getParserFormatForFileName(
-                        entry.toString());
-                RDFParser rdfParser = Rio.createParser(format);
-                rdfParser.setRDFHandler(conceptHandler);
-                FileInputStream is = new FileInputStream(entry.toString());
-                rdfParser.parse(is, entry.toString());
-                logger.debug("Reading RDF:" + entry.toString());
-
-            }
+        boolean spill = false;
+        try {
+            parseHarvest(taskInfo, new Spill.Trigger(conceptHandler,
+                    Spill.getThreshold()));
+        } catch (Spill.ThresholdExceeded ex) {
+            logger.info("JsonListTransform: " + ex.getMessage()
+                    + "; starting again in spill mode");
+            spill = true;
         } catch (DirectoryIteratorException
                 | IOException
                 | RDFParseException
@@ -85,13 +79,19 @@ public class JsonListTransformProvider extends TransformProvider {
 
         String resultFileName = ToolkitFileUtils.getTaskOutputPath(taskInfo,
                 "concepts_list.json");
-        try {
+        if (spill) {
+            // Let the concepts parsed so far be collected.
+            conceptHandler.close();
+            conceptHandler = null;
+            return transformWithSpill(taskInfo, results, resultFileName);
+        }
+        try (ConceptHandler handler = conceptHandler) {
             File out = new File(resultFileName);
             results.put("concepts_list", resultFileName);
-            HashMap<String, HashMap<String, Object>> conceptMap =
-                    conceptHandler.getConceptMap();
-            FileUtils.writeStringToFile(out,
-                    TaskUtils.mapToJSONString(conceptMap));
+            taskInfo.getProgressListener().increment(
+                    ProgressListener.CONCEPTS_PROCESSED,
+                    handler.getConceptCount());
+            handler.write(out);
         } catch (IOException ex) {
             results.put(TaskStatus.EXCEPTION,
                     "Exception in JsonListTransform while Parsing RDF");
@@ -102,55 +102,210 @@ public class JsonListTransformProvider extends TransformProvider {
         return true;
     }
 
+    /** Do the transform in spill mode, for vocabularies too big
+     * to be held in the heap. See {@link JsonListSpill}.
+     * @param taskInfo The TaskInfo object describing the entire task.
+     * @param results HashMap representing the result of the transform.
+     * @param resultFileName The name of the file to which the concept
+     *      list is written.
+     * @return True, iff the transform succeeded.
+     */
+    private boolean transformWithSpill(final TaskInfo taskInfo,
+            final HashMap<String, String> results,
+            final String resultFileName) {
+        try (JsonListSpill conceptSpill =
+                new JsonListSpill(taskInfo.getControl())) {
+            parseHarvest(taskInfo, conceptSpill);
+            results.put("concepts_list", resultFileName);
+            results.put("concepts_list_spilled", "true");
+            long count = conceptSpill.write(new File(resultFileName));
+            taskInfo.getProgressListener().increment(
+                    ProgressListener.CONCEPTS_PROCESSED, count);
+        } catch (DirectoryIteratorException
+                | IOException
+                | RDFParseException
+                | RDFHandlerException
+                | UnsupportedRDFormatException ex) {
+            results.put(TaskStatus.EXCEPTION,
+                    "Exception in JsonListTransform in spill mode");
+            logger.error("Exception in JsonListTransform in spill mode:",
+                    ex);
+            return false;
+        }
+        return true;
+    }
+
     /** RDF Handler to extract prefLabels, notation, and use broader
-     * and narrow properties to construct a list-like structure. */
-    class ConceptHandler extends RDFHandlerBase {
+     * and narrow properties to construct a list-like structure.
+     * IRIs and literals are kept in a {@link TermDictionary}, and
+     * decoded only when the list is written. Close the handler once
+     * the list has been written, to release the dictionary. */
+    class ConceptHandler extends RDFHandlerBase implements Closeable {
+
+        /** The IRIs and literals of the vocabulary. */
+        private final TermDictionary terms = new TermDictionary();
 
-        /** Map from concept IRI to a map that maps
-         * property name to the property value(s). */
-        private HashMap<String, HashMap<String, Object>> conceptMap =
-                new HashMap<String, HashMap<String, Object>>();
+        /** The resources, in the order in which they were first
+         * the subject of a statement. */
+        private final ArrayList<Resource> resources =
+                new ArrayList<Resource>();
+
+        /** The index in {@link #resources} of the resource of each
+         * term, plus one, by term id, or 0, if the term is not the
+         * subject of any statement. */
+        private int[] resourceIndexes = new int[INITIAL_CAPACITY];
 
         @Override
         public void handleStatement(final Statement st) {
-            if (conceptMap.get(st.getSubject().stringValue()) == null) {
-                conceptMap.put(st.getSubject().stringValue(),
-                        new HashMap<String, Object>());
-            }
-            HashMap<String, Object> concept =
-                    conceptMap.get(st.getSubject().stringValue());
+            Resource concept = getResource(terms.getId(st.getSubject()));
             if (st.getPredicate().equals(SKOS.PREF_LABEL)) {
-                concept.put("prefLabel", st.getObject().stringValue());
+                concept.prefLabel = terms.getId(st.getObject());
             }
             if (st.getPredicate().equals(SKOS.NOTATION)) {
-                concept.put("notation", st.getObject().stringValue());
+                concept.notation = terms.getId(st.getObject());
             }
             if (st.getPredicate().equals(SKOS.BROADER)) {
-                if (concept.get("broader") == null) {
-                    concept.put("broader",
-                            new ArrayList<String>());
-                }
-                @SuppressWarnings("unchecked")
-                ArrayList<String> broaderList =
-                    (ArrayList<String>) concept.get("broader");
-                broaderList.add(st.getObject().stringValue());
+                concept.broader = append(concept.broader,
+                        terms.getId(st.getObject()));
             }
             if (st.getPredicate().equals(SKOS.NARROWER)) {
-                if (concept.get("narrower") == null) {
-                    concept.put("narrower",
-                            new ArrayList<String>());
+                concept.narrower = append(concept.narrower,
+                        terms.getId(st.getObject()));
+            }
+        }
+
+        /** Get the resource of a term, creating it, if it
+         * does not exist.
+         * @param id The id of the term.
+         * @return The resource of the term.
+         */
+        private Resource getResource(final int id) {
+            if (id >= resourceIndexes.length) {
+                resourceIndexes = Arrays.copyOf(resourceIndexes,
+                        Math.max(id + 1, 2 * resourceIndexes.length));
+            }
+            if (resourceIndexes[id] == 0) {
+                resources.add(new Resource(id));
+                resourceIndexes[id] = resources.size();
+            }
+            return resources.get(resourceIndexes[id] - 1);
+        }
+
+        /** Get the number of concepts found, i.e., the number of
+         * resources that are the subject of a statement.
+         * @return The number of concepts found.
+         */
+        public int getConceptCount() {
+            return resources.size();
+        }
+
+        /** Write the concept list, as a JSON object. The keys are
+         * in the order in which the concepts were first the subject
+         * of a statement.
+         * @param out The file to which the list is written.
+         * @throws IOException If the list can not be written.
+         */
+        public void write(final File out) throws IOException {
+            try (JsonGenerator generator = new JsonFactory().createGenerator(
+                    out, JsonEncoding.UTF8)) {
+                generator.writeStartObject();
+                for (Resource resource : resources) {
+                    generator.writeObjectFieldStart(
+                            terms.getString(resource.iri));
+                    writeTerm(generator, "prefLabel", resource.prefLabel);
+                    writeTerm(generator, "notation", resource.notation);
+                    writeTerms(generator, "broader", resource.broader);
+                    writeTerms(generator, "narrower", resource.narrower);
+                    generator.writeEndObject();
                 }
-                @SuppressWarnings("unchecked")
-                ArrayList<String> narrowerList =
-                    (ArrayList<String>) concept.get("narrower");
-                narrowerList.add(st.getObject().stringValue());
+                generator.writeEndObject();
+            }
+        }
+
+        /** Write a term as a field, if there is a term.
+         * @param generator The generator of the concept list.
+         * @param name The name of the field.
+         * @param id The id of the term, or -1.
+         * @throws IOException If the term can not be written.
+         */
+        private void writeTerm(final JsonGenerator generator,
+                final String name, final int id) throws IOException {
+            if (id >= 0) {
+                generator.writeStringField(name, terms.getString(id));
+            }
+        }
+
+        /** Write a list of terms as a field, if there is a list.
+         * @param generator The generator of the concept list.
+         * @param name The name of the field.
+         * @param ids The ids of the terms, preceded by their number,
+         *      or null.
+         * @throws IOException If the list can not be written.
+         */
+        private void writeTerms(final JsonGenerator generator,
+                final String name, final int[] ids) throws IOException {
+            if (ids == null) {
+                return;
+            }
+            generator.writeArrayFieldStart(name);
+            for (int i = 1; i <= ids[0]; i++) {
+                generator.writeString(terms.getString(ids[i]));
             }
+            generator.writeEndArray();
         }
 
-        /** Getter for concepts list. */
-        /** @return The completed concept map. */
-        public HashMap<String, HashMap<String, Object>> getConceptMap() {
-            return conceptMap;
+        /** Release the dictionary. */
+        @Override
+        public void close() {
+            terms.close();
+        }
+    }
+
+    /** Append an id to a list of ids. The list is kept as an array,
+     * of which the first element is the number of ids in the list.
+     * @param ids The list of ids, or null, if the list is empty.
+     * @param id The id to be appended.
+     * @return The list of ids, which may be a new array.
+     */
+    private static int[] append(final int[] ids, final int id) {
+        int[] list = ids;
+        if (list == null) {
+            list = new int[2];
+        } else if (list[0] + 1 == list.length) {
+            list = Arrays.copyOf(list, 2 * list.length);
+        }
+        list[0]++;
+        list[list[0]] = id;
+        return list;
+    }
+
+    /** The properties of one concept, as term ids. */
+    private static final class Resource {
+
+        /** The id of the IRI of the concept. */
+        private final int iri;
+
+        /** The id of the prefLabel of the concept, or -1. */
+        private int prefLabel = -1;
+
+        /** The id of the notation of the concept, or -1. */
+        private int notation = -1;
+
+        /** The ids of the broader concepts, as kept by
+         * {@link JsonListTransformProvider#append(int[], int)},
+         * or null. */
+        private int[] broader;
+
+        /** The ids of the narrower concepts, as kept by
+         * {@link JsonListTransformProvider#append(int[], int)},
+         * or null. */
+        private int[] narrower;
+
+        /** Constructor.
+         * @param anIri The id of the IRI of the concept.
+         */
+        private Resource(final int anIri) {
+            iri = anIri;
         }
     }
 
@@ -0,0 +1,482 @@
+/** See the file "LICENSE" for the full license governing this code. */
+package au.org.ands.vocabs.toolkit.provider.transform;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+
+import au.org.ands.vocabs.toolkit.tasks.TaskControl;
+import au.org.ands.vocabs.toolkit.utils.PropertyConstants;
+import au.org.ands.vocabs.toolkit.utils.ToolkitProperties;
+import au.org.ands.vocabs.toolkit.utils.TreeIndex;
+
+/** Writer of the sharded form of the concept tree of
+ * {@link JsonTreeTransformProvider}, for hosting as static files.
+ * Instead of one {@code concepts_tree.json}, the tree is written as
+ * a directory of files, so that a portal can fetch only the part of
+ * the tree being browsed:
+ * <ul>
+ *   <li>{@code index.json} is the array of the top concepts.</li>
+ *   <li>Each other file is an array of narrower concepts, in the
+ *     same form as the values of "narrower" in
+ *     {@code concepts_tree.json}.</li>
+ *   <li>The narrower concepts of each top concept are always in
+ *     files of their own. Those of any other concept are in files of
+ *     their own if they would otherwise make the concept bigger than
+ *     the shard size.</li>
+ *   <li>A concept whose narrower concepts are in files of their own
+ *     has, instead of "narrower", a "narrowerFiles" array of the names
+ *     of those files. The narrower concepts are those of the files,
+ *     in order. There is more than one file if the narrower concepts
+ *     do not fit in one.</li>
+ * </ul>
+ * No file is bigger than the shard size, except for {@code index.json},
+ * and a file that holds a single concept that is itself bigger.
+ *
+ * The tree is read from its {@link TreeIndex}, so that the same
+ * writer serves both the in-memory and the spill modes of the
+ * transform. The heap used is a few words for each level of the
+ * tree, and for each file.
+ */
+final class JsonTreeShards {
+
+    /** The name of the directory of the shards, within the directory
+     * of a version. */
+    static final String DIRECTORY_NAME = "concepts_tree";
+
+    /** The name of the file of the top concepts. */
+    static final String INDEX_FILE_NAME = "index.json";
+
+    /** The suffix of the names of the other files. */
+    private static final String SHARD_SUFFIX = ".json";
+
+    /** The name of the field of the narrower concepts written
+     * inline. */
+    private static final String NARROWER = "narrower";
+
+    /** The name of the field of the names of the files of the narrower
+     * concepts. */
+    private static final String NARROWER_FILES = "narrowerFiles";
+
+    /** The names of the fields of a concept, in order. */
+    private static final String[] FIELD_NAMES =
+        {"iri", "prefLabel", "definition", "notation"};
+
+    /** Default shard size, in kilobytes. 0 means that the concept
+     * tree is not sharded. */
+    private static final long DEFAULT_SHARD_SIZE = 0;
+
+    /** Number of bytes in a kilobyte. */
+    private static final long KILOBYTE = 1 << 10;
+
+    /** Number of concepts handled between checks for cancellation. */
+    private static final int CHECK_INTERVAL = 1 << 16;
+
+    /** Initial depth of the stacks of the walks of the tree. */
+    private static final int INITIAL_DEPTH = 64;
+
+    /** Initial capacity of the list of the positions at which
+     * the narrower concepts of a concept start a new file. */
+    private static final int INITIAL_BOUNDARIES = 4;
+
+    /** The index of the concept tree. */
+    private final TreeIndex index;
+
+    /** The shard size, in bytes. */
+    private final long shardSize;
+
+    /** The control of the task. */
+    private final TaskControl control;
+
+    /** The concepts whose narrower concepts are in files of their
+     * own. Each value holds the number of the first file, followed
+     * by the positions among the narrower concepts at which each
+     * subsequent file starts. */
+    private final Map<Integer, int[]> splits = new HashMap<Integer, int[]>();
+
+    /** The number of files of narrower concepts. */
+    private int fileCount;
+
+    /** The number of concepts handled, for checks for cancellation. */
+    private long handled;
+
+    /** Get the shard size.
+     * @return The shard size, in bytes, or 0, if the concept tree
+     *      is not to be sharded.
+     */
+    static long getShardSize() {
+        return KILOBYTE * Long.parseLong(ToolkitProperties.getProperty(
+                PropertyConstants.TOOLKIT_TRANSFORMTREESHARDSIZE,
+                Long.toString(DEFAULT_SHARD_SIZE)).trim());
+    }
+
+    /** Constructor.
+     * @param anIndex The index of the concept tree.
+     * @param aShardSize The shard size, in bytes.
+     * @param aControl The control of the task, used to check for
+     *      cancellation.
+     */
+    JsonTreeShards(final TreeIndex anIndex, final long aShardSize,
+            final TaskControl aControl) {
+        index = anIndex;
+        shardSize = aShardSize;
+        control = aControl;
+    }
+
+    /** Write the shards. The directory is replaced only once all
+     * the files have been written.
+     * @param directory The directory of the shards.
+     * @return The number of files written.
+     * @throws IOException If the shards can not be written.
+     */
+    int write(final Path directory) throws IOException {
+        plan();
+        Path temporary = directory.resolveSibling(
+                directory.getFileName() + ".tmp");
+        FileUtils.deleteDirectory(temporary.toFile());
+        Files.createDirectories(temporary);
+        try {
+            try (JsonGenerator generator = createGenerator(
+                    temporary.resolve(INDEX_FILE_NAME))) {
+                writeArray(generator, TreeIndex.ROOT, 0,
+                        index.getChildCount(TreeIndex.ROOT));
+            }
+            for (Map.Entry<Integer, int[]> split : splits.entrySet()) {
+                writeFiles(temporary, split.getKey(), split.getValue());
+            }
+            FileUtils.deleteDirectory(directory.toFile());
+            Files.move(temporary, directory);
+        } finally {
+            FileUtils.deleteQuietly(temporary.toFile());
+        }
+        return fileCount + 1;
+    }
+
+    /** Decide which concepts have their narrower concepts in files
+     * of their own, and how those are divided between files. The tree
+     * is walked in post-order, so that the size of each concept, as
+     * it would be written inline, is known before that of its
+     * broader concept. */
+    private void plan() {
+        Level[] stack = new Level[INITIAL_DEPTH];
+        int roots = index.getChildCount(TreeIndex.ROOT);
+        for (int r = 0; r < roots; r++) {
+            int depth = 0;
+            stack = push(stack, depth, index.getChild(TreeIndex.ROOT, r));
+            while (depth >= 0) {
+                Level level = stack[depth];
+                if (level.next < index.getChildCount(level.node)) {
+                    int child = index.getChild(level.node, level.next);
+                    level.next++;
+                    depth++;
+                    stack = push(stack, depth, child);
+                } else {
+                    long size = finish(level, depth == 0);
+                    depth--;
+                    if (depth >= 0) {
+                        stack[depth].add(size);
+                    }
+                }
+            }
+        }
+    }
+
+    /** Start the walk of a concept in {@link #plan()}.
+     * @param stack The stack of the walk.
+     * @param depth The depth at which the concept is pushed.
+     * @param node The number of the concept.
+     * @return The stack, which may have been grown.
+     */
+    private Level[] push(final Level[] stack, final int depth,
+            final int node) {
+        Level[] grown = stack;
+        if (depth == grown.length) {
+            grown = Arrays.copyOf(grown, 2 * depth);
+        }
+        if (grown[depth] == null) {
+            grown[depth] = new Level();
+        }
+        grown[depth].reset(node);
+        checkpoint();
+        return grown;
+    }
+
+    /** Finish the walk of a concept in {@link #plan()}, deciding
+     * whether its narrower concepts go in files of their own.
+     * @param level The level of the walk of the concept.
+     * @param top Whether the concept is a top concept.
+     * @return The size of the concept, as written inline.
+     */
+    private long finish(final Level level, final boolean top) {
+        // The size of the concept up to its closing brace.
+        long size = getFieldsSize(level.node);
+        if (level.next == 0) {
+            return size + 1;
+        }
+        long inline = size + (",\"" + NARROWER + "\":").length()
+                + level.total + 2 + 1;
+        if (!top && inline <= shardSize) {
+            return inline;
+        }
+        int[] split = new int[level.boundaryCount + 1];
+        split[0] = fileCount;
+        System.arraycopy(level.boundaries, 0, split, 1,
+                level.boundaryCount);
+        fileCount += split.length;
+        splits.put(level.node, split);
+        size += (",\"" + NARROWER_FILES + "\":[]").length()
+                + split.length - 1;
+        for (int i = 0; i < split.length; i++) {
+            size += getFileName(split[0] + i).length() + 2;
+        }
+        return size + 1;
+    }
+
+    /** Get the size of the opening brace and the fields of a concept,
+     * as written by {@link #openNode}, before any narrower
+     * concepts.
+     * @param node The number of the concept.
+     * @return The size, in bytes.
+     */
+    private long getFieldsSize(final int node) {
+        JsonStringEncoder encoder = JsonStringEncoder.getInstance();
+        String[] values = getFields(node);
+        long size = 1;
+        boolean first = true;
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] == null) {
+                continue;
+            }
+            if (!first) {
+                size++;
+            }
+            first = false;
+            // The quoted name, a colon, and the quoted value.
+            size += FIELD_NAMES[i].length() + 2 + 1
+                    + encoder.quoteAsUTF8(values[i]).length + 2;
+        }
+        return size;
+    }
+
+    /** Get the values of the fields of a concept, in the order of
+     * {@link #FIELD_NAMES}.
+     * @param node The number of the concept.
+     * @return The values of the fields, which may be null.
+     */
+    private String[] getFields(final int node) {
+        return new String[] {index.getIri(node), index.getPrefLabel(node),
+            index.getDefinition(node), index.getNotation(node)};
+    }
+
+    /** Write the files of the narrower concepts of a concept.
+     * @param directory The directory of the files.
+     * @param node The number of the concept.
+     * @param split The number of its first file, and the positions
+     *      at which its subsequent files start.
+     * @throws IOException If the files can not be written.
+     */
+    private void writeFiles(final Path directory, final int node,
+            final int[] split) throws IOException {
+        for (int i = 0; i < split.length; i++) {
+            int start = 0;
+            if (i > 0) {
+                start = split[i];
+            }
+            int end = index.getChildCount(node);
+            if (i + 1 < split.length) {
+                end = split[i + 1];
+            }
+            try (JsonGenerator generator = createGenerator(
+                    directory.resolve(getFileName(split[0] + i)))) {
+                writeArray(generator, node, start, end);
+            }
+        }
+    }
+
+    /** Write some of the narrower concepts of a concept as an array.
+     * Each is written with its narrower concepts inline, down to
+     * those concepts whose narrower concepts are in files of their
+     * own. The tree is walked without recursion, so that deep trees
+     * do not overflow the stack.
+     * @param generator The generator of the file.
+     * @param parent The number of the concept, or {@link TreeIndex#ROOT}.
+     * @param start The position of the first narrower concept.
+     * @param end The position after the last narrower concept.
+     * @throws IOException If the concepts can not be written.
+     */
+    private void writeArray(final JsonGenerator generator, final int parent,
+            final int start, final int end) throws IOException {
+        int[] stack = new int[INITIAL_DEPTH];
+        int[] next = new int[INITIAL_DEPTH];
+        int[] ends = new int[INITIAL_DEPTH];
+        int depth = 0;
+        stack[0] = parent;
+        next[0] = start;
+        ends[0] = end;
+        generator.writeStartArray();
+        while (depth >= 0) {
+            int node = stack[depth];
+            if (next[depth] < ends[depth]) {
+                int child = index.getChild(node, next[depth]);
+                next[depth]++;
+                checkpoint();
+                if (!openNode(generator, child)) {
+                    generator.writeEndObject();
+                    continue;
+                }
+                depth++;
+                if (depth == stack.length) {
+                    stack = Arrays.copyOf(stack, 2 * depth);
+                    next = Arrays.copyOf(next, 2 * depth);
+                    ends = Arrays.copyOf(ends, 2 * depth);
+                }
+                stack[depth] = child;
+                next[depth] = 0;
+                ends[depth] = index.getChildCount(child);
+            } else {
+                generator.writeEndArray();
+                if (depth > 0) {
+                    generator.writeEndObject();
+                }
+                depth--;
+            }
+        }
+    }
+
+    /** Start the object of a concept, and write its fields. If its
+     * narrower concepts are in files of their own, write the names of
+     * those files; otherwise, if it has narrower concepts, start the
+     * array of them. As in {@code concepts_tree.json}, null fields
+     * are omitted.
+     * @param generator The generator of the file.
+     * @param node The number of the concept.
+     * @return True, iff the array of narrower concepts was started.
+     * @throws IOException If the concept can not be written.
+     */
+    private boolean openNode(final JsonGenerator generator, final int node)
+            throws IOException {
+        generator.writeStartObject();
+        String[] values = getFields(node);
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != null) {
+                generator.writeStringField(FIELD_NAMES[i], values[i]);
+            }
+        }
+        int[] split = splits.get(node);
+        if (split != null) {
+            generator.writeArrayFieldStart(NARROWER_FILES);
+            for (int i = 0; i < split.length; i++) {
+                generator.writeString(getFileName(split[0] + i));
+            }
+            generator.writeEndArray();
+            return false;
+        }
+        if (index.getChildCount(node) == 0) {
+            return false;
+        }
+        generator.writeArrayFieldStart(NARROWER);
+        return true;
+    }
+
+    /** Create the generator of a file.
+     * @param file The file.
+     * @return The generator.
+     * @throws IOException If the file can not be created.
+     */
+    private static JsonGenerator createGenerator(final Path file)
+            throws IOException {
+        return new JsonFactory().createGenerator(new File(file.toString()),
+                JsonEncoding.UTF8);
+    }
+
+    /** Get the name of a file of narrower concepts.
+     * @param number The number of the file.
+     * @return The name of the file.
+     */
+    private static String getFileName(final int number) {
+        return number + SHARD_SUFFIX;
+    }
+
+    /** Count a concept handled, and check, from time to time,
+     * whether the task has been cancelled. */
+    private void checkpoint() {
+        handled++;
+        if (handled % CHECK_INTERVAL == 0) {
+            control.checkpoint();
+        }
+    }
+
+    /** The state of the walk of one concept in {@link #plan()}. */
+    private final class Level {
+
+        /** The number of the concept. */
+        private int node;
+
+        /** The position of the next narrower concept to be walked. */
+        private int next;
+
+        /** The size of the narrower concepts walked so far, as written
+         * inline, with the commas between them. */
+        private long total;
+
+        /** The size of the file being filled with the narrower
+         * concepts walked so far, were they to go in files of their
+         * own; or 0, if none has been added to it. */
+        private long chunk;
+
+        /** The positions at which each file after the first would
+         * start. */
+        private int[] boundaries = new int[INITIAL_BOUNDARIES];
+
+        /** The number of positions in {@link #boundaries}. */
+        private int boundaryCount;
+
+        /** Start the walk of a concept.
+         * @param aNode The number of the concept.
+         */
+        private void reset(final int aNode) {
+            node = aNode;
+            next = 0;
+            total = 0;
+            chunk = 0;
+            boundaryCount = 0;
+        }
+
+        /** Add the size of the narrower concept just walked, at
+         * position {@code next - 1}.
+         * @param size The size of the narrower concept, as written
+         *      inline.
+         */
+        private void add(final long size) {
+            if (next > 1) {
+                // The comma before it.
+                total++;
+            }
+            total += size;
+            // With its comma, or the opening bracket, and the
+            // closing bracket.
+            if (chunk > 0 && chunk + 1 + size + 1 > shardSize) {
+                if (boundaryCount == boundaries.length) {
+                    boundaries = Arrays.copyOf(boundaries,
+                            2 * boundaryCount);
+                }
+                boundaries[boundaryCount] = next - 1;
+                boundaryCount++;
+                chunk = 0;
+            }
+            chunk += 1 + size;
+        }
+    }
+
+}
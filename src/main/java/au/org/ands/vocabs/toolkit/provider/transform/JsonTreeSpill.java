@@ -0,0 +1,1055 @@
+/** See the file "LICENSE" for the full license governing this code. */
+package au.org.ands.vocabs.toolkit.provider.transform;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.CollationKey;
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+
+import org.openrdf.model.Statement;
+import org.openrdf.model.URI;
+import org.openrdf.model.vocabulary.RDF;
+import org.openrdf.model.vocabulary.SKOS;
+import org.openrdf.rio.RDFHandlerException;
+import org.openrdf.rio.helpers.RDFHandlerBase;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import au.org.ands.vocabs.toolkit.tasks.TaskControl;
+import au.org.ands.vocabs.toolkit.utils.ExternalSorter;
+import au.org.ands.vocabs.toolkit.utils.MappedFile;
+import au.org.ands.vocabs.toolkit.utils.TreeIndex;
+
+/** Spill mode of {@link JsonTreeTransformProvider}, for vocabularies
+ * too big to be held in the heap. The result is the same as that of
+ * the transform's ConceptHandler, but the working data is kept
+ * in temporary files:
+ * <ol>
+ *   <li>The types, labels, and relations of each resource are
+ *     written as {@link SpillRecord}s, which are sorted on disk
+ *     by IRI.</li>
+ *   <li>The sorted records are read one resource at a time. Each
+ *     resource is given a number, in order of IRI, and its IRI,
+ *     prefLabel, definition, and notation are written to a node
+ *     file. Each narrower relation is spilled again, to be sorted by
+ *     the IRI of the narrower resource, so that the number of that
+ *     resource can be found by a merge with the node file.</li>
+ *   <li>The narrower relations, and the top-most concepts, are then
+ *     sorted by parent, and, for each parent, in the order of
+ *     {@link JsonTreeTransformProvider.Concept}, and written as
+ *     an adjacency file.</li>
+ *   <li>The depth-first search of ConceptHandler is done on the
+ *     node and adjacency files, which are mapped into memory. If there
+ *     are only tree edges, a second search writes the JSON tree.</li>
+ * </ol>
+ * Apart from the buffers of the sorts, which are limited by the heap
+ * budget, the heap used is a few bits for each resource, and a stack
+ * as deep as the tree.
+ *
+ * Use an instance in a try-with-resources statement, so that its
+ * temporary files are deleted. */
+final class JsonTreeSpill extends RDFHandlerBase implements Closeable {
+
+    /** Number of records handled between checks for cancellation. */
+    private static final int CHECK_INTERVAL = 1 << 16;
+
+    /** Number of sorts that share the heap budget at once. */
+    private static final int SORTS = 3;
+
+    /** Number of bytes in an int. */
+    private static final int INT_BYTES = 4;
+
+    /** Number of bytes in a long. */
+    private static final int LONG_BYTES = 8;
+
+    /** Number of bits by which the number of a resource is shifted
+     * to give the index of its word in a BitSet. */
+    private static final int WORD_SHIFT = 6;
+
+    /** Mask of the bit of a resource within its word in a BitSet. */
+    private static final int WORD_MASK = (1 << WORD_SHIFT) - 1;
+
+    /** Initial depth of the stacks of the searches. */
+    private static final int INITIAL_DEPTH = 64;
+
+    /** Size of the output buffers of the node and adjacency files,
+     * in bytes. */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /** The names of the fields of a concept, after its IRI, in the
+     * order in which they are kept in the node file. */
+    private static final String[] NODE_FIELDS =
+        {"prefLabel", "definition", "notation"};
+
+    /** The number of the virtual parent of the top-most concepts. */
+    private static final int ROOT = -1;
+
+    /** The control of the task. */
+    private final TaskControl control;
+
+    /** The directory of the temporary files. */
+    private final Path directory;
+
+    /** The collator of the prefLabels. */
+    private final Collator collator;
+
+    /** The heap budget of each sort. */
+    private final long sortBudget;
+
+    /** The sorter of the records. */
+    private final ExternalSorter<SpillRecord> sorter;
+
+    /** The number of records added so far. */
+    private long sequence;
+
+    /** The subject of the previous statement. */
+    private String lastSubject;
+
+    /** The number of resources. */
+    private int count;
+
+    /** The resources that are SKOS Concepts, by number. */
+    private BitSet concepts;
+
+    /** The node file, containing the IRI, prefLabel, definition, and
+     * notation of each resource. */
+    private MappedFile nodes;
+
+    /** The positions of the resources in the node file, by number. */
+    private MappedFile nodeIndex;
+
+    /** The adjacency file, containing the numbers of the children of
+     * each resource, in order. The children of the virtual root,
+     * i.e., the top-most concepts, come first. */
+    private MappedFile children;
+
+    /** The positions in the adjacency file of the children of each
+     * resource. Entry 0 is for the virtual root, and entry n + 1
+     * is for resource n. There is a final entry for the end of
+     * the file. */
+    private MappedFile childIndex;
+
+    /** Resources that are not reachable from the top-most concepts,
+     * that were made roots. */
+    private final List<Integer> extraRoots = new ArrayList<Integer>();
+
+    /** Was a cycle detected during depth-first search? */
+    private boolean cycle;
+
+    /** Were only tree edges found during depth-first search? */
+    private boolean onlyTreeEdges = true;
+
+    /** Constructor.
+     * @param aControl The control of the task, used to check for
+     *      cancellation while the tree is built.
+     * @param aCollator The collator of the prefLabels, as used by
+     *      the transform's ConceptHandler.
+     * @throws IOException If the directory of the temporary files
+     *      can not be created.
+     */
+    JsonTreeSpill(final TaskControl aControl, final Collator aCollator)
+            throws IOException {
+        control = aControl;
+        collator = aCollator;
+        directory = Spill.createDirectory("json-tree-");
+        sortBudget = Spill.getHeapBudget() / SORTS;
+        sorter = new ExternalSorter<SpillRecord>(directory,
+                sortBudget, SpillRecord.CODEC, SpillRecord.ORDER);
+    }
+
+    @Override
+    public void handleStatement(final Statement st)
+            throws RDFHandlerException {
+        String subject = st.getSubject().stringValue();
+        URI predicate = st.getPredicate();
+        try {
+            if (!subject.equals(lastSubject)) {
+                add(subject, SpillRecord.SUBJECT, null);
+                lastSubject = subject;
+            }
+            if (predicate.equals(RDF.TYPE)) {
+                String type = JsonTreeTransformProvider.getTypeShortForm(
+                        st.getObject());
+                if (type != null) {
+                    add(subject, SpillRecord.TYPE, type);
+                }
+            } else if (predicate.equals(SKOS.PREF_LABEL)) {
+                add(subject, SpillRecord.PREF_LABEL,
+                        st.getObject().stringValue());
+            } else if (predicate.equals(SKOS.NOTATION)) {
+                add(subject, SpillRecord.NOTATION,
+                        st.getObject().stringValue());
+            } else if (predicate.equals(SKOS.DEFINITION)) {
+                add(subject, SpillRecord.DEFINITION,
+                        st.getObject().stringValue());
+            } else if (predicate.equals(SKOS.BROADER)) {
+                String parent = st.getObject().stringValue();
+                add(parent, SpillRecord.NARROWER, subject);
+                add(subject, SpillRecord.BROADER, parent);
+            } else if (predicate.equals(SKOS.NARROWER)) {
+                String child = st.getObject().stringValue();
+                add(subject, SpillRecord.NARROWER, child);
+                add(child, SpillRecord.BROADER, subject);
+            }
+        } catch (IOException e) {
+            throw new RDFHandlerException(e);
+        }
+    }
+
+    /** Add a record.
+     * @param iri The IRI of the resource.
+     * @param kind The kind of record.
+     * @param value The value of the record.
+     * @throws IOException If the record can not be spilled.
+     */
+    private void add(final String iri, final byte kind, final String value)
+            throws IOException {
+        sorter.add(new SpillRecord(iri, sequence, kind, value));
+        sequence++;
+    }
+
+    /** Get the number of resources found. Only valid after
+     * {@link #build()}.
+     * @return The number of resources found.
+     */
+    int getConceptCount() {
+        return count;
+    }
+
+    /** Was a cycle detected during depth-first search? Only valid
+     * after {@link #build()}.
+     * @return True, if a cycle was detected.
+     */
+    boolean isCycle() {
+        return cycle;
+    }
+
+    /** Were only tree edges found during depth-first search? Only
+     * valid after {@link #build()}.
+     * @return True, if only tree edges were found.
+     */
+    boolean isOnlyTreeEdges() {
+        return onlyTreeEdges;
+    }
+
+    /** Build the node and adjacency files, and do the depth-first
+     * search, once all the statements have been handled.
+     * @throws IOException If the temporary files can not be written
+     *      or read.
+     */
+    void build() throws IOException {
+        Path childrenSpill = directory.resolve("children-spill");
+        Files.createDirectory(childrenSpill);
+        try (ExternalSorter<Child> childSorter = new ExternalSorter<Child>(
+                childrenSpill, sortBudget, Child.CODEC, Child.ORDER)) {
+            buildNodes(childSorter);
+            buildChildren(childSorter);
+        }
+        search();
+    }
+
+    /** Write the node file from the sorted records. The top-most
+     * concepts are added to a sort of children, and the narrower
+     * relations are resolved to numbers and also added.
+     * @param childSorter The sorter of the children.
+     * @throws IOException If the temporary files can not be written
+     *      or read.
+     */
+    private void buildNodes(final ExternalSorter<Child> childSorter)
+            throws IOException {
+        Path edgesSpill = directory.resolve("edges-spill");
+        Files.createDirectory(edgesSpill);
+        concepts = new BitSet();
+        long position = 0;
+        try (ExternalSorter<Edge> edgeSorter = new ExternalSorter<Edge>(
+                    edgesSpill, sortBudget, Edge.CODEC, Edge.ORDER)) {
+            try (ExternalSorter.Cursor<SpillRecord> cursor = sorter.sort();
+                    DataOutputStream nodeOut = open("nodes");
+                    DataOutputStream indexOut = open("nodes.index")) {
+                Resource resource = null;
+                SpillRecord record;
+                while ((record = cursor.next()) != null) {
+                    if (resource == null
+                            || !resource.iri.equals(record.getIri())) {
+                        if (resource != null) {
+                            indexOut.writeLong(position);
+                            position += resource.write(nodeOut,
+                                    childSorter);
+                        }
+                        if (count == Integer.MAX_VALUE) {
+                            throw new IOException("Too many resources");
+                        }
+                        resource = new Resource(record.getIri(), count);
+                        count++;
+                        if (count % CHECK_INTERVAL == 0) {
+                            control.checkpoint();
+                        }
+                    }
+                    if (record.getKind() == SpillRecord.NARROWER) {
+                        edgeSorter.add(new Edge(record.getValue(),
+                                resource.number));
+                    }
+                    resource.add(record);
+                }
+                if (resource != null) {
+                    indexOut.writeLong(position);
+                    resource.write(nodeOut, childSorter);
+                }
+            }
+            sorter.close();
+            nodes = new MappedFile(directory.resolve("nodes"));
+            nodeIndex = new MappedFile(directory.resolve("nodes.index"));
+            resolveEdges(edgeSorter, childSorter);
+        }
+    }
+
+    /** Resolve the narrower relations to numbers, by merging them,
+     * sorted by the IRI of the narrower resource, with the node file,
+     * and add them to the sort of children.
+     * @param edgeSorter The sorter of the narrower relations.
+     * @param childSorter The sorter of the children.
+     * @throws IOException If the temporary files can not be written
+     *      or read.
+     */
+    private void resolveEdges(final ExternalSorter<Edge> edgeSorter,
+            final ExternalSorter<Child> childSorter) throws IOException {
+        int node = 0;
+        String nodeIri = null;
+        if (count > 0) {
+            nodeIri = getIri(0);
+        }
+        long handled = 0;
+        try (ExternalSorter.Cursor<Edge> cursor = edgeSorter.sort()) {
+            Edge edge;
+            while ((edge = cursor.next()) != null) {
+                while (!edge.child.equals(nodeIri)) {
+                    // Every narrower resource has a BROADER record,
+                    // and so is in the node file.
+                    node++;
+                    if (node >= count) {
+                        throw new IOException("Narrower resource not "
+                                + "found: " + edge.child);
+                    }
+                    nodeIri = getIri(node);
+                }
+                childSorter.add(newChild(edge.parent, node,
+                        getPrefLabel(node), nodeIri));
+                handled++;
+                if (handled % CHECK_INTERVAL == 0) {
+                    control.checkpoint();
+                }
+            }
+        }
+    }
+
+    /** Write the adjacency file from the sorted children.
+     * @param childSorter The sorter of the children.
+     * @throws IOException If the temporary files can not be written
+     *      or read.
+     */
+    private void buildChildren(final ExternalSorter<Child> childSorter)
+            throws IOException {
+        try (ExternalSorter.Cursor<Child> cursor = childSorter.sort();
+                DataOutputStream childOut = open("children");
+                DataOutputStream indexOut = open("children.index")) {
+            // The entry of the index being written, which is the
+            // number of the parent plus one.
+            long entry = 0;
+            long position = 0;
+            int lastParent = ROOT - 1;
+            int lastChild = ROOT;
+            Child child;
+            while ((child = cursor.next()) != null) {
+                if (child.parent == lastParent && child.child == lastChild) {
+                    // A narrower relation given more than once.
+                    continue;
+                }
+                while (entry <= child.parent + 1L) {
+                    indexOut.writeLong(position);
+                    entry++;
+                }
+                childOut.writeInt(child.child);
+                position += INT_BYTES;
+                lastParent = child.parent;
+                lastChild = child.child;
+            }
+            while (entry <= count + 1L) {
+                indexOut.writeLong(position);
+                entry++;
+            }
+        }
+        children = new MappedFile(directory.resolve("children"));
+        childIndex = new MappedFile(directory.resolve("children.index"));
+    }
+
+    /** Do the depth-first search of ConceptHandler, to find whether
+     * there are only tree edges. */
+    private void search() {
+        BitSet visited = new BitSet(count);
+        Search search = new Search(visited);
+        long end = getChildrenEnd(ROOT);
+        for (long p = getChildrenStart(ROOT); p < end; p += INT_BYTES) {
+            search.run(children.getInt(p));
+        }
+        for (int i = nextUnvisited(visited, 0); i >= 0;
+                i = nextUnvisited(visited, i + 1)) {
+            // As in ConceptHandler, a concept not reachable from the
+            // top-most concepts is taken as a sign of a cycle.
+            cycle = true;
+            extraRoots.add(i);
+            search.run(i);
+        }
+    }
+
+    /** Write the concept tree. Only call this if there are
+     * only tree edges.
+     * @param out The file to which the tree is written.
+     * @throws IOException If the tree can not be written.
+     */
+    void write(final File out) throws IOException {
+        try (JsonGenerator generator = new JsonFactory().createGenerator(
+                out, JsonEncoding.UTF8)) {
+            generator.writeStartArray();
+            for (int root : getRoots()) {
+                writeTree(generator, root);
+            }
+            generator.writeEndArray();
+        }
+    }
+
+    /** Write the index of the concept tree. See {@link TreeIndex}.
+     * Only call this if there are only tree edges. The concepts
+     * are numbered in the index by their rank among the concepts,
+     * which, as the resources are numbered in order of IRI, is
+     * also in order of IRI.
+     * @param file The file of the index.
+     * @throws IOException If the index can not be written.
+     */
+    void writeIndex(final Path file) throws IOException {
+        ConceptRanks ranks = new ConceptRanks();
+        try (TreeIndex.Writer writer = new TreeIndex.Writer(file)) {
+            long written = 0;
+            for (int node = concepts.nextSetBit(0); node >= 0;
+                    node = concepts.nextSetBit(node + 1)) {
+                long position = nodeIndex.getLong((long) node * LONG_BYTES);
+                String iri = nodes.getString(position);
+                position += nodes.getStringSize(position);
+                String prefLabel = nodes.getString(position);
+                position += nodes.getStringSize(position);
+                String definition = nodes.getString(position);
+                position += nodes.getStringSize(position);
+                writer.addNode(iri, prefLabel, definition,
+                        nodes.getString(position));
+                written++;
+                if (written % CHECK_INTERVAL == 0) {
+                    control.checkpoint();
+                }
+            }
+            for (int root : getRoots()) {
+                writer.addChild(TreeIndex.ROOT, ranks.get(root));
+            }
+            for (int node = concepts.nextSetBit(0); node >= 0;
+                    node = concepts.nextSetBit(node + 1)) {
+                long end = getChildrenEnd(node);
+                for (long p = getChildrenStart(node); p < end;
+                        p += INT_BYTES) {
+                    int child = children.getInt(p);
+                    if (concepts.get(child)) {
+                        writer.addChild(ranks.get(node), ranks.get(child));
+                    }
+                }
+            }
+            writer.finish();
+        }
+    }
+
+    /** Get the roots of the concept tree, in order.
+     * @return The numbers of the roots.
+     */
+    private List<Integer> getRoots() {
+        List<Integer> roots = new ArrayList<Integer>();
+        long end = getChildrenEnd(ROOT);
+        for (long p = getChildrenStart(ROOT); p < end; p += INT_BYTES) {
+            roots.add(children.getInt(p));
+        }
+        if (!extraRoots.isEmpty()) {
+            // In ConceptHandler, these are sorted along with the
+            // top-most concepts.
+            roots.addAll(extraRoots);
+            List<Child> sorted = new ArrayList<Child>(roots.size());
+            for (int root : roots) {
+                sorted.add(newChild(ROOT, root, getPrefLabel(root),
+                        getIri(root)));
+            }
+            sorted.sort(Child.ORDER);
+            roots.clear();
+            for (Child root : sorted) {
+                roots.add(root.child);
+            }
+        }
+        return roots;
+    }
+
+    /** Write the tree below a root. As there are only tree edges,
+     * every concept is reached once.
+     * @param generator The generator of the concept tree.
+     * @param root The number of the root.
+     * @throws IOException If the tree can not be written.
+     */
+    private void writeTree(final JsonGenerator generator, final int root)
+            throws IOException {
+        int[] stack = new int[INITIAL_DEPTH];
+        long[] next = new long[INITIAL_DEPTH];
+        // Whether the "narrower" array of each node on the stack
+        // has been started.
+        BitSet opened = new BitSet();
+        int depth = 0;
+        stack[0] = root;
+        next[0] = getChildrenStart(root);
+        writeNode(generator, root);
+        long written = 0;
+        while (depth >= 0) {
+            int node = stack[depth];
+            if (next[depth] < getChildrenEnd(node)) {
+                int child = children.getInt(next[depth]);
+                next[depth] += INT_BYTES;
+                if (!concepts.get(child)) {
+                    continue;
+                }
+                if (!opened.get(depth)) {
+                    generator.writeArrayFieldStart("narrower");
+                    opened.set(depth);
+                }
+                depth++;
+                if (depth == stack.length) {
+                    stack = Arrays.copyOf(stack, 2 * depth);
+                    next = Arrays.copyOf(next, 2 * depth);
+                }
+                stack[depth] = child;
+                next[depth] = getChildrenStart(child);
+                opened.clear(depth);
+                writeNode(generator, child);
+                written++;
+                if (written % CHECK_INTERVAL == 0) {
+                    control.checkpoint();
+                }
+            } else {
+                if (opened.get(depth)) {
+                    generator.writeEndArray();
+                }
+                generator.writeEndObject();
+                depth--;
+            }
+        }
+    }
+
+    /** Start the object of a concept, and write its fields other
+     * than "narrower". As for Concept, null fields are omitted.
+     * @param generator The generator of the concept tree.
+     * @param node The number of the concept.
+     * @throws IOException If the concept can not be written.
+     */
+    private void writeNode(final JsonGenerator generator, final int node)
+            throws IOException {
+        long position = nodeIndex.getLong((long) node * LONG_BYTES);
+        generator.writeStartObject();
+        generator.writeStringField("iri", nodes.getString(position));
+        for (String name : NODE_FIELDS) {
+            position += nodes.getStringSize(position);
+            String value = nodes.getString(position);
+            if (value != null) {
+                generator.writeStringField(name, value);
+            }
+        }
+    }
+
+    /** Delete the temporary files. */
+    @Override
+    public void close() {
+        sorter.close();
+        Spill.deleteDirectory(directory);
+    }
+
+    /** Open a temporary file for writing.
+     * @param name The name of the file.
+     * @return The output to which the file is written.
+     * @throws IOException If the file can not be opened.
+     */
+    private DataOutputStream open(final String name) throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(directory.resolve(name)),
+                BUFFER_SIZE));
+    }
+
+    /** Make a child, with the collation key of its prefLabel.
+     * The key is computed here, once, rather than by the comparisons
+     * of the sort.
+     * @param parent The number of the parent, or {@link #ROOT}.
+     * @param child The number of the child.
+     * @param prefLabel The prefLabel of the child, or null.
+     * @param iri The IRI of the child.
+     * @return The child.
+     */
+    private Child newChild(final int parent, final int child,
+            final String prefLabel, final String iri) {
+        byte[] sortKey = null;
+        if (prefLabel != null) {
+            sortKey = collator.getCollationKey(prefLabel).toByteArray();
+        }
+        return new Child(parent, child, sortKey, iri);
+    }
+
+    /** Get the IRI of a resource.
+     * @param node The number of the resource.
+     * @return The IRI of the resource.
+     */
+    private String getIri(final int node) {
+        return nodes.getString(nodeIndex.getLong((long) node * LONG_BYTES));
+    }
+
+    /** Get the prefLabel of a resource.
+     * @param node The number of the resource.
+     * @return The prefLabel of the resource, or null.
+     */
+    private String getPrefLabel(final int node) {
+        long position = nodeIndex.getLong((long) node * LONG_BYTES);
+        return nodes.getString(position + nodes.getStringSize(position));
+    }
+
+    /** Get the position in the adjacency file of the first child
+     * of a resource.
+     * @param node The number of the resource, or {@link #ROOT}.
+     * @return The position of the first child.
+     */
+    private long getChildrenStart(final int node) {
+        return childIndex.getLong((node + 1L) * LONG_BYTES);
+    }
+
+    /** Get the position in the adjacency file after the last child
+     * of a resource.
+     * @param node The number of the resource, or {@link #ROOT}.
+     * @return The position after the last child.
+     */
+    private long getChildrenEnd(final int node) {
+        return childIndex.getLong((node + 2L) * LONG_BYTES);
+    }
+
+    /** Get the next concept that has not been visited.
+     * @param visited The resources visited.
+     * @param from The number from which to look.
+     * @return The number of the next concept not visited, or -1,
+     *      if there is none.
+     */
+    private int nextUnvisited(final BitSet visited, final int from) {
+        for (int i = concepts.nextSetBit(from); i >= 0;
+                i = concepts.nextSetBit(i + 1)) {
+            if (!visited.get(i)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /** The rank of each concept among the concepts, i.e., its number
+     * in a {@link TreeIndex}. The words of the set of concepts are
+     * copied, with the number of concepts before each word, so that
+     * the heap used stays at a few bits for each resource. */
+    private final class ConceptRanks {
+
+        /** The words of the set of concepts. */
+        private final long[] words = concepts.toLongArray();
+
+        /** The number of concepts before each word. */
+        private final int[] before = new int[words.length];
+
+        /** Constructor. */
+        private ConceptRanks() {
+            for (int i = 1; i < words.length; i++) {
+                before[i] = before[i - 1] + Long.bitCount(words[i - 1]);
+            }
+        }
+
+        /** Get the rank of a concept.
+         * @param node The number of the concept.
+         * @return The number of concepts before it.
+         */
+        private int get(final int node) {
+            int word = node >>> WORD_SHIFT;
+            return before[word] + Long.bitCount(words[word]
+                    & ((1L << (node & WORD_MASK)) - 1));
+        }
+    }
+
+    /** The depth-first search of ConceptHandler, done without
+     * recursion, so that deep trees do not overflow the stack. */
+    private final class Search {
+
+        /** The resources visited. */
+        private final BitSet visited;
+
+        /** The resources that are the subject of the search. */
+        private final BitSet active = new BitSet();
+
+        /** The stack of resources being searched. */
+        private int[] stack = new int[INITIAL_DEPTH];
+
+        /** The positions in the adjacency file of the next child
+         * of each resource on the stack. */
+        private long[] next = new long[INITIAL_DEPTH];
+
+        /** The number of resources visited so far. */
+        private long searched;
+
+        /** Constructor.
+         * @param aVisited The resources visited.
+         */
+        private Search(final BitSet aVisited) {
+            visited = aVisited;
+        }
+
+        /** Search from a root.
+         * @param root The number of the root.
+         */
+        private void run(final int root) {
+            int depth = 0;
+            push(depth, root);
+            while (depth >= 0) {
+                int node = stack[depth];
+                if (next[depth] < getChildrenEnd(node)) {
+                    int child = children.getInt(next[depth]);
+                    next[depth] += INT_BYTES;
+                    if (concepts.get(child) && !visited.get(child)) {
+                        depth++;
+                        push(depth, child);
+                    } else {
+                        onlyTreeEdges = false;
+                        if (active.get(child)) {
+                            cycle = true;
+                        }
+                    }
+                } else {
+                    active.clear(node);
+                    depth--;
+                }
+            }
+        }
+
+        /** Visit a resource, and push it on the stack.
+         * @param depth The depth at which the resource is pushed.
+         * @param node The number of the resource.
+         */
+        private void push(final int depth, final int node) {
+            if (depth == stack.length) {
+                stack = Arrays.copyOf(stack, 2 * depth);
+                next = Arrays.copyOf(next, 2 * depth);
+            }
+            stack[depth] = node;
+            next[depth] = getChildrenStart(node);
+            visited.set(node);
+            active.set(node);
+            searched++;
+            if (searched % CHECK_INTERVAL == 0) {
+                control.checkpoint();
+            }
+        }
+    }
+
+    /** The properties of one resource, gathered from its records. */
+    private final class Resource {
+
+        /** The IRI of the resource. */
+        private final String iri;
+
+        /** The number of the resource. */
+        private final int number;
+
+        /** The type of the resource given by an rdf:type statement,
+         * or null, if there is none. */
+        private String type;
+
+        /** Whether the resource has a broader or narrower relation,
+         * from which it is inferred to be a Concept. */
+        private boolean related;
+
+        /** Whether the resource has a broader resource. */
+        private boolean hasBroader;
+
+        /** The prefLabel of the resource. */
+        private String prefLabel;
+
+        /** The definition of the resource. */
+        private String definition;
+
+        /** The notation of the resource. */
+        private String notation;
+
+        /** Constructor.
+         * @param anIri The IRI of the resource.
+         * @param aNumber The number of the resource.
+         */
+        private Resource(final String anIri, final int aNumber) {
+            iri = anIri;
+            number = aNumber;
+        }
+
+        /** Add the property given by a record. As in ConceptHandler,
+         * later values replace earlier ones.
+         * @param record The record.
+         */
+        private void add(final SpillRecord record) {
+            switch (record.getKind()) {
+            case SpillRecord.TYPE:
+                type = record.getValue();
+                break;
+            case SpillRecord.PREF_LABEL:
+                prefLabel = record.getValue();
+                break;
+            case SpillRecord.DEFINITION:
+                definition = record.getValue();
+                break;
+            case SpillRecord.NOTATION:
+                notation = record.getValue();
+                break;
+            case SpillRecord.BROADER:
+                related = true;
+                hasBroader = true;
+                break;
+            case SpillRecord.NARROWER:
+                related = true;
+                break;
+            default:
+                break;
+            }
+        }
+
+        /** Write the resource to the node file, note whether it is
+         * a Concept, and, if it is a top-most concept, add it to the
+         * sort of children as a child of the virtual root.
+         * @param out The output of the node file.
+         * @param childSorter The sorter of the children.
+         * @return The number of bytes written to the node file.
+         * @throws IOException If the resource can not be written.
+         */
+        private int write(final DataOutput out,
+                final ExternalSorter<Child> childSorter)
+                throws IOException {
+            // As in ConceptHandler, an explicit type takes priority
+            // over the type inferred from a relation.
+            boolean concept;
+            if (type != null) {
+                concept = JsonTreeTransformProvider.CONCEPT_SHORT_FORM.
+                        equals(type);
+            } else {
+                concept = related;
+            }
+            if (concept) {
+                concepts.set(number);
+                if (!hasBroader) {
+                    childSorter.add(newChild(ROOT, number, prefLabel,
+                            iri));
+                }
+            }
+            return MappedFile.writeString(out, iri)
+                    + MappedFile.writeString(out, prefLabel)
+                    + MappedFile.writeString(out, definition)
+                    + MappedFile.writeString(out, notation);
+        }
+    }
+
+    /** A narrower relation, before the narrower resource has been
+     * given its number. */
+    private static final class Edge {
+
+        /** Estimated heap size of an edge, apart from its IRI,
+         * in bytes. */
+        private static final long OVERHEAD = 24;
+
+        /** The encoding of edges in the runs of an
+         * {@link ExternalSorter}. */
+        private static final ExternalSorter.Codec<Edge> CODEC =
+                new ExternalSorter.Codec<Edge>() {
+            @Override
+            public void write(final DataOutput out, final Edge edge)
+                    throws IOException {
+                MappedFile.writeString(out, edge.child);
+                out.writeInt(edge.parent);
+            }
+
+            @Override
+            public Edge read(final DataInput in) throws IOException {
+                String aChild = SpillRecord.readString(in);
+                return new Edge(aChild, in.readInt());
+            }
+
+            @Override
+            public long size(final Edge edge) {
+                return OVERHEAD + SpillRecord.stringSize(edge.child);
+            }
+        };
+
+        /** The order of edges: by the IRI of the narrower resource. */
+        private static final Comparator<Edge> ORDER =
+                (e1, e2) -> e1.child.compareTo(e2.child);
+
+        /** The IRI of the narrower resource. */
+        private final String child;
+
+        /** The number of the broader resource. */
+        private final int parent;
+
+        /** Constructor.
+         * @param aChild The IRI of the narrower resource.
+         * @param aParent The number of the broader resource.
+         */
+        private Edge(final String aChild, final int aParent) {
+            child = aChild;
+            parent = aParent;
+        }
+    }
+
+    /** A child of a resource, or of the virtual root, with the
+     * prefLabel and IRI by which children are sorted. */
+    private static final class Child {
+
+        /** Estimated heap size of a child, apart from its IRI and
+         * sort key, in bytes. */
+        private static final long OVERHEAD = 48;
+
+        /** The length written for a null sort key. */
+        private static final int NO_KEY = -1;
+
+        /** Mask of the bits of a byte, to compare bytes unsigned. */
+        private static final int BYTE_MASK = 0xff;
+
+        /** The encoding of children in the runs of an
+         * {@link ExternalSorter}. */
+        private static final ExternalSorter.Codec<Child> CODEC =
+                new ExternalSorter.Codec<Child>() {
+            @Override
+            public void write(final DataOutput out, final Child child)
+                    throws IOException {
+                out.writeInt(child.parent);
+                out.writeInt(child.child);
+                if (child.sortKey == null) {
+                    out.writeInt(NO_KEY);
+                } else {
+                    out.writeInt(child.sortKey.length);
+                    out.write(child.sortKey);
+                }
+                MappedFile.writeString(out, child.iri);
+            }
+
+            @Override
+            public Child read(final DataInput in) throws IOException {
+                int aParent = in.readInt();
+                int aChild = in.readInt();
+                int length = in.readInt();
+                byte[] aSortKey = null;
+                if (length != NO_KEY) {
+                    aSortKey = new byte[length];
+                    in.readFully(aSortKey);
+                }
+                return new Child(aParent, aChild, aSortKey,
+                        SpillRecord.readString(in));
+            }
+
+            @Override
+            public long size(final Child child) {
+                long size = OVERHEAD + SpillRecord.stringSize(child.iri);
+                if (child.sortKey != null) {
+                    size += child.sortKey.length;
+                }
+                return size;
+            }
+        };
+
+        /** The order of children: by parent, and then as for
+         * {@link JsonTreeTransformProvider.Concept}, i.e., by the
+         * collation keys of the prefLabels, with concepts without
+         * prefLabels at the end, and then by IRI. The keys are
+         * compared as unsigned bytes, which gives the same order
+         * as comparing the {@link CollationKey}s from which they
+         * were made. */
+        private static final Comparator<Child> ORDER = (c1, c2) -> {
+            int c = Integer.compare(c1.parent, c2.parent);
+            if (c != 0) {
+                return c;
+            }
+            if (c1.sortKey == null) {
+                if (c2.sortKey == null) {
+                    return c1.iri.compareTo(c2.iri);
+                }
+                return 1;
+            }
+            if (c2.sortKey == null) {
+                return -1;
+            }
+            c = compareKeys(c1.sortKey, c2.sortKey);
+            if (c != 0) {
+                return c;
+            }
+            return c1.iri.compareTo(c2.iri);
+        };
+
+        /** The number of the parent, or {@link #ROOT}. */
+        private final int parent;
+
+        /** The number of the child. */
+        private final int child;
+
+        /** The collation key of the prefLabel of the child, as bytes,
+         * or null, if it has no prefLabel. */
+        private final byte[] sortKey;
+
+        /** The IRI of the child. */
+        private final String iri;
+
+        /** Constructor.
+         * @param aParent The number of the parent, or {@link #ROOT}.
+         * @param aChild The number of the child.
+         * @param aSortKey The collation key of the prefLabel of the
+         *      child, as bytes, or null.
+         * @param anIri The IRI of the child.
+         */
+        private Child(final int aParent, final int aChild,
+                final byte[] aSortKey, final String anIri) {
+            parent = aParent;
+            child = aChild;
+            sortKey = aSortKey;
+            iri = anIri;
+        }
+
+        /** Compare two sort keys as unsigned bytes.
+         * @param key1 The first key.
+         * @param key2 The second key.
+         * @return The result of the comparison.
+         */
+        private static int compareKeys(final byte[] key1,
+                final byte[] key2) {
+            int length = Math.min(key1.length, key2.length);
+            for (int i = 0; i < length; i++) {
+                int c = Integer.compare(key1[i] & BYTE_MASK,
+                        key2[i] & BYTE_MASK);
+                if (c != 0) {
+                    return c;
+                }
+            }
+            return Integer.compare(key1.length, key2.length);
+        }
+    }
+
+}
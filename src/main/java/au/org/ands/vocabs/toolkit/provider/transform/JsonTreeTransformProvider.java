@@ -1,17 +1,25 @@
 /** See the file "LICENSE" for the full license governing this code. */
 package au.org.ands.vocabs.toolkit.provider.transform;
 
+import java.io.Closeable;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.lang.invoke.MethodHandles;
 import java.nio.file.DirectoryIteratorException;
-import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.text.CollationKey;
+import java.text.Collator;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
@@ -23,11 +31,8 @@ import org.openrdf.model.URI;
 import org.openrdf.model.Value;
 import org.openrdf.model.vocabulary.RDF;
 import org.openrdf.model.vocabulary.SKOS;
-import org.openrdf.rio.RDFFormat;
 import org.openrdf.rio.RDFHandlerException;
 import org.openrdf.rio.RDFParseException;
-import org.openrdf.rio.RDFParser;
-import org.openrdf.rio.Rio;
 import org.openrdf.rio.UnsupportedRDFormatException;
 import org.openrdf.rio.helpers.RDFHandlerBase;
 import org.slf4j.Logger;
@@ -37,14 +42,20 @@ import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.databind.JsonNode;
 
 import au.org.ands.vocabs.toolkit.db.TaskUtils;
+import au.org.ands.vocabs.toolkit.tasks.ProgressListener;
 import au.org.ands.vocabs.toolkit.tasks.TaskInfo;
 import au.org.ands.vocabs.toolkit.tasks.TaskStatus;
+import au.org.ands.vocabs.toolkit.utils.PropertyConstants;
+import au.org.ands.vocabs.toolkit.utils.TermDictionary;
 import au.org.ands.vocabs.toolkit.utils.ToolkitFileUtils;
+import au.org.ands.vocabs.toolkit.utils.ToolkitProperties;
+import au.org.ands.vocabs.toolkit.utils.TreeIndex;
 
 /** Transform provider for generating a forest-like representation of the
  * concepts as JSON. This assumes a vocabulary encoded using SKOS.
  * The resulting output is sorted at each level by prefLabel,
- * case-insensitively.
+ * case-insensitively, by the rules of a locale that can be set
+ * for each vocabulary; see {@link #getCollator(JsonNode)}.
  * Concepts without prefLabels are gathered at the end, sorted
  * by IRI.
  * The structure of the generated JSON is:
@@ -152,8 +163,20 @@ public class JsonTreeTransformProvider extends TransformProvider {
 
     /** Short form of the concept type name. Used both in
      * {@link #typesToLookFor} and
-     * {@link ConceptHandler#populateRoots()}. */
-    private static final String CONCEPT_SHORT_FORM = "Concept";
+     * {@link ConceptHandler#populateRoots()}, and by
+     * {@link JsonTreeSpill}. */
+    static final String CONCEPT_SHORT_FORM = "Concept";
+
+    /** Name of the subtask parameter that gives the locale by which
+     * the prefLabels are sorted. */
+    private static final String COLLATION_LOCALE = "collation_locale";
+
+    /** Default locale by which the prefLabels are sorted, as a BCP 47
+     * language tag. */
+    private static final String DEFAULT_COLLATION_LOCALE = "en";
+
+    /** Initial capacity of the cache of Concept objects. */
+    private static final int INITIAL_CAPACITY = 1 << 10;
 
     /** A map of SKOS types to take note of. */
     private static HashMap<URI, String> typesToLookFor =
@@ -166,6 +189,44 @@ public class JsonTreeTransformProvider extends TransformProvider {
         typesToLookFor.put(SKOS.ORDERED_COLLECTION, "OrderedCollection");
     }
 
+    /** Get the short form of a SKOS type to take note of.
+     * Used by {@link JsonTreeSpill}.
+     * @param type The IRI of the type.
+     * @return The short form of the type, or null, if the type
+     *      is not one to take note of.
+     */
+    static String getTypeShortForm(final Value type) {
+        return typesToLookFor.get(type);
+    }
+
+    /** Get the collator by which the concepts of a vocabulary are
+     * sorted. Its locale is given by the {@link #COLLATION_LOCALE}
+     * parameter of the subtask, as a BCP 47 language tag, if there is
+     * one; otherwise, by the
+     * {@link PropertyConstants#TOOLKIT_TRANSFORMCOLLATIONLOCALE}
+     * property. Case is ignored; accents are significant; and the
+     * prefLabels are normalized, so that composed and decomposed
+     * characters sort alike.
+     * @param subtask The subtask, or null.
+     * @return The collator.
+     */
+    static Collator getCollator(final JsonNode subtask) {
+        String languageTag = null;
+        if (subtask != null && subtask.get(COLLATION_LOCALE) != null) {
+            languageTag = subtask.get(COLLATION_LOCALE).textValue();
+        }
+        if (languageTag == null || languageTag.isEmpty()) {
+            languageTag = ToolkitProperties.getProperty(
+                    PropertyConstants.TOOLKIT_TRANSFORMCOLLATIONLOCALE,
+                    DEFAULT_COLLATION_LOCALE).trim();
+        }
+        Collator collator = Collator.getInstance(
+                Locale.forLanguageTag(languageTag));
+        collator.setStrength(Collator.SECONDARY);
+        collator.setDecomposition(Collator.CANONICAL_DECOMPOSITION);
+        return collator;
+    }
+
     @Override
     public final String getInfo() {
         // Not implemented.
@@ -176,22 +237,18 @@ public class JsonTreeTransformProvider extends TransformProvider {
     public final boolean transform(final TaskInfo taskInfo,
             final JsonNode subtask,
             final HashMap<String, String> results) {
-        Path dir = Paths.get(ToolkitFileUtils.getTaskHarvestOutputPath(
-                taskInfo));
-        ConceptHandler conceptHandler = new ConceptHandler();
+        Collator collator = getCollator(subtask);
+        ConceptHandler conceptHandler = new ConceptHandler(collator);
+        boolean spill = false;
         // Parse all input files in the harvest directory, loading
         // the content into conceptHandler.
-        try (DirectoryStream<Path> stream =
-                Files.newDirectoryStream(dir)) {
-            for (Path entry: stream) {
-                RDFFormat format = Rio.getParserFormatForFileName(
-                        entry.toString());
-                RDFParser rdfParser = Rio.createParser(format);
-                rdfParser.setRDFHandler(conceptHandler);
-                FileInputStream is = new FileInputStream(entry.toString());
-                rdfParser.parse(is, entry.toString());
-                logger.debug("Reading RDF: " + entry.toString());
-            }
+        try {
+            parseHarvest(taskInfo, new Spill.Trigger(conceptHandler,
+                    Spill.getThreshold()));
+        } catch (Spill.ThresholdExceeded ex) {
+            logger.info("JsonTreeTransform: " + ex.getMessage()
+                    + "; starting again in spill mode");
+            spill = true;
         } catch (DirectoryIteratorException
                 | IOException
                 | RDFParseException
@@ -208,8 +265,20 @@ public class JsonTreeTransformProvider extends TransformProvider {
         // file system.
         String resultFileNameTree = ToolkitFileUtils.getTaskOutputPath(taskInfo,
                 "concepts_tree.json");
+        String resultFileNameIndex = ToolkitFileUtils.getTaskOutputPath(
+                taskInfo, TreeIndex.FILE_NAME);
+        if (spill) {
+            // Let the concepts parsed so far be collected.
+            conceptHandler.close();
+            conceptHandler = null;
+            return transformWithSpill(taskInfo, results, resultFileNameTree,
+                    resultFileNameIndex, collator);
+        }
         try {
             Set<Concept> conceptTree = conceptHandler.buildForest();
+            taskInfo.getProgressListener().increment(
+                    ProgressListener.CONCEPTS_PROCESSED,
+                    conceptHandler.getConceptCount());
 
             // Future work: either (a) make the returned JSON not
             // just an array, but an object in which the concept tree
@@ -221,25 +290,24 @@ public class JsonTreeTransformProvider extends TransformProvider {
             // For now, generate a JSON tree _only_ if there are only
             // tree edges.
             if (conceptHandler.isOnlyTreeEdges()) {
-                // Serialize the tree and write to the file system.
-                // Jackson will serialize TreeSets in sorted order of values
-                // (i.e., the Concept objects' prefLabels).
-                File out = new File(resultFileNameTree);
-                results.put("concepts_tree", resultFileNameTree);
-                FileUtils.writeStringToFile(out,
-                        TaskUtils.collectionToJSONString(conceptTree));
-            } else {
-                String reason;
-                if (conceptHandler.isCycle()) {
-                    // In giving a reason, cycles take priority.
-                    reason = "there is a cycle";
+                results.put("concepts_tree_index", resultFileNameIndex);
+                writeIndex(conceptTree, Paths.get(resultFileNameIndex));
+                long shardSize = JsonTreeShards.getShardSize();
+                if (shardSize > 0) {
+                    writeShards(taskInfo, results, resultFileNameTree,
+                            resultFileNameIndex, shardSize);
                 } else {
-                    reason = "there is a forward or cross edge";
+                    // Serialize the tree and write to the file system.
+                    // Jackson will serialize TreeSets in sorted order
+                    // of values (i.e., the Concept objects' prefLabels).
+                    File out = new File(resultFileNameTree);
+                    results.put("concepts_tree", resultFileNameTree);
+                    FileUtils.writeStringToFile(out,
+                            TaskUtils.collectionToJSONString(conceptTree));
+                    FileUtils.deleteDirectory(getShardDirectory(taskInfo));
                 }
-                results.put("concepts_tree_not_provided", "No concepts tree "
-                        + "provided, because " + reason + ".");
-                logger.error("JsonTreeTransform: not providing a concept "
-                        + "tree because " + reason + ".");
+            } else {
+                notProvided(taskInfo, results, conceptHandler.isCycle());
                 // Future work:
                 // write something else, e.g., a JSON string.
                 //    FileUtils.writeStringToFile(out, "something");
@@ -258,17 +326,193 @@ public class JsonTreeTransformProvider extends TransformProvider {
             logger.error("Exception in JsonTreeTransform generating result:",
                     ex);
             return false;
+        } finally {
+            conceptHandler.close();
+        }
+        return true;
+    }
+
+    /** Do the transform in spill mode, for vocabularies too big
+     * to be held in the heap. See {@link JsonTreeSpill}.
+     * @param taskInfo The TaskInfo object describing the entire task.
+     * @param results HashMap representing the result of the transform.
+     * @param resultFileNameTree The name of the file to which the concept
+     *      tree is written.
+     * @param resultFileNameIndex The name of the file to which the index
+     *      of the concept tree is written.
+     * @param collator The collator of the prefLabels.
+     * @return True, iff the transform succeeded.
+     */
+    private boolean transformWithSpill(final TaskInfo taskInfo,
+            final HashMap<String, String> results,
+            final String resultFileNameTree,
+            final String resultFileNameIndex,
+            final Collator collator) {
+        try (JsonTreeSpill conceptSpill =
+                new JsonTreeSpill(taskInfo.getControl(), collator)) {
+            parseHarvest(taskInfo, conceptSpill);
+            conceptSpill.build();
+            taskInfo.getProgressListener().increment(
+                    ProgressListener.CONCEPTS_PROCESSED,
+                    conceptSpill.getConceptCount());
+            if (conceptSpill.isOnlyTreeEdges()) {
+                results.put("concepts_tree_spilled", "true");
+                results.put("concepts_tree_index", resultFileNameIndex);
+                conceptSpill.writeIndex(Paths.get(resultFileNameIndex));
+                long shardSize = JsonTreeShards.getShardSize();
+                if (shardSize > 0) {
+                    writeShards(taskInfo, results, resultFileNameTree,
+                            resultFileNameIndex, shardSize);
+                } else {
+                    results.put("concepts_tree", resultFileNameTree);
+                    conceptSpill.write(new File(resultFileNameTree));
+                    FileUtils.deleteDirectory(getShardDirectory(taskInfo));
+                }
+            } else {
+                notProvided(taskInfo, results, conceptSpill.isCycle());
+            }
+        } catch (DirectoryIteratorException
+                | IOException
+                | RDFParseException
+                | RDFHandlerException
+                | UnsupportedRDFormatException ex) {
+            results.put(TaskStatus.EXCEPTION,
+                    "Exception in JsonTreeTransform in spill mode");
+            logger.error("Exception in JsonTreeTransform in spill mode:",
+                    ex);
+            return false;
         }
         return true;
     }
 
+    /** Write the concept tree in shards, in place of the single file.
+     * See {@link JsonTreeShards}. The shards are written from the index
+     * of the concept tree, which must already have been written.
+     * @param taskInfo The TaskInfo object describing the entire task.
+     * @param results HashMap representing the result of the transform.
+     * @param resultFileNameTree The name of the single file of the
+     *      concept tree, which is deleted, if it exists.
+     * @param resultFileNameIndex The name of the file of the index
+     *      of the concept tree.
+     * @param shardSize The shard size, in bytes.
+     * @throws IOException If the shards can not be written.
+     */
+    private void writeShards(final TaskInfo taskInfo,
+            final HashMap<String, String> results,
+            final String resultFileNameTree,
+            final String resultFileNameIndex,
+            final long shardSize) throws IOException {
+        File directory = getShardDirectory(taskInfo);
+        JsonTreeShards shards = new JsonTreeShards(
+                new TreeIndex(Paths.get(resultFileNameIndex)), shardSize,
+                taskInfo.getControl());
+        int files = shards.write(directory.toPath());
+        results.put("concepts_tree_shards", new File(directory,
+                JsonTreeShards.INDEX_FILE_NAME).toString());
+        logger.info("JsonTreeTransform: wrote the concept tree in "
+                + files + " shards");
+        Files.deleteIfExists(Paths.get(resultFileNameTree));
+    }
+
+    /** Get the directory of the shards of the concept tree.
+     * @param taskInfo The TaskInfo object describing the entire task.
+     * @return The directory of the shards.
+     */
+    private static File getShardDirectory(final TaskInfo taskInfo) {
+        return new File(ToolkitFileUtils.getTaskOutputPath(taskInfo,
+                JsonTreeShards.DIRECTORY_NAME));
+    }
+
+    /** Note in the results that no concept tree is provided, because
+     * there are edges other than tree edges. Any index or shards of the
+     * concept tree of a previous transform are deleted, so that they
+     * are no longer served.
+     * @param taskInfo The TaskInfo object describing the entire task.
+     * @param results HashMap representing the result of the transform.
+     * @param cycle Whether a cycle was detected.
+     * @throws IOException If an existing index or shards can not
+     *      be deleted.
+     */
+    private void notProvided(final TaskInfo taskInfo,
+            final HashMap<String, String> results, final boolean cycle)
+            throws IOException {
+        Files.deleteIfExists(Paths.get(ToolkitFileUtils.getTaskOutputPath(
+                taskInfo, TreeIndex.FILE_NAME)));
+        FileUtils.deleteDirectory(getShardDirectory(taskInfo));
+        String reason;
+        if (cycle) {
+            // In giving a reason, cycles take priority.
+            reason = "there is a cycle";
+        } else {
+            reason = "there is a forward or cross edge";
+        }
+        results.put("concepts_tree_not_provided", "No concepts tree "
+                + "provided, because " + reason + ".");
+        logger.error("JsonTreeTransform: not providing a concept "
+                + "tree because " + reason + ".");
+    }
+
+    /** Write the index of a concept tree. See {@link TreeIndex}.
+     * Only call this if there are only tree edges, so that each
+     * concept is reached once from the roots.
+     * @param conceptTree The roots of the concept tree.
+     * @param file The file of the index.
+     * @throws IOException If the index can not be written.
+     */
+    private static void writeIndex(final Set<Concept> conceptTree,
+            final Path file) throws IOException {
+        // Gather the concepts, each with its IRI, decoded once,
+        // so that they can be numbered in order of IRI.
+        List<Entry<String, Concept>> concepts =
+                new ArrayList<Entry<String, Concept>>();
+        Deque<Concept> pending = new ArrayDeque<Concept>(conceptTree);
+        while (!pending.isEmpty()) {
+            Concept concept = pending.pop();
+            concepts.add(new SimpleImmutableEntry<String, Concept>(
+                    concept.getIri(), concept));
+            if (concept.getNarrower() != null) {
+                pending.addAll(concept.getNarrower());
+            }
+        }
+        concepts.sort(Entry.comparingByKey());
+        Map<Concept, Integer> numbers =
+                new HashMap<Concept, Integer>(2 * concepts.size());
+        try (TreeIndex.Writer writer = new TreeIndex.Writer(file)) {
+            for (Entry<String, Concept> entry : concepts) {
+                Concept concept = entry.getValue();
+                numbers.put(concept, writer.addNode(entry.getKey(),
+                        concept.getPrefLabel(), concept.getDefinition(),
+                        concept.getNotation()));
+            }
+            for (Concept root : conceptTree) {
+                writer.addChild(TreeIndex.ROOT, numbers.get(root));
+            }
+            for (Entry<String, Concept> entry : concepts) {
+                Concept concept = entry.getValue();
+                if (concept.getNarrower() != null) {
+                    int parent = numbers.get(concept);
+                    for (Concept child : concept.getNarrower()) {
+                        writer.addChild(parent, numbers.get(child));
+                    }
+                }
+            }
+            writer.finish();
+        }
+    }
+
     /** Inner class for representing concepts, to be used as
      * values of Sets that store concepts. An instance
      * stores an IRI, its narrower Concepts, and (optional) metadata
      * of the concept: a prefLabel, definition, and notation.
+     * The IRI, definition, and notation are kept as ids in a
+     * {@link TermDictionary}, and are decoded when the concept is
+     * serialized; the prefLabel, which is used for sorting,
+     * is kept as a String.
      * The natural order of instances
      * ({@link #compareTo(JsonTreeTransformProvider.Concept)})
-     * is based on a case-insensitive comparison of the prefLabels,
+     * is based on a locale-sensitive, case-insensitive comparison of
+     * the prefLabels, using collation keys computed once for each
+     * concept by {@link #computeSortKey(Collator)},
      * but equality, and the value of {@link #toString()}, is based
      * on the IRI.
      * The purpose of this class is to facilitate sorting of
@@ -277,30 +521,34 @@ public class JsonTreeTransformProvider extends TransformProvider {
     @JsonInclude(JsonInclude.Include.NON_NULL)
     static class Concept implements Comparable<Concept> {
 
-        /** The IRI of the concept. */
-        private String iri;
+        /** The dictionary of the IRI, definition, and notation. */
+        private final TermDictionary terms;
+
+        /** The id of the IRI of the concept. */
+        private final int iri;
 
         /** The prefLabel of the concept. */
         private String prefLabel;
 
-        /** The definition of the concept. */
-        private String definition;
+        /** The collation key of the prefLabel, or null. */
+        private CollationKey sortKey;
 
-        /** The notation of the concept. */
-        private String notation;
+        /** The id of the definition of the concept, or -1. */
+        private int definition = -1;
+
+        /** The id of the notation of the concept, or -1. */
+        private int notation = -1;
 
         /** The narrower concepts of the concept. */
         private TreeSet<Concept> narrower;
 
         /** Constructor with an IRI specified.
-         * @param anIRI The IRI of the concept. Must be non-null.
-         * @throws IllegalArgumentException Thrown if {@code anIRI == null}.
+         * @param aTerms The dictionary of the IRI, definition,
+         *      and notation.
+         * @param anIRI The id of the IRI of the concept.
          */
-        Concept(final String anIRI) {
-            if (anIRI == null) {
-                throw new IllegalArgumentException("Won't make a Concept "
-                        + "with a null IRI");
-            }
+        Concept(final TermDictionary aTerms, final int anIRI) {
+            terms = aTerms;
             iri = anIRI;
         }
 
@@ -308,7 +556,7 @@ public class JsonTreeTransformProvider extends TransformProvider {
          * @return The value of the IRI.
          */
         public String getIri() {
-            return iri;
+            return terms.getString(iri);
         }
 
         /** Set the prefLabel.
@@ -325,32 +573,56 @@ public class JsonTreeTransformProvider extends TransformProvider {
             return prefLabel;
         }
 
+        /** Compute the collation key of the prefLabel, by which
+         * the concept is sorted. Call this once the prefLabel has been
+         * set, and before the concept is added to any TreeSet.
+         * @param collator The collator of the prefLabels.
+         */
+        void computeSortKey(final Collator collator) {
+            if (prefLabel == null) {
+                sortKey = null;
+            } else {
+                sortKey = collator.getCollationKey(prefLabel);
+            }
+        }
+
         /** Set the definition.
          * @param aDefinition The value of the definition.
          */
         public void setDefinition(final String aDefinition) {
-            definition = aDefinition;
+            definition = terms.getId(aDefinition);
         }
 
         /** Get the definition.
          * @return The value of the definition.
          */
         public String getDefinition() {
-            return definition;
+            return getTerm(definition);
         }
 
         /** Set the notation.
          * @param aNotation The value of the notation.
          */
         public void setNotation(final String aNotation) {
-            notation = aNotation;
+            notation = terms.getId(aNotation);
         }
 
         /** Get the notation.
          * @return The value of the notation.
          */
         public String getNotation() {
-            return notation;
+            return getTerm(notation);
+        }
+
+        /** Decode an optional term.
+         * @param id The id of the term, or -1.
+         * @return The term, or null, if {@code id} is -1.
+         */
+        private String getTerm(final int id) {
+            if (id < 0) {
+                return null;
+            }
+            return terms.getString(id);
         }
 
         /** Add a narrower concept.
@@ -373,8 +645,8 @@ public class JsonTreeTransformProvider extends TransformProvider {
         }
 
         /** {@inheritDoc}
-         * Comparison based first (case-insensitively) on prefLabels,
-         * then on IRIs.
+         * Comparison based first on the collation keys of the
+         * prefLabels, then on IRIs.
          * All Concepts with null prefLabels are sorted at the end
          * (by their IRIs).
          */
@@ -391,7 +663,7 @@ public class JsonTreeTransformProvider extends TransformProvider {
                 if (otherConcept.prefLabel == null) {
                     // Both concepts have null prefLabels, so
                     // sort by their IRIs.
-                    return iri.compareTo(otherConcept.iri);
+                    return compareIris(otherConcept);
                 }
                 // The other concept has a prefLabel. This concept
                 // is sorted after it.
@@ -404,19 +676,35 @@ public class JsonTreeTransformProvider extends TransformProvider {
                 return -1;
             }
             // Both this and otherConcept have prefLabels.
-            // Use String case-insensitive comparison on them.
+            // Compare their collation keys, which is a plain comparison
+            // of the keys; the case folding and the rules of the locale
+            // were applied once, when the keys were computed.
             int prefLabelComparison =
-                    prefLabel.compareToIgnoreCase(otherConcept.prefLabel);
+                    sortKey.compareTo(otherConcept.sortKey);
             if (prefLabelComparison != 0) {
                 return prefLabelComparison;
             }
             // Identical prefLabels. Fall back to comparing their IRIs.
-            return iri.compareTo(otherConcept.iri);
+            return compareIris(otherConcept);
+        }
+
+        /** Compare the IRI of this concept with that of another.
+         * Equal ids are equal IRIs, so that the IRIs are
+         * only decoded when they differ.
+         * @param otherConcept The other concept.
+         * @return The result of comparing the IRIs as Strings.
+         */
+        private int compareIris(final Concept otherConcept) {
+            if (iri == otherConcept.iri) {
+                return 0;
+            }
+            return getIri().compareTo(otherConcept.getIri());
         }
 
         /** {@inheritDoc}
          * Equality test based on IRI. But there should be only one
          * instance of an IRI in a Set or Map of Concepts.
+         * Only Concepts that share a dictionary are compared.
          */
         @Override
         public boolean equals(final Object other) {
@@ -424,15 +712,15 @@ public class JsonTreeTransformProvider extends TransformProvider {
                 return false;
             }
             Concept otherConcept = (Concept) other;
-            return iri.equals(otherConcept.iri);
+            return iri == otherConcept.iri;
         }
 
         /** {@inheritDoc}
-         * The hash code returned is that of the IRI.
+         * The hash code returned is the id of the IRI.
          */
         @Override
         public int hashCode() {
-            return iri.hashCode();
+            return iri;
         }
 
         /** {@inheritDoc}
@@ -440,7 +728,7 @@ public class JsonTreeTransformProvider extends TransformProvider {
          */
         @Override
         public String toString() {
-            return iri;
+            return getIri();
         }
 
     }
@@ -461,17 +749,33 @@ public class JsonTreeTransformProvider extends TransformProvider {
      * of the subsequently generated {@link Concept} instances
      * into a TreeSet (which is based on the
      * {@link Concept#compareTo(JsonTreeTransformProvider.Concept)}
-     * method) will work correctly. */
-    class ConceptHandler extends RDFHandlerBase {
+     * method) will work correctly.
+     * IRIs and literals are kept in a {@link TermDictionary}. Close the
+     * handler once the forest has been serialized, to release the
+     * dictionary. */
+    class ConceptHandler extends RDFHandlerBase implements Closeable {
+
+        /** The IRIs, definitions, and notations of the concepts. */
+        private final TermDictionary terms = new TermDictionary();
 
-        /** Map from concept IRI to Concept object,
-         * used as a cache of all Concept objects. This Map
+        /** The collator of the prefLabels. */
+        private final Collator collator;
+
+        /** Constructor.
+         * @param aCollator The collator of the prefLabels, by which
+         *      the concepts are sorted. See {@link #getCollator}.
+         */
+        ConceptHandler(final Collator aCollator) {
+            collator = aCollator;
+        }
+
+        /** Array from the id of a concept IRI to Concept object,
+         * used as a cache of all Concept objects. This array
          * is maintained by {@link #getConcept(String)}, whose
          * body contains the only invocation of the constructor of the
          * Concept class.
          */
-        private Map<String, Concept> iriConceptMap =
-                new HashMap<String, Concept>();
+        private Concept[] iriConcepts = new Concept[INITIAL_CAPACITY];
 
         /** Map from concept IRI to a map that maps
          * property name to the property value(s).
@@ -512,14 +816,25 @@ public class JsonTreeTransformProvider extends TransformProvider {
          * @return The Concept for this IRI.
          */
         private Concept getConcept(final String iri) {
-            Concept concept = iriConceptMap.get(iri);
+            int id = terms.getId(iri);
+            if (id >= iriConcepts.length) {
+                iriConcepts = Arrays.copyOf(iriConcepts,
+                        Math.max(id + 1, 2 * iriConcepts.length));
+            }
+            Concept concept = iriConcepts[id];
             if (concept == null) {
-                concept = new Concept(iri);
-                iriConceptMap.put(iri, concept);
+                concept = new Concept(terms, id);
+                iriConcepts[id] = concept;
             }
             return concept;
         }
 
+        /** Release the dictionary. */
+        @Override
+        public void close() {
+            terms.close();
+        }
+
         // Fields and methods to compute the depth-first spanning forest.
 
         /** Flag for the presence of a cycle. Initialized to false,
@@ -548,6 +863,13 @@ public class JsonTreeTransformProvider extends TransformProvider {
             return onlyTreeEdges;
         }
 
+        /** Get the number of concepts found.
+         * @return The number of concepts found.
+         */
+        public int getConceptCount() {
+            return conceptMap.size();
+        }
+
         /** A set into which all concepts will be added, and then
          * progressively removed during depth-first search.
          * When the set is empty again, construction of the spanning
@@ -699,6 +1021,12 @@ public class JsonTreeTransformProvider extends TransformProvider {
             // the broader/narrower relations.
             // More technically: the elements of roots are the roots
             // of a depth-first spanning forest.
+            // Compute the collation keys once, now that all the
+            // prefLabels are known, and before any concept is added
+            // to a TreeSet.
+            for (Concept concept : conceptMap.keySet()) {
+                concept.computeSortKey(collator);
+            }
             TreeSet<Concept> roots = new TreeSet<Concept>();
             populateRoots();
             for (Entry<Concept, HashMap<String, Object>> topmostConcept
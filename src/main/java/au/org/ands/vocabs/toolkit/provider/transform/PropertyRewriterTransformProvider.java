@@ -2,7 +2,6 @@
 package au.org.ands.vocabs.toolkit.provider.transform;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.lang.invoke.MethodHandles;
@@ -37,6 +36,8 @@ import org.slf4j.LoggerFactory;
 
 import com.fasterxml.jackson.databind.JsonNode;
 
+import au.org.ands.vocabs.toolkit.tasks.CancellableRDFHandler;
+import au.org.ands.vocabs.toolkit.tasks.ProgressListener;
 import au.org.ands.vocabs.toolkit.tasks.TaskInfo;
 import au.org.ands.vocabs.toolkit.tasks.TaskStatus;
 import au.org.ands.vocabs.toolkit.utils.PropertyConstants;
@@ -131,10 +132,12 @@ public class PropertyRewriterTransformProvider extends TransformProvider {
                 RDFParser rdfParser = Rio.createParser(format);
                 ConceptHandler conceptHandler = new ConceptHandler(
                         metadataRewriteConf, model);
-                rdfParser.setRDFHandler(conceptHandler);
-                FileInputStream is = new FileInputStream(entry.toString());
+                rdfParser.setRDFHandler(new CancellableRDFHandler(
+                        conceptHandler, taskInfo,
+                        ProgressListener.STATEMENTS_PARSED));
                 logger.debug("Reading RDF:" + entry.toString());
-                rdfParser.parse(is, entry.toString());
+                parseRDF(rdfParser, entry,
+                        taskInfo.getProgressListener());
                 // And now serialize the result.
                 String resultFileName =
                         transformOutputDirPath.resolve(
@@ -143,6 +146,8 @@ public class PropertyRewriterTransformProvider extends TransformProvider {
                 // Write in the same format we read.
                 Rio.write(model, out, format);
                 out.close();
+                taskInfo.getProgressListener().increment(
+                        ProgressListener.FILES_PROCESSED, 1);
             }
         } catch (DirectoryIteratorException
                 | IOException
@@ -25,6 +25,7 @@ import com.fasterxml.jackson.databind.JsonNode;
 import au.org.ands.vocabs.toolkit.db.TaskUtils;
 import au.org.ands.vocabs.toolkit.tasks.TaskInfo;
 import au.org.ands.vocabs.toolkit.tasks.TaskStatus;
+import au.org.ands.vocabs.toolkit.utils.FlightEvents;
 import au.org.ands.vocabs.toolkit.utils.PropertyConstants;
 import au.org.ands.vocabs.toolkit.utils.ToolkitFileUtils;
 import au.org.ands.vocabs.toolkit.utils.ToolkitProperties;
@@ -138,7 +139,15 @@ public final class SesameTransformUtils {
                 for (Entry<String, Value> binding : bindings.entrySet()) {
                     update.setBinding(binding.getKey(), binding.getValue());
                 }
-                update.execute();
+                FlightEvents.Span span =
+                        FlightEvents.sesameTransaction("update",
+                                ToolkitFileUtils.getSesameRepositoryId(
+                                        taskInfo), null);
+                try {
+                    update.execute();
+                } finally {
+                    span.close();
+                }
             } catch (MalformedQueryException e) {
                 LOGGER.error("Bad update passed to "
                         + "SesameTransformUtils.runUpdate(): "
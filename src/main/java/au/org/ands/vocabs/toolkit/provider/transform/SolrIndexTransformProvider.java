@@ -1,7 +1,6 @@
 /** See the file "LICENSE" for the full license governing this code. */
 package au.org.ands.vocabs.toolkit.provider.transform;
 
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
@@ -29,6 +28,8 @@ import org.openrdf.rio.helpers.RDFHandlerBase;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import au.org.ands.vocabs.toolkit.tasks.CancellableRDFHandler;
+import au.org.ands.vocabs.toolkit.tasks.ProgressListener;
 import au.org.ands.vocabs.toolkit.tasks.TaskInfo;
 import au.org.ands.vocabs.toolkit.tasks.TaskStatus;
 import au.org.ands.vocabs.toolkit.utils.ToolkitFileUtils;
@@ -65,9 +66,13 @@ public class SolrIndexTransformProvider extends TransformProvider {
                 RDFFormat format = Rio.getParserFormatForFileName(
                         entry.toString());
                 RDFParser rdfParser = Rio.createParser(format);
-                rdfParser.setRDFHandler(conceptHandler);
-                FileInputStream is = new FileInputStream(entry.toString());
-                rdfParser.parse(is, entry.toString());
+                rdfParser.setRDFHandler(new CancellableRDFHandler(
+                        conceptHandler, taskInfo,
+                        ProgressListener.STATEMENTS_PARSED));
+                parseRDF(rdfParser, entry,
+                        taskInfo.getProgressListener());
+                taskInfo.getProgressListener().increment(
+                        ProgressListener.FILES_PROCESSED, 1);
 
                 logger.debug("Reading RDF:"
                         + entry.toString());
@@ -94,6 +99,9 @@ public class SolrIndexTransformProvider extends TransformProvider {
             job.add("concepts_count", conceptHandler.getCountedPrefLabels());
             results.put("concepts_count", Integer.toString(
                             conceptHandler.getCountedPrefLabels()));
+            taskInfo.getProgressListener().increment(
+                    ProgressListener.CONCEPTS_PROCESSED,
+                    conceptHandler.getCountedPrefLabels());
             job.add("concepts_text", conceptHandler.getConceptText());
             results.put("concepts_solr", resultFileName);
 
@@ -114,14 +122,15 @@ public class SolrIndexTransformProvider extends TransformProvider {
     class ConceptHandler extends RDFHandlerBase {
         /** Number of prefLabel properties. */
         private int countedPrefLabels = 0;
-        /** space separated String of all labels. */
-        private String conceptText = "";
+        /** space separated String of all labels. Built up in
+         * a StringBuilder, as there may be millions of labels. */
+        private StringBuilder conceptText = new StringBuilder();
 
         @Override
         public void handleStatement(final Statement st) {
             if (st.getPredicate().equals(SKOS.PREF_LABEL)) {
                 countedPrefLabels++;
-                conceptText += st.getObject().stringValue() + " ";
+                conceptText.append(st.getObject().stringValue()).append(' ');
             }
         }
 
@@ -134,7 +143,7 @@ public class SolrIndexTransformProvider extends TransformProvider {
         /** Getter for concepts text. */
         /** @return The concatenation of the prefLabels. */
         public String getConceptText() {
-            return conceptText;
+            return conceptText.toString();
         }
 
 
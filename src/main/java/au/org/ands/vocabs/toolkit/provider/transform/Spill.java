@@ -0,0 +1,133 @@
+/** See the file "LICENSE" for the full license governing this code. */
+package au.org.ands.vocabs.toolkit.provider.transform;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import org.apache.commons.io.FileUtils;
+import org.openrdf.model.Statement;
+import org.openrdf.rio.RDFHandler;
+import org.openrdf.rio.RDFHandlerException;
+import org.openrdf.rio.helpers.RDFHandlerWrapper;
+
+import au.org.ands.vocabs.toolkit.utils.PropertyConstants;
+import au.org.ands.vocabs.toolkit.utils.ToolkitConfig;
+import au.org.ands.vocabs.toolkit.utils.ToolkitProperties;
+
+/** Settings and helpers for the spill mode of the JSON transforms.
+ * The transforms normally hold the whole vocabulary in the heap.
+ * They parse the vocabulary through a {@link Trigger}, which stops
+ * the parse once there are more statements than the threshold set
+ * by the {@link PropertyConstants#TOOLKIT_TRANSFORMSPILLTHRESHOLD}
+ * property. They then start again, spilling their working data to
+ * temporary files, and using no more heap than the budget set by the
+ * {@link PropertyConstants#TOOLKIT_TRANSFORMSPILLHEAPBUDGET}
+ * property. */
+final class Spill {
+
+    /** Default number of statements above which transforms spill. */
+    private static final long DEFAULT_THRESHOLD = 2000000;
+
+    /** Default heap budget of a transform that spills,
+     * in megabytes. */
+    private static final long DEFAULT_HEAP_BUDGET = 64;
+
+    /** Number of bytes in a megabyte. */
+    private static final long MEGABYTE = 1 << 20;
+
+    /** Name of the subdirectory of the temporary directory in which
+     * the working data of transforms is spilled. */
+    private static final String SPILL_DIRECTORY = "spill";
+
+    /** Private constructor for a utility class. */
+    private Spill() {
+    }
+
+    /** Get the number of statements above which transforms spill.
+     * @return The number of statements above which transforms spill,
+     *      or 0, if they never spill.
+     */
+    static long getThreshold() {
+        return Long.parseLong(ToolkitProperties.getProperty(
+                PropertyConstants.TOOLKIT_TRANSFORMSPILLTHRESHOLD,
+                Long.toString(DEFAULT_THRESHOLD)).trim());
+    }
+
+    /** Get the heap budget of a transform that spills.
+     * @return The heap budget, in bytes.
+     */
+    static long getHeapBudget() {
+        return MEGABYTE * Long.parseLong(ToolkitProperties.getProperty(
+                PropertyConstants.TOOLKIT_TRANSFORMSPILLHEAPBUDGET,
+                Long.toString(DEFAULT_HEAP_BUDGET)).trim());
+    }
+
+    /** Create a new directory for the working data of a transform.
+     * @param prefix The prefix of the name of the directory.
+     * @return The new directory.
+     * @throws IOException If the directory can not be created.
+     */
+    static Path createDirectory(final String prefix) throws IOException {
+        Path parent = Paths.get(ToolkitConfig.TEMP_FILES_PATH).resolve(
+                SPILL_DIRECTORY);
+        Files.createDirectories(parent);
+        return Files.createTempDirectory(parent, prefix);
+    }
+
+    /** Delete a directory created by {@link #createDirectory(String)},
+     * and its contents.
+     * @param directory The directory.
+     */
+    static void deleteDirectory(final Path directory) {
+        FileUtils.deleteQuietly(directory.toFile());
+    }
+
+    /** Thrown by a {@link Trigger} to stop a parse once there are
+     * more statements than the threshold. */
+    static final class ThresholdExceeded extends RDFHandlerException {
+
+        /** Serialization version. */
+        private static final long serialVersionUID = 1L;
+
+        /** Constructor.
+         * @param threshold The threshold.
+         */
+        ThresholdExceeded(final long threshold) {
+            super("More than " + threshold + " statements");
+        }
+    }
+
+    /** RDF handler that passes everything through to another handler,
+     * and counts the statements. Once there are more statements than
+     * the threshold, it throws {@link ThresholdExceeded}. */
+    static final class Trigger extends RDFHandlerWrapper {
+
+        /** The threshold, or 0, if there is none. */
+        private final long threshold;
+
+        /** The number of statements handled. */
+        private long count;
+
+        /** Constructor.
+         * @param handler The handler to which everything is passed.
+         * @param aThreshold The threshold, or 0, if there is none.
+         */
+        Trigger(final RDFHandler handler, final long aThreshold) {
+            super(handler);
+            threshold = aThreshold;
+        }
+
+        @Override
+        public void handleStatement(final Statement st)
+                throws RDFHandlerException {
+            count++;
+            if (threshold > 0 && count > threshold) {
+                throw new ThresholdExceeded(threshold);
+            }
+            super.handleStatement(st);
+        }
+    }
+
+}
@@ -0,0 +1,162 @@
+/** See the file "LICENSE" for the full license governing this code. */
+package au.org.ands.vocabs.toolkit.provider.transform;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Comparator;
+
+import au.org.ands.vocabs.toolkit.utils.ExternalSorter;
+import au.org.ands.vocabs.toolkit.utils.MappedFile;
+
+/** One fact about a resource, as spilled to disk by the JSON
+ * transforms when a vocabulary is too big to be held in the heap.
+ * Records are sorted by the IRI of the resource, and then by the
+ * order in which they were added, so that all the facts about
+ * a resource can be read together, in the order in which the
+ * statements that gave them were parsed. */
+final class SpillRecord {
+
+    /** Kind of record that notes only that the resource exists. */
+    static final byte SUBJECT = 0;
+
+    /** Kind of record giving the SKOS type of the resource. */
+    static final byte TYPE = 1;
+
+    /** Kind of record giving a prefLabel of the resource. */
+    static final byte PREF_LABEL = 2;
+
+    /** Kind of record giving a notation of the resource. */
+    static final byte NOTATION = 3;
+
+    /** Kind of record giving a definition of the resource. */
+    static final byte DEFINITION = 4;
+
+    /** Kind of record giving a broader resource of the resource. */
+    static final byte BROADER = 5;
+
+    /** Kind of record giving a narrower resource of the resource. */
+    static final byte NARROWER = 6;
+
+    /** Estimated heap size of a record, apart from its strings,
+     * in bytes. */
+    private static final long OVERHEAD = 48;
+
+    /** Estimated heap size of a String, apart from its characters,
+     * in bytes. */
+    private static final long STRING_OVERHEAD = 40;
+
+    /** The encoding of records in the runs of an
+     * {@link ExternalSorter}. */
+    static final ExternalSorter.Codec<SpillRecord> CODEC =
+            new ExternalSorter.Codec<SpillRecord>() {
+        @Override
+        public void write(final DataOutput out, final SpillRecord record)
+                throws IOException {
+            MappedFile.writeString(out, record.iri);
+            out.writeLong(record.sequence);
+            out.writeByte(record.kind);
+            MappedFile.writeString(out, record.value);
+        }
+
+        @Override
+        public SpillRecord read(final DataInput in) throws IOException {
+            String anIri = readString(in);
+            long aSequence = in.readLong();
+            byte aKind = in.readByte();
+            return new SpillRecord(anIri, aSequence, aKind,
+                    readString(in));
+        }
+
+        @Override
+        public long size(final SpillRecord record) {
+            return OVERHEAD + stringSize(record.iri)
+                    + stringSize(record.value);
+        }
+    };
+
+    /** The order of records: by IRI, then in the order added. */
+    static final Comparator<SpillRecord> ORDER = (r1, r2) -> {
+        int c = r1.iri.compareTo(r2.iri);
+        if (c != 0) {
+            return c;
+        }
+        return Long.compare(r1.sequence, r2.sequence);
+    };
+
+    /** The IRI of the resource. */
+    private final String iri;
+
+    /** The position of the record in the order added. */
+    private final long sequence;
+
+    /** The kind of record. */
+    private final byte kind;
+
+    /** The value of the record, or null, for {@link #SUBJECT}
+     * records. */
+    private final String value;
+
+    /** Constructor.
+     * @param anIri The IRI of the resource.
+     * @param aSequence The position of the record in the order added.
+     * @param aKind The kind of record.
+     * @param aValue The value of the record, or null.
+     */
+    SpillRecord(final String anIri, final long aSequence, final byte aKind,
+            final String aValue) {
+        iri = anIri;
+        sequence = aSequence;
+        kind = aKind;
+        value = aValue;
+    }
+
+    /** Get the IRI of the resource.
+     * @return The IRI of the resource.
+     */
+    String getIri() {
+        return iri;
+    }
+
+    /** Get the kind of record.
+     * @return The kind of record.
+     */
+    byte getKind() {
+        return kind;
+    }
+
+    /** Get the value of the record.
+     * @return The value of the record, or null.
+     */
+    String getValue() {
+        return value;
+    }
+
+    /** Read a string written by {@link MappedFile#writeString}.
+     * @param in The input from which the string is read.
+     * @return The string, or null.
+     * @throws IOException If the string can not be read.
+     */
+    static String readString(final DataInput in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /** Estimate the heap size of a string.
+     * @param string The string, or null.
+     * @return The estimated heap size of the string, in bytes.
+     */
+    static long stringSize(final String string) {
+        if (string == null) {
+            return 0;
+        }
+        return STRING_OVERHEAD + 2L * string.length();
+    }
+
+}
@@ -1,9 +1,27 @@
 /** See the file "LICENSE" for the full license governing this code. */
 package au.org.ands.vocabs.toolkit.provider.transform;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.HashMap;
 import java.util.Properties;
 
+import org.apache.commons.io.input.CountingInputStream;
+import org.openrdf.rio.RDFFormat;
+import org.openrdf.rio.RDFHandler;
+import org.openrdf.rio.RDFHandlerException;
+import org.openrdf.rio.RDFParseException;
+import org.openrdf.rio.RDFParser;
+import org.openrdf.rio.Rio;
+
+import au.org.ands.vocabs.toolkit.tasks.CancellableRDFHandler;
+import au.org.ands.vocabs.toolkit.tasks.ProgressListener;
 import au.org.ands.vocabs.toolkit.tasks.TaskInfo;
+import au.org.ands.vocabs.toolkit.utils.FlightEvents;
+import au.org.ands.vocabs.toolkit.utils.ToolkitFileUtils;
 import au.org.ands.vocabs.toolkit.utils.ToolkitProperties;
 
 import com.fasterxml.jackson.databind.JsonNode;
@@ -45,5 +63,81 @@ public abstract class TransformProvider {
             JsonNode subtask,
             final HashMap<String, String> results);
 
+    /** Parse all the files in the harvest directory of a task,
+     * passing their contents to a handler. The task can be cancelled
+     * while the files are parsed, and the numbers of files, bytes,
+     * and statements parsed are reported to its progress listener.
+     * @param taskInfo The TaskInfo object describing the entire task.
+     * @param handler The handler to which the statements are passed.
+     * @throws IOException If a file can not be read.
+     * @throws RDFParseException If a file is not valid RDF.
+     * @throws RDFHandlerException If the RDF handler fails.
+     */
+    protected final void parseHarvest(final TaskInfo taskInfo,
+            final RDFHandler handler)
+            throws IOException, RDFParseException, RDFHandlerException {
+        Path dir = Paths.get(ToolkitFileUtils.getTaskHarvestOutputPath(
+                taskInfo));
+        try (DirectoryStream<Path> stream =
+                Files.newDirectoryStream(dir)) {
+            for (Path entry: stream) {
+                RDFFormat format = Rio.getParserFormatForFileName(
+                        entry.toString());
+                RDFParser rdfParser = Rio.createParser(format);
+                rdfParser.setRDFHandler(new CancellableRDFHandler(
+                        handler, taskInfo,
+                        ProgressListener.STATEMENTS_PARSED));
+                parseRDF(rdfParser, entry,
+                        taskInfo.getProgressListener());
+                taskInfo.getProgressListener().increment(
+                        ProgressListener.FILES_PROCESSED, 1);
+            }
+        }
+    }
+
+    /** Parse an RDF file, recording the parse as a Flight Recorder
+     * event. See {@link FlightEvents}.
+     * @param rdfParser The parser, with its RDF handler set.
+     * @param file The file to be parsed. Its path is also used
+     *      as the base URI.
+     * @throws IOException If the file can not be read.
+     * @throws RDFParseException If the file is not valid RDF.
+     * @throws RDFHandlerException If the RDF handler fails.
+     */
+    protected final void parseRDF(final RDFParser rdfParser,
+            final Path file)
+            throws IOException, RDFParseException, RDFHandlerException {
+        parseRDF(rdfParser, file, ProgressListener.NONE);
+    }
+
+    /** Parse an RDF file, recording the parse as a Flight Recorder
+     * event, and reporting the number of bytes read.
+     * @param rdfParser The parser, with its RDF handler set.
+     * @param file The file to be parsed. Its path is also used
+     *      as the base URI.
+     * @param listener The listener to which the number of bytes read
+     *      is reported, as {@link ProgressListener#BYTES_READ}.
+     * @throws IOException If the file can not be read.
+     * @throws RDFParseException If the file is not valid RDF.
+     * @throws RDFHandlerException If the RDF handler fails.
+     */
+    protected final void parseRDF(final RDFParser rdfParser,
+            final Path file, final ProgressListener listener)
+            throws IOException, RDFParseException, RDFHandlerException {
+        FlightEvents.Span span = FlightEvents.rdfParse(
+                getClass().getSimpleName(), file.toString(),
+                rdfParser.getRDFFormat().getName());
+        try (CountingInputStream is = new CountingInputStream(
+                        new FileInputStream(file.toString()))) {
+            try {
+                rdfParser.parse(is, file.toString());
+            } finally {
+                listener.increment(ProgressListener.BYTES_READ,
+                        is.getByteCount());
+            }
+        } finally {
+            span.close();
+        }
+    }
 
 }
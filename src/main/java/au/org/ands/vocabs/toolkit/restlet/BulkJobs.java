@@ -0,0 +1,151 @@
+/** See the file "LICENSE" for the full license governing this code. */
+package au.org.ands.vocabs.toolkit.restlet;
+
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.MediaType;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import au.org.ands.vocabs.toolkit.db.BulkJobUtils;
+import au.org.ands.vocabs.toolkit.db.TaskUtils;
+import au.org.ands.vocabs.toolkit.db.model.BulkJob;
+import au.org.ands.vocabs.toolkit.provider.transform.TransformProviderUtils;
+import au.org.ands.vocabs.toolkit.tasks.BulkJobRunner;
+import au.org.ands.vocabs.toolkit.tasks.TaskStatus;
+
+/** Restlets for bulk jobs, which run the same subtasks on many
+ * versions. See {@link BulkJobRunner}. */
+@Path("bulkJob")
+public class BulkJobs {
+
+    /** Logger for this class. */
+    private Logger logger = LoggerFactory.getLogger(
+            MethodHandles.lookup().lookupClass());
+
+    /** The transforms run by default. These regenerate the concepts
+     * tree, the concepts list, and the Solr index data. */
+    private static final String DEFAULT_TRANSFORMS =
+            "JsonTree,JsonList,SolrIndex";
+
+    /** Create a bulk job that runs transforms on a selection of
+     * versions, and start it. Versions are selected by the
+     * parameters that are specified; if none is specified,
+     * all versions are selected.
+     * @param vocabularyId If specified, only select versions of
+     *      this vocabulary.
+     * @param versionStatus If specified, only select versions with
+     *      this status, e.g., "current".
+     * @param owner If specified, only select versions of vocabularies
+     *      with this owner.
+     * @param transforms The provider types of the transforms to be run
+     *      on each version, separated by commas.
+     * @return A report of the job, or an error.
+     */
+    @Path("create")
+    @Produces(MediaType.APPLICATION_JSON)
+    @GET
+    public final Map<String, Object> createJob(
+            @QueryParam("vocabularyId") final Integer vocabularyId,
+            @QueryParam("versionStatus") final String versionStatus,
+            @QueryParam("owner") final String owner,
+            @DefaultValue(DEFAULT_TRANSFORMS)
+            @QueryParam("transforms") final String transforms) {
+        logger.debug("called createJob");
+        List<Map<String, String>> subtasks =
+                new ArrayList<Map<String, String>>();
+        for (String transform : transforms.split(",")) {
+            String providerType = transform.trim();
+            try {
+                TransformProviderUtils.getProvider(providerType);
+            } catch (ClassNotFoundException | InstantiationException
+                    | IllegalAccessException e) {
+                return error("No such transform: " + providerType);
+            }
+            Map<String, String> subtask = new LinkedHashMap<String, String>();
+            subtask.put("type", "TRANSFORM");
+            subtask.put("provider_type", providerType);
+            subtasks.add(subtask);
+        }
+        BulkJob job = BulkJobRunner.create(vocabularyId, versionStatus,
+                owner, TaskUtils.collectionToJSONString(subtasks));
+        return BulkJobRunner.getReport(job);
+    }
+
+    /** Get a report of the progress of a bulk job, including its
+     * throughput and an estimate of the time remaining.
+     * @param jobId The id of the job.
+     * @return A report of the job, or an error.
+     */
+    @Path("{jobId}")
+    @Produces(MediaType.APPLICATION_JSON)
+    @GET
+    public final Map<String, Object> getJob(
+            @PathParam("jobId") final int jobId) {
+        logger.debug("called getJob, jobId = " + jobId);
+        BulkJob job = BulkJobUtils.getBulkJobById(jobId);
+        if (job == null) {
+            return error("No bulk job with id " + jobId);
+        }
+        return BulkJobRunner.getReport(job);
+    }
+
+    /** Cancel a bulk job.
+     * @param jobId The id of the job.
+     * @return A report of the job, or an error.
+     */
+    @Path("{jobId}/cancel")
+    @Produces(MediaType.APPLICATION_JSON)
+    @GET
+    public final Map<String, Object> cancelJob(
+            @PathParam("jobId") final int jobId) {
+        logger.debug("called cancelJob, jobId = " + jobId);
+        if (!BulkJobRunner.cancel(jobId)) {
+            return error("No unfinished bulk job with id " + jobId);
+        }
+        return getJob(jobId);
+    }
+
+    /** Resume a bulk job that was stopped, e.g., because its node
+     * stopped, on this node. The job is resumed only if it has not
+     * finished, and no other node is running it.
+     * @param jobId The id of the job.
+     * @return A report of the job, or an error.
+     */
+    @Path("{jobId}/resume")
+    @Produces(MediaType.APPLICATION_JSON)
+    @GET
+    public final Map<String, Object> resumeJob(
+            @PathParam("jobId") final int jobId) {
+        logger.debug("called resumeJob, jobId = " + jobId);
+        BulkJob job = BulkJobUtils.getBulkJobById(jobId);
+        if (job == null || TaskStatus.isTerminal(job.getStatus())) {
+            return error("No unfinished bulk job with id " + jobId);
+        }
+        BulkJobRunner.start(jobId);
+        return BulkJobRunner.getReport(job);
+    }
+
+    /** Construct an error response.
+     * @param message The error message.
+     * @return The error response.
+     */
+    private Map<String, Object> error(final String message) {
+        Map<String, Object> response = new LinkedHashMap<String, Object>();
+        response.put("status", TaskStatus.ERROR);
+        response.put("bulkJob", message);
+        return response;
+    }
+
+}
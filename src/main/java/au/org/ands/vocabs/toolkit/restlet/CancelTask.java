@@ -0,0 +1,75 @@
+/** See the file "LICENSE" for the full license governing this code. */
+package au.org.ands.vocabs.toolkit.restlet;
+
+import java.lang.invoke.MethodHandles;
+import java.util.HashMap;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import au.org.ands.vocabs.toolkit.db.TaskUtils;
+import au.org.ands.vocabs.toolkit.db.model.Task;
+import au.org.ands.vocabs.toolkit.tasks.TaskControl;
+import au.org.ands.vocabs.toolkit.tasks.TaskStatus;
+
+/** Restlets for cancelling Toolkit tasks. */
+@Path("cancelTask")
+public class CancelTask {
+
+    /** Logger for this class. */
+    private Logger logger = LoggerFactory.getLogger(
+            MethodHandles.lookup().lookupClass());
+
+    /** Cancel a task. If the task is running, it is asked to stop;
+     * the resources it holds open are closed, and it stops at its
+     * next check for cancellation, with status
+     * {@link TaskStatus#CANCELLED}. If the task is not running,
+     * but has not finished, it is given status
+     * {@link TaskStatus#CANCELLED} immediately.
+     * @param taskId The task id. The id of the task
+     *      in the task database table.
+     * @return The result of the request, either in JSON or XML format.
+     */
+    @Path("{taskId}")
+    @Produces({MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML})
+    @GET
+    public final HashMap<String, String> cancelTask(
+            @PathParam("taskId") final int taskId) {
+        logger.debug("called cancelTask, taskid = " + taskId);
+        HashMap<String, String> response = new HashMap<String, String>();
+        response.put("task_id", Integer.toString(taskId));
+        TaskControl control = TaskControl.getRunning(taskId);
+        if (control != null) {
+            control.cancel("Cancelled on request");
+            response.put("status", TaskStatus.CANCELLED);
+            response.put("cancelTask", "Running task asked to stop.");
+            return response;
+        }
+        Task task = TaskUtils.getTaskById(taskId);
+        if (task == null) {
+            response.put("status", TaskStatus.ERROR);
+            response.put("cancelTask", "No task with id " + taskId);
+            return response;
+        }
+        // Only the status is changed, so that the results recorded
+        // so far, including the checkpoints used by resume, are kept.
+        if (!TaskUtils.cancelTask(taskId)) {
+            task = TaskUtils.getTaskById(taskId);
+            response.put("status", TaskStatus.ERROR);
+            response.put("cancelTask", "Task has already finished, with "
+                    + "status " + task.getStatus());
+            return response;
+        }
+        response.put("status", TaskStatus.CANCELLED);
+        response.put("cancelTask", "Task was not running; marked "
+                + "as cancelled.");
+        return response;
+    }
+
+}
@@ -4,6 +4,7 @@ package au.org.ands.vocabs.toolkit.restlet;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.InputStream;
 import java.lang.invoke.MethodHandles;
 import java.nio.file.Paths;
@@ -24,6 +25,7 @@ import javax.ws.rs.core.Context;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.Status;
 
+import org.apache.commons.io.input.CountingInputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -33,6 +35,7 @@ import au.org.ands.vocabs.toolkit.db.VocabularyUtils;
 import au.org.ands.vocabs.toolkit.db.model.AccessPoint;
 import au.org.ands.vocabs.toolkit.db.model.Version;
 import au.org.ands.vocabs.toolkit.db.model.Vocabulary;
+import au.org.ands.vocabs.toolkit.utils.Metrics;
 import au.org.ands.vocabs.toolkit.utils.ToolkitFileUtils;
 import au.org.ands.vocabs.toolkit.utils.ToolkitNetUtils;
 
@@ -44,6 +47,27 @@ public class Download {
     private Logger logger = LoggerFactory.getLogger(
             MethodHandles.lookup().lookupClass());
 
+    /** The upper bounds of the buckets of the sizes of downloads,
+     * in bytes: from 1 KB to 1 GB, in steps of a factor of 4. */
+    private static final double[] SIZE_BUCKETS =
+        {1 << 10, 1 << 12, 1 << 14, 1 << 16, 1 << 18, 1 << 20, 1 << 22,
+            1 << 24, 1 << 26, 1 << 28, 1 << 30};
+
+    /** Counter of download requests, by access point type. Only
+     * requests for access points that can be downloaded are counted. */
+    private static final Metrics.Counter DOWNLOAD_REQUESTS =
+            Metrics.counter("download_requests_total",
+                    "Download requests, by access point type.", "type");
+
+    /** Counter of the bytes served by downloads. */
+    private static final Metrics.Counter DOWNLOAD_BYTES =
+            Metrics.counter("download_bytes_total",
+                    "Bytes served by downloads.", "type");
+
+    /** Histogram of the sizes of downloads. */
+    private static final Metrics.Histogram DOWNLOAD_SIZES =
+            Metrics.histogram("download_size_bytes",
+                    "Sizes of downloads, in bytes.", SIZE_BUCKETS, "type");
 
     /** Mapping of Sesame Download formats to MIME types. */
     public static final Hashtable<String, String>
@@ -137,15 +161,27 @@ public class Download {
             final String downloadFormat) {
         logger.info("Called download: " + accessPointId
                 + ", download format: " + downloadFormat);
-        AccessPoint ap = AccessPointUtils.getAccessPointById(accessPointId);
-        if (ap == null) {
-            response.resume(Response.status(Status.NOT_FOUND).
-                    entity("Not found: no such access point").build());
-            return;
+        DownloadCache.Descriptor descriptor =
+                DownloadCache.get(accessPointId);
+        if (descriptor == null) {
+            AccessPoint ap =
+                    AccessPointUtils.getAccessPointById(accessPointId);
+            if (ap == null) {
+                response.resume(Response.status(Status.NOT_FOUND).
+                        entity("Not found: no such access point").build());
+                return;
+            }
+            descriptor = resolveDescriptor(response, ap);
+            if (descriptor == null) {
+                // An error response has already been sent.
+                return;
+            }
+            DownloadCache.put(descriptor);
         }
 
-        switch (ap.getType()) {
-        case "file":
+        DOWNLOAD_REQUESTS.inc(descriptor.getType());
+        switch (descriptor.getType()) {
+        case AccessPoint.FILE_TYPE:
             // For now, transforms for file access points are not supported,
             // so we don't look at downloadFormat. In future, we _may_ support
             // transforms for file access points. If that happens, note that
@@ -154,9 +190,9 @@ public class Download {
             // and the downloadFormat parameter may need some care
             // (i.e., it may be wrong, but the wrongness may or may not be
             // a problem).
-            fileDownload(response, accessPointId, ap);
+            fileDownload(response, descriptor);
             break;
-        case "sesameDownload":
+        case AccessPoint.SESAME_DOWNLOAD_TYPE:
             // Have a look at the downloadFormat before proceeding.
             final String mimeType =
                     SESAME_FORMAT_TO_MIMETYPE_MAP.get(downloadFormat);
@@ -165,18 +201,106 @@ public class Download {
                         entity("Not found: no such format").build());
                 return;
             }
-            sesameDownload(response, accessPointId, ap,
+            sesameDownload(response, descriptor,
                     downloadFormat, mimeType);
             return;
         default:
-            logger.error("download: invalid type for access point: "
-                    + ap.getType());
+            // Can't happen, as resolveDescriptor() only
+            // returns descriptors of the types handled above.
             response.resume(Response.status(Status.NOT_FOUND).
                     entity("Invalid access point type").build());
             return;
         }
     }
 
+    /** Work out the details of the download for an access point.
+     * This requires database lookups and parsing of the access
+     * point's data, so the result is suitable for caching
+     * in {@link DownloadCache}.
+     * @param response The response back to the browser, or null,
+     *      if there is none. If the access point can not be downloaded,
+     *      an error response is sent.
+     * @param ap The access point.
+     * @return The descriptor of the download, or null, if the
+     *      access point can not be downloaded.
+     */
+    private DownloadCache.Descriptor resolveDescriptor(
+            final AsyncResponse response, final AccessPoint ap) {
+        switch (ap.getType()) {
+        case AccessPoint.FILE_TYPE:
+            String format = AccessPointUtils.getFormat(ap);
+            if (format == null) {
+                notFound(response, "Not found: no format specified "
+                        + "for access point");
+                return null;
+            }
+            String responseMimeType =
+                    FILE_FORMAT_TO_MIMETYPE_MAP.get(
+                            format);
+            if (responseMimeType == null) {
+                notFound(response, "Not found: no such format");
+                return null;
+            }
+            String localPath = AccessPointUtils.getToolkitPath(ap);
+            return new DownloadCache.Descriptor(ap.getId(),
+                    ap.getVersionId(), ap.getType(), localPath,
+                    responseMimeType,
+                    Paths.get(localPath).getFileName().toString());
+        case AccessPoint.SESAME_DOWNLOAD_TYPE:
+            return new DownloadCache.Descriptor(ap.getId(),
+                    ap.getVersionId(), ap.getType(),
+                    AccessPointUtils.getToolkitUri(ap), null,
+                    downloadFilenameWithoutExtension(ap));
+        default:
+            if (response != null) {
+                logger.error("download: invalid type for access point: "
+                        + ap.getType());
+            }
+            notFound(response, "Invalid access point type");
+            return null;
+        }
+    }
+
+    /** Send a Not Found error response.
+     * @param response The response back to the browser, or null,
+     *      if there is none, in which case nothing is sent.
+     * @param message The message to be sent.
+     */
+    private void notFound(final AsyncResponse response,
+            final String message) {
+        if (response != null) {
+            response.resume(Response.status(Status.NOT_FOUND).
+                    entity(message).build());
+        }
+    }
+
+    /** Fill the download cache with the descriptors of all access
+     * points that can be downloaded, so that the first downloads
+     * after a restart or a cache expiry do not pay for the
+     * database lookups. Used by the scheduled warm-up job; see
+     * {@link au.org.ands.vocabs.toolkit.tasks.PeriodicScheduler}.
+     * @return The number of descriptors added to the cache.
+     */
+    public final int warmDownloadCache() {
+        int added = 0;
+        for (AccessPoint ap : AccessPointUtils.getAllAccessPoints()) {
+            if (!AccessPoint.FILE_TYPE.equals(ap.getType())
+                    && !AccessPoint.SESAME_DOWNLOAD_TYPE.equals(
+                            ap.getType())) {
+                continue;
+            }
+            if (DownloadCache.peek(ap.getId())) {
+                continue;
+            }
+            DownloadCache.Descriptor descriptor = resolveDescriptor(null, ap);
+            if (descriptor != null) {
+                DownloadCache.put(descriptor);
+                added++;
+            }
+        }
+        return added;
+    }
+
     /** Get the download for an access point. The Path for this
      * method includes a filename with an extension.
      * The use of this method enables the URL to contain a path component
@@ -247,36 +371,20 @@ public class Download {
 
     /** Return a file download.
      * @param response The response back to the browser.
-     * @param accessPointId The access point id.
-     * @param ap The access point.
+     * @param descriptor The descriptor of the download.
      */
     private void fileDownload(final AsyncResponse response,
-            final int accessPointId, final AccessPoint ap) {
-        String format = AccessPointUtils.getFormat(ap);
-        if (format == null) {
-            response.resume(Response.status(Status.NOT_FOUND).
-                    entity("Not found: no format specified "
-                            + "for access point").build());
-            return;
-        }
-        String responseMimeType =
-                FILE_FORMAT_TO_MIMETYPE_MAP.get(
-                        format);
-        if (responseMimeType == null) {
-            response.resume(Response.status(Status.NOT_FOUND).
-                    entity("Not found: no such format").build());
-            return;
-        }
-
-        String localPath = AccessPointUtils.getToolkitPath(ap);
+            final DownloadCache.Descriptor descriptor) {
+        String localPath = descriptor.getLocation();
+        String responseMimeType = descriptor.getMimeType();
         logger.debug("Getting download from file: " + localPath
                 + ", MIME type = " + responseMimeType);
-        String downloadFilename = Paths.get(localPath).getFileName().toString();
+        String downloadFilename = descriptor.getFilename();
 
         InputStream fileStream;
         try {
-            fileStream = new FileInputStream(
-                    new File(localPath));
+            fileStream = new MeteredInputStream(new FileInputStream(
+                    new File(localPath)), descriptor.getType());
         } catch (FileNotFoundException e) {
             logger.error("download: file not found: "
                     + localPath, e);
@@ -296,19 +404,20 @@ public class Download {
 
     /** Return a download from Sesame.
      * @param response The response back to the browser.
-     * @param accessPointId The access point id.
-     * @param ap The access point.
+     * @param descriptor The descriptor of the download.
      * @param downloadFormat The download format.
      * @param mimeType The MIME type of the download.
      */
     private void sesameDownload(final AsyncResponse response,
-            final int accessPointId, final AccessPoint ap,
+            final DownloadCache.Descriptor descriptor,
             final String downloadFormat, final String mimeType) {
-        String sesameUri = AccessPointUtils.getToolkitUri(ap);
+        final int accessPointId = descriptor.getAccessPointId();
+        String sesameUri = descriptor.getLocation();
         logger.debug("Getting download from " + sesameUri
                 + ", downloadFormat = " + downloadFormat);
 
-        final String downloadFilename = downloadFilename(ap, downloadFormat);
+        final String downloadFilename = descriptor.getFilename()
+                + "." + downloadFormat;
 
         // Prepare the connection to Sesame.
         Client client = ToolkitNetUtils.getClient();
@@ -334,8 +443,11 @@ public class Download {
 
                 // Oops, we don't do sesameResponseStream.close().
                 // We hope it gets cleaned up in the end.
-                InputStream sesameResponseStream =
-                        sesameResponse.readEntity(InputStream.class);
+                // But Jersey closes it after sending it, and that
+                // is when the bytes sent are counted.
+                InputStream sesameResponseStream = new MeteredInputStream(
+                        sesameResponse.readEntity(InputStream.class),
+                        descriptor.getType());
                 response.resume(Response.ok(sesameResponseStream).
                         header("Content-Disposition",
                                 "attachment; filename="
@@ -353,18 +465,57 @@ public class Download {
      */
     public static String downloadFilename(final AccessPoint ap,
             final String downloadFormat) {
+        return downloadFilenameWithoutExtension(ap) + "." + downloadFormat;
+    }
+
+    /** Generate the filename to use for the download, without
+     * the extension that depends on the download format.
+     * @param ap The access point
+     * @return The generated filename, without an extension.
+     */
+    private static String downloadFilenameWithoutExtension(
+            final AccessPoint ap) {
         // Work out the filename that the download should have.
         Version version = VersionUtils.getVersionById(ap.getVersionId());
         Vocabulary vocabulary =
                 VocabularyUtils.getVocabularyById(version.getVocabId());
-        final String downloadFilename =
-                ToolkitFileUtils.makeSlug(vocabulary.getOwner())
+        return ToolkitFileUtils.makeSlug(vocabulary.getOwner())
                 + "_"
                 + vocabulary.getSlug()
                 + "_"
-                + ToolkitFileUtils.makeSlug(version.getTitle())
-                + "." + downloadFormat;
-        return downloadFilename;
+                + ToolkitFileUtils.makeSlug(version.getTitle());
+    }
+
+    /** An input stream that, when closed, records in the metrics
+     * the number of bytes read from it. */
+    private static final class MeteredInputStream
+        extends CountingInputStream {
+
+        /** The type of the access point being downloaded. */
+        private final String type;
+
+        /** Whether the stream has been closed. */
+        private boolean closed;
+
+        /** Constructor.
+         * @param in The stream from which the download is read.
+         * @param aType The type of the access point being downloaded.
+         */
+        MeteredInputStream(final InputStream in, final String aType) {
+            super(in);
+            type = aType;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void close() throws IOException {
+            if (!closed) {
+                closed = true;
+                DOWNLOAD_BYTES.add(getByteCount(), type);
+                DOWNLOAD_SIZES.observe(getByteCount(), type);
+            }
+            super.close();
+        }
     }
 
 }
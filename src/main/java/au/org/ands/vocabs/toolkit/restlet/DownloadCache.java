@@ -0,0 +1,301 @@
+/** See the file "LICENSE" for the full license governing this code. */
+package au.org.ands.vocabs.toolkit.restlet;
+
+import java.lang.invoke.MethodHandles;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import au.org.ands.vocabs.toolkit.utils.PropertyConstants;
+import au.org.ands.vocabs.toolkit.utils.ToolkitProperties;
+
+/** Cache of resolved download descriptors, keyed by access point id.
+ * Resolving a download requires fetching the access point, its version,
+ * and the version's vocabulary from the database, and parsing
+ * the access point's JSON data. The result of all that work is
+ * a small {@link Descriptor}, which is what is cached here.
+ *
+ * The cache is bounded in size, with least-recently-used eviction.
+ * Entries also expire after a configurable time-to-live, because
+ * the portal writes to the same tables directly, and those writes
+ * are not seen by the Toolkit.
+ * Entries are invalidated explicitly by
+ * {@link au.org.ands.vocabs.toolkit.db.AccessPointUtils}
+ * whenever it saves, updates, or deletes access points.
+ */
+public final class DownloadCache {
+
+    /** Logger for this class. */
+    private static final Logger LOGGER = LoggerFactory.getLogger(
+            MethodHandles.lookup().lookupClass());
+
+    /** Default maximum number of entries in the cache. */
+    private static final int DEFAULT_SIZE = 1000;
+
+    /** Default time-to-live of cache entries, in seconds. */
+    private static final int DEFAULT_TTL = 300;
+
+    /** Number of milliseconds in a second. */
+    private static final long MS_PER_SECOND = 1000;
+
+    /** Initial capacity of the underlying map. */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /** Load factor of the underlying map. */
+    private static final float LOAD_FACTOR = 0.75f;
+
+    /** Maximum number of entries in the cache. If zero, caching
+     * is disabled. */
+    private static final int MAX_SIZE = Integer.parseInt(
+            ToolkitProperties.getProperty(
+                    PropertyConstants.TOOLKIT_DOWNLOADCACHESIZE,
+                    Integer.toString(DEFAULT_SIZE)));
+
+    /** Time-to-live of cache entries, in milliseconds. If zero,
+     * entries do not expire. */
+    private static final long TTL = MS_PER_SECOND * Integer.parseInt(
+            ToolkitProperties.getProperty(
+                    PropertyConstants.TOOLKIT_DOWNLOADCACHETTL,
+                    Integer.toString(DEFAULT_TTL)));
+
+    /** The cache itself. Access order is used, so that iteration
+     * order is from least-recently used to most-recently used.
+     * All access to this map must be synchronized on the map. */
+    private static final LinkedHashMap<Integer, Descriptor> CACHE =
+            new LinkedHashMap<Integer, Descriptor>(INITIAL_CAPACITY,
+                    LOAD_FACTOR, true) {
+        /** Serial version UID for serialization. */
+        private static final long serialVersionUID = 1L;
+
+        /** Evict the least-recently-used entry, if the cache
+         * has grown beyond its maximum size. */
+        @Override
+        protected boolean removeEldestEntry(
+                final Map.Entry<Integer, Descriptor> eldest) {
+            return size() > MAX_SIZE;
+        }
+    };
+
+    /** Number of lookups satisfied by the cache. */
+    private static long hits;
+
+    /** Number of lookups not satisfied by the cache. */
+    private static long misses;
+
+    /** Private constructor for a utility class. */
+    private DownloadCache() {
+    }
+
+    /** Get the descriptor for an access point, if it is cached
+     * and has not expired.
+     * @param accessPointId The access point id.
+     * @return The cached descriptor, or null, if there is none.
+     */
+    public static Descriptor get(final int accessPointId) {
+        synchronized (CACHE) {
+            Descriptor descriptor = CACHE.get(accessPointId);
+            if (descriptor != null && descriptor.isExpired()) {
+                CACHE.remove(accessPointId);
+                descriptor = null;
+            }
+            if (descriptor == null) {
+                misses++;
+            } else {
+                hits++;
+            }
+            return descriptor;
+        }
+    }
+
+    /** Decide whether the descriptor for an access point is cached
+     * and has not expired. Unlike {@link #get(int)}, this does not
+     * count as a lookup in the statistics, and does not affect
+     * the order of eviction.
+     * @param accessPointId The access point id.
+     * @return True, iff there is an unexpired cached descriptor.
+     */
+    public static boolean peek(final int accessPointId) {
+        synchronized (CACHE) {
+            for (Descriptor descriptor : CACHE.values()) {
+                if (descriptor.getAccessPointId() == accessPointId) {
+                    return !descriptor.isExpired();
+                }
+            }
+            return false;
+        }
+    }
+
+    /** Add a descriptor to the cache.
+     * @param descriptor The descriptor to be cached.
+     */
+    public static void put(final Descriptor descriptor) {
+        if (MAX_SIZE <= 0) {
+            return;
+        }
+        synchronized (CACHE) {
+            CACHE.put(descriptor.getAccessPointId(), descriptor);
+        }
+    }
+
+    /** Remove the descriptor for an access point, if there is one.
+     * @param accessPointId The access point id.
+     */
+    public static void invalidate(final Integer accessPointId) {
+        if (accessPointId == null) {
+            return;
+        }
+        synchronized (CACHE) {
+            CACHE.remove(accessPointId);
+        }
+    }
+
+    /** Remove the descriptors of all access points of a version.
+     * @param versionId The version id.
+     */
+    public static void invalidateVersion(final Integer versionId) {
+        if (versionId == null) {
+            return;
+        }
+        synchronized (CACHE) {
+            Iterator<Entry<Integer, Descriptor>> iterator =
+                    CACHE.entrySet().iterator();
+            while (iterator.hasNext()) {
+                if (versionId.equals(
+                        iterator.next().getValue().getVersionId())) {
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    /** Remove all descriptors from the cache. */
+    public static void invalidateAll() {
+        synchronized (CACHE) {
+            LOGGER.debug("Clearing download cache");
+            CACHE.clear();
+        }
+    }
+
+    /** Get statistics about the use of the cache.
+     * @return A map containing the current size, the maximum size,
+     * and the numbers of hits and misses.
+     */
+    public static Map<String, Long> getStatistics() {
+        Map<String, Long> statistics = new LinkedHashMap<String, Long>();
+        synchronized (CACHE) {
+            statistics.put("size", (long) CACHE.size());
+            statistics.put("maxSize", (long) MAX_SIZE);
+            statistics.put("hits", hits);
+            statistics.put("misses", misses);
+        }
+        return statistics;
+    }
+
+    /** The resolved details of an access point that are needed
+     * to serve a download. Instances are immutable. */
+    public static final class Descriptor {
+
+        /** The access point id. */
+        private final int accessPointId;
+
+        /** The version id of the access point. */
+        private final Integer versionId;
+
+        /** The access point type. */
+        private final String type;
+
+        /** For a file access point, the path to the file; for
+         * a sesameDownload access point, the URI of the repository. */
+        private final String location;
+
+        /** For a file access point, the MIME type of the file;
+         * for a sesameDownload access point, null, as the MIME
+         * type depends on the format requested. */
+        private final String mimeType;
+
+        /** For a file access point, the filename to be used
+         * for the download; for a sesameDownload access point,
+         * the filename without any extension. */
+        private final String filename;
+
+        /** The time at which this descriptor was created. */
+        private final long created = System.currentTimeMillis();
+
+        /** Constructor.
+         * @param anAccessPointId The access point id.
+         * @param aVersionId The version id of the access point.
+         * @param aType The access point type.
+         * @param aLocation The path or URI of the download.
+         * @param aMimeType The MIME type of the download, if fixed.
+         * @param aFilename The filename (or filename without
+         *      extension) to use for the download.
+         */
+        public Descriptor(final int anAccessPointId,
+                final Integer aVersionId, final String aType,
+                final String aLocation, final String aMimeType,
+                final String aFilename) {
+            accessPointId = anAccessPointId;
+            versionId = aVersionId;
+            type = aType;
+            location = aLocation;
+            mimeType = aMimeType;
+            filename = aFilename;
+        }
+
+        /** Get the access point id.
+         * @return The access point id.
+         */
+        public int getAccessPointId() {
+            return accessPointId;
+        }
+
+        /** Get the version id.
+         * @return The version id.
+         */
+        public Integer getVersionId() {
+            return versionId;
+        }
+
+        /** Get the access point type.
+         * @return The access point type.
+         */
+        public String getType() {
+            return type;
+        }
+
+        /** Get the path or URI of the download.
+         * @return The path or URI of the download.
+         */
+        public String getLocation() {
+            return location;
+        }
+
+        /** Get the MIME type of the download.
+         * @return The MIME type of the download, or null, if it
+         *      depends on the requested format.
+         */
+        public String getMimeType() {
+            return mimeType;
+        }
+
+        /** Get the filename (or filename without extension)
+         * to use for the download.
+         * @return The filename.
+         */
+        public String getFilename() {
+            return filename;
+        }
+
+        /** Has this descriptor outlived its time-to-live?
+         * @return True, if this descriptor has expired.
+         */
+        boolean isExpired() {
+            return TTL > 0 && System.currentTimeMillis() - created > TTL;
+        }
+    }
+
+}
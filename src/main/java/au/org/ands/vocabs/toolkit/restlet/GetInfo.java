@@ -5,25 +5,37 @@ import java.lang.invoke.MethodHandles;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 
 import javax.servlet.ServletContext;
+import javax.ws.rs.DefaultValue;
 import javax.ws.rs.GET;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import au.org.ands.vocabs.toolkit.db.DBContext;
 import au.org.ands.vocabs.toolkit.db.TaskUtils;
-import au.org.ands.vocabs.toolkit.db.model.Task;
+import au.org.ands.vocabs.toolkit.db.model.TaskSummary;
 import au.org.ands.vocabs.toolkit.provider.harvest.HarvestProviderUtils;
 import au.org.ands.vocabs.toolkit.provider.importer.ImporterProviderUtils;
+import au.org.ands.vocabs.toolkit.tasks.Bulkheads;
+import au.org.ands.vocabs.toolkit.tasks.PeriodicScheduler;
+import au.org.ands.vocabs.toolkit.tasks.TaskPriority;
+import au.org.ands.vocabs.toolkit.utils.HealthCheckUtils;
 import au.org.ands.vocabs.toolkit.utils.PropertyConstants;
 import au.org.ands.vocabs.toolkit.utils.ToolkitProperties;
+import au.org.ands.vocabs.toolkit.utils.WarmUp;
 
 /** Restlets for getting info about Toolkit supported services. */
 @Path("getInfo")
@@ -33,6 +45,12 @@ public class GetInfo {
     private Logger logger = LoggerFactory.getLogger(
             MethodHandles.lookup().lookupClass());
 
+    /** Default value of the limit parameter of {@link #getTasks}. */
+    private static final String DEFAULT_TASKS_LIMIT = "100";
+
+    /** Maximum value of the limit parameter of {@link #getTasks}. */
+    private static final int MAX_TASKS_LIMIT = 1000;
+
     /** Injected servlet context. */
     @Context
     private ServletContext context;
@@ -72,15 +90,65 @@ public class GetInfo {
         }
     }
 
-    /** Get a complete list of tasks.
-     * @return The list of tasks. */
+    /** Check the health of the Toolkit and the services on which
+     * it depends: the database, Sesame, and PoolParty.
+     * Each service is probed cheaply, and the time taken is reported.
+     * @return The status of each service, and an overall status. */
     @Path("systemHealthCheck")
     @Produces(MediaType.APPLICATION_JSON)
     @GET
-    public final List<Task> systemHealthCheck() {
+    public final Map<String, Object> systemHealthCheck() {
         logger.debug("called systemHealthCheck");
-        List<Task> tasks = TaskUtils.getAllTasks();
-        return tasks;
+        return HealthCheckUtils.checkAll();
+    }
+
+    /** Report whether the Toolkit is ready to serve requests, for use
+     * by load balancers. The Toolkit is ready once the warm-up done at
+     * startup has loaded the database; see {@link WarmUp}.
+     * @return A response with status 200 (OK) if the Toolkit is ready,
+     *      and 503 (Service Unavailable) if it is not. The body gives
+     *      the state of each step of the warm-up. */
+    @Path("ready")
+    @Produces(MediaType.APPLICATION_JSON)
+    @GET
+    public final Response ready() {
+        logger.debug("called ready");
+        Status status = Status.OK;
+        if (!WarmUp.isReady()) {
+            status = Status.SERVICE_UNAVAILABLE;
+        }
+        return Response.status(status).entity(WarmUp.getStatus()).build();
+    }
+
+    /** Get a list of task summaries, optionally filtered, one page
+     * at a time. The task params and responses are not included;
+     * use the task id to fetch a complete task.
+     * @param status If specified, only return tasks with this status.
+     * @param vocabularyId If specified, only return tasks for this
+     *      vocabulary.
+     * @param versionId If specified, only return tasks for this version.
+     * @param sinceId If specified, only return tasks with an id greater
+     *      than this, i.e., the tasks created since this task.
+     * @param offset The number of matching tasks to skip.
+     * @param limit The maximum number of tasks to return.
+     *      Values greater than {@link #MAX_TASKS_LIMIT} are reduced
+     *      to that value; values less than 1 are increased to 1.
+     * @return The list of task summaries, in order of task id. */
+    @Path("tasks")
+    @Produces(MediaType.APPLICATION_JSON)
+    @GET
+    public final List<TaskSummary> getTasks(
+            @QueryParam("status") final String status,
+            @QueryParam("vocabularyId") final Integer vocabularyId,
+            @QueryParam("versionId") final Integer versionId,
+            @QueryParam("since") final Integer sinceId,
+            @DefaultValue("0") @QueryParam("offset") final int offset,
+            @DefaultValue(DEFAULT_TASKS_LIMIT)
+            @QueryParam("limit") final int limit) {
+        logger.debug("called getTasks");
+        return TaskUtils.getTaskSummaries(status, vocabularyId, versionId,
+                sinceId, Math.max(offset, 0),
+                Math.max(Math.min(limit, MAX_TASKS_LIMIT), 1));
     }
 
     /** Get the Toolkit version information from the version.properties
@@ -104,5 +172,60 @@ public class GetInfo {
         return result;
     }
 
+    /** Get statistics about the Toolkit's caches: the Hibernate
+     * second-level and query caches, and the download cache.
+     * @return The cache statistics.
+     */
+    @Path("cacheStatistics")
+    @Produces(MediaType.APPLICATION_JSON)
+    @GET
+    public final Map<String, Object> getCacheStatistics() {
+        logger.debug("called getCacheStatistics");
+        Map<String, Object> result = new LinkedHashMap<String, Object>();
+        result.put("database", DBContext.getCacheStatistics());
+        result.put("download", DownloadCache.getStatistics());
+        return result;
+    }
+
+    /** Get the number of subtasks waiting for permits from the
+     * resource pools, by priority class. The result has a "waiting"
+     * entry, with the totals over all pools, and a "pools" entry,
+     * with the numbers for each pool.
+     * @return The queue depths.
+     */
+    @Path("taskQueue")
+    @Produces(MediaType.APPLICATION_JSON)
+    @GET
+    public final Map<String, Object> getTaskQueue() {
+        logger.debug("called getTaskQueue");
+        Map<String, Map<String, Integer>> pools = Bulkheads.getQueueDepths();
+        Map<String, Integer> waiting = new LinkedHashMap<String, Integer>();
+        for (int i = 0; i < TaskPriority.getClassCount(); i++) {
+            waiting.put(TaskPriority.getName(i), 0);
+        }
+        for (Map<String, Integer> depths : pools.values()) {
+            for (Map.Entry<String, Integer> entry : depths.entrySet()) {
+                waiting.merge(entry.getKey(), entry.getValue(),
+                        Integer::sum);
+            }
+        }
+        Map<String, Object> result = new LinkedHashMap<String, Object>();
+        result.put("waiting", waiting);
+        result.put("pools", pools);
+        return result;
+    }
+
+    /** Get the state of the periodic jobs enabled on this node.
+     * For each job, the result gives its schedule, whether it is
+     * running, and the time of its next run.
+     * @return The state of the scheduled jobs.
+     */
+    @Path("scheduledJobs")
+    @Produces(MediaType.APPLICATION_JSON)
+    @GET
+    public final Map<String, Object> getScheduledJobs() {
+        logger.debug("called getScheduledJobs");
+        return PeriodicScheduler.getJobs();
+    }
 
 }
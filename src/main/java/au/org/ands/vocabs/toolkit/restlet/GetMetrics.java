@@ -0,0 +1,28 @@
+/** See the file "LICENSE" for the full license governing this code. */
+package au.org.ands.vocabs.toolkit.restlet;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+
+import au.org.ands.vocabs.toolkit.utils.Metrics;
+
+/** Restlet for getting the metrics of the Toolkit, for scraping
+ * by Prometheus. The same metrics are available as the attributes
+ * of a JMX MBean; see {@link Metrics}. */
+@Path("metrics")
+public class GetMetrics {
+
+    /** The content type of the Prometheus text format. */
+    public static final String PROMETHEUS_TEXT =
+            "text/plain; version=0.0.4; charset=utf-8";
+
+    /** Get the metrics.
+     * @return The metrics, in the Prometheus text format. */
+    @Produces(PROMETHEUS_TEXT)
+    @GET
+    public final String getMetrics() {
+        return Metrics.toPrometheusText();
+    }
+
+}
@@ -0,0 +1,399 @@
+/** See the file "LICENSE" for the full license governing this code. */
+package au.org.ands.vocabs.toolkit.restlet;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.CacheControl;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.ResponseBuilder;
+import javax.ws.rs.core.Response.Status;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import au.org.ands.vocabs.toolkit.db.VersionUtils;
+import au.org.ands.vocabs.toolkit.db.VocabularyUtils;
+import au.org.ands.vocabs.toolkit.db.model.Version;
+import au.org.ands.vocabs.toolkit.db.model.Vocabulary;
+import au.org.ands.vocabs.toolkit.utils.PropertyConstants;
+import au.org.ands.vocabs.toolkit.utils.ToolkitFileUtils;
+import au.org.ands.vocabs.toolkit.utils.ToolkitProperties;
+import au.org.ands.vocabs.toolkit.utils.TreeIndex;
+
+/** Restlets for browsing the concept tree of a version one level at
+ * a time, so that a portal need not fetch the whole of
+ * {@code concepts_tree.json} to show the top of a large tree.
+ * The children are served from the index written by the JsonTree
+ * transform (see {@link TreeIndex}), which is mapped into memory:
+ * the work done for a request is proportional to the number of
+ * children returned, not to the size of the tree.
+ */
+@Path("tree")
+public class GetTree {
+
+    /** Logger for this class. */
+    private Logger logger = LoggerFactory.getLogger(
+            MethodHandles.lookup().lookupClass());
+
+    /** Default value of the limit parameter of
+     * {@link #getChildren}. */
+    private static final String DEFAULT_CHILDREN_LIMIT = "100";
+
+    /** Maximum value of the limit parameter of {@link #getChildren}. */
+    private static final int MAX_CHILDREN_LIMIT = 1000;
+
+    /** Default maximum age given to caches of responses, in seconds. */
+    private static final int DEFAULT_MAX_AGE = 300;
+
+    /** Maximum number of indexes kept open. */
+    private static final int OPEN_INDEXES = 100;
+
+    /** Time after which the location of the index of a version
+     * is looked up again, in milliseconds. The title of a version,
+     * from which the location is derived, may be changed by the
+     * portal without going through the Toolkit. */
+    private static final long RESOLVE_INTERVAL = 300 * 1000L;
+
+    /** Initial capacity of the map of open indexes. */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /** Load factor of the map of open indexes. */
+    private static final float LOAD_FACTOR = 0.75f;
+
+    /** Maximum age given to caches of responses, in seconds. */
+    private static final int MAX_AGE = Integer.parseInt(
+            ToolkitProperties.getProperty(
+                    PropertyConstants.TOOLKIT_TREEMAXAGE,
+                    Integer.toString(DEFAULT_MAX_AGE)));
+
+    /** The open indexes, by version id. Access order is used, so that
+     * the least-recently-used index is closed first. All access
+     * to this map must be synchronized on the map. */
+    private static final LinkedHashMap<Integer, OpenIndex> INDEXES =
+            new LinkedHashMap<Integer, OpenIndex>(INITIAL_CAPACITY,
+                    LOAD_FACTOR, true) {
+        /** Serial version UID for serialization. */
+        private static final long serialVersionUID = 1L;
+
+        /** Forget the least-recently-used index, if there are
+         * too many. */
+        @Override
+        protected boolean removeEldestEntry(
+                final Map.Entry<Integer, OpenIndex> eldest) {
+            return size() > OPEN_INDEXES;
+        }
+    };
+
+    /** Get one page of the children of a concept in the concept tree
+     * of a version, or of the roots of the tree. Responses carry an
+     * ETag and a Last-Modified date, which change when the tree is
+     * regenerated, and may be cached for the time given by the
+     * {@code Toolkit.tree.maxAge} property; conditional requests
+     * get a 304 (Not Modified) response.
+     * @param request The request, used to evaluate preconditions.
+     * @param versionId The version id.
+     * @param node The IRI of the concept. If not specified,
+     *      the roots of the tree are returned.
+     * @param offset The number of children to skip.
+     * @param limit The maximum number of children to return.
+     *      Values greater than {@link #MAX_CHILDREN_LIMIT} are reduced
+     *      to that value.
+     * @return The IRI of the concept, as "node", the total number of
+     *      its children, as "total", the offset and limit applied, and
+     *      the children, in the order of the concept tree, as
+     *      "children". Each child has its iri, prefLabel, definition,
+     *      and notation, as in {@code concepts_tree.json}, and its
+     *      number of children, as "childCount".
+     * @responseMessage 404 Not found: no such version, no concept tree
+     *      for the version, or no such concept in the tree
+     */
+    @Path("{version_id}/children")
+    @Produces(MediaType.APPLICATION_JSON)
+    @GET
+    public final Response getChildren(
+            @Context final Request request,
+            @PathParam("version_id") final int versionId,
+            @QueryParam("node") final String node,
+            @DefaultValue("0") @QueryParam("offset") final int offset,
+            @DefaultValue(DEFAULT_CHILDREN_LIMIT)
+            @QueryParam("limit") final int limit) {
+        logger.debug("called getChildren: " + versionId + ", node: "
+                + node);
+        OpenIndex openIndex;
+        try {
+            openIndex = getIndex(versionId);
+        } catch (IOException e) {
+            logger.error("Unable to open concept tree index of version "
+                    + versionId, e);
+            return Response.status(Status.INTERNAL_SERVER_ERROR).
+                    entity("Unable to read the concept tree").build();
+        }
+        if (openIndex == null) {
+            return Response.status(Status.NOT_FOUND).
+                    entity("Not found: no such version, or no concept "
+                            + "tree for the version").build();
+        }
+
+        CacheControl cacheControl = new CacheControl();
+        cacheControl.setMaxAge(MAX_AGE);
+        Date lastModified = new Date(openIndex.getLastModified());
+        ResponseBuilder notModified = request.evaluatePreconditions(
+                lastModified, openIndex.getTag());
+        if (notModified != null) {
+            return notModified.cacheControl(cacheControl).build();
+        }
+
+        TreeIndex index = openIndex.getIndex();
+        int parent = TreeIndex.ROOT;
+        if (node != null) {
+            parent = index.find(node);
+            if (parent < 0) {
+                return Response.status(Status.NOT_FOUND).
+                        entity("Not found: no such concept in the tree").
+                        build();
+            }
+        }
+        int total = index.getChildCount(parent);
+        int first = Math.min(Math.max(offset, 0), total);
+        int pageLimit = Math.max(Math.min(limit, MAX_CHILDREN_LIMIT), 0);
+        int end = Math.min(total - first, pageLimit) + first;
+        List<Map<String, Object>> children =
+                new ArrayList<Map<String, Object>>(end - first);
+        for (int i = first; i < end; i++) {
+            children.add(getNode(index, index.getChild(parent, i)));
+        }
+
+        Map<String, Object> result = new LinkedHashMap<String, Object>();
+        if (node != null) {
+            result.put("node", node);
+        }
+        result.put("total", total);
+        result.put("offset", first);
+        result.put("limit", pageLimit);
+        result.put("children", children);
+        return Response.ok(result).tag(openIndex.getTag()).
+                lastModified(lastModified).cacheControl(cacheControl).
+                build();
+    }
+
+    /** Get the fields of a concept, for a response. As in
+     * {@code concepts_tree.json}, null fields are omitted.
+     * @param index The index of the concept tree.
+     * @param child The number of the concept.
+     * @return The fields of the concept.
+     */
+    private static Map<String, Object> getNode(final TreeIndex index,
+            final int child) {
+        Map<String, Object> fields = new LinkedHashMap<String, Object>();
+        fields.put("iri", index.getIri(child));
+        putIfNotNull(fields, "prefLabel", index.getPrefLabel(child));
+        putIfNotNull(fields, "definition", index.getDefinition(child));
+        putIfNotNull(fields, "notation", index.getNotation(child));
+        fields.put("childCount", index.getChildCount(child));
+        return fields;
+    }
+
+    /** Put a value into a map, if it is not null.
+     * @param map The map.
+     * @param key The key of the value.
+     * @param value The value, or null.
+     */
+    private static void putIfNotNull(final Map<String, Object> map,
+            final String key, final String value) {
+        if (value != null) {
+            map.put(key, value);
+        }
+    }
+
+    /** Get the index of the concept tree of a version. An open index
+     * is reused, unless its file has been replaced since it was
+     * opened, or its location is due to be looked up again.
+     * @param versionId The version id.
+     * @return The open index, or null, if there is no such version,
+     *      or it has no index.
+     * @throws IOException If the index can not be opened.
+     */
+    private static OpenIndex getIndex(final int versionId)
+            throws IOException {
+        OpenIndex openIndex;
+        synchronized (INDEXES) {
+            openIndex = INDEXES.get(versionId);
+        }
+        java.nio.file.Path file;
+        if (openIndex != null && !openIndex.isDueForResolution()) {
+            file = openIndex.getFile();
+        } else {
+            file = resolve(versionId);
+            if (file == null) {
+                forget(versionId);
+                return null;
+            }
+        }
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(file,
+                    BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            // Either the version has no concept tree, or the title
+            // of the version has changed; try again next time.
+            forget(versionId);
+            return null;
+        }
+        if (openIndex != null && openIndex.isFor(file, attributes)) {
+            if (openIndex.isDueForResolution()) {
+                openIndex.markResolved();
+            }
+            return openIndex;
+        }
+        openIndex = new OpenIndex(file, attributes);
+        synchronized (INDEXES) {
+            INDEXES.put(versionId, openIndex);
+        }
+        return openIndex;
+    }
+
+    /** Look up the location of the index of the concept tree
+     * of a version.
+     * @param versionId The version id.
+     * @return The file of the index, or null, if there is no
+     *      such version.
+     */
+    private static java.nio.file.Path resolve(final int versionId) {
+        Version version = VersionUtils.getVersionById(versionId);
+        if (version == null) {
+            return null;
+        }
+        Vocabulary vocabulary =
+                VocabularyUtils.getVocabularyById(version.getVocabId());
+        if (vocabulary == null) {
+            return null;
+        }
+        return Paths.get(ToolkitFileUtils.getVersionOutputPath(
+                vocabulary, version, TreeIndex.FILE_NAME));
+    }
+
+    /** Forget the open index of a version, if there is one.
+     * @param versionId The version id.
+     */
+    private static void forget(final int versionId) {
+        synchronized (INDEXES) {
+            INDEXES.remove(versionId);
+        }
+    }
+
+    /** An index, as opened from a file. */
+    private static final class OpenIndex {
+
+        /** The file of the index. */
+        private final java.nio.file.Path file;
+
+        /** The time at which the file was last modified,
+         * in milliseconds. */
+        private final long lastModified;
+
+        /** The size of the file. */
+        private final long size;
+
+        /** The index. */
+        private final TreeIndex index;
+
+        /** The entity tag of responses served from the index. */
+        private final EntityTag tag;
+
+        /** The time at which the location of the file was
+         * last looked up. */
+        private volatile long resolved = System.currentTimeMillis();
+
+        /** Constructor. The index is opened.
+         * @param aFile The file of the index.
+         * @param attributes The attributes of the file.
+         * @throws IOException If the index can not be opened.
+         */
+        private OpenIndex(final java.nio.file.Path aFile,
+                final BasicFileAttributes attributes) throws IOException {
+            file = aFile;
+            lastModified = attributes.lastModifiedTime().toMillis();
+            size = attributes.size();
+            index = new TreeIndex(aFile);
+            tag = new EntityTag(Long.toHexString(lastModified) + "-"
+                    + Long.toHexString(size));
+        }
+
+        /** Was this index opened from a file, and has that file not
+         * been replaced since?
+         * @param aFile The file.
+         * @param attributes The current attributes of the file.
+         * @return True, iff this index is current for the file.
+         */
+        private boolean isFor(final java.nio.file.Path aFile,
+                final BasicFileAttributes attributes) {
+            return file.equals(aFile)
+                    && lastModified
+                        == attributes.lastModifiedTime().toMillis()
+                    && size == attributes.size();
+        }
+
+        /** Is the location of the file due to be looked up again?
+         * @return True, iff the location is due to be looked up.
+         */
+        private boolean isDueForResolution() {
+            return System.currentTimeMillis() - resolved > RESOLVE_INTERVAL;
+        }
+
+        /** Note that the location of the file has just been
+         * looked up. */
+        private void markResolved() {
+            resolved = System.currentTimeMillis();
+        }
+
+        /** Get the file of the index.
+         * @return The file of the index.
+         */
+        private java.nio.file.Path getFile() {
+            return file;
+        }
+
+        /** Get the time at which the file was last modified.
+         * @return The time at which the file was last modified,
+         *      in milliseconds.
+         */
+        private long getLastModified() {
+            return lastModified;
+        }
+
+        /** Get the index.
+         * @return The index.
+         */
+        private TreeIndex getIndex() {
+            return index;
+        }
+
+        /** Get the entity tag of responses served from the index.
+         * @return The entity tag.
+         */
+        private EntityTag getTag() {
+            return tag;
+        }
+    }
+
+}
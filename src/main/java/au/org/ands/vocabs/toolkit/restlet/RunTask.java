@@ -1,21 +1,34 @@
 /** See the file "LICENSE" for the full license governing this code. */
 package au.org.ands.vocabs.toolkit.restlet;
 
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.lang.invoke.MethodHandles;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
+import java.util.Objects;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import javax.servlet.ServletContext;
+import javax.ws.rs.DefaultValue;
 import javax.ws.rs.GET;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import au.org.ands.vocabs.toolkit.db.TaskUtils;
+import au.org.ands.vocabs.toolkit.db.model.Task;
 import au.org.ands.vocabs.toolkit.tasks.TaskInfo;
+import au.org.ands.vocabs.toolkit.tasks.TaskProgress;
 import au.org.ands.vocabs.toolkit.tasks.TaskRunner;
 import au.org.ands.vocabs.toolkit.tasks.TaskStatus;
 import au.org.ands.vocabs.toolkit.utils.ToolkitFileUtils;
@@ -28,6 +41,26 @@ public class RunTask {
     private Logger logger = LoggerFactory.getLogger(
             MethodHandles.lookup().lookupClass());
 
+    /** Media type of Server-Sent Events. */
+    private static final String SSE_MEDIA_TYPE = "text/event-stream";
+
+    /** Interval at which comments are sent on an idle event stream,
+     * in milliseconds. */
+    private static final long SSE_KEEPALIVE_MS = 15000;
+
+    /** Interval at which the database is checked for the status of
+     * a task that is not running on this node, in milliseconds. */
+    private static final long SSE_POLL_MS = 2000;
+
+    /** Time after which the event stream of a task that is not
+     * running anywhere is ended, in milliseconds. This gives a client
+     * the chance to subscribe before it starts the task. */
+    private static final long SSE_IDLE_MS = 60000;
+
+    /** Time a client should wait before reconnecting to an event
+     * stream, in milliseconds. */
+    private static final int SSE_RETRY_MS = 3000;
+
     /** Injected servlet context. */
     @Context
     private ServletContext context;
@@ -35,14 +68,21 @@ public class RunTask {
     /** Run a task.
      * @param taskId The task id. The id of the task
      *      in the task database table.
+     * @param resume If true, skip the subtasks that were completed
+     *      by a previous run of the task, and whose inputs have not
+     *      changed since. Skipping stops at the first subtask that
+     *      has to be run again.
      * @return The result of running the task, either in JSON or XML format.
      */
     @Path("{taskId}")
     @Produces({MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML})
     @GET
     public final HashMap<String, String> runTask(
-            @PathParam("taskId") final int taskId) {
-        logger.debug("called runTask, taskid = " + taskId);
+            @PathParam("taskId") final int taskId,
+            @DefaultValue("false") @QueryParam("resume")
+            final boolean resume) {
+        logger.debug("called runTask, taskid = " + taskId
+                + ", resume = " + resume);
         // Initialize these to null/empty values. On success of
         // the try, taskInfo will be non-null, and throwableText
         // will remain empty. On failure, taskInfo will remain null,
@@ -66,10 +106,127 @@ public class RunTask {
                     + " task with id " + taskId + throwableText);
             return response;
         } else {
-            TaskRunner runner = new TaskRunner(taskInfo);
+            TaskRunner runner = new TaskRunner(taskInfo, resume);
             runner.runTask();
             return runner.getResults();
         }
     }
 
+    /** Stream the progress of a task as Server-Sent Events.
+     * See {@link TaskProgress} for the events that are sent.
+     * If the task has already finished, and is not running,
+     * an "end" event with its status is sent immediately.
+     * If the task is running on this node, its events are sent
+     * until the run ends. While it is not, the task is looked up in
+     * the database at intervals: a "status" event is sent when its
+     * status changes, e.g., because it is being run by another node,
+     * and an "end" event when it finishes. If the task is not running
+     * anywhere, i.e., it is neither running on this node, nor leased
+     * by another node, for {@link #SSE_IDLE_MS} milliseconds,
+     * an "end" event with its current status is sent.
+     * Comments are sent at intervals to keep the connection open,
+     * and to detect clients that have gone away.
+     * @param taskId The task id. The id of the task
+     *      in the task database table.
+     * @return The stream of events.
+     */
+    @Path("{taskId}/events")
+    @Produces(SSE_MEDIA_TYPE)
+    @GET
+    public final Response taskEvents(
+            @PathParam("taskId") final int taskId) {
+        logger.debug("called taskEvents, taskid = " + taskId);
+        if (TaskUtils.getTaskById(taskId) == null) {
+            return Response.status(Response.Status.NOT_FOUND).build();
+        }
+        TaskProgress progress = TaskProgress.forTask(taskId);
+        BlockingQueue<String> queue = progress.subscribe();
+        // Look up the task only now, so that a run that ended
+        // before the subscription is seen.
+        final Task task = TaskUtils.getTaskById(taskId);
+        if (task == null || (!progress.isRunning()
+                && TaskStatus.isTerminal(task.getStatus()))) {
+            progress.unsubscribe(queue);
+            String status = null;
+            if (task != null) {
+                status = task.getStatus();
+            }
+            return Response.ok(TaskProgress.formatEndEvent(status),
+                    SSE_MEDIA_TYPE).build();
+        }
+        StreamingOutput stream = output -> {
+            Writer writer = new OutputStreamWriter(output,
+                    StandardCharsets.UTF_8);
+            try {
+                // Tell the client to wait before reconnecting.
+                writer.write("retry: " + SSE_RETRY_MS + "\n\n");
+                writer.flush();
+                String status = task.getStatus();
+                long lastWrite = System.currentTimeMillis();
+                long lastActive = lastWrite;
+                while (true) {
+                    String event = queue.poll(SSE_POLL_MS,
+                            TimeUnit.MILLISECONDS);
+                    long now = System.currentTimeMillis();
+                    if (event == null && !progress.isRunning()) {
+                        Task current = TaskUtils.getTaskById(taskId);
+                        String currentStatus = null;
+                        if (current != null) {
+                            currentStatus = current.getStatus();
+                        }
+                        if (current == null
+                                || TaskStatus.isTerminal(currentStatus)
+                                || (!isLeased(current, now)
+                                    && now - lastActive >= SSE_IDLE_MS)) {
+                            event = TaskProgress.formatEndEvent(
+                                    currentStatus);
+                        } else {
+                            if (isLeased(current, now)) {
+                                lastActive = now;
+                            }
+                            if (!Objects.equals(status, currentStatus)) {
+                                status = currentStatus;
+                                event = TaskProgress.formatStatusEvent(
+                                        status, "Status of the task "
+                                        + "in the database");
+                            }
+                        }
+                    } else {
+                        lastActive = now;
+                    }
+                    if (event != null) {
+                        writer.write(event);
+                    } else if (now - lastWrite >= SSE_KEEPALIVE_MS) {
+                        writer.write(": keepalive\n\n");
+                    } else {
+                        continue;
+                    }
+                    writer.flush();
+                    lastWrite = now;
+                    if (event != null && TaskProgress.isEndEvent(event)) {
+                        return;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                progress.unsubscribe(queue);
+            }
+        };
+        return Response.ok(stream, SSE_MEDIA_TYPE).
+                header("Cache-Control", "no-cache").build();
+    }
+
+    /** Is a task leased, i.e., being run by some node?
+     * @param task The task, as read from the database.
+     * @param now The current time, as a value of
+     *      System.currentTimeMillis().
+     * @return True, iff the task has an unexpired lease.
+     */
+    private static boolean isLeased(final Task task, final long now) {
+        return task.getLeaseOwner() != null
+                && task.getLeaseExpiry() != null
+                && task.getLeaseExpiry() >= now;
+    }
+
 }
@@ -0,0 +1,446 @@
+/** See the file "LICENSE" for the full license governing this code. */
+package au.org.ands.vocabs.toolkit.tasks;
+
+import java.lang.invoke.MethodHandles;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import au.org.ands.vocabs.toolkit.db.BulkJobUtils;
+import au.org.ands.vocabs.toolkit.db.TaskLeaseUtils;
+import au.org.ands.vocabs.toolkit.db.TaskStatusJournal;
+import au.org.ands.vocabs.toolkit.db.TaskUtils;
+import au.org.ands.vocabs.toolkit.db.VersionUtils;
+import au.org.ands.vocabs.toolkit.db.model.BulkJob;
+import au.org.ands.vocabs.toolkit.db.model.Task;
+import au.org.ands.vocabs.toolkit.db.model.Version;
+import au.org.ands.vocabs.toolkit.utils.PropertyConstants;
+import au.org.ands.vocabs.toolkit.utils.ToolkitFileUtils;
+import au.org.ands.vocabs.toolkit.utils.ToolkitProperties;
+
+/** Runner for bulk jobs. A bulk job runs the same subtasks on each
+ * of a selection of versions; see {@link BulkJob}. For each selected
+ * version, in order of version id, a task is created and run in the
+ * same way as any other task, with batch priority (see
+ * {@link TaskPriority}). Tasks are started no faster than the rate
+ * set by the property {@link PropertyConstants#TOOLKIT_BULKJOBRATE},
+ * which applies to all bulk jobs run by this node.
+ *
+ * The progress of a job is saved after each version. A job that
+ * was running when its node stopped is resumed, after the version
+ * it last processed, when a node next starts. (If the job's lease has
+ * not yet expired at that time, the job is resumed once it has.)
+ *
+ * Jobs are run one at a time by each node, in order of creation.
+ */
+public final class BulkJobRunner {
+
+    /** Logger for this class. */
+    private static final Logger LOGGER = LoggerFactory.getLogger(
+            MethodHandles.lookup().lookupClass());
+
+    /** Default maximum rate at which tasks are started,
+     * in tasks per minute. */
+    private static final int DEFAULT_RATE = 60;
+
+    /** Number of milliseconds in a minute. */
+    private static final long MS_PER_MINUTE = 60000;
+
+    /** Number of milliseconds in a second. */
+    private static final long MS_PER_SECOND = 1000;
+
+    /** Number of version ids fetched at a time. */
+    private static final int BATCH_SIZE = 100;
+
+    /** How long to sleep at a time while waiting for the rate limit,
+     * in milliseconds, before checking whether the job has been
+     * cancelled. */
+    private static final long SLEEP_INTERVAL = 1000;
+
+    /** Reason given when a job is cancelled on request. */
+    private static final String CANCEL_REQUESTED = "Cancelled on request";
+
+    /** The minimum interval between the starts of tasks,
+     * in milliseconds. */
+    private static final long TASK_INTERVAL;
+
+    static {
+        int rate = Integer.parseInt(ToolkitProperties.getProperty(
+                PropertyConstants.TOOLKIT_BULKJOBRATE,
+                Integer.toString(DEFAULT_RATE)));
+        if (rate > 0) {
+            TASK_INTERVAL = MS_PER_MINUTE / rate;
+        } else {
+            TASK_INTERVAL = 0;
+        }
+    }
+
+    /** The controls of the jobs being run by this node, keyed
+     * by job id. */
+    private static final ConcurrentHashMap<Integer, TaskControl> RUNNING =
+            new ConcurrentHashMap<Integer, TaskControl>();
+
+    /** When the next task may start, as a value of
+     * System.currentTimeMillis(). Guarded by BulkJobRunner.class. */
+    private static long nextStart;
+
+    /** Executor that runs the jobs. Created on first use. */
+    private static ScheduledExecutorService executor;
+
+    /** Private constructor for a utility class. */
+    private BulkJobRunner() {
+    }
+
+    /** Create a bulk job, and queue it to be run.
+     * @param vocabularyId If not null, only versions of this vocabulary
+     *      are selected.
+     * @param versionStatus If not null, only versions with this status
+     *      are selected.
+     * @param owner If not null, only versions of vocabularies with this
+     *      owner are selected.
+     * @param params The subtasks to be run on each selected version,
+     *      as a JSON array.
+     * @return The job.
+     */
+    public static BulkJob create(final Integer vocabularyId,
+            final String versionStatus, final String owner,
+            final String params) {
+        BulkJob job = new BulkJob();
+        job.setVocabularyId(vocabularyId);
+        job.setVersionStatus(versionStatus);
+        job.setOwner(owner);
+        job.setParams(params);
+        job.setStatus(BulkJob.STATUS_QUEUED);
+        job.setTotal(BulkJobUtils.countSelectedVersions(job));
+        job.setProcessed(0);
+        job.setFailed(0);
+        job.setElapsedMillis(0L);
+        BulkJobUtils.saveBulkJob(job);
+        start(job.getId());
+        return job;
+    }
+
+    /** Queue a job to be run by this node.
+     * @param jobId The id of the job.
+     */
+    public static void start(final int jobId) {
+        getExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    runJob(jobId);
+                } catch (RuntimeException e) {
+                    LOGGER.error("Exception running bulk job " + jobId, e);
+                }
+            } });
+    }
+
+    /** Queue all jobs that have not finished, and that no other node
+     * is running, to be run by this node. This is done now, and again
+     * once the leases held before a restart have expired.
+     * Call this only in webapp context initialization! */
+    public static void resumeAll() {
+        Runnable resume = new Runnable() {
+            @Override
+            public void run() {
+                List<Integer> jobIds;
+                try {
+                    jobIds = BulkJobUtils.getResumableBulkJobIds();
+                } catch (RuntimeException e) {
+                    LOGGER.error("Exception getting bulk jobs to resume", e);
+                    return;
+                }
+                for (Integer jobId : jobIds) {
+                    if (!RUNNING.containsKey(jobId)) {
+                        LOGGER.info("Resuming bulk job " + jobId);
+                        start(jobId);
+                    }
+                }
+            } };
+        getExecutor().execute(resume);
+        getExecutor().schedule(resume, TaskLeaseUtils.getLeaseDuration(),
+                TimeUnit.MILLISECONDS);
+    }
+
+    /** Cancel a job. If this node is running the job, the job and its
+     * current task are asked to stop. Otherwise, if the job has not
+     * finished, it is given status {@link TaskStatus#CANCELLED};
+     * if another node is running it, that node stops it when it
+     * next saves the job's progress, or before its next task.
+     * @param jobId The id of the job.
+     * @return True, iff the job was cancelled; false, if there is
+     *      no such job, or it has already finished.
+     */
+    public static boolean cancel(final int jobId) {
+        TaskControl control = RUNNING.get(jobId);
+        if (control != null) {
+            control.cancel(CANCEL_REQUESTED);
+            return true;
+        }
+        return BulkJobUtils.cancelBulkJob(jobId);
+    }
+
+    /** Stop the jobs being run by this node. They remain unfinished,
+     * and are resumed when a node next starts.
+     * Call this only in webapp context shutdown! */
+    public static void doShutdown() {
+        for (TaskControl control : RUNNING.values()) {
+            control.cancel("Toolkit shutting down");
+        }
+        synchronized (BulkJobRunner.class) {
+            if (executor != null) {
+                executor.shutdownNow();
+                executor = null;
+            }
+        }
+    }
+
+    /** Get a report of the progress of a job, including its throughput
+     * and an estimate of the time remaining.
+     * @param job The job.
+     * @return The report.
+     */
+    public static Map<String, Object> getReport(final BulkJob job) {
+        Map<String, Object> report = new LinkedHashMap<String, Object>();
+        report.put("id", job.getId());
+        report.put("status", job.getStatus());
+        report.put("vocabulary_id", job.getVocabularyId());
+        report.put("version_status", job.getVersionStatus());
+        report.put("owner", job.getOwner());
+        report.put("total", job.getTotal());
+        report.put("processed", job.getProcessed());
+        report.put("failed", job.getFailed());
+        report.put("last_version_id", job.getLastVersionId());
+        report.put("elapsed_ms", job.getElapsedMillis());
+        report.put("running_on", job.getLeaseOwner());
+        long elapsed = job.getElapsedMillis();
+        int processed = job.getProcessed();
+        if (elapsed > 0 && processed > 0) {
+            double perMinute = processed * (double) MS_PER_MINUTE / elapsed;
+            report.put("throughput_per_minute", perMinute);
+            if (!TaskStatus.isTerminal(job.getStatus())) {
+                long remaining = Math.max(job.getTotal() - processed, 0);
+                report.put("eta_seconds",
+                        remaining * elapsed / processed / MS_PER_SECOND);
+            }
+        }
+        return report;
+    }
+
+    /** Run a job, if it can be claimed.
+     * @param jobId The id of the job.
+     */
+    private static void runJob(final int jobId) {
+        String owner = TaskLeaseUtils.getNodeId();
+        long duration = TaskLeaseUtils.getLeaseDuration();
+        if (!BulkJobUtils.claimBulkJob(jobId, owner, duration)) {
+            LOGGER.info("Bulk job " + jobId + " has finished, or is "
+                    + "being run by another node");
+            return;
+        }
+        // The tasks of the job have their own time budgets;
+        // the job as a whole has none.
+        TaskControl control = TaskControl.unbounded();
+        RUNNING.put(jobId, control);
+        Object heartbeat = LeaseHeartbeat.add("lease on bulk job " + jobId,
+                () -> BulkJobUtils.renewBulkJobLease(jobId, owner, duration),
+                control);
+        try {
+            processVersions(jobId, control);
+        } finally {
+            LeaseHeartbeat.remove(heartbeat);
+            RUNNING.remove(jobId, control);
+            BulkJobUtils.releaseBulkJobLease(jobId, owner);
+        }
+    }
+
+    /** Run the job's task on each remaining selected version.
+     * @param jobId The id of the job.
+     * @param control The control of the job.
+     */
+    private static void processVersions(final int jobId,
+            final TaskControl control) {
+        BulkJob job = BulkJobUtils.getBulkJobById(jobId);
+        job.setStatus(BulkJob.STATUS_RUNNING);
+        if (!BulkJobUtils.updateBulkJobProgress(job)) {
+            LOGGER.info("Bulk job " + jobId + " was cancelled");
+            return;
+        }
+        LOGGER.info("Running bulk job " + jobId + "; "
+                + job.getProcessed() + " of " + job.getTotal()
+                + " versions already processed");
+        List<Integer> versionIds = BulkJobUtils.getSelectedVersionIds(
+                job, job.getLastVersionId(), BATCH_SIZE);
+        // The elapsed time is wall-clock time, including the time
+        // spent waiting for the rate limit, so that the throughput
+        // and estimated time remaining reported by getReport()
+        // reflect the rate at which versions are actually processed.
+        long start = System.currentTimeMillis();
+        while (!versionIds.isEmpty()) {
+            for (Integer versionId : versionIds) {
+                if (!waitForTurn(control)) {
+                    finishCancelled(job, control);
+                    return;
+                }
+                // Another node may have cancelled the job.
+                BulkJob current = BulkJobUtils.getBulkJobById(jobId);
+                if (TaskStatus.CANCELLED.equals(current.getStatus())) {
+                    LOGGER.info("Bulk job " + jobId + " was cancelled");
+                    return;
+                }
+                boolean success = runVersion(job, versionId, control);
+                if (control.isCancelled()) {
+                    // Not recorded as processed, so that the version
+                    // is processed again if the job is resumed.
+                    finishCancelled(job, control);
+                    return;
+                }
+                long now = System.currentTimeMillis();
+                job.setElapsedMillis(job.getElapsedMillis() + now - start);
+                start = now;
+                job.setProcessed(job.getProcessed() + 1);
+                if (!success) {
+                    job.setFailed(job.getFailed() + 1);
+                }
+                job.setLastVersionId(versionId);
+                if (!BulkJobUtils.updateBulkJobProgress(job)) {
+                    // Cancelled by another node while the task ran.
+                    LOGGER.info("Bulk job " + jobId + " was cancelled");
+                    return;
+                }
+            }
+            versionIds = BulkJobUtils.getSelectedVersionIds(
+                    job, job.getLastVersionId(), BATCH_SIZE);
+        }
+        if (job.getFailed() == 0) {
+            job.setStatus(TaskStatus.SUCCESS);
+        } else {
+            job.setStatus(TaskStatus.ERROR);
+        }
+        if (!BulkJobUtils.updateBulkJobProgress(job)) {
+            LOGGER.info("Bulk job " + jobId + " was cancelled");
+            return;
+        }
+        LOGGER.info("Bulk job " + jobId + " finished; "
+                + job.getProcessed() + " versions processed, "
+                + job.getFailed() + " failed");
+    }
+
+    /** Wait until the rate limit allows the next task to start.
+     * @param control The control of the job.
+     * @return True, if the next task may start; false, if the job
+     *      has been cancelled.
+     */
+    private static boolean waitForTurn(final TaskControl control) {
+        long startAt;
+        synchronized (BulkJobRunner.class) {
+            startAt = Math.max(nextStart, System.currentTimeMillis());
+            nextStart = startAt + TASK_INTERVAL;
+        }
+        try {
+            long now = System.currentTimeMillis();
+            while (now < startAt && !control.isCancelled()) {
+                Thread.sleep(Math.min(SLEEP_INTERVAL, startAt - now));
+                now = System.currentTimeMillis();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            control.cancel("Interrupted");
+        }
+        return !control.isCancelled();
+    }
+
+    /** Create and run the job's task for one version.
+     * @param job The job.
+     * @param versionId The id of the version.
+     * @param control The control of the job. If the job is cancelled
+     *      while the task runs, the task is cancelled too.
+     * @return True, iff the task succeeded.
+     */
+    private static boolean runVersion(final BulkJob job,
+            final int versionId, final TaskControl control) {
+        Version version = VersionUtils.getVersionById(versionId);
+        if (version == null) {
+            // Deleted since it was selected.
+            return false;
+        }
+        Task task = new Task();
+        task.setVocabularyId(version.getVocabId());
+        task.setVersionId(versionId);
+        task.setParams(job.getParams());
+        TaskUtils.saveTask(task);
+        TaskInfo taskInfo = ToolkitFileUtils.getTaskInfo(task.getId());
+        if (taskInfo == null) {
+            HashMap<String, String> results = new HashMap<String, String>();
+            results.put("runTask", "Unable to get all task details for"
+                    + " task with id " + task.getId());
+            results.put("bulk_job_id", job.getId().toString());
+            TaskStatusJournal.record(task, TaskStatus.ERROR, results);
+            return false;
+        }
+        taskInfo.setPriority(TaskPriority.compute(taskInfo, true));
+        AutoCloseable stopTask = () -> {
+            TaskControl taskControl = TaskControl.getRunning(task.getId());
+            if (taskControl != null) {
+                taskControl.cancel(control.getCancelReason());
+            }
+        };
+        control.register(stopTask);
+        try {
+            TaskRunner runner = new TaskRunner(taskInfo);
+            runner.runTask();
+            return TaskStatus.SUCCESS.equals(runner.getStatus());
+        } catch (RuntimeException e) {
+            LOGGER.error("Exception running task " + task.getId()
+                    + " of bulk job " + job.getId(), e);
+            return false;
+        } finally {
+            control.unregister(stopTask);
+        }
+    }
+
+    /** Record that a job has stopped because it was cancelled.
+     * A job cancelled on request is given status
+     * {@link TaskStatus#CANCELLED}; a job stopped because the Toolkit
+     * is shutting down remains unfinished, so that it is resumed.
+     * @param job The job.
+     * @param control The control of the job.
+     */
+    private static void finishCancelled(final BulkJob job,
+            final TaskControl control) {
+        LOGGER.info("Bulk job " + job.getId() + " stopped: "
+                + control.getCancelReason());
+        if (CANCEL_REQUESTED.equals(control.getCancelReason())) {
+            job.setStatus(TaskStatus.CANCELLED);
+            BulkJobUtils.updateBulkJobProgress(job);
+        }
+    }
+
+    /** Get the executor that runs jobs, creating it if necessary.
+     * @return The executor.
+     */
+    private static synchronized ScheduledExecutorService getExecutor() {
+        if (executor == null) {
+            executor = Executors.newSingleThreadScheduledExecutor(
+                    new ThreadFactory() {
+                        @Override
+                        public Thread newThread(final Runnable r) {
+                            Thread thread = new Thread(r, "BulkJobRunner");
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+        }
+        return executor;
+    }
+
+}
@@ -0,0 +1,279 @@
+/** See the file "LICENSE" for the full license governing this code. */
+package au.org.ands.vocabs.toolkit.tasks;
+
+import java.lang.invoke.MethodHandles;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import au.org.ands.vocabs.toolkit.utils.PropertyConstants;
+import au.org.ands.vocabs.toolkit.utils.ToolkitProperties;
+
+/** Named limits on the number of subtasks that may use an external
+ * system at the same time. Each limit is a pool of permits; a subtask
+ * takes a permit from the pool for the system its provider uses
+ * before it runs, and returns it when it has finished. Subtasks that
+ * find a pool empty wait, and are given permits in order of the
+ * priority of their tasks; see {@link PriorityScheduler}.
+ *
+ * The size of each pool is set with a property that starts with
+ * {@link PropertyConstants#TOOLKIT_BULKHEAD_PREFIX} followed by the
+ * name of the pool, e.g., "Toolkit.bulkhead.poolparty". A size
+ * of zero or less means that there is no limit. The aging interval
+ * of the pools is set with the property
+ * {@link PropertyConstants#TOOLKIT_SCHEDULERAGINGINTERVAL}.
+ */
+public final class Bulkheads {
+
+    /** Logger for this class. */
+    private static final Logger LOGGER = LoggerFactory.getLogger(
+            MethodHandles.lookup().lookupClass());
+
+    /** Pool for requests to PoolParty. */
+    public static final String POOLPARTY = "poolparty";
+
+    /** Pool for work done by the Sesame server. */
+    public static final String SESAME = "sesame";
+
+    /** Pool for writes to the SISSVoc configuration directory. */
+    public static final String SISSVOC_FS = "sissvoc-fs";
+
+    /** Pool for CPU-bound local transforms. */
+    public static final String CPU_TRANSFORM = "cpu-transform";
+
+    /** Default size of the PoolParty pool. */
+    private static final int DEFAULT_POOLPARTY_SIZE = 2;
+
+    /** Default size of the Sesame pool. */
+    private static final int DEFAULT_SESAME_SIZE = 4;
+
+    /** Default size of the SISSVoc pool. */
+    private static final int DEFAULT_SISSVOC_FS_SIZE = 2;
+
+    /** Default aging interval of the pools, in seconds. */
+    private static final int DEFAULT_AGING_INTERVAL = 60;
+
+    /** Number of milliseconds in a second. */
+    private static final long MS_PER_SECOND = 1000;
+
+    /** Waits for permits longer than this are logged,
+     * in milliseconds. */
+    private static final long LOG_WAIT_THRESHOLD = 1000;
+
+    /** The pools, keyed by name. Created on first use. */
+    private static final ConcurrentHashMap<String, PriorityScheduler>
+        POOLS = new ConcurrentHashMap<String, PriorityScheduler>();
+
+    /** Private constructor for a utility class. */
+    private Bulkheads() {
+    }
+
+    /** Get the name of the pool used by a subtask.
+     * @param subtaskType The type of the subtask, e.g., "HARVEST".
+     * @param providerType The provider type of the subtask,
+     *      e.g., "PoolParty".
+     * @return The name of the pool, or null, if the subtask does
+     *      not use a pool.
+     */
+    public static String getPoolName(final String subtaskType,
+            final String providerType) {
+        if (providerType == null) {
+            return null;
+        }
+        switch (subtaskType) {
+        case "HARVEST":
+        case "UNHARVEST":
+            if ("PoolParty".equals(providerType)) {
+                return POOLPARTY;
+            }
+            if ("Sesame".equals(providerType)) {
+                return SESAME;
+            }
+            return null;
+        case "TRANSFORM":
+        case "UNTRANSFORM":
+            if (providerType.startsWith("Sesame")) {
+                return SESAME;
+            }
+            return CPU_TRANSFORM;
+        case "IMPORT":
+        case "UNIMPORT":
+            return SESAME;
+        case "PUBLISH":
+        case "UNPUBLISH":
+            return SISSVOC_FS;
+        default:
+            return null;
+        }
+    }
+
+    /** Take a permit from a pool, waiting until one is given.
+     * While waiting, the task can be cancelled.
+     * @param poolName The name of the pool, or null, for a subtask
+     *      that does not use a pool.
+     * @param priority The priority class of the task; see
+     *      {@link TaskPriority}.
+     * @param control The control for cancellation and time budgets
+     *      of the task.
+     * @return The permit. The caller must close it when the subtask
+     *      has finished.
+     * @throws TaskCancelledException If the task is cancelled
+     *      while waiting.
+     */
+    public static Permit acquire(final String poolName,
+            final int priority, final TaskControl control) {
+        long start = System.currentTimeMillis();
+        PriorityScheduler pool = getPool(poolName);
+        if (pool == null) {
+            return new Permit(poolName, null, 0);
+        }
+        try {
+            pool.acquire(priority, control);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TaskCancelledException("Interrupted while waiting "
+                    + "for resource pool " + poolName);
+        }
+        long waited = System.currentTimeMillis() - start;
+        if (waited >= LOG_WAIT_THRESHOLD) {
+            LOGGER.info("Waited " + waited + " ms for resource pool "
+                    + poolName + " at priority "
+                    + TaskPriority.getName(priority));
+        }
+        return new Permit(poolName, pool, waited);
+    }
+
+    /** Get the number of subtasks waiting for a permit, by pool
+     * and priority class. Only pools that have been used are
+     * included.
+     * @return The number of waiting subtasks, keyed by the name of
+     *      the pool, and then by the name of the priority class.
+     */
+    public static Map<String, Map<String, Integer>> getQueueDepths() {
+        Map<String, Map<String, Integer>> depths =
+                new TreeMap<String, Map<String, Integer>>();
+        for (Map.Entry<String, PriorityScheduler> entry
+                : POOLS.entrySet()) {
+            depths.put(entry.getKey(), entry.getValue().getQueueDepths());
+        }
+        return depths;
+    }
+
+    /** Get a pool, creating it if necessary.
+     * @param poolName The name of the pool, or null.
+     * @return The pool, or null, if poolName is null, or the pool
+     *      has no limit.
+     */
+    private static PriorityScheduler getPool(final String poolName) {
+        if (poolName == null) {
+            return null;
+        }
+        int size = getSize(poolName);
+        if (size <= 0) {
+            return null;
+        }
+        return POOLS.computeIfAbsent(poolName,
+                k -> new PriorityScheduler(size, getAgingInterval()));
+    }
+
+    /** Get the configured aging interval of the pools.
+     * @return The aging interval, in milliseconds.
+     */
+    private static long getAgingInterval() {
+        return MS_PER_SECOND * Integer.parseInt(ToolkitProperties.getProperty(
+                PropertyConstants.TOOLKIT_SCHEDULERAGINGINTERVAL,
+                Integer.toString(DEFAULT_AGING_INTERVAL)));
+    }
+
+    /** Get the configured size of a pool.
+     * @param poolName The name of the pool.
+     * @return The size of the pool; zero or less means no limit.
+     */
+    private static int getSize(final String poolName) {
+        int defaultSize;
+        switch (poolName) {
+        case POOLPARTY:
+            defaultSize = DEFAULT_POOLPARTY_SIZE;
+            break;
+        case SESAME:
+            defaultSize = DEFAULT_SESAME_SIZE;
+            break;
+        case SISSVOC_FS:
+            defaultSize = DEFAULT_SISSVOC_FS_SIZE;
+            break;
+        case CPU_TRANSFORM:
+            defaultSize = Runtime.getRuntime().availableProcessors();
+            break;
+        default:
+            defaultSize = 0;
+            break;
+        }
+        String value = ToolkitProperties.getProperty(
+                PropertyConstants.TOOLKIT_BULKHEAD_PREFIX + poolName,
+                Integer.toString(defaultSize));
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            LOGGER.error("Invalid size for resource pool " + poolName
+                    + ": " + value);
+            return defaultSize;
+        }
+    }
+
+    /** A permit taken from a pool. Closing the permit returns it
+     * to the pool. */
+    public static final class Permit implements AutoCloseable {
+
+        /** The name of the pool, or null. */
+        private final String poolName;
+
+        /** The pool, or null, if there is no limit. */
+        private PriorityScheduler pool;
+
+        /** How long the subtask waited for the permit,
+         * in milliseconds. */
+        private final long waitMillis;
+
+        /** Constructor.
+         * @param aPoolName The name of the pool, or null.
+         * @param aPool The pool, or null, if there is no limit.
+         * @param aWaitMillis How long the subtask waited for the permit,
+         *      in milliseconds.
+         */
+        Permit(final String aPoolName, final PriorityScheduler aPool,
+                final long aWaitMillis) {
+            poolName = aPoolName;
+            pool = aPool;
+            waitMillis = aWaitMillis;
+        }
+
+        /** Get the name of the pool.
+         * @return The name of the pool, or null, if the subtask
+         *      does not use a pool.
+         */
+        public String getPoolName() {
+            return poolName;
+        }
+
+        /** Get how long the subtask waited for the permit.
+         * @return The wait, in milliseconds.
+         */
+        public long getWaitMillis() {
+            return waitMillis;
+        }
+
+        /** Return the permit to its pool. Closing a permit more
+         * than once has no further effect. */
+        @Override
+        public void close() {
+            if (pool != null) {
+                pool.release();
+                pool = null;
+            }
+        }
+    }
+
+}
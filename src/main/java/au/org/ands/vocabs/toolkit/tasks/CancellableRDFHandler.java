@@ -0,0 +1,125 @@
+/** See the file "LICENSE" for the full license governing this code. */
+package au.org.ands.vocabs.toolkit.tasks;
+
+import org.openrdf.model.Statement;
+import org.openrdf.rio.RDFHandler;
+import org.openrdf.rio.RDFHandlerException;
+
+/** RDF handler that passes everything through to another handler,
+ * and regularly calls {@link TaskControl#checkpoint()}, so that
+ * parsing or query evaluation stops promptly when a task is
+ * cancelled or runs out of time. The number of statements handled
+ * is reported to a {@link ProgressListener}. */
+public final class CancellableRDFHandler implements RDFHandler {
+
+    /** The number of statements between calls to
+     * {@link TaskControl#checkpoint()}. */
+    private static final int CHECK_INTERVAL = 1000;
+
+    /** The handler to which everything is passed. */
+    private final RDFHandler handler;
+
+    /** The control of the task. */
+    private final TaskControl control;
+
+    /** The listener to which the number of statements is reported. */
+    private final ProgressListener listener;
+
+    /** The name of the counter to which the number of statements
+     * is added. */
+    private final String counter;
+
+    /** The number of statements handled so far. */
+    private long count;
+
+    /** The number of statements handled, but not yet reported. */
+    private long unreported;
+
+    /** Constructor. The number of statements handled is
+     * not reported.
+     * @param aHandler The handler to which everything is passed.
+     * @param aControl The control of the task.
+     */
+    public CancellableRDFHandler(final RDFHandler aHandler,
+            final TaskControl aControl) {
+        this(aHandler, aControl, ProgressListener.NONE, null);
+    }
+
+    /** Constructor.
+     * @param aHandler The handler to which everything is passed.
+     * @param aControl The control of the task.
+     * @param aListener The listener to which the number of statements
+     *      handled is reported.
+     * @param aCounter The name of the counter to which the number
+     *      of statements is added, e.g.,
+     *      {@link ProgressListener#STATEMENTS_PARSED}.
+     */
+    public CancellableRDFHandler(final RDFHandler aHandler,
+            final TaskControl aControl, final ProgressListener aListener,
+            final String aCounter) {
+        handler = aHandler;
+        control = aControl;
+        listener = aListener;
+        counter = aCounter;
+    }
+
+    /** Constructor for use by providers. The number of statements
+     * handled is reported to the task's progress listener.
+     * @param aHandler The handler to which everything is passed.
+     * @param taskInfo The TaskInfo object of the task.
+     * @param aCounter The name of the counter to which the number
+     *      of statements is added, e.g.,
+     *      {@link ProgressListener#STATEMENTS_PARSED}.
+     */
+    public CancellableRDFHandler(final RDFHandler aHandler,
+            final TaskInfo taskInfo, final String aCounter) {
+        this(aHandler, taskInfo.getControl(),
+                taskInfo.getProgressListener(), aCounter);
+    }
+
+    @Override
+    public void startRDF() throws RDFHandlerException {
+        control.checkpoint();
+        handler.startRDF();
+    }
+
+    @Override
+    public void endRDF() throws RDFHandlerException {
+        control.checkpoint();
+        handler.endRDF();
+        report();
+    }
+
+    @Override
+    public void handleNamespace(final String prefix, final String uri)
+            throws RDFHandlerException {
+        handler.handleNamespace(prefix, uri);
+    }
+
+    @Override
+    public void handleStatement(final Statement st)
+            throws RDFHandlerException {
+        count++;
+        unreported++;
+        if (count % CHECK_INTERVAL == 0) {
+            control.checkpoint();
+            report();
+        }
+        handler.handleStatement(st);
+    }
+
+    @Override
+    public void handleComment(final String comment)
+            throws RDFHandlerException {
+        handler.handleComment(comment);
+    }
+
+    /** Report the statements handled since the last report. */
+    private void report() {
+        if (counter != null && unreported > 0) {
+            listener.increment(counter, unreported);
+        }
+        unreported = 0;
+    }
+
+}
@@ -0,0 +1,146 @@
+/** See the file "LICENSE" for the full license governing this code. */
+package au.org.ands.vocabs.toolkit.tasks;
+
+import java.lang.invoke.MethodHandles;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import au.org.ands.vocabs.toolkit.db.TaskLeaseUtils;
+
+/** Renewal of the leases and locks held in the database by
+ * running tasks. Leases are renewed at a third of their duration.
+ * If a lease cannot be renewed, because another node has taken it
+ * over, or the task has been cancelled in the database, the task
+ * that held it is cancelled.
+ */
+public final class LeaseHeartbeat {
+
+    /** Logger for this class. */
+    private static final Logger LOGGER = LoggerFactory.getLogger(
+            MethodHandles.lookup().lookupClass());
+
+    /** The number of renewals in each lease duration. */
+    private static final int RENEWALS_PER_DURATION = 3;
+
+    /** The leases being renewed. */
+    private static final Set<Lease> LEASES =
+            ConcurrentHashMap.newKeySet();
+
+    /** Executor that renews the leases. Created on first use. */
+    private static ScheduledExecutorService executor;
+
+    /** Private constructor for a utility class. */
+    private LeaseHeartbeat() {
+    }
+
+    /** Start renewing a lease.
+     * @param description A description of the lease, for logging.
+     * @param renewal Renews the lease; returns false if the lease
+     *      could not be renewed.
+     * @param control The control of the task that holds the lease.
+     * @return A handle, to be passed to {@link #remove(Object)}
+     *      when the lease is released.
+     */
+    public static Object add(final String description,
+            final BooleanSupplier renewal, final TaskControl control) {
+        Lease lease = new Lease(description, renewal, control);
+        LEASES.add(lease);
+        synchronized (LEASES) {
+            if (executor == null) {
+                startExecutor();
+            }
+        }
+        return lease;
+    }
+
+    /** Stop renewing a lease.
+     * @param handle The handle returned by {@link #add}.
+     */
+    public static void remove(final Object handle) {
+        LEASES.remove(handle);
+    }
+
+    /** Stop renewing leases. The leases will expire.
+     * Call this only in webapp context shutdown! */
+    public static void doShutdown() {
+        synchronized (LEASES) {
+            if (executor != null) {
+                executor.shutdownNow();
+                executor = null;
+            }
+        }
+    }
+
+    /** Renew all leases. */
+    private static void renewAll() {
+        for (Lease lease : LEASES) {
+            boolean renewed;
+            try {
+                renewed = lease.renewal.getAsBoolean();
+            } catch (RuntimeException e) {
+                // Perhaps a transient database problem. Try again
+                // next time; the lease may yet be renewed in time.
+                LOGGER.error("Exception renewing " + lease.description, e);
+                continue;
+            }
+            if (!renewed && LEASES.remove(lease)) {
+                lease.control.cancel("Lost " + lease.description);
+            }
+        }
+    }
+
+    /** Start the executor that renews leases.
+     * Must be called while synchronized on {@link #LEASES}. */
+    private static void startExecutor() {
+        long interval = TaskLeaseUtils.getLeaseDuration()
+                / RENEWALS_PER_DURATION;
+        executor = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(final Runnable r) {
+                        Thread thread = new Thread(r, "LeaseHeartbeat");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                renewAll();
+            } }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /** A lease being renewed. */
+    private static final class Lease {
+
+        /** A description of the lease, for logging. */
+        private final String description;
+
+        /** Renews the lease. */
+        private final BooleanSupplier renewal;
+
+        /** The control of the task that holds the lease. */
+        private final TaskControl control;
+
+        /** Constructor.
+         * @param aDescription A description of the lease.
+         * @param aRenewal Renews the lease.
+         * @param aControl The control of the task that holds the lease.
+         */
+        Lease(final String aDescription, final BooleanSupplier aRenewal,
+                final TaskControl aControl) {
+            description = aDescription;
+            renewal = aRenewal;
+            control = aControl;
+        }
+    }
+
+}
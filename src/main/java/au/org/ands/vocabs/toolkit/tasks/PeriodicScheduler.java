@@ -0,0 +1,369 @@
+/** See the file "LICENSE" for the full license governing this code. */
+package au.org.ands.vocabs.toolkit.tasks;
+
+import java.lang.invoke.MethodHandles;
+import java.time.ZonedDateTime;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+
+import au.org.ands.vocabs.toolkit.db.TaskStatusJournal;
+import au.org.ands.vocabs.toolkit.db.TaskUtils;
+import au.org.ands.vocabs.toolkit.db.VersionUtils;
+import au.org.ands.vocabs.toolkit.db.model.Task;
+import au.org.ands.vocabs.toolkit.db.model.Version;
+import au.org.ands.vocabs.toolkit.provider.backup.PoolPartyBackupProvider;
+import au.org.ands.vocabs.toolkit.restlet.Download;
+import au.org.ands.vocabs.toolkit.utils.CronExpression;
+import au.org.ands.vocabs.toolkit.utils.PropertyConstants;
+import au.org.ands.vocabs.toolkit.utils.ToolkitFileUtils;
+import au.org.ands.vocabs.toolkit.utils.ToolkitProperties;
+
+/** Scheduler of periodic jobs run inside the Toolkit web application.
+ * Each job is enabled by setting its property to a schedule in the
+ * format of a crontab entry (see {@link CronExpression}). The jobs are:
+ * <ul>
+ *   <li>backup ({@link PropertyConstants#TOOLKIT_SCHEDULEBACKUP}):
+ *     back up all PoolParty projects, as done by
+ *     {@link PoolPartyBackupProvider#main(String[])}.</li>
+ *   <li>reharvest ({@link PropertyConstants#TOOLKIT_SCHEDULEREHARVEST}):
+ *     run again the most recent task of each current version, if that
+ *     task harvested the version and succeeded, and the version
+ *     has no unfinished task.</li>
+ *   <li>warmup ({@link PropertyConstants#TOOLKIT_SCHEDULEWARMUP}):
+ *     fill the download cache; see
+ *     {@link Download#warmDownloadCache()}.</li>
+ * </ul>
+ * A run of a job is never started while the previous run of the
+ * same job is still going; a run that would start then is skipped.
+ * Jobs are run by each node on which they are enabled, so if several
+ * nodes share the database, enable them on only one node.
+ */
+public final class PeriodicScheduler {
+
+    /** Logger for this class. */
+    private static final Logger LOGGER = LoggerFactory.getLogger(
+            MethodHandles.lookup().lookupClass());
+
+    /** Default time to wait for running jobs to finish on shutdown,
+     * in seconds. */
+    private static final int DEFAULT_DRAIN_TIMEOUT = 30;
+
+    /** Number of milliseconds in a second. */
+    private static final long MS_PER_SECOND = 1000;
+
+    /** The jobs that are enabled, keyed by name. */
+    private static final Map<String, Job> JOBS =
+            new LinkedHashMap<String, Job>();
+
+    /** Set when the scheduler is shutting down, so that jobs that
+     * work through many items can stop early. */
+    private static volatile boolean stopping;
+
+    /** Executor that runs the jobs. Null, if the scheduler
+     * is not running. */
+    private static ScheduledExecutorService executor;
+
+    /** Private constructor for a utility class. */
+    private PeriodicScheduler() {
+    }
+
+    /** Start the scheduler, if any jobs are enabled.
+     * Call this only in webapp context initialization! */
+    public static synchronized void start() {
+        if (executor != null) {
+            return;
+        }
+        JOBS.clear();
+        addJob("backup", PropertyConstants.TOOLKIT_SCHEDULEBACKUP,
+                PeriodicScheduler::backup);
+        addJob("reharvest", PropertyConstants.TOOLKIT_SCHEDULEREHARVEST,
+                PeriodicScheduler::reharvest);
+        addJob("warmup", PropertyConstants.TOOLKIT_SCHEDULEWARMUP,
+                PeriodicScheduler::warmup);
+        if (JOBS.isEmpty()) {
+            return;
+        }
+        stopping = false;
+        ScheduledThreadPoolExecutor newExecutor =
+                new ScheduledThreadPoolExecutor(JOBS.size(),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(final Runnable r) {
+                        Thread thread = new Thread(r, "PeriodicScheduler");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        // On shutdown, drop the runs that have not yet started.
+        newExecutor.setExecuteExistingDelayedTasksAfterShutdownPolicy(
+                false);
+        executor = newExecutor;
+        for (Job job : JOBS.values()) {
+            scheduleNext(job);
+        }
+    }
+
+    /** Stop the scheduler. No more runs of jobs are started, and
+     * runs that are in progress are given time to finish, as set
+     * by the property
+     * {@link PropertyConstants#TOOLKIT_SCHEDULEDRAINTIMEOUT}.
+     * Runs that have not finished by then are interrupted.
+     * Call this only in webapp context shutdown! */
+    public static void doShutdown() {
+        ScheduledExecutorService draining;
+        // Don't hold the lock while draining, as running jobs
+        // take it to schedule their next runs.
+        synchronized (PeriodicScheduler.class) {
+            if (executor == null) {
+                return;
+            }
+            draining = executor;
+            executor = null;
+            stopping = true;
+            draining.shutdown();
+        }
+        int drainTimeout = Integer.parseInt(ToolkitProperties.getProperty(
+                PropertyConstants.TOOLKIT_SCHEDULEDRAINTIMEOUT,
+                Integer.toString(DEFAULT_DRAIN_TIMEOUT)));
+        try {
+            if (!draining.awaitTermination(drainTimeout, TimeUnit.SECONDS)) {
+                LOGGER.warn("Scheduled jobs still running after "
+                        + drainTimeout + " s; interrupting them");
+                draining.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            draining.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Get the state of the enabled jobs.
+     * @return For each enabled job, keyed by name, its schedule,
+     *      whether it is running, and the time of its next run.
+     */
+    public static synchronized Map<String, Object> getJobs() {
+        Map<String, Object> jobs = new LinkedHashMap<String, Object>();
+        for (Job job : JOBS.values()) {
+            Map<String, Object> state = new LinkedHashMap<String, Object>();
+            state.put("schedule", job.schedule.toString());
+            state.put("running", job.running.get());
+            state.put("next_run", String.valueOf(job.nextRun));
+            jobs.put(job.name, state);
+        }
+        return jobs;
+    }
+
+    /** Add a job, if it is enabled.
+     * @param name The name of the job.
+     * @param property The name of the property that sets the schedule
+     *      of the job.
+     * @param action What the job does.
+     */
+    private static void addJob(final String name, final String property,
+            final Runnable action) {
+        String schedule = ToolkitProperties.getProperty(property, "").trim();
+        if (schedule.isEmpty()) {
+            return;
+        }
+        try {
+            JOBS.put(name, new Job(name, new CronExpression(schedule),
+                    action));
+            LOGGER.info("Scheduled job " + name + ": " + schedule);
+        } catch (IllegalArgumentException e) {
+            LOGGER.error("Scheduled job " + name + " not enabled", e);
+        }
+    }
+
+    /** Schedule the next run of a job.
+     * @param job The job.
+     */
+    private static synchronized void scheduleNext(final Job job) {
+        if (executor == null) {
+            return;
+        }
+        ZonedDateTime next = job.schedule.next(ZonedDateTime.now());
+        job.nextRun = next;
+        if (next == null) {
+            LOGGER.warn("Scheduled job " + job.name + " will never run");
+            return;
+        }
+        long delay = next.toInstant().toEpochMilli()
+                - System.currentTimeMillis();
+        executor.schedule(() -> run(job), Math.max(delay, 0),
+                TimeUnit.MILLISECONDS);
+    }
+
+    /** Run a job, unless its previous run has not finished, and
+     * schedule its next run.
+     * @param job The job.
+     */
+    private static void run(final Job job) {
+        // The next run is scheduled before this one starts, so that
+        // a long run does not delay the schedule; if this run is
+        // still going at that time, that run is skipped.
+        scheduleNext(job);
+        if (!job.running.compareAndSet(false, true)) {
+            LOGGER.warn("Scheduled job " + job.name + " skipped, because "
+                    + "its previous run has not finished");
+            return;
+        }
+        long start = System.currentTimeMillis();
+        LOGGER.info("Starting scheduled job " + job.name);
+        try {
+            job.action.run();
+            LOGGER.info("Finished scheduled job " + job.name + " in "
+                    + (System.currentTimeMillis() - start) / MS_PER_SECOND
+                    + " s");
+        } catch (RuntimeException e) {
+            LOGGER.error("Exception in scheduled job " + job.name, e);
+        } finally {
+            job.running.set(false);
+        }
+    }
+
+    /** Back up all PoolParty projects. */
+    private static void backup() {
+        HashMap<String, Object> results =
+                new PoolPartyBackupProvider().backup(null);
+        if (results.containsKey(TaskStatus.EXCEPTION)) {
+            LOGGER.error("Scheduled backup: "
+                    + results.get(TaskStatus.EXCEPTION));
+        }
+    }
+
+    /** Re-harvest the current versions whose most recent task
+     * harvested them and succeeded. Versions that have an unfinished
+     * task are skipped, as are versions whose most recent task
+     * only removed data. */
+    private static void reharvest() {
+        int count = 0;
+        for (Version version : VersionUtils.getAllVersions()) {
+            if (stopping) {
+                LOGGER.info("Scheduled re-harvest stopped after "
+                        + count + " versions");
+                return;
+            }
+            if (!"current".equalsIgnoreCase(version.getStatus())) {
+                continue;
+            }
+            Task latest = getLatestTask(version.getId());
+            if (latest == null
+                    || !TaskStatus.SUCCESS.equals(latest.getStatus())
+                    || !harvests(latest)) {
+                continue;
+            }
+            Task task = new Task();
+            task.setVocabularyId(latest.getVocabularyId());
+            task.setVersionId(latest.getVersionId());
+            task.setParams(latest.getParams());
+            TaskUtils.saveTask(task);
+            runTask(task);
+            count++;
+        }
+        LOGGER.info("Scheduled re-harvest ran " + count + " tasks");
+    }
+
+    /** Get the most recent task of a version, if none of the tasks
+     * of the version is unfinished.
+     * @param versionId The id of the version.
+     * @return The most recent task, or null, if the version has no
+     *      tasks, or has a task that has not finished.
+     */
+    private static Task getLatestTask(final int versionId) {
+        if (TaskUtils.hasUnfinishedTask(versionId)) {
+            return null;
+        }
+        return TaskUtils.getLatestTaskOfVersion(versionId);
+    }
+
+    /** Decide whether a task harvests its version.
+     * @param task The task.
+     * @return True, iff the task has a HARVEST subtask.
+     */
+    private static boolean harvests(final Task task) {
+        ArrayNode subtasks = TaskUtils.getSubtasks(task.getParams());
+        if (subtasks == null) {
+            return false;
+        }
+        for (JsonNode subtask : subtasks) {
+            JsonNode type = subtask.get("type");
+            if (type != null && "HARVEST".equalsIgnoreCase(type.asText())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Run a task created by a scheduled job, with batch priority.
+     * @param task The task, which has been saved.
+     */
+    private static void runTask(final Task task) {
+        TaskInfo taskInfo = ToolkitFileUtils.getTaskInfo(task.getId());
+        if (taskInfo == null) {
+            HashMap<String, String> results = new HashMap<String, String>();
+            results.put("runTask", "Unable to get all task details for"
+                    + " task with id " + task.getId());
+            TaskStatusJournal.record(task, TaskStatus.ERROR, results);
+            return;
+        }
+        taskInfo.setPriority(TaskPriority.compute(taskInfo, true));
+        try {
+            new TaskRunner(taskInfo).runTask();
+        } catch (RuntimeException e) {
+            LOGGER.error("Exception running scheduled task "
+                    + task.getId(), e);
+        }
+    }
+
+    /** Fill the download cache. */
+    private static void warmup() {
+        int added = new Download().warmDownloadCache();
+        LOGGER.info("Scheduled warm-up cached " + added
+                + " download descriptors");
+    }
+
+    /** A periodic job. */
+    private static final class Job {
+
+        /** The name of the job. */
+        private final String name;
+
+        /** The schedule of the job. */
+        private final CronExpression schedule;
+
+        /** What the job does. */
+        private final Runnable action;
+
+        /** Whether a run of the job is in progress. */
+        private final AtomicBoolean running = new AtomicBoolean();
+
+        /** The time of the next run of the job, or null, if there
+         * is none. */
+        private volatile ZonedDateTime nextRun;
+
+        /** Constructor.
+         * @param aName The name of the job.
+         * @param aSchedule The schedule of the job.
+         * @param anAction What the job does.
+         */
+        Job(final String aName, final CronExpression aSchedule,
+                final Runnable anAction) {
+            name = aName;
+            schedule = aSchedule;
+            action = anAction;
+        }
+    }
+
+}
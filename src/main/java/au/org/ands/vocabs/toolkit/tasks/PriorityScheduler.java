@@ -0,0 +1,158 @@
+/** See the file "LICENSE" for the full license governing this code. */
+package au.org.ands.vocabs.toolkit.tasks;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/** A pool of permits that are given to waiting tasks in order of
+ * priority, rather than in order of arrival. See
+ * {@link TaskPriority} for the priority classes.
+ *
+ * So that tasks of low priority are not starved by a steady stream
+ * of tasks of higher priority, waiting tasks age: for each aging
+ * interval that a task has waited, it is treated as being one
+ * priority class higher. Among tasks treated as having the same
+ * priority, the task that arrived first is given a permit first.
+ */
+public final class PriorityScheduler {
+
+    /** How long to wait for a permit before checking whether
+     * the waiting task has been cancelled, in milliseconds. */
+    private static final long POLL_INTERVAL = 1000;
+
+    /** The number of permits. */
+    private final int size;
+
+    /** The aging interval, in milliseconds. */
+    private final long agingInterval;
+
+    /** The number of permits in use. Guarded by this. */
+    private int inUse;
+
+    /** The tasks waiting for a permit, in order of arrival.
+     * Guarded by this. */
+    private final List<Waiter> waiters = new ArrayList<Waiter>();
+
+    /** Constructor.
+     * @param aSize The number of permits.
+     * @param anAgingInterval The aging interval, in milliseconds.
+     */
+    public PriorityScheduler(final int aSize, final long anAgingInterval) {
+        size = aSize;
+        agingInterval = anAgingInterval;
+    }
+
+    /** Take a permit, waiting until one is given.
+     * While waiting, the task can be cancelled.
+     * @param priority The priority class of the task.
+     * @param control The control for cancellation and time budgets
+     *      of the task.
+     * @throws InterruptedException If interrupted while waiting.
+     * @throws TaskCancelledException If the task is cancelled
+     *      while waiting.
+     */
+    public synchronized void acquire(final int priority,
+            final TaskControl control) throws InterruptedException {
+        if (inUse < size && waiters.isEmpty()) {
+            inUse++;
+            return;
+        }
+        Waiter waiter = new Waiter(priority);
+        waiters.add(waiter);
+        try {
+            while (!waiter.granted) {
+                wait(POLL_INTERVAL);
+                if (!waiter.granted) {
+                    control.checkpoint();
+                }
+            }
+        } catch (InterruptedException | RuntimeException e) {
+            if (waiter.granted) {
+                release();
+            } else {
+                waiters.remove(waiter);
+            }
+            throw e;
+        }
+    }
+
+    /** Return a permit, and give it to the waiting task with the
+     * highest priority, if there is one. */
+    public synchronized void release() {
+        inUse--;
+        long now = System.currentTimeMillis();
+        while (inUse < size && !waiters.isEmpty()) {
+            Waiter best = null;
+            long bestPriority = Long.MAX_VALUE;
+            // Waiters are in order of arrival, so the first of those
+            // with equal effective priority is chosen.
+            for (Waiter waiter : waiters) {
+                long effective = waiter.getEffectivePriority(now);
+                if (effective < bestPriority) {
+                    best = waiter;
+                    bestPriority = effective;
+                }
+            }
+            waiters.remove(best);
+            best.granted = true;
+            inUse++;
+        }
+        notifyAll();
+    }
+
+    /** Get the number of tasks waiting for a permit, by priority
+     * class. The counts are by the priority class of each task,
+     * not including aging.
+     * @return The number of waiting tasks, keyed by the name of
+     *      the priority class.
+     */
+    public synchronized Map<String, Integer> getQueueDepths() {
+        Map<String, Integer> depths = new LinkedHashMap<String, Integer>();
+        for (int i = 0; i < TaskPriority.getClassCount(); i++) {
+            depths.put(TaskPriority.getName(i), 0);
+        }
+        for (Waiter waiter : waiters) {
+            depths.merge(TaskPriority.getName(waiter.priority),
+                    1, Integer::sum);
+        }
+        return depths;
+    }
+
+    /** A task waiting for a permit. */
+    private final class Waiter {
+
+        /** The priority class of the task. */
+        private final int priority;
+
+        /** When the task started waiting, as a value of
+         * System.currentTimeMillis(). */
+        private final long since = System.currentTimeMillis();
+
+        /** Whether the task has been given a permit. Guarded by the
+         * enclosing scheduler. */
+        private boolean granted;
+
+        /** Constructor.
+         * @param aPriority The priority class of the task.
+         */
+        Waiter(final int aPriority) {
+            priority = aPriority;
+        }
+
+        /** Get the priority of the task, taking aging into account.
+         * @param now The current time, as a value of
+         *      System.currentTimeMillis().
+         * @return The effective priority of the task; lower values
+         *      are higher priorities.
+         */
+        long getEffectivePriority(final long now) {
+            if (agingInterval <= 0) {
+                return priority;
+            }
+            return priority - (now - since) / agingInterval;
+        }
+    }
+
+}
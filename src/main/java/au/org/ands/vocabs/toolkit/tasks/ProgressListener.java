@@ -0,0 +1,40 @@
+/** See the file "LICENSE" for the full license governing this code. */
+package au.org.ands.vocabs.toolkit.tasks;
+
+/** Receiver of fine-grained progress reports from providers.
+ * Providers get the listener for their task from
+ * {@link TaskInfo#getProgressListener()}, and add to named counters
+ * as they work. Implementations must be cheap to call, and
+ * thread-safe. */
+@FunctionalInterface
+public interface ProgressListener {
+
+    /** Counter of bytes downloaded from remote services. */
+    String BYTES_DOWNLOADED = "bytesDownloaded";
+
+    /** Counter of bytes read from files. */
+    String BYTES_READ = "bytesRead";
+
+    /** Counter of RDF statements parsed. */
+    String STATEMENTS_PARSED = "statementsParsed";
+
+    /** Counter of RDF statements imported into a repository. */
+    String STATEMENTS_IMPORTED = "statementsImported";
+
+    /** Counter of files processed. */
+    String FILES_PROCESSED = "filesProcessed";
+
+    /** Counter of concepts processed. */
+    String CONCEPTS_PROCESSED = "conceptsProcessed";
+
+    /** Listener that ignores all reports. */
+    ProgressListener NONE = (counter, amount) -> { };
+
+    /** Add to a counter.
+     * @param counter The name of the counter, e.g.,
+     *      {@link #STATEMENTS_PARSED}.
+     * @param amount The amount to be added.
+     */
+    void increment(String counter, long amount);
+
+}
@@ -0,0 +1,256 @@
+/** See the file "LICENSE" for the full license governing this code. */
+package au.org.ands.vocabs.toolkit.tasks;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import au.org.ands.vocabs.toolkit.db.TaskUtils;
+import au.org.ands.vocabs.toolkit.utils.ToolkitFileUtils;
+
+/** Record of the successful completion of one subtask of a task.
+ * A checkpoint records the position of the subtask within the task,
+ * a digest of the subtask's inputs, and the results entries
+ * that the subtask added. Checkpoints are stored in the task's
+ * results, under the key {@link #RESULTS_KEY}, so that a later
+ * run of the same task in resume mode can skip subtasks that
+ * have already been done, and whose inputs have not changed since.
+ * As the values of the results entries are already in the task's
+ * results, only their keys are stored in the checkpoints, to keep
+ * the task's response small.
+ */
+public final class SubtaskCheckpoint {
+
+    /** Logger for this class. */
+    private static final Logger LOGGER = LoggerFactory.getLogger(
+            MethodHandles.lookup().lookupClass());
+
+    /** Key of the results entry used to store checkpoints. */
+    public static final String RESULTS_KEY = "checkpoints";
+
+    /** Radix used to convert digests to strings. */
+    private static final int HEX_RADIX = 16;
+
+    /** The position of the subtask within the task's list of subtasks,
+     * counting from 0. */
+    private final int index;
+
+    /** The subtask type, e.g., "HARVEST". */
+    private final String type;
+
+    /** The digest of the subtask's inputs. */
+    private final String digest;
+
+    /** The results entries added or changed by the subtask. */
+    private final Map<String, String> outputs;
+
+    /** Constructor.
+     * @param anIndex The position of the subtask within the task.
+     * @param aType The subtask type.
+     * @param aDigest The digest of the subtask's inputs.
+     * @param anOutputs The results entries added or changed by
+     *      the subtask.
+     */
+    public SubtaskCheckpoint(final int anIndex, final String aType,
+            final String aDigest, final Map<String, String> anOutputs) {
+        index = anIndex;
+        type = aType;
+        digest = aDigest;
+        outputs = new TreeMap<String, String>(anOutputs);
+    }
+
+    /** Get the position of the subtask within the task.
+     * @return The position of the subtask, counting from 0.
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /** Get the subtask type.
+     * @return The subtask type.
+     */
+    public String getType() {
+        return type;
+    }
+
+    /** Get the digest of the subtask's inputs.
+     * @return The digest of the subtask's inputs.
+     */
+    public String getDigest() {
+        return digest;
+    }
+
+    /** Get the results entries added or changed by the subtask.
+     * @return The results entries.
+     */
+    public Map<String, String> getOutputs() {
+        return outputs;
+    }
+
+    /** Does this checkpoint still describe the subtask? That is,
+     * is it for the same position and type, with the same input digest,
+     * and do any output files it recorded still exist?
+     * @param anIndex The position of the subtask within the task.
+     * @param aType The subtask type.
+     * @param aDigest The current digest of the subtask's inputs.
+     * @return True, iff the subtask need not be run again.
+     */
+    public boolean isValidFor(final int anIndex, final String aType,
+            final String aDigest) {
+        if (index != anIndex || !type.equals(aType)
+                || !digest.equals(aDigest)) {
+            return false;
+        }
+        for (String value : outputs.values()) {
+            if (value.startsWith(File.separator)
+                    && !Files.exists(Paths.get(value))) {
+                LOGGER.debug("Checkpoint output no longer exists: " + value);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Compute the digest of the inputs of a subtask. The inputs
+     * are the subtask specification itself and, for subtasks other
+     * than harvests, the names, sizes, and modification times of the
+     * files in the task's harvest directory.
+     * @param taskInfo The TaskInfo object for the task.
+     * @param subtask The subtask specification.
+     * @return The digest, as a hexadecimal string.
+     */
+    public static String computeDigest(final TaskInfo taskInfo,
+            final JsonNode subtask) {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // SHA-256 is required to be supported by every JVM.
+            throw new IllegalStateException(e);
+        }
+        md.update(subtask.toString().getBytes(StandardCharsets.UTF_8));
+        JsonNode type = subtask.get("type");
+        if (type == null || !type.asText().endsWith("HARVEST")) {
+            Path harvestPath = Paths.get(
+                    ToolkitFileUtils.getTaskHarvestOutputPath(taskInfo));
+            if (Files.isDirectory(harvestPath)) {
+                try (Stream<Path> files = Files.walk(harvestPath)) {
+                    for (Path file : files.filter(Files::isRegularFile).
+                            sorted().collect(Collectors.toList())) {
+                        md.update((harvestPath.relativize(file).toString()
+                                + "|" + Files.size(file)
+                                + "|" + Files.getLastModifiedTime(file).
+                                    toMillis() + "\n").
+                                getBytes(StandardCharsets.UTF_8));
+                    }
+                } catch (IOException e) {
+                    LOGGER.error("Unable to list harvest directory for "
+                            + "checkpoint digest: " + harvestPath, e);
+                    // Make the digest unique, so that it can't match.
+                    md.update(Long.toString(System.nanoTime()).
+                            getBytes(StandardCharsets.UTF_8));
+                }
+            }
+        }
+        // Leading zeros are dropped, but that doesn't matter, as
+        // digests are only ever compared with each other.
+        return new BigInteger(1, md.digest()).toString(HEX_RADIX);
+    }
+
+    /** Convert a list of checkpoints to a String in JSON format,
+     * suitable for storing in the task results.
+     * @param checkpoints The list of checkpoints.
+     * @return The checkpoints in JSON format.
+     */
+    public static String toJSONString(
+            final List<SubtaskCheckpoint> checkpoints) {
+        ArrayNode array = JsonNodeFactory.instance.arrayNode();
+        for (SubtaskCheckpoint checkpoint : checkpoints) {
+            ObjectNode node = array.addObject();
+            node.put("index", checkpoint.index);
+            node.put("type", checkpoint.type);
+            node.put("digest", checkpoint.digest);
+            ArrayNode outputsNode = node.putArray("outputs");
+            for (String key : checkpoint.outputs.keySet()) {
+                outputsNode.add(key);
+            }
+        }
+        return array.toString();
+    }
+
+    /** Get the checkpoints stored in a task response. The values
+     * of the checkpoints' results entries are taken from the response.
+     * @param response The task response, in JSON format, as stored
+     *      in the database. May be null.
+     * @return The list of checkpoints. If the response contains
+     *      no checkpoints, or is not valid, the list is empty.
+     */
+    public static List<SubtaskCheckpoint> fromTaskResponse(
+            final String response) {
+        List<SubtaskCheckpoint> checkpoints =
+                new ArrayList<SubtaskCheckpoint>();
+        if (response == null || response.isEmpty()) {
+            return checkpoints;
+        }
+        JsonNode responseJson = TaskUtils.jsonStringToTree(response);
+        if (responseJson == null || !responseJson.has(RESULTS_KEY)) {
+            return checkpoints;
+        }
+        JsonNode array = TaskUtils.jsonStringToTree(
+                responseJson.get(RESULTS_KEY).asText());
+        if (array == null || !array.isArray()) {
+            return checkpoints;
+        }
+        for (JsonNode node : array) {
+            Map<String, String> nodeOutputs = new TreeMap<String, String>();
+            JsonNode outputsNode = node.path("outputs");
+            if (outputsNode.isArray()) {
+                for (JsonNode key : outputsNode) {
+                    JsonNode value = responseJson.get(key.asText());
+                    if (value != null) {
+                        nodeOutputs.put(key.asText(), value.asText());
+                    }
+                }
+            } else {
+                // Checkpoints stored before only the keys were kept.
+                Iterator<Entry<String, JsonNode>> iterator =
+                        outputsNode.fields();
+                while (iterator.hasNext()) {
+                    Entry<String, JsonNode> entry = iterator.next();
+                    nodeOutputs.put(entry.getKey(),
+                            entry.getValue().asText());
+                }
+            }
+            checkpoints.add(new SubtaskCheckpoint(
+                    node.path("index").asInt(-1),
+                    node.path("type").asText(),
+                    node.path("digest").asText(),
+                    nodeOutputs));
+        }
+        return checkpoints;
+    }
+
+}
@@ -0,0 +1,340 @@
+/** See the file "LICENSE" for the full license governing this code. */
+package au.org.ands.vocabs.toolkit.tasks;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/** Record of the time and resources taken by one run of a subtask.
+ * A timing records when the subtask started and ended, the CPU time
+ * and the heap memory allocated by the thread that ran it, the
+ * bytes read and written, and the changes in the progress counters
+ * of the task (see {@link ProgressListener}) while it ran.
+ * Timings are stored in the task's results, under the key
+ * {@link #RESULTS_KEY}, so that the performance of the tasks
+ * of each vocabulary can be compared over time. To keep the task's
+ * response small, only the timings of the last {@link #MAX_STORED}
+ * subtasks run are stored.
+ *
+ * Only the work done by the thread that runs the subtask is
+ * included in the CPU time and allocated bytes. If the JVM
+ * does not support measuring them, they are omitted.
+ */
+public final class SubtaskTiming {
+
+    /** Logger for this class. */
+    private static final Logger LOGGER = LoggerFactory.getLogger(
+            MethodHandles.lookup().lookupClass());
+
+    /** Key of the results entry used to store timings. */
+    public static final String RESULTS_KEY = "timings";
+
+    /** Maximum number of timings stored in the task's results. */
+    public static final int MAX_STORED = 20;
+
+    /** Value used for measurements that are not supported. */
+    private static final long UNSUPPORTED = -1;
+
+    /** Number of milliseconds in a second. */
+    private static final double MILLIS_PER_SECOND = 1000;
+
+    /** The JVM's thread system. */
+    private static final ThreadMXBean THREADS =
+            ManagementFactory.getThreadMXBean();
+
+    /** The position of the subtask within the task's list of subtasks,
+     * counting from 0. */
+    private final int index;
+
+    /** The subtask type, e.g., "HARVEST". */
+    private final String type;
+
+    /** The provider type of the subtask, or null, if the subtask
+     * does not specify one. */
+    private final String provider;
+
+    /** When the subtask started, as a value of
+     * System.currentTimeMillis(). */
+    private final long start;
+
+    /** When the subtask started, as a value of System.nanoTime(). */
+    private final long startNanos;
+
+    /** The CPU time of the thread when the subtask started,
+     * in nanoseconds, or {@link #UNSUPPORTED}. */
+    private final long startCpuTime;
+
+    /** The bytes allocated by the thread when the subtask started,
+     * or {@link #UNSUPPORTED}. */
+    private final long startAllocatedBytes;
+
+    /** The values of the progress counters when the subtask
+     * started. */
+    private final Map<String, Long> startCounters;
+
+    /** When the subtask ended, as a value of
+     * System.currentTimeMillis(). */
+    private long end;
+
+    /** How long the subtask ran, in milliseconds. */
+    private long durationMillis;
+
+    /** The CPU time taken by the subtask, in milliseconds,
+     * or {@link #UNSUPPORTED}. */
+    private long cpuTimeMillis = UNSUPPORTED;
+
+    /** The bytes allocated by the subtask, or {@link #UNSUPPORTED}. */
+    private long allocatedBytes = UNSUPPORTED;
+
+    /** The bytes written to the files of the version by the
+     * subtask. */
+    private long bytesWritten;
+
+    /** The changes in the progress counters while the subtask ran. */
+    private final Map<String, Long> counters = new TreeMap<String, Long>();
+
+    /** Whether the subtask succeeded. */
+    private boolean success;
+
+    /** Constructor. Use {@link #start(int, String, String, TaskProgress)}
+     * to begin the timing of a subtask.
+     * @param anIndex The position of the subtask within the task.
+     * @param aType The subtask type.
+     * @param aProvider The provider type of the subtask, or null.
+     * @param progress The progress channel of the task.
+     */
+    private SubtaskTiming(final int anIndex, final String aType,
+            final String aProvider, final TaskProgress progress) {
+        index = anIndex;
+        type = aType;
+        provider = aProvider;
+        startCounters = progress.getCounters();
+        startCpuTime = getThreadCpuTime();
+        startAllocatedBytes = getThreadAllocatedBytes();
+        start = System.currentTimeMillis();
+        startNanos = System.nanoTime();
+    }
+
+    /** Begin the timing of a subtask. This must be called by the
+     * thread that runs the subtask.
+     * @param anIndex The position of the subtask within the task.
+     * @param aType The subtask type.
+     * @param aProvider The provider type of the subtask, or null,
+     *      if the subtask does not specify one.
+     * @param progress The progress channel of the task.
+     * @return The timing of the subtask.
+     */
+    public static SubtaskTiming start(final int anIndex, final String aType,
+            final String aProvider, final TaskProgress progress) {
+        return new SubtaskTiming(anIndex, aType, aProvider, progress);
+    }
+
+    /** End the timing of the subtask. This must be called by the
+     * thread that ran the subtask.
+     * @param aSuccess Whether the subtask succeeded.
+     * @param progress The progress channel of the task.
+     * @param outputPath The directory of the files of the version,
+     *      used to find the bytes written by the subtask.
+     */
+    public void finish(final boolean aSuccess, final TaskProgress progress,
+            final String outputPath) {
+        durationMillis = TimeUnit.NANOSECONDS.toMillis(
+                System.nanoTime() - startNanos);
+        end = System.currentTimeMillis();
+        success = aSuccess;
+        long cpuTime = getThreadCpuTime();
+        if (cpuTime != UNSUPPORTED && startCpuTime != UNSUPPORTED) {
+            cpuTimeMillis = TimeUnit.NANOSECONDS.toMillis(
+                    cpuTime - startCpuTime);
+        }
+        long allocated = getThreadAllocatedBytes();
+        if (allocated != UNSUPPORTED && startAllocatedBytes != UNSUPPORTED) {
+            allocatedBytes = allocated - startAllocatedBytes;
+        }
+        for (Map.Entry<String, Long> entry
+                : progress.getCounters().entrySet()) {
+            long delta = entry.getValue();
+            Long before = startCounters.get(entry.getKey());
+            if (before != null) {
+                delta -= before;
+            }
+            if (delta != 0) {
+                counters.put(entry.getKey(), delta);
+            }
+        }
+        bytesWritten = getBytesWrittenSince(Paths.get(outputPath), start);
+    }
+
+    /** Get the position of the subtask within the task.
+     * @return The position of the subtask, counting from 0.
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /** Get how long the subtask ran.
+     * @return How long the subtask ran, in milliseconds.
+     */
+    public long getDurationMillis() {
+        return durationMillis;
+    }
+
+    /** Get the bytes allocated by the subtask.
+     * @return The bytes allocated by the thread that ran the subtask,
+     *      or -1, if the JVM does not support measuring them.
+     */
+    public long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    /** Get the changes in the progress counters while the
+     * subtask ran.
+     * @return The changes in the progress counters, keyed by name.
+     *      Counters that did not change are not included.
+     */
+    public Map<String, Long> getCounters() {
+        return counters;
+    }
+
+    /** Get the bytes read by the subtask, from files and remote
+     * services.
+     * @return The bytes read by the subtask.
+     */
+    public long getBytesRead() {
+        return counters.getOrDefault(ProgressListener.BYTES_READ, 0L)
+                + counters.getOrDefault(
+                        ProgressListener.BYTES_DOWNLOADED, 0L);
+    }
+
+    /** Get the bytes written to the files of the version by
+     * the subtask.
+     * @return The bytes written by the subtask.
+     */
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /** Convert a list of timings to a String in JSON format,
+     * suitable for storing in the task results. Only the last
+     * {@link #MAX_STORED} timings are included.
+     * @param timings The list of timings.
+     * @return The timings in JSON format.
+     */
+    public static String toJSONString(final List<SubtaskTiming> timings) {
+        ArrayNode array = JsonNodeFactory.instance.arrayNode();
+        for (SubtaskTiming timing : timings.subList(
+                Math.max(0, timings.size() - MAX_STORED), timings.size())) {
+            ObjectNode node = array.addObject();
+            node.put("index", timing.index);
+            node.put("type", timing.type);
+            if (timing.provider != null) {
+                node.put("provider", timing.provider);
+            }
+            node.put("success", timing.success);
+            node.put("start", Instant.ofEpochMilli(timing.start).toString());
+            node.put("end", Instant.ofEpochMilli(timing.end).toString());
+            node.put("durationMs", timing.durationMillis);
+            if (timing.cpuTimeMillis != UNSUPPORTED) {
+                node.put("cpuTimeMs", timing.cpuTimeMillis);
+            }
+            if (timing.allocatedBytes != UNSUPPORTED) {
+                node.put("allocatedBytes", timing.allocatedBytes);
+            }
+            node.put("bytesRead", timing.getBytesRead());
+            node.put("bytesWritten", timing.bytesWritten);
+            long statements = timing.counters.getOrDefault(
+                    ProgressListener.STATEMENTS_PARSED, 0L)
+                    + timing.counters.getOrDefault(
+                            ProgressListener.STATEMENTS_IMPORTED, 0L);
+            if (statements > 0 && timing.durationMillis > 0) {
+                node.put("statementsPerSecond", Math.round(statements
+                        * MILLIS_PER_SECOND / timing.durationMillis));
+            }
+            ObjectNode countersNode = node.putObject("counters");
+            for (Map.Entry<String, Long> entry
+                    : timing.counters.entrySet()) {
+                countersNode.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return array.toString();
+    }
+
+    /** Get the CPU time of the current thread.
+     * @return The CPU time of the current thread, in nanoseconds,
+     *      or {@link #UNSUPPORTED}, if the JVM does not support
+     *      measuring it.
+     */
+    private static long getThreadCpuTime() {
+        if (THREADS.isCurrentThreadCpuTimeSupported()
+                && THREADS.isThreadCpuTimeEnabled()) {
+            return THREADS.getCurrentThreadCpuTime();
+        }
+        return UNSUPPORTED;
+    }
+
+    /** Get the number of bytes allocated on the heap by the current
+     * thread since it started. This uses the extension of
+     * ThreadMXBean provided by HotSpot and OpenJ9.
+     * @return The bytes allocated by the current thread, or
+     *      {@link #UNSUPPORTED}, if the JVM does not support
+     *      measuring them.
+     */
+    private static long getThreadAllocatedBytes() {
+        if (THREADS instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean threads =
+                    (com.sun.management.ThreadMXBean) THREADS;
+            if (threads.isThreadAllocatedMemorySupported()
+                    && threads.isThreadAllocatedMemoryEnabled()) {
+                return threads.getThreadAllocatedBytes(
+                        Thread.currentThread().getId());
+            }
+        }
+        return UNSUPPORTED;
+    }
+
+    /** Get the total size of the files in a directory, and its
+     * subdirectories, that were modified at or after a time.
+     * @param dir The directory. It need not exist.
+     * @param since The time, as a value of System.currentTimeMillis().
+     * @return The total size of the files modified since the time.
+     */
+    private static long getBytesWrittenSince(final Path dir,
+            final long since) {
+        if (!Files.isDirectory(dir)) {
+            return 0;
+        }
+        long total = 0;
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                if (Files.isRegularFile(file)
+                        && Files.getLastModifiedTime(file).toMillis()
+                            >= since) {
+                    total += Files.size(file);
+                }
+            }
+        } catch (IOException | UncheckedIOException e) {
+            // E.g., a file was deleted during the walk.
+            LOGGER.error("Unable to find the bytes written to " + dir, e);
+        }
+        return total;
+    }
+
+}
@@ -0,0 +1,20 @@
+/** See the file "LICENSE" for the full license governing this code. */
+package au.org.ands.vocabs.toolkit.tasks;
+
+/** Exception thrown by {@link TaskControl#checkpoint()} to stop
+ * a task that has been cancelled, or that has run out of time.
+ * It is unchecked, so that it can pass through code (such as
+ * RDF handlers) that is not aware of task control. */
+public class TaskCancelledException extends RuntimeException {
+
+    /** Serial version UID for serialization. */
+    private static final long serialVersionUID = 1L;
+
+    /** Constructor.
+     * @param reason The reason the task was stopped.
+     */
+    public TaskCancelledException(final String reason) {
+        super(reason);
+    }
+
+}
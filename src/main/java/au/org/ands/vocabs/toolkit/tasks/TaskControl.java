@@ -0,0 +1,314 @@
+/** See the file "LICENSE" for the full license governing this code. */
+package au.org.ands.vocabs.toolkit.tasks;
+
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import au.org.ands.vocabs.toolkit.utils.PropertyConstants;
+import au.org.ands.vocabs.toolkit.utils.ToolkitProperties;
+
+/** Cooperative cancellation and wall-clock time budgets for a task.
+ * Providers call {@link #checkpoint()} between units of work
+ * (statements, files, requests); it throws a
+ * {@link TaskCancelledException} once the task has been cancelled,
+ * or has exceeded its time budget, or its current subtask has.
+ * Providers also register the resources they hold open (HTTP
+ * responses, Sesame connections, streams) with {@link #register};
+ * these are closed when the task is cancelled, so that a provider
+ * blocked on I/O is woken up.
+ *
+ * The controls of running tasks are kept in a registry, so that
+ * they can be cancelled by id. A watchdog thread checks the time
+ * budgets of running tasks, and cancels those that have run out
+ * of time, even if they are blocked.
+ *
+ * Budgets are configured in seconds with the property
+ * {@link PropertyConstants#TOOLKIT_TASKTIMEOUT}
+ * for the whole task, and with properties that start with
+ * {@link PropertyConstants#TOOLKIT_SUBTASKTIMEOUT_PREFIX}
+ * followed by a subtask type (e.g., HARVEST) for subtasks.
+ * A budget of zero (the default) means no limit.
+ */
+public final class TaskControl {
+
+    /** Logger for this class. */
+    private static final Logger LOGGER = LoggerFactory.getLogger(
+            MethodHandles.lookup().lookupClass());
+
+    /** Number of milliseconds in a second. */
+    private static final long MS_PER_SECOND = 1000;
+
+    /** The controls of the running tasks, keyed by task id. */
+    private static final ConcurrentHashMap<Integer, TaskControl> RUNNING =
+            new ConcurrentHashMap<Integer, TaskControl>();
+
+    /** Watchdog that enforces time budgets. Created on first use. */
+    private static ScheduledExecutorService watchdog;
+
+    /** The id of the task. */
+    private final Integer taskId;
+
+    /** The deadline of the task, as a value of
+     * System.currentTimeMillis(), or 0 if there is none. */
+    private final long taskDeadline;
+
+    /** The deadline of the current subtask, as a value of
+     * System.currentTimeMillis(), or 0 if there is none. */
+    private volatile long subtaskDeadline;
+
+    /** If the task has been cancelled, the reason; otherwise, null. */
+    private volatile String cancelReason;
+
+    /** The resources to be closed if the task is cancelled.
+     * All access must be synchronized on the list. */
+    private final List<AutoCloseable> resources =
+            new ArrayList<AutoCloseable>();
+
+    /** Constructor. The task is given the time budget set by
+     * {@link PropertyConstants#TOOLKIT_TASKTIMEOUT}.
+     * @param aTaskId The id of the task.
+     */
+    public TaskControl(final Integer aTaskId) {
+        this(aTaskId, getBudget(PropertyConstants.TOOLKIT_TASKTIMEOUT));
+    }
+
+    /** Constructor.
+     * @param aTaskId The id of the task.
+     * @param budget The time budget of the task, in milliseconds,
+     *      or 0 if there is none.
+     */
+    private TaskControl(final Integer aTaskId, final long budget) {
+        taskId = aTaskId;
+        if (budget > 0) {
+            taskDeadline = System.currentTimeMillis() + budget;
+        } else {
+            taskDeadline = 0;
+        }
+    }
+
+    /** Create a control that has no time budget, for work that is
+     * not run as a task, such as a bulk job as a whole, a direct call
+     * of a provider, or a benchmark. It is not added to the registry
+     * of running tasks, so it is cancelled only by calling
+     * {@link #cancel(String)} on it.
+     * @return The control.
+     */
+    public static TaskControl unbounded() {
+        return new TaskControl(null, 0);
+    }
+
+    /** Create the control for a task that is starting to run,
+     * and add it to the registry of running tasks.
+     * @param aTaskId The id of the task.
+     * @return The control for the task.
+     */
+    public static TaskControl begin(final Integer aTaskId) {
+        TaskControl control = new TaskControl(aTaskId);
+        RUNNING.put(aTaskId, control);
+        startWatchdog();
+        return control;
+    }
+
+    /** Remove the control for a task from the registry of
+     * running tasks, because it has finished.
+     * @param control The control for the task.
+     */
+    public static void end(final TaskControl control) {
+        RUNNING.remove(control.taskId, control);
+        control.closeResources();
+    }
+
+    /** Get the control of a running task.
+     * @param aTaskId The id of the task.
+     * @return The control of the task, or null, if the task
+     *      is not running.
+     */
+    public static TaskControl getRunning(final Integer aTaskId) {
+        return RUNNING.get(aTaskId);
+    }
+
+    /** Stop the watchdog and cancel all running tasks.
+     * Call this only in webapp context shutdown! */
+    public static void doShutdown() {
+        synchronized (RUNNING) {
+            if (watchdog != null) {
+                watchdog.shutdownNow();
+                watchdog = null;
+            }
+        }
+        for (TaskControl control : RUNNING.values()) {
+            control.cancel("Toolkit shutting down");
+        }
+    }
+
+    /** Note the start of a subtask, and set its deadline.
+     * @param subtaskType The type of the subtask, e.g., "HARVEST".
+     */
+    public void startSubtask(final String subtaskType) {
+        long budget = getBudget(
+                PropertyConstants.TOOLKIT_SUBTASKTIMEOUT_PREFIX
+                + subtaskType);
+        if (budget > 0) {
+            subtaskDeadline = System.currentTimeMillis() + budget;
+        } else {
+            subtaskDeadline = 0;
+        }
+    }
+
+    /** Note the end of a subtask, and close any resources that
+     * it did not unregister. */
+    public void endSubtask() {
+        subtaskDeadline = 0;
+        closeResources();
+    }
+
+    /** Cancel the task. Resources registered by the task are closed.
+     * The task itself stops at its next call to {@link #checkpoint()}.
+     * @param reason The reason for cancelling the task.
+     */
+    public void cancel(final String reason) {
+        if (cancelReason != null) {
+            return;
+        }
+        LOGGER.info("Cancelling task " + taskId + ": " + reason);
+        cancelReason = reason;
+        closeResources();
+    }
+
+    /** Has the task been cancelled?
+     * @return True, iff the task has been cancelled.
+     */
+    public boolean isCancelled() {
+        return cancelReason != null;
+    }
+
+    /** Get the reason the task was cancelled.
+     * @return The reason, or null, if the task has not been cancelled.
+     */
+    public String getCancelReason() {
+        return cancelReason;
+    }
+
+    /** Check whether the task should stop. Call this between units
+     * of work. If the task has run out of time, it is cancelled.
+     * @throws TaskCancelledException If the task has been cancelled,
+     *      or has run out of time.
+     */
+    public void checkpoint() {
+        checkDeadlines();
+        if (cancelReason != null) {
+            throw new TaskCancelledException(cancelReason);
+        }
+    }
+
+    /** Register a resource to be closed if the task is cancelled.
+     * If the task has already been cancelled, the resource is
+     * closed immediately.
+     * @param <T> The type of the resource.
+     * @param resource The resource.
+     * @return The resource.
+     */
+    public <T extends AutoCloseable> T register(final T resource) {
+        synchronized (resources) {
+            resources.add(resource);
+        }
+        if (cancelReason != null) {
+            closeResources();
+        }
+        return resource;
+    }
+
+    /** Unregister a resource, because the provider has closed it.
+     * @param resource The resource.
+     */
+    public void unregister(final AutoCloseable resource) {
+        synchronized (resources) {
+            resources.remove(resource);
+        }
+    }
+
+    /** If the task or its current subtask has run out of time,
+     * cancel the task. */
+    private void checkDeadlines() {
+        long now = System.currentTimeMillis();
+        if (taskDeadline > 0 && now > taskDeadline) {
+            cancel("Task time budget exceeded");
+        }
+        long deadline = subtaskDeadline;
+        if (deadline > 0 && now > deadline) {
+            cancel("Subtask time budget exceeded");
+        }
+    }
+
+    /** Close all registered resources. */
+    private void closeResources() {
+        List<AutoCloseable> toClose;
+        synchronized (resources) {
+            toClose = new ArrayList<AutoCloseable>(resources);
+            resources.clear();
+        }
+        for (AutoCloseable resource : toClose) {
+            try {
+                resource.close();
+            } catch (Exception e) {
+                LOGGER.debug("Exception closing resource of task "
+                        + taskId, e);
+            }
+        }
+    }
+
+    /** Get a time budget from the Toolkit properties.
+     * @param propertyName The name of the property giving the budget,
+     *      in seconds.
+     * @return The budget in milliseconds, or 0 if there is none.
+     */
+    private static long getBudget(final String propertyName) {
+        String value = ToolkitProperties.getProperty(propertyName);
+        if (value == null || value.trim().isEmpty()) {
+            return 0;
+        }
+        try {
+            return MS_PER_SECOND * Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            LOGGER.error("Invalid time budget for property "
+                    + propertyName + ": " + value);
+            return 0;
+        }
+    }
+
+    /** Start the watchdog thread, if it is not already running. */
+    private static void startWatchdog() {
+        synchronized (RUNNING) {
+            if (watchdog != null) {
+                return;
+            }
+            watchdog = Executors.newSingleThreadScheduledExecutor(
+                    new ThreadFactory() {
+                        @Override
+                        public Thread newThread(final Runnable r) {
+                            Thread thread = new Thread(r,
+                                    "TaskControlWatchdog");
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+            watchdog.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    for (TaskControl control : RUNNING.values()) {
+                        control.checkDeadlines();
+                    }
+                } }, 1, 1, TimeUnit.SECONDS);
+        }
+    }
+
+}
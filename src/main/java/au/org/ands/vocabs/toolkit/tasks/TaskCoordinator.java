@@ -0,0 +1,333 @@
+/** See the file "LICENSE" for the full license governing this code. */
+package au.org.ands.vocabs.toolkit.tasks;
+
+import java.lang.invoke.MethodHandles;
+import java.util.HashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import au.org.ands.vocabs.toolkit.db.TaskLeaseUtils;
+import au.org.ands.vocabs.toolkit.utils.ToolkitFileUtils;
+
+/** Coordination of concurrent runs of tasks.
+ *
+ * Tasks on the same vocabulary version share on-disk directories
+ * and a Sesame repository, so they must not run at the same time.
+ * Each version has a lock, identified by the owner, slug,
+ * and version title (i.e., the same values used to name the
+ * version's Sesame repository), which a task holds while it runs.
+ * So that this also holds across nodes, the task also holds the
+ * version's lock in the database; see {@link TaskLeaseUtils}.
+ *
+ * A request to run a task that is already being run is not run
+ * a second time. Instead, the request waits for the run in
+ * progress to finish, and shares its results. Requests are matched
+ * only by task id: two different tasks with the same version and
+ * the same parameters are each run (one after the other, because of
+ * the version lock), as each task's own row in the task table must
+ * be given its status and response.
+ */
+public final class TaskCoordinator {
+
+    /** Logger for this class. */
+    private static final Logger LOGGER = LoggerFactory.getLogger(
+            MethodHandles.lookup().lookupClass());
+
+    /** How long to wait for a version lock before checking whether
+     * the waiting task has been cancelled, in milliseconds. */
+    private static final long LOCK_POLL_INTERVAL = 1000;
+
+    /** Locks for vocabulary versions, keyed by the version key.
+     * A lock is removed once no task holds it or waits for it,
+     * so that the map does not grow with every version ever run. */
+    private static final ConcurrentHashMap<String, LocalVersionLock>
+        VERSION_LOCKS = new ConcurrentHashMap<String, LocalVersionLock>();
+
+    /** The runs in progress, keyed by task id. Each future is
+     * completed with the results of the run, including its status. */
+    private static final ConcurrentHashMap<Integer,
+        CompletableFuture<HashMap<String, String>>> IN_FLIGHT =
+            new ConcurrentHashMap<Integer,
+                CompletableFuture<HashMap<String, String>>>();
+
+    /** Private constructor for a utility class. */
+    private TaskCoordinator() {
+    }
+
+    /** Run a task, unless it is already being run, in which case
+     * wait for that run to finish and share its results.
+     * A run is shared only with requests to run the same task,
+     * i.e., with the same task id; the request's other settings,
+     * such as whether to resume, are not compared.
+     * @param taskId The id of the task.
+     * @param run The run of the task. It returns the results
+     *      of the run, including its status.
+     * @return The results of the run, and whether they came from
+     *      this request or from one already in progress.
+     */
+    public static Outcome runOnce(final Integer taskId,
+            final Supplier<HashMap<String, String>> run) {
+        CompletableFuture<HashMap<String, String>> mine =
+                new CompletableFuture<HashMap<String, String>>();
+        CompletableFuture<HashMap<String, String>> leader =
+                IN_FLIGHT.putIfAbsent(taskId, mine);
+        if (leader != null) {
+            LOGGER.info("Task " + taskId + " is already running; "
+                    + "waiting for its results");
+            try {
+                return new Outcome(leader.join(), true);
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw e;
+            }
+        }
+        try {
+            HashMap<String, String> results = run.get();
+            mine.complete(new HashMap<String, String>(results));
+            return new Outcome(results, false);
+        } catch (RuntimeException | Error e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            IN_FLIGHT.remove(taskId, mine);
+        }
+    }
+
+    /** Acquire the lock for the vocabulary version of a task,
+     * waiting if another task holds it. The lock is held both
+     * within this node, and in the database, so that tasks on the
+     * same version do not run at the same time on different nodes.
+     * While waiting, the task can be cancelled.
+     * @param taskInfo The TaskInfo object for the task.
+     * @param control The control for cancellation and time budgets
+     *      of the task.
+     * @return The hold on the lock, which the caller must close when
+     *      the task has finished.
+     * @throws TaskCancelledException If the task is cancelled
+     *      while waiting.
+     */
+    public static VersionHold lockVersion(final TaskInfo taskInfo,
+            final TaskControl control) {
+        String versionKey = ToolkitFileUtils.getSesameRepositoryId(taskInfo);
+        LocalVersionLock localLock = useLock(versionKey);
+        ReentrantLock lock = localLock.getLock();
+        Integer taskId = taskInfo.getTask().getId();
+        boolean locked = false;
+        boolean held = false;
+        try {
+            try {
+                if (!lock.tryLock()) {
+                    LOGGER.info("Task " + taskId + " waiting for another "
+                            + "task on version " + versionKey);
+                    while (!lock.tryLock(LOCK_POLL_INTERVAL,
+                            TimeUnit.MILLISECONDS)) {
+                        control.checkpoint();
+                    }
+                }
+                locked = true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new TaskCancelledException("Interrupted while "
+                        + "waiting for another task on the same version");
+            }
+            // Now take the lock in the database.
+            int versionId = taskInfo.getVersion().getId();
+            String owner = TaskLeaseUtils.getNodeId() + "#" + taskId;
+            long duration = TaskLeaseUtils.getLeaseDuration();
+            try {
+                boolean logged = false;
+                while (!TaskLeaseUtils.takeVersionLock(versionId, owner,
+                        duration)) {
+                    if (!logged) {
+                        LOGGER.info("Task " + taskId + " waiting for "
+                                + "another node to finish with version "
+                                + versionKey);
+                        logged = true;
+                    }
+                    control.checkpoint();
+                    Thread.sleep(LOCK_POLL_INTERVAL);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new TaskCancelledException("Interrupted while "
+                        + "waiting for another node to finish with the "
+                        + "same version");
+            }
+            Object heartbeat = LeaseHeartbeat.add(
+                    "lock on version " + versionKey,
+                    () -> TaskLeaseUtils.renewVersionLock(versionId, owner,
+                            duration),
+                    control);
+            held = true;
+            return new VersionHold(versionKey, localLock, versionId, owner,
+                    heartbeat);
+        } finally {
+            if (!held) {
+                if (locked) {
+                    lock.unlock();
+                }
+                unuseLock(versionKey, localLock);
+            }
+        }
+    }
+
+    /** Get the lock within this node for a vocabulary version,
+     * creating it if need be, and count the caller as one of its
+     * users. The caller must call {@link #unuseLock(String,
+     * LocalVersionLock)} once it no longer holds or waits for it.
+     * @param versionKey The version key.
+     * @return The lock for the version.
+     */
+    private static LocalVersionLock useLock(final String versionKey) {
+        return VERSION_LOCKS.compute(versionKey, (k, v) -> {
+            LocalVersionLock localLock = v;
+            if (localLock == null) {
+                localLock = new LocalVersionLock();
+            }
+            localLock.users++;
+            return localLock;
+        });
+    }
+
+    /** Stop counting the caller as a user of the lock within this
+     * node for a vocabulary version. The lock is removed once it
+     * has no users.
+     * @param versionKey The version key.
+     * @param localLock The lock for the version.
+     */
+    private static void unuseLock(final String versionKey,
+            final LocalVersionLock localLock) {
+        VERSION_LOCKS.computeIfPresent(versionKey, (k, v) -> {
+            if (v != localLock) {
+                return v;
+            }
+            v.users--;
+            if (v.users == 0) {
+                return null;
+            }
+            return v;
+        });
+    }
+
+    /** The lock within this node for a vocabulary version, with
+     * a count of the tasks that hold it or wait for it. */
+    private static final class LocalVersionLock {
+
+        /** The lock. It is fair, so that tasks run in the order
+         * requested. */
+        private final ReentrantLock lock = new ReentrantLock(true);
+
+        /** The number of tasks that hold the lock or wait for it.
+         * Only read and written within the remapping functions
+         * of {@link #VERSION_LOCKS}. */
+        private int users;
+
+        /** Get the lock.
+         * @return The lock.
+         */
+        ReentrantLock getLock() {
+            return lock;
+        }
+    }
+
+    /** A hold on the lock for a vocabulary version. Closing the hold
+     * releases the lock. */
+    public static final class VersionHold implements AutoCloseable {
+
+        /** The version key. */
+        private final String versionKey;
+
+        /** The lock within this node. */
+        private final LocalVersionLock localLock;
+
+        /** The id of the version. */
+        private final int versionId;
+
+        /** The owner of the lock in the database. */
+        private final String owner;
+
+        /** The handle of the renewal of the lock in the database. */
+        private final Object heartbeat;
+
+        /** Constructor.
+         * @param aVersionKey The version key.
+         * @param aLocalLock The lock within this node.
+         * @param aVersionId The id of the version.
+         * @param anOwner The owner of the lock in the database.
+         * @param aHeartbeat The handle of the renewal of the lock
+         *      in the database.
+         */
+        VersionHold(final String aVersionKey,
+                final LocalVersionLock aLocalLock, final int aVersionId,
+                final String anOwner, final Object aHeartbeat) {
+            versionKey = aVersionKey;
+            localLock = aLocalLock;
+            versionId = aVersionId;
+            owner = anOwner;
+            heartbeat = aHeartbeat;
+        }
+
+        /** Release the lock, both in the database, and within
+         * this node. */
+        @Override
+        public void close() {
+            LeaseHeartbeat.remove(heartbeat);
+            try {
+                TaskLeaseUtils.releaseVersionLock(versionId, owner);
+            } catch (RuntimeException e) {
+                // The lock will expire.
+                LOGGER.error("Exception releasing version lock", e);
+            } finally {
+                localLock.getLock().unlock();
+                unuseLock(versionKey, localLock);
+            }
+        }
+    }
+
+    /** The outcome of a request to run a task. */
+    public static final class Outcome {
+
+        /** The results of the run, including its status. */
+        private final HashMap<String, String> results;
+
+        /** Whether the results were shared from a run already
+         * in progress. */
+        private final boolean coalesced;
+
+        /** Constructor.
+         * @param aResults The results of the run.
+         * @param aCoalesced Whether the results were shared from
+         *      a run already in progress.
+         */
+        Outcome(final HashMap<String, String> aResults,
+                final boolean aCoalesced) {
+            results = aResults;
+            coalesced = aCoalesced;
+        }
+
+        /** Get the results of the run, including its status.
+         * @return The results of the run.
+         */
+        public HashMap<String, String> getResults() {
+            return results;
+        }
+
+        /** Were the results shared from a run already in progress?
+         * @return True, iff the results were shared from a run
+         *      already in progress.
+         */
+        public boolean isCoalesced() {
+            return coalesced;
+        }
+    }
+
+}
@@ -17,6 +17,16 @@ public class TaskInfo {
     /** Version object for this task. */
     private Version version;
 
+    /** The control for cancellation and time budgets of this task. */
+    private TaskControl control;
+
+    /** The listener for progress reports of this task. */
+    private ProgressListener progressListener = ProgressListener.NONE;
+
+    /** The priority class of this task, or null, if it has not
+     * been set. */
+    private Integer priority;
+
     /** Constructor.
      * @param aTask The Task object
      * @param aVocabulary The Vocabulary object
@@ -50,4 +60,58 @@ public class TaskInfo {
         return version;
     }
 
+    /** Getter for the control for cancellation and time budgets
+     * of this task. If none has been set, a control is created that
+     * has no task time budget and is never cancelled; see
+     * {@link TaskControl#unbounded()}.
+     * @return The TaskControl object.
+     */
+    public final TaskControl getControl() {
+        if (control == null) {
+            control = TaskControl.unbounded();
+        }
+        return control;
+    }
+
+    /** Setter for the control for cancellation and time budgets
+     * of this task.
+     * @param aControl The TaskControl object.
+     */
+    public final void setControl(final TaskControl aControl) {
+        control = aControl;
+    }
+
+    /** Getter for the listener for progress reports of this task.
+     * If none has been set, a listener that ignores all reports
+     * is returned.
+     * @return The ProgressListener object.
+     */
+    public final ProgressListener getProgressListener() {
+        return progressListener;
+    }
+
+    /** Setter for the listener for progress reports of this task.
+     * @param aProgressListener The ProgressListener object.
+     */
+    public final void setProgressListener(
+            final ProgressListener aProgressListener) {
+        progressListener = aProgressListener;
+    }
+
+    /** Getter for the priority class of this task.
+     * See {@link TaskPriority}.
+     * @return The priority class, or null, if it has not been set.
+     */
+    public final Integer getPriority() {
+        return priority;
+    }
+
+    /** Setter for the priority class of this task.
+     * See {@link TaskPriority}.
+     * @param aPriority The priority class.
+     */
+    public final void setPriority(final Integer aPriority) {
+        priority = aPriority;
+    }
+
 }
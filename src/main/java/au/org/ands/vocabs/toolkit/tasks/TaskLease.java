@@ -0,0 +1,113 @@
+/** See the file "LICENSE" for the full license governing this code. */
+package au.org.ands.vocabs.toolkit.tasks;
+
+import java.lang.invoke.MethodHandles;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import au.org.ands.vocabs.toolkit.db.TaskLeaseUtils;
+import au.org.ands.vocabs.toolkit.db.TaskUtils;
+import au.org.ands.vocabs.toolkit.db.model.Task;
+
+/** A lease on a task, held in the database by this node while it
+ * runs the task. See {@link TaskLeaseUtils}. While held, the lease
+ * is renewed by {@link LeaseHeartbeat}. Closing the lease
+ * releases it.
+ */
+public final class TaskLease implements AutoCloseable {
+
+    /** Logger for this class. */
+    private static final Logger LOGGER = LoggerFactory.getLogger(
+            MethodHandles.lookup().lookupClass());
+
+    /** How long to wait between attempts to claim a task that
+     * another node holds, in milliseconds. */
+    private static final long CLAIM_POLL_INTERVAL = 1000;
+
+    /** The id of the task. */
+    private final int taskId;
+
+    /** The handle of the renewal of the lease. */
+    private final Object heartbeat;
+
+    /** Constructor.
+     * @param aTaskId The id of the task.
+     * @param aHeartbeat The handle of the renewal of the lease.
+     */
+    private TaskLease(final int aTaskId, final Object aHeartbeat) {
+        taskId = aTaskId;
+        heartbeat = aHeartbeat;
+    }
+
+    /** Claim a task for this node. If another node holds the lease
+     * on the task, wait until it is released, or expires. If the
+     * other node finishes the task, the task is not claimed, and null
+     * is returned; the caller should then use the results recorded
+     * in the database by the other node. A task that had already
+     * finished before this node tried to claim it is claimed,
+     * so that it is run again.
+     * While waiting, the task can be cancelled.
+     * @param task The task to be claimed.
+     * @param control The control for cancellation and time budgets
+     *      of the task.
+     * @return The lease, which the caller must close when the task
+     *      has finished, or null, if the task was run by another node
+     *      while waiting.
+     * @throws TaskCancelledException If the task is cancelled
+     *      while waiting.
+     */
+    public static TaskLease claim(final Task task,
+            final TaskControl control) {
+        int taskId = task.getId();
+        String owner = TaskLeaseUtils.getNodeId();
+        long duration = TaskLeaseUtils.getLeaseDuration();
+        boolean claimed = TaskLeaseUtils.claimTask(taskId, owner, duration);
+        if (!claimed) {
+            LOGGER.info("Task " + taskId + " is claimed by another "
+                    + "node; waiting for it");
+        }
+        while (!claimed) {
+            control.checkpoint();
+            try {
+                Thread.sleep(CLAIM_POLL_INTERVAL);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new TaskCancelledException("Interrupted while waiting "
+                        + "for another node to finish the task");
+            }
+            // The other node's claim gave the task a status that is
+            // not terminal. If the task now has a terminal status,
+            // the other node has finished it.
+            claimed = TaskLeaseUtils.claimUnfinishedTask(taskId, owner,
+                    duration);
+            if (!claimed) {
+                Task current = TaskUtils.getTaskById(taskId);
+                if (current != null
+                        && TaskStatus.isTerminal(current.getStatus())) {
+                    LOGGER.info("Task " + taskId
+                            + " was run by another node");
+                    return null;
+                }
+            }
+        }
+        Object heartbeat = LeaseHeartbeat.add("lease on task " + taskId,
+                () -> TaskLeaseUtils.renewTaskLease(taskId, owner, duration),
+                control);
+        return new TaskLease(taskId, heartbeat);
+    }
+
+    /** Release the lease. */
+    @Override
+    public void close() {
+        LeaseHeartbeat.remove(heartbeat);
+        try {
+            TaskLeaseUtils.releaseTaskLease(taskId,
+                    TaskLeaseUtils.getNodeId());
+        } catch (RuntimeException e) {
+            // The lease will expire.
+            LOGGER.error("Exception releasing lease on task " + taskId, e);
+        }
+    }
+
+}
@@ -0,0 +1,181 @@
+/** See the file "LICENSE" for the full license governing this code. */
+package au.org.ands.vocabs.toolkit.tasks;
+
+import java.lang.invoke.MethodHandles;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import au.org.ands.vocabs.toolkit.db.TaskLeaseUtils;
+import au.org.ands.vocabs.toolkit.db.TaskStatusJournal;
+import au.org.ands.vocabs.toolkit.db.TaskUtils;
+import au.org.ands.vocabs.toolkit.db.model.Task;
+import au.org.ands.vocabs.toolkit.utils.PropertyConstants;
+import au.org.ands.vocabs.toolkit.utils.ToolkitFileUtils;
+import au.org.ands.vocabs.toolkit.utils.ToolkitProperties;
+
+/** Poller of the task table, so that tasks whose node died while
+ * running them, or stopped before they finished, are run by some node.
+ * At intervals, the poller gets the tasks that have been claimed
+ * but not finished, and on which nobody holds a lease, and runs
+ * as many of them as it has capacity for. Tasks that have never
+ * been claimed, e.g., those created before leases were introduced,
+ * are left alone. Each task is claimed before it is run (see
+ * {@link TaskLease}), so if several nodes poll at the same time,
+ * each task is run by only one of them.
+ * The poller is enabled by setting the property
+ * {@link PropertyConstants#TOOLKIT_TASKPOLLERINTERVAL}.
+ */
+public final class TaskPoller {
+
+    /** Logger for this class. */
+    private static final Logger LOGGER = LoggerFactory.getLogger(
+            MethodHandles.lookup().lookupClass());
+
+    /** Default maximum number of polled tasks that run at the
+     * same time. */
+    private static final int DEFAULT_THREADS = 2;
+
+    /** Executor that polls the task table. Null, if the poller
+     * is not running. */
+    private static ScheduledExecutorService poller;
+
+    /** Executor that runs the polled tasks. Null, if the poller
+     * is not running. */
+    private static ExecutorService runners;
+
+    /** Capacity for running polled tasks. */
+    private static Semaphore capacity;
+
+    /** Private constructor for a utility class. */
+    private TaskPoller() {
+    }
+
+    /** Start the poller, if it is enabled.
+     * Call this only in webapp context initialization! */
+    public static synchronized void start() {
+        int interval = Integer.parseInt(ToolkitProperties.getProperty(
+                PropertyConstants.TOOLKIT_TASKPOLLERINTERVAL, "0"));
+        if (interval <= 0 || poller != null) {
+            return;
+        }
+        int threads = Integer.parseInt(ToolkitProperties.getProperty(
+                PropertyConstants.TOOLKIT_TASKPOLLERTHREADS,
+                Integer.toString(DEFAULT_THREADS)));
+        LOGGER.info("Starting task poller on node "
+                + TaskLeaseUtils.getNodeId() + "; interval " + interval
+                + " s, " + threads + " threads");
+        capacity = new Semaphore(threads);
+        runners = Executors.newFixedThreadPool(threads,
+                newThreadFactory("TaskPoller-runner"));
+        poller = Executors.newSingleThreadScheduledExecutor(
+                newThreadFactory("TaskPoller"));
+        poller.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    poll();
+                } catch (RuntimeException e) {
+                    // Perhaps a transient database problem.
+                    // Try again next time.
+                    LOGGER.error("Exception polling for tasks", e);
+                }
+            } }, interval, interval, TimeUnit.SECONDS);
+    }
+
+    /** Stop the poller. Tasks being run by the poller are cancelled
+     * by {@link TaskControl#doShutdown()}.
+     * Call this only in webapp context shutdown! */
+    public static synchronized void doShutdown() {
+        if (poller != null) {
+            poller.shutdownNow();
+            runners.shutdownNow();
+            poller = null;
+            runners = null;
+        }
+    }
+
+    /** Poll the task table, and run the claimable tasks for which
+     * there is capacity. */
+    private static void poll() {
+        int free = capacity.availablePermits();
+        if (free == 0) {
+            return;
+        }
+        List<Integer> taskIds = TaskLeaseUtils.getClaimableTaskIds(free);
+        for (Integer taskId : taskIds) {
+            if (TaskControl.getRunning(taskId) != null
+                    || !capacity.tryAcquire()) {
+                // Already being run by this node, or no capacity left.
+                continue;
+            }
+            LOGGER.info("Task poller running task " + taskId);
+            runners.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        runTask(taskId);
+                    } finally {
+                        capacity.release();
+                    }
+                } });
+        }
+    }
+
+    /** Run a polled task.
+     * @param taskId The id of the task.
+     */
+    private static void runTask(final int taskId) {
+        TaskInfo taskInfo;
+        try {
+            taskInfo = ToolkitFileUtils.getTaskInfo(taskId);
+        } catch (RuntimeException e) {
+            LOGGER.error("Exception getting TaskInfo for task id: "
+                    + taskId, e);
+            taskInfo = null;
+        }
+        if (taskInfo == null) {
+            // Record the error, so that the task is not polled again.
+            Task task = TaskUtils.getTaskById(taskId);
+            if (task != null) {
+                HashMap<String, String> results =
+                        new HashMap<String, String>();
+                results.put("status", TaskStatus.ERROR);
+                results.put("runTask", "Unable to get all task details for"
+                        + " task with id " + taskId);
+                TaskStatusJournal.record(task, TaskStatus.ERROR, results);
+            }
+            return;
+        }
+        taskInfo.setPriority(TaskPriority.compute(taskInfo, true));
+        try {
+            new TaskRunner(taskInfo, true).runTask();
+        } catch (RuntimeException e) {
+            LOGGER.error("Exception running polled task " + taskId, e);
+        }
+    }
+
+    /** Create a factory of daemon threads.
+     * @param name The name of the threads.
+     * @return The thread factory.
+     */
+    private static ThreadFactory newThreadFactory(final String name) {
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r) {
+                Thread thread = new Thread(r, name);
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+}
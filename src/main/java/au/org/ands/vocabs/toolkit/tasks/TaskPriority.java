@@ -0,0 +1,105 @@
+/** See the file "LICENSE" for the full license governing this code. */
+package au.org.ands.vocabs.toolkit.tasks;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+
+import au.org.ands.vocabs.toolkit.db.TaskUtils;
+
+/** Priority classes of tasks. When tasks compete for a resource
+ * pool (see {@link Bulkheads}), tasks of a higher priority class
+ * are given permits first. Lower numbers are higher priorities.
+ *
+ * The priority class of a task is derived from the status of its
+ * version, and from how the task came to be run:
+ * <ul>
+ *   <li>Tasks on "current" versions are {@link #HIGH}; tasks on
+ *     "superseded" and "deprecated" versions are {@link #LOW};
+ *     all other tasks are {@link #NORMAL}.</li>
+ *   <li>Tasks that are run as part of batch processing, rather than
+ *     at the request of a user, and tasks that consist only of
+ *     removal subtasks (UNHARVEST, UNTRANSFORM, etc.),
+ *     are one class lower.</li>
+ * </ul>
+ */
+public final class TaskPriority {
+
+    /** Priority class of tasks that make a current version
+     * available. */
+    public static final int HIGH = 0;
+
+    /** Priority class of ordinary tasks. */
+    public static final int NORMAL = 1;
+
+    /** Priority class of background work, such as reprocessing
+     * superseded versions. */
+    public static final int LOW = 2;
+
+    /** The names of the priority classes, indexed by class. */
+    private static final String[] NAMES = {"high", "normal", "low"};
+
+    /** Private constructor for a utility class. */
+    private TaskPriority() {
+    }
+
+    /** Get the number of priority classes.
+     * @return The number of priority classes.
+     */
+    public static int getClassCount() {
+        return NAMES.length;
+    }
+
+    /** Get the name of a priority class.
+     * @param priority The priority class.
+     * @return The name of the priority class.
+     */
+    public static String getName(final int priority) {
+        return NAMES[priority];
+    }
+
+    /** Compute the priority class of a task.
+     * @param taskInfo The TaskInfo object for the task.
+     * @param batch Whether the task is being run as part of batch
+     *      processing, rather than at the request of a user.
+     * @return The priority class of the task.
+     */
+    public static int compute(final TaskInfo taskInfo,
+            final boolean batch) {
+        int priority = NORMAL;
+        String versionStatus = null;
+        if (taskInfo.getVersion() != null) {
+            versionStatus = taskInfo.getVersion().getStatus();
+        }
+        if ("current".equalsIgnoreCase(versionStatus)) {
+            priority = HIGH;
+        } else if ("superseded".equalsIgnoreCase(versionStatus)
+                || "deprecated".equalsIgnoreCase(versionStatus)) {
+            priority = LOW;
+        }
+        if (batch || isRemovalOnly(taskInfo)) {
+            priority = Math.min(priority + 1, LOW);
+        }
+        return priority;
+    }
+
+    /** Does a task consist only of removal subtasks?
+     * @param taskInfo The TaskInfo object for the task.
+     * @return True, iff the task has subtasks, and they are all
+     *      removal subtasks.
+     */
+    private static boolean isRemovalOnly(final TaskInfo taskInfo) {
+        ArrayNode subtasks = TaskUtils.getSubtasks(
+                taskInfo.getTask().getParams());
+        if (subtasks == null || subtasks.size() == 0) {
+            return false;
+        }
+        for (JsonNode subtask : subtasks) {
+            JsonNode type = subtask.get("type");
+            if (type == null || !type.asText().startsWith("UN")) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
@@ -0,0 +1,288 @@
+/** See the file "LICENSE" for the full license governing this code. */
+package au.org.ands.vocabs.toolkit.tasks;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/** Channel of progress events for a task, to which clients can
+ * subscribe. Events are Server-Sent Events, already formatted
+ * as text; each has a name and JSON data. The events are:
+ * <ul>
+ *   <li>"status": the task status changed, with a message.</li>
+ *   <li>"subtask-start": a subtask started.</li>
+ *   <li>"subtask-end": a subtask finished, with its duration.</li>
+ *   <li>"progress": the values of the progress counters. These
+ *      events are sent at most every {@link #PROGRESS_INTERVAL}
+ *      milliseconds.</li>
+ *   <li>"end": the task finished, with its final status. This is
+ *      always the last event.</li>
+ * </ul>
+ * A subscriber may subscribe before the task starts to run
+ * on this node; it then receives the events of the next run.
+ * A channel only carries the events of a run on this node;
+ * the events of a run on another node are not seen here.
+ */
+public final class TaskProgress implements ProgressListener {
+
+    /** Minimum interval between "progress" events,
+     * in milliseconds. */
+    public static final long PROGRESS_INTERVAL = 500;
+
+    /** Name of the event that is always the last event. */
+    public static final String END_EVENT = "end";
+
+    /** The channels, keyed by task id. */
+    private static final ConcurrentHashMap<Integer, TaskProgress> CHANNELS =
+            new ConcurrentHashMap<Integer, TaskProgress>();
+
+    /** The id of the task. */
+    private final Integer taskId;
+
+    /** The queues of the subscribers. */
+    private final List<BlockingQueue<String>> subscribers =
+            new CopyOnWriteArrayList<BlockingQueue<String>>();
+
+    /** The progress counters of the current run, keyed by name. */
+    private final Map<String, AtomicLong> counters =
+            new ConcurrentHashMap<String, AtomicLong>();
+
+    /** When the last "progress" event was sent, as a value of
+     * System.currentTimeMillis(). */
+    private volatile long lastProgressSent;
+
+    /** Whether the task is running. */
+    private volatile boolean running;
+
+    /** Constructor.
+     * @param aTaskId The id of the task.
+     */
+    private TaskProgress(final Integer aTaskId) {
+        taskId = aTaskId;
+    }
+
+    /** Get the channel of a task, creating it if necessary.
+     * @param aTaskId The id of the task.
+     * @return The channel of the task.
+     */
+    public static TaskProgress forTask(final Integer aTaskId) {
+        return CHANNELS.computeIfAbsent(aTaskId, TaskProgress::new);
+    }
+
+    /** Get the channel of a task, if there is one.
+     * @param aTaskId The id of the task.
+     * @return The channel of the task, or null, if there is none.
+     */
+    public static TaskProgress get(final Integer aTaskId) {
+        return CHANNELS.get(aTaskId);
+    }
+
+    /** Note that the task has started to run.
+     * @param aTaskId The id of the task.
+     * @return The channel of the task.
+     */
+    public static TaskProgress begin(final Integer aTaskId) {
+        TaskProgress progress = forTask(aTaskId);
+        progress.counters.clear();
+        progress.lastProgressSent = 0;
+        progress.running = true;
+        return progress;
+    }
+
+    /** Note that the task has finished. Any pending counter values
+     * are sent, followed by an "end" event. The channel is removed;
+     * current subscribers still receive the remaining events.
+     * @param status The final status of the task.
+     */
+    public void end(final String status) {
+        sendProgress();
+        if (!subscribers.isEmpty()) {
+            String text = formatEndEvent(status);
+            for (BlockingQueue<String> queue : subscribers) {
+                queue.add(text);
+            }
+        }
+        running = false;
+        CHANNELS.remove(taskId, this);
+    }
+
+    /** Is the task running?
+     * @return True, iff the task is running.
+     */
+    public boolean isRunning() {
+        return running;
+    }
+
+    /** Subscribe to the events of the task. If the task is running,
+     * a "progress" event with the current counter values is
+     * the first event received.
+     * @return The queue into which events are put.
+     */
+    public BlockingQueue<String> subscribe() {
+        BlockingQueue<String> queue = new LinkedBlockingQueue<String>();
+        if (running && !counters.isEmpty()) {
+            queue.add(format("progress", countersToJson()));
+        }
+        subscribers.add(queue);
+        return queue;
+    }
+
+    /** Unsubscribe from the events of the task. If there are no
+     * remaining subscribers, and the task is not running,
+     * the channel is removed.
+     * @param queue The queue returned by {@link #subscribe()}.
+     */
+    public void unsubscribe(final BlockingQueue<String> queue) {
+        subscribers.remove(queue);
+        if (subscribers.isEmpty() && !running) {
+            CHANNELS.remove(taskId, this);
+        }
+    }
+
+    /** Get the current values of the progress counters.
+     * @return A copy of the current counter values, keyed by name.
+     */
+    public Map<String, Long> getCounters() {
+        Map<String, Long> values = new HashMap<String, Long>();
+        for (Map.Entry<String, AtomicLong> entry : counters.entrySet()) {
+            values.put(entry.getKey(), entry.getValue().get());
+        }
+        return values;
+    }
+
+    @Override
+    public void increment(final String counter, final long amount) {
+        counters.computeIfAbsent(counter, k -> new AtomicLong()).
+            addAndGet(amount);
+        if (System.currentTimeMillis() - lastProgressSent
+                >= PROGRESS_INTERVAL) {
+            sendProgress();
+        }
+    }
+
+    /** Report a change of status of the task.
+     * @param status The new status.
+     * @param message A message describing the change.
+     */
+    public void status(final String status, final String message) {
+        ObjectNode data = JsonNodeFactory.instance.objectNode();
+        data.put("status", status);
+        data.put("message", message);
+        publish("status", data);
+    }
+
+    /** Report the start of a subtask.
+     * @param index The position of the subtask within the task.
+     * @param type The type of the subtask.
+     */
+    public void subtaskStarted(final int index, final String type) {
+        ObjectNode data = JsonNodeFactory.instance.objectNode();
+        data.put("index", index);
+        data.put("type", type);
+        publish("subtask-start", data);
+    }
+
+    /** Report the end of a subtask. Any pending counter values
+     * are sent first.
+     * @param index The position of the subtask within the task.
+     * @param type The type of the subtask.
+     * @param durationMillis How long the subtask ran,
+     *      in milliseconds.
+     * @param success Whether the subtask succeeded.
+     */
+    public void subtaskFinished(final int index, final String type,
+            final long durationMillis, final boolean success) {
+        sendProgress();
+        ObjectNode data = JsonNodeFactory.instance.objectNode();
+        data.put("index", index);
+        data.put("type", type);
+        data.put("durationMs", durationMillis);
+        data.put("success", success);
+        publish("subtask-end", data);
+    }
+
+    /** Send a "progress" event with the current counter values,
+     * if there are subscribers. */
+    private void sendProgress() {
+        lastProgressSent = System.currentTimeMillis();
+        if (!subscribers.isEmpty() && !counters.isEmpty()) {
+            publish("progress", countersToJson());
+        }
+    }
+
+    /** Get the current counter values, as JSON.
+     * @return The current counter values.
+     */
+    private ObjectNode countersToJson() {
+        ObjectNode data = JsonNodeFactory.instance.objectNode();
+        for (Map.Entry<String, AtomicLong> entry : counters.entrySet()) {
+            data.put(entry.getKey(), entry.getValue().get());
+        }
+        return data;
+    }
+
+    /** Send an event to all subscribers.
+     * @param event The name of the event.
+     * @param data The data of the event.
+     */
+    private void publish(final String event, final ObjectNode data) {
+        if (subscribers.isEmpty()) {
+            return;
+        }
+        String text = format(event, data);
+        for (BlockingQueue<String> queue : subscribers) {
+            queue.add(text);
+        }
+    }
+
+    /** Format a "status" event.
+     * @param status The status of the task.
+     * @param message A message describing the status.
+     * @return The formatted event.
+     */
+    public static String formatStatusEvent(final String status,
+            final String message) {
+        ObjectNode data = JsonNodeFactory.instance.objectNode();
+        data.put("status", status);
+        data.put("message", message);
+        return format("status", data);
+    }
+
+    /** Format an "end" event.
+     * @param status The final status of the task.
+     * @return The formatted event.
+     */
+    public static String formatEndEvent(final String status) {
+        ObjectNode data = JsonNodeFactory.instance.objectNode();
+        data.put("status", status);
+        return format(END_EVENT, data);
+    }
+
+    /** Is an event taken from a subscriber's queue the "end" event?
+     * @param text The event, as taken from the queue.
+     * @return True, iff the event is the "end" event.
+     */
+    public static boolean isEndEvent(final String text) {
+        return text.startsWith("event: " + END_EVENT + "\n");
+    }
+
+    /** Format an event as a Server-Sent Event.
+     * @param event The name of the event.
+     * @param data The data of the event.
+     * @return The formatted event.
+     */
+    private static String format(final String event,
+            final ObjectNode data) {
+        // The data is serialized on one line, as required.
+        return "event: " + event + "\ndata: " + data.toString() + "\n\n";
+    }
+
+}
@@ -4,7 +4,11 @@ package au.org.ands.vocabs.toolkit.tasks;
 import java.lang.invoke.MethodHandles;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.TimeZone;
 
 import org.slf4j.Logger;
@@ -20,6 +24,8 @@ import au.org.ands.vocabs.toolkit.provider.publish.PublishProvider;
 import au.org.ands.vocabs.toolkit.provider.publish.PublishProviderUtils;
 import au.org.ands.vocabs.toolkit.provider.transform.TransformProvider;
 import au.org.ands.vocabs.toolkit.provider.transform.TransformProviderUtils;
+import au.org.ands.vocabs.toolkit.utils.FlightEvents;
+import au.org.ands.vocabs.toolkit.utils.Metrics;
 import au.org.ands.vocabs.toolkit.utils.ToolkitFileUtils;
 
 import com.fasterxml.jackson.databind.JsonNode;
@@ -33,6 +39,24 @@ public class TaskRunner {
     private Logger logger = LoggerFactory.getLogger(
             MethodHandles.lookup().lookupClass());
 
+    /** Prefix of the keys of the results entries that record
+     * how long the task waited for each resource pool,
+     * in milliseconds. */
+    public static final String QUEUE_WAIT_PREFIX = "queue_wait_ms_";
+
+    /** Timer of the subtasks run by providers. The time spent
+     * waiting for a resource pool is not included. */
+    private static final Metrics.Histogram SUBTASK_SECONDS =
+            Metrics.timer("subtask_duration_seconds",
+                    "Time taken by providers to run subtasks.",
+                    "type", "provider");
+
+    /** Counter of the subtasks run by providers, by outcome. */
+    private static final Metrics.Counter SUBTASKS =
+            Metrics.counter("subtasks_total",
+                    "Subtasks run by providers, by outcome.",
+                    "type", "provider", Metrics.OUTCOME);
+
     /** The TaskInfo object for this task. */
     private TaskInfo taskInfo;
 
@@ -45,11 +69,36 @@ public class TaskRunner {
     /** The results of running the task. */
     private HashMap<String, String> results = new HashMap<String, String>();
 
+    /** The channel for progress events of this task. */
+    private TaskProgress progress;
+
+    /** Whether to resume the task, skipping subtasks that were
+     * completed by a previous run, and whose inputs have not changed. */
+    private boolean resume;
+
+    /** The checkpoints of the subtasks completed so far. */
+    private List<SubtaskCheckpoint> checkpoints =
+            new ArrayList<SubtaskCheckpoint>();
+
+    /** The timings of the subtasks run so far. */
+    private List<SubtaskTiming> timings = new ArrayList<SubtaskTiming>();
+
     /** Constructor.
      * @param aTaskInfo The TaskInfo structure describing this task.
      */
     public TaskRunner(final TaskInfo aTaskInfo) {
+        this(aTaskInfo, false);
+    }
+
+    /** Constructor.
+     * @param aTaskInfo The TaskInfo structure describing this task.
+     * @param aResume Whether to resume the task, i.e., to skip
+     *      subtasks that were completed by a previous run of the task,
+     *      and whose inputs have not changed since.
+     */
+    public TaskRunner(final TaskInfo aTaskInfo, final boolean aResume) {
         taskInfo = aTaskInfo;
+        resume = aResume;
     }
 
     /** Get the task status.
@@ -59,12 +108,76 @@ public class TaskRunner {
         return status;
     }
 
-    /** Run the task.
+    /** Run the task. If the task is already being run, wait for
+     * that run to finish, and take its results, rather than running
+     * the task again. See {@link TaskCoordinator}.
      */
     public final void runTask() {
-        status = TaskStatus.SUCCESS;
         task = taskInfo.getTask();
+        TaskCoordinator.Outcome outcome =
+                TaskCoordinator.runOnce(task.getId(), this::runExclusively);
+        if (outcome.isCoalesced()) {
+            results = outcome.getResults();
+            status = results.get("status");
+            results.put("coalesced", "true");
+        }
+    }
+
+    /** Run the task, holding the lease on the task, and the lock
+     * for its vocabulary version. If another node runs the task
+     * while this node waits for the lease, the results recorded
+     * by the other node are used instead.
+     * While the task runs, its {@link TaskControl} is registered,
+     * so that it can be cancelled by id.
+     * @return The results of running the task.
+     */
+    private HashMap<String, String> runExclusively() {
+        TaskControl control = TaskControl.begin(task.getId());
+        taskInfo.setControl(control);
+        progress = TaskProgress.begin(task.getId());
+        taskInfo.setProgressListener(progress);
+        if (taskInfo.getPriority() == null) {
+            // Not set by the caller, so the task was requested
+            // by a user.
+            taskInfo.setPriority(TaskPriority.compute(taskInfo, false));
+        }
+        FlightEvents.Span taskSpan = FlightEvents.task(taskInfo);
+        try {
+            TaskLease lease = TaskLease.claim(task, control);
+            if (lease == null) {
+                useResultsOfOtherNode();
+            } else {
+                try {
+                    TaskCoordinator.VersionHold versionHold =
+                            TaskCoordinator.lockVersion(taskInfo, control);
+                    try {
+                        runSubtasks(control);
+                    } finally {
+                        versionHold.close();
+                    }
+                } finally {
+                    lease.close();
+                }
+            }
+        } catch (TaskCancelledException e) {
+            setCancelled(control);
+        } finally {
+            TaskControl.end(control);
+            progress.end(status);
+            taskSpan.setOutcome(status);
+            taskSpan.close();
+        }
+        return getResults();
+    }
+
+    /** Run the subtasks of the task.
+     * @param control The control for cancellation and time budgets
+     *      of the task.
+     */
+    private void runSubtasks(final TaskControl control) {
+        status = TaskStatus.SUCCESS;
         results.put("task_id", task.getId().toString());
+        results.put("priority", TaskPriority.getName(taskInfo.getPriority()));
         ArrayNode subtasks = TaskUtils.getSubtasks(task.getParams());
         if (subtasks == null || subtasks.size() == 0) {
             status = TaskStatus.ERROR;
@@ -75,8 +188,24 @@ public class TaskRunner {
                     status, "No subtasks specified. Nothing to do.");
             return;
         }
+        // If resuming, get the checkpoints of the previous run
+        // before the response is overwritten.
+        List<SubtaskCheckpoint> previousCheckpoints;
+        if (resume) {
+            previousCheckpoints =
+                    SubtaskCheckpoint.fromTaskResponse(task.getResponse());
+        } else {
+            previousCheckpoints = new ArrayList<SubtaskCheckpoint>();
+        }
+        // Skipping of subtasks stops at the first subtask that
+        // has to be run; all subsequent subtasks are run.
+        boolean skipping = resume;
+        int skipped = 0;
+        int index = -1;
         boolean success = false;
         for (JsonNode subtask : subtasks) {
+            index++;
+            control.checkpoint();
             logger.debug("Got subtask: " + subtask.toString());
             if (!(subtask instanceof ObjectNode)) {
                 logger.error("runTask() didn't get an object:"
@@ -89,32 +218,52 @@ public class TaskRunner {
             }
             logger.debug("subtask type: " + subtask.get("type"));
             String thisTask = subtask.get("type").textValue();
-            switch (thisTask) {
-                case "HARVEST":
-                case "UNHARVEST":
-                    success = runHarvest(subtask, thisTask);
-                    break;
-                case "TRANSFORM":
-                case "UNTRANSFORM":
-                    success = runTransform(subtask, thisTask);
-                    break;
-                case "IMPORT":
-                case "UNIMPORT":
-                    success = runImport(subtask, thisTask);
-                    break;
-                case "PUBLISH":
-                case "UNPUBLISH":
-                    success = runPublish(subtask, thisTask);
-                    break;
-//                case "DELETE":
-//                    success = runDelete(subtask);
-//                    break;
-                default:
-                    status = TaskStatus.ERROR;
-                    results.put("invalid_sub_task", thisTask);
-                    TaskUtils.updateMessageAndTaskStatus(logger, task, results,
-                            status, "Invalid subtask specification.");
-                break;
+            String digest = SubtaskCheckpoint.computeDigest(taskInfo,
+                    subtask);
+            if (skipping) {
+                SubtaskCheckpoint previous =
+                        findCheckpoint(previousCheckpoints, index);
+                if (previous != null
+                        && previous.isValidFor(index, thisTask, digest)) {
+                    logger.debug("Skipping completed subtask " + index
+                            + ": " + thisTask);
+                    results.putAll(previous.getOutputs());
+                    addCheckpoint(previous);
+                    skipped++;
+                    continue;
+                }
+                skipping = false;
+            }
+            HashMap<String, String> resultsBefore =
+                    new HashMap<String, String>(results);
+            control.startSubtask(thisTask);
+            progress.subtaskStarted(index, thisTask);
+            String providerType = subtask.path("provider_type").textValue();
+            SubtaskTiming timing = SubtaskTiming.start(index, thisTask,
+                    providerType, progress);
+            FlightEvents.Span subtaskSpan = FlightEvents.subtask(taskInfo,
+                    index, thisTask, providerType);
+            success = false;
+            try {
+                success = runSubtask(subtask, thisTask);
+            } finally {
+                if (success) {
+                    subtaskSpan.setOutcome(Metrics.SUCCESS);
+                } else {
+                    subtaskSpan.setOutcome(Metrics.ERROR);
+                }
+                subtaskSpan.close();
+                control.endSubtask();
+                timing.finish(success, progress,
+                        ToolkitFileUtils.getTaskOutputPath(taskInfo, null));
+                addTiming(timing);
+                progress.subtaskFinished(index, thisTask,
+                        timing.getDurationMillis(), success);
+            }
+            if (control.isCancelled()) {
+                // The subtask may have failed only because its
+                // resources were closed by the cancellation.
+                throw new TaskCancelledException(control.getCancelReason());
             }
             if (!success) {
                 logger.error("ERROR while running task: " + thisTask);
@@ -125,6 +274,11 @@ public class TaskRunner {
                         status, "Error in subtask.");
                 return;
             }
+            addCheckpoint(new SubtaskCheckpoint(index, thisTask, digest,
+                    getChangedResults(resultsBefore)));
+        }
+        if (resume) {
+            results.put("resumed_skipped_subtasks", Integer.toString(skipped));
         }
         status = TaskStatus.SUCCESS;
         results.put("output_path", ToolkitFileUtils.getTaskOutputPath(taskInfo,
@@ -134,6 +288,155 @@ public class TaskRunner {
                 status, "All tasks completed.");
     }
 
+    /** Use the results of the task recorded in the database
+     * by another node that ran it. */
+    private void useResultsOfOtherNode() {
+        Task current = TaskUtils.getTaskById(task.getId());
+        status = current.getStatus();
+        JsonNode response = TaskUtils.jsonStringToTree(
+                current.getResponse());
+        if (response != null) {
+            Iterator<Map.Entry<String, JsonNode>> fields =
+                    response.fields();
+            while (fields.hasNext()) {
+                Map.Entry<String, JsonNode> field = fields.next();
+                results.put(field.getKey(), field.getValue().asText());
+            }
+        }
+        results.put("status", status);
+        results.put("ran_on_other_node", "true");
+    }
+
+    /** Record that the task has been cancelled.
+     * @param control The control for cancellation and time budgets
+     *      of the task.
+     */
+    private void setCancelled(final TaskControl control) {
+        logger.info("Task " + task.getId() + " cancelled: "
+                + control.getCancelReason());
+        status = TaskStatus.CANCELLED;
+        results.put(TaskStatus.CANCELLED, control.getCancelReason());
+        addTimestamp(results);
+        TaskUtils.updateMessageAndTaskStatus(logger, task, results,
+                status, "Task cancelled.");
+    }
+
+    /** Run one subtask.
+     * @param subtask Details of the subtask
+     * @param thisTask The type of the subtask.
+     * @return True, iff the subtask was successful.
+     */
+    private boolean runSubtask(final JsonNode subtask,
+            final String thisTask) {
+        switch (thisTask) {
+            case "HARVEST":
+            case "UNHARVEST":
+                return runHarvest(subtask, thisTask);
+            case "TRANSFORM":
+            case "UNTRANSFORM":
+                return runTransform(subtask, thisTask);
+            case "IMPORT":
+            case "UNIMPORT":
+                return runImport(subtask, thisTask);
+            case "PUBLISH":
+            case "UNPUBLISH":
+                return runPublish(subtask, thisTask);
+//            case "DELETE":
+//                return runDelete(subtask);
+            default:
+                status = TaskStatus.ERROR;
+                results.put("invalid_sub_task", thisTask);
+                TaskUtils.updateMessageAndTaskStatus(logger, task, results,
+                        status, "Invalid subtask specification.");
+                return false;
+        }
+    }
+
+    /** Take a permit from the resource pool used by a subtask,
+     * waiting if necessary, and add the time spent waiting to the
+     * results. See {@link Bulkheads}.
+     * @param taskType The type of the subtask.
+     * @param providerName The provider type of the subtask.
+     * @return The permit, which the caller must close when the
+     *      subtask has finished.
+     */
+    private Bulkheads.Permit acquirePermit(final String taskType,
+            final String providerName) {
+        Bulkheads.Permit permit = Bulkheads.acquire(
+                Bulkheads.getPoolName(taskType, providerName),
+                taskInfo.getPriority(), taskInfo.getControl());
+        if (permit.getPoolName() != null) {
+            String key = QUEUE_WAIT_PREFIX + permit.getPoolName();
+            long total = permit.getWaitMillis();
+            if (results.containsKey(key)) {
+                total += Long.parseLong(results.get(key));
+            }
+            results.put(key, Long.toString(total));
+        }
+        return permit;
+    }
+
+    /** Find the checkpoint of a previous run for a subtask.
+     * @param previousCheckpoints The checkpoints of the previous run.
+     * @param index The position of the subtask within the task.
+     * @return The checkpoint for the subtask, or null, if there is none.
+     */
+    private SubtaskCheckpoint findCheckpoint(
+            final List<SubtaskCheckpoint> previousCheckpoints,
+            final int index) {
+        for (SubtaskCheckpoint checkpoint : previousCheckpoints) {
+            if (checkpoint.getIndex() == index) {
+                return checkpoint;
+            }
+        }
+        return null;
+    }
+
+    /** Add a checkpoint for a completed subtask, and store the
+     * updated list of checkpoints in the results.
+     * @param checkpoint The checkpoint to be added.
+     */
+    private void addCheckpoint(final SubtaskCheckpoint checkpoint) {
+        checkpoints.add(checkpoint);
+        results.put(SubtaskCheckpoint.RESULTS_KEY,
+                SubtaskCheckpoint.toJSONString(checkpoints));
+    }
+
+    /** Add the timing of a subtask, and store the updated list
+     * of timings in the results.
+     * @param timing The timing to be added.
+     */
+    private void addTiming(final SubtaskTiming timing) {
+        timings.add(timing);
+        results.put(SubtaskTiming.RESULTS_KEY,
+                SubtaskTiming.toJSONString(timings));
+    }
+
+    /** Get the results entries that have been added or changed
+     * since a previous copy of the results was made. The status,
+     * checkpoint, and timing entries are not included.
+     * @param resultsBefore The previous copy of the results.
+     * @return The results entries added or changed since then.
+     */
+    private Map<String, String> getChangedResults(
+            final Map<String, String> resultsBefore) {
+        Map<String, String> changed = new HashMap<String, String>();
+        for (Map.Entry<String, String> entry : results.entrySet()) {
+            String key = entry.getKey();
+            if ("status".equals(key)
+                    || SubtaskCheckpoint.RESULTS_KEY.equals(key)
+                    || SubtaskTiming.RESULTS_KEY.equals(key)
+                    || key.startsWith(QUEUE_WAIT_PREFIX)) {
+                continue;
+            }
+            if (entry.getValue() != null
+                    && !entry.getValue().equals(resultsBefore.get(key))) {
+                changed.put(key, entry.getValue());
+            }
+        }
+        return changed;
+    }
+
     /** Run a harvest.
      * @param subtask Details of the subtask
      * @param taskType The type of harvest operation to be performed.
@@ -163,13 +466,21 @@ public class TaskRunner {
                     status, "Could not find Provider: " + providerName);
             return false;
         }
-        switch (taskType) {
-        case "HARVEST":
-            return provider.harvest(taskInfo, subtask, results);
-        case "UNHARVEST":
-            return provider.unharvest(taskInfo, subtask, results);
-        default:
-            return false;
+        Bulkheads.Permit permit = acquirePermit(taskType, providerName);
+        try (Metrics.Operation operation = Metrics.start(
+                SUBTASK_SECONDS, SUBTASKS, taskType, providerName)) {
+            switch (taskType) {
+            case "HARVEST":
+                return operation.complete(
+                        provider.harvest(taskInfo, subtask, results));
+            case "UNHARVEST":
+                return operation.complete(
+                        provider.unharvest(taskInfo, subtask, results));
+            default:
+                return false;
+            }
+        } finally {
+            permit.close();
         }
     }
 
@@ -202,13 +513,21 @@ public class TaskRunner {
                     status, "Could not find Provider: " + providerName);
             return false;
         }
-        switch (taskType) {
-        case "TRANSFORM":
-            return provider.transform(taskInfo, subtask, results);
-        case "UNTRANSFORM":
-            return provider.untransform(taskInfo, subtask, results);
-        default:
-            return false;
+        Bulkheads.Permit permit = acquirePermit(taskType, providerName);
+        try (Metrics.Operation operation = Metrics.start(
+                SUBTASK_SECONDS, SUBTASKS, taskType, providerName)) {
+            switch (taskType) {
+            case "TRANSFORM":
+                return operation.complete(
+                        provider.transform(taskInfo, subtask, results));
+            case "UNTRANSFORM":
+                return operation.complete(
+                        provider.untransform(taskInfo, subtask, results));
+            default:
+                return false;
+            }
+        } finally {
+            permit.close();
         }
     }
 
@@ -241,13 +560,21 @@ public class TaskRunner {
                     status, "Could not find Provider: " + providerName);
             return false;
         }
-        switch (taskType) {
-        case "IMPORT":
-            return provider.doImport(taskInfo, subtask, results);
-        case "UNIMPORT":
-            return provider.unimport(taskInfo, subtask, results);
-        default:
-            return false;
+        Bulkheads.Permit permit = acquirePermit(taskType, providerName);
+        try (Metrics.Operation operation = Metrics.start(
+                SUBTASK_SECONDS, SUBTASKS, taskType, providerName)) {
+            switch (taskType) {
+            case "IMPORT":
+                return operation.complete(
+                        provider.doImport(taskInfo, subtask, results));
+            case "UNIMPORT":
+                return operation.complete(
+                        provider.unimport(taskInfo, subtask, results));
+            default:
+                return false;
+            }
+        } finally {
+            permit.close();
         }
     }
 
@@ -280,13 +607,21 @@ public class TaskRunner {
                     status, "Could not find Provider: " + providerName);
             return false;
         }
-        switch (taskType) {
-        case "PUBLISH":
-            return provider.publish(taskInfo, subtask, results);
-        case "UNPUBLISH":
-            return provider.unpublish(taskInfo, subtask, results);
-        default:
-            return false;
+        Bulkheads.Permit permit = acquirePermit(taskType, providerName);
+        try (Metrics.Operation operation = Metrics.start(
+                SUBTASK_SECONDS, SUBTASKS, taskType, providerName)) {
+            switch (taskType) {
+            case "PUBLISH":
+                return operation.complete(
+                        provider.publish(taskInfo, subtask, results));
+            case "UNPUBLISH":
+                return operation.complete(
+                        provider.unpublish(taskInfo, subtask, results));
+            default:
+                return false;
+            }
+        } finally {
+            permit.close();
         }
     }
 
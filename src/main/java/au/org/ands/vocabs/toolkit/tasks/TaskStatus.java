@@ -1,6 +1,10 @@
 /** See the file "LICENSE" for the full license governing this code. */
 package au.org.ands.vocabs.toolkit.tasks;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
 /** Constants for task status. */
 public final class TaskStatus {
 
@@ -13,8 +17,36 @@ public final class TaskStatus {
     /** Success. */
     public static final String SUCCESS = "success";
 
+    /** Claimed by a node, which is about to run the task. */
+    public static final String CLAIMED = "claimed";
+
+    /** Cancelled, either on request, or because the task ran out
+     * of time. */
+    public static final String CANCELLED = "cancelled";
+
+    /** The terminal statuses. */
+    private static final List<String> TERMINAL_STATUSES =
+            Collections.unmodifiableList(Arrays.asList(
+                    ERROR, EXCEPTION, SUCCESS, CANCELLED));
+
     /** Private constructor for utility class. */
     private TaskStatus() {
     }
 
+    /** Get the terminal statuses.
+     * @return The list of terminal statuses.
+     */
+    public static List<String> getTerminalStatuses() {
+        return TERMINAL_STATUSES;
+    }
+
+    /** Is a status terminal, i.e., does it mean that the task
+     * has finished running?
+     * @param status The status value.
+     * @return True, iff the status is terminal.
+     */
+    public static boolean isTerminal(final String status) {
+        return TERMINAL_STATUSES.contains(status);
+    }
+
 }
@@ -20,6 +20,12 @@ import com.mchange.v2.c3p0.C3P0Registry;
 import com.mchange.v2.c3p0.PooledDataSource;
 
 import au.org.ands.vocabs.toolkit.db.DBContext;
+import au.org.ands.vocabs.toolkit.db.TaskStatusJournal;
+import au.org.ands.vocabs.toolkit.tasks.BulkJobRunner;
+import au.org.ands.vocabs.toolkit.tasks.LeaseHeartbeat;
+import au.org.ands.vocabs.toolkit.tasks.PeriodicScheduler;
+import au.org.ands.vocabs.toolkit.tasks.TaskControl;
+import au.org.ands.vocabs.toolkit.tasks.TaskPoller;
 
 /** Context listener for the Toolkit web application.
  */
@@ -44,7 +50,9 @@ public class ApplicationContextListener implements ServletContextListener {
     }
 
     /** Listener for context initialization.
-     *  Only does a basic logging of startup for now.
+     *  Logs startup, registers the metrics MBean, starts the warm-up,
+     *  starts the task poller and the scheduler of periodic jobs,
+     *  if they are enabled, and resumes unfinished bulk jobs.
      * @param sce The ServletContextEvent.
      */
     @Override
@@ -57,6 +65,11 @@ public class ApplicationContextListener implements ServletContextListener {
             logger.error("servletContext is null! This probably means "
                     + "a Tomcat JAR is missing.");
         }
+        Metrics.registerMBean();
+        WarmUp.start();
+        TaskPoller.start();
+        PeriodicScheduler.start();
+        BulkJobRunner.resumeAll();
     }
 
     /** Listener for context destruction.
@@ -74,8 +87,19 @@ public class ApplicationContextListener implements ServletContextListener {
         //   http://stackoverflow.com/questions/3320400/to-prevent-
         //     a-memory-leak-the-jdbc-driver-has-been-forcibly-unregistered
         // First close any background tasks which may be using the DB ...
-
-        // ... to be done ...
+        // Stop any retries of the warm-up. Let any running periodic
+        // jobs finish, then stop polling for tasks, stop bulk jobs,
+        // and cancel any running tasks.
+        WarmUp.doShutdown();
+        PeriodicScheduler.doShutdown();
+        TaskPoller.doShutdown();
+        BulkJobRunner.doShutdown();
+        TaskControl.doShutdown();
+        // Stop renewing leases; other nodes can claim the tasks
+        // once the leases expire.
+        LeaseHeartbeat.doShutdown();
+        // Write any pending task status updates.
+        TaskStatusJournal.doShutdown();
 
         // Carefully close the JPA EntityManagerFactory.
         dbShutdown();
@@ -122,6 +146,7 @@ public class ApplicationContextListener implements ServletContextListener {
 
         // Invoke any remaining shutdown methods.
         ToolkitNetUtils.doShutdown();
+        Metrics.doShutdown();
 
         // When running tests, log4j may have started a thread;
         // shut it down. However, note that if Arquillian uses
@@ -0,0 +1,215 @@
+/** See the file "LICENSE" for the full license governing this code. */
+package au.org.ands.vocabs.toolkit.utils;
+
+import java.time.DayOfWeek;
+import java.time.LocalDateTime;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.BitSet;
+
+/** A schedule in the format of a crontab entry. An expression has
+ * five fields, separated by spaces: minute (0-59), hour (0-23),
+ * day of month (1-31), month (1-12), and day of week (0-7, where
+ * both 0 and 7 are Sunday). Each field is a comma-separated list of
+ * elements, each of which is "*", a value, or a range such as "1-5",
+ * optionally followed by a step, such as "*&#47;15" or "0-30/10".
+ * Names of months and days are not supported.
+ *
+ * As with cron, if both the day of month and the day of week
+ * are restricted (i.e., neither is "*"), a day matches if either
+ * field matches.
+ */
+public final class CronExpression {
+
+    /** The number of fields in an expression. */
+    private static final int FIELD_COUNT = 5;
+
+    /** Index of the minute field. */
+    private static final int MINUTE = 0;
+
+    /** Index of the hour field. */
+    private static final int HOUR = 1;
+
+    /** Index of the day-of-month field. */
+    private static final int DAY_OF_MONTH = 2;
+
+    /** Index of the month field. */
+    private static final int MONTH = 3;
+
+    /** Index of the day-of-week field. */
+    private static final int DAY_OF_WEEK = 4;
+
+    /** The minimum values of the fields. */
+    private static final int[] MINIMUMS = {0, 0, 1, 1, 0};
+
+    /** The maximum values of the fields. */
+    private static final int[] MAXIMUMS = {59, 23, 31, 12, 7};
+
+    /** The value of the day-of-week field that is also Sunday. */
+    private static final int SUNDAY = 7;
+
+    /** How far ahead to look for a matching time, in days. An
+     * expression that matches no time within this period, such as
+     * "0 0 31 2 *", matches no time at all. */
+    private static final int MAX_DAYS = 366 * 4 + 1;
+
+    /** The expression, as given. */
+    private final String expression;
+
+    /** The values matched by each field. */
+    private final BitSet[] fields = new BitSet[FIELD_COUNT];
+
+    /** Whether the day-of-month field is "*". */
+    private final boolean anyDayOfMonth;
+
+    /** Whether the day-of-week field is "*". */
+    private final boolean anyDayOfWeek;
+
+    /** Constructor.
+     * @param anExpression The expression.
+     * @throws IllegalArgumentException If the expression
+     *      is not valid.
+     */
+    public CronExpression(final String anExpression) {
+        expression = anExpression.trim();
+        String[] parts = expression.split("\\s+");
+        if (parts.length != FIELD_COUNT) {
+            throw new IllegalArgumentException("Cron expression must have "
+                    + FIELD_COUNT + " fields: " + expression);
+        }
+        for (int i = 0; i < FIELD_COUNT; i++) {
+            fields[i] = parseField(parts[i], MINIMUMS[i], MAXIMUMS[i]);
+        }
+        if (fields[DAY_OF_WEEK].get(SUNDAY)) {
+            fields[DAY_OF_WEEK].set(0);
+        }
+        anyDayOfMonth = "*".equals(parts[DAY_OF_MONTH]);
+        anyDayOfWeek = "*".equals(parts[DAY_OF_WEEK]);
+    }
+
+    /** Parse one field of an expression.
+     * @param field The field.
+     * @param min The minimum value of the field.
+     * @param max The maximum value of the field.
+     * @return The values matched by the field.
+     * @throws IllegalArgumentException If the field is not valid.
+     */
+    private BitSet parseField(final String field, final int min,
+            final int max) {
+        BitSet values = new BitSet(max + 1);
+        for (String element : field.split(",")) {
+            String range = element;
+            int step = 1;
+            int slash = element.indexOf('/');
+            if (slash >= 0) {
+                range = element.substring(0, slash);
+                step = parseValue(element.substring(slash + 1), 1,
+                        max - min + 1);
+            }
+            int from;
+            int to;
+            int dash = range.indexOf('-');
+            if ("*".equals(range)) {
+                from = min;
+                to = max;
+            } else if (dash >= 0) {
+                from = parseValue(range.substring(0, dash), min, max);
+                to = parseValue(range.substring(dash + 1), min, max);
+            } else {
+                from = parseValue(range, min, max);
+                to = from;
+                if (slash >= 0) {
+                    // As with cron, "5/15" means "5-max/15".
+                    to = max;
+                }
+            }
+            if (from > to) {
+                throw new IllegalArgumentException("Invalid range in "
+                        + "cron expression: " + expression);
+            }
+            for (int value = from; value <= to; value += step) {
+                values.set(value);
+            }
+        }
+        return values;
+    }
+
+    /** Parse one value of a field.
+     * @param value The value.
+     * @param min The minimum allowed value.
+     * @param max The maximum allowed value.
+     * @return The value, as an integer.
+     * @throws IllegalArgumentException If the value is not an
+     *      integer in the allowed range.
+     */
+    private int parseValue(final String value, final int min,
+            final int max) {
+        int result;
+        try {
+            result = Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid value \""
+                    + value + "\" in cron expression: " + expression);
+        }
+        if (result < min || result > max) {
+            throw new IllegalArgumentException("Value " + value
+                    + " out of range in cron expression: " + expression);
+        }
+        return result;
+    }
+
+    /** Get the first time, after a given time, that matches
+     * the expression.
+     * @param after The time after which to look.
+     * @return The first matching time, to the minute, or null,
+     *      if no time matches.
+     */
+    public ZonedDateTime next(final ZonedDateTime after) {
+        LocalDateTime time = after.toLocalDateTime().
+                truncatedTo(ChronoUnit.MINUTES).plusMinutes(1);
+        LocalDateTime limit = time.plusDays(MAX_DAYS);
+        while (time.isBefore(limit)) {
+            if (!fields[MONTH].get(time.getMonthValue())) {
+                time = time.withDayOfMonth(1).truncatedTo(ChronoUnit.DAYS).
+                        plusMonths(1);
+            } else if (!matchesDay(time)) {
+                time = time.truncatedTo(ChronoUnit.DAYS).plusDays(1);
+            } else if (!fields[HOUR].get(time.getHour())) {
+                time = time.truncatedTo(ChronoUnit.HOURS).plusHours(1);
+            } else if (!fields[MINUTE].get(time.getMinute())) {
+                time = time.plusMinutes(1);
+            } else {
+                ZonedDateTime result = time.atZone(after.getZone());
+                if (result.toLocalDateTime().equals(time)) {
+                    return result;
+                }
+                // In a gap caused by a change to daylight saving
+                // time; the time does not exist.
+                time = time.plusMinutes(1);
+            }
+        }
+        return null;
+    }
+
+    /** Decide whether the day of a time matches the expression.
+     * @param time The time.
+     * @return True, iff the day matches.
+     */
+    private boolean matchesDay(final LocalDateTime time) {
+        boolean dayOfMonth = fields[DAY_OF_MONTH].get(time.getDayOfMonth());
+        DayOfWeek day = time.getDayOfWeek();
+        // DayOfWeek numbers Monday to Sunday as 1 to 7.
+        boolean dayOfWeek = fields[DAY_OF_WEEK].get(day.getValue() % SUNDAY);
+        if (anyDayOfMonth || anyDayOfWeek) {
+            return dayOfMonth && dayOfWeek;
+        }
+        return dayOfMonth || dayOfWeek;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String toString() {
+        return expression;
+    }
+
+}
@@ -0,0 +1,429 @@
+/** See the file "LICENSE" for the full license governing this code. */
+package au.org.ands.vocabs.toolkit.utils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/** Sorter of more records than fit in the heap. Records are added
+ * to a buffer; when the estimated size of the buffer reaches the
+ * heap budget, the buffer is sorted and written to a temporary file,
+ * called a run. The sorted records are then read by merging the runs.
+ * If all the records fit in the budget, no runs are written.
+ *
+ * Use an instance in a try-with-resources statement, so that
+ * its temporary files are deleted:
+ * <pre>
+ * try (ExternalSorter&lt;R&gt; sorter = new ExternalSorter&lt;R&gt;(...)) {
+ *     sorter.add(...);
+ *     ...
+ *     try (ExternalSorter.Cursor&lt;R&gt; cursor = sorter.sort()) {
+ *         R record;
+ *         while ((record = cursor.next()) != null) {
+ *             ...
+ *         }
+ *     }
+ * }
+ * </pre>
+ * The sort is stable: records that compare as equal are returned
+ * in the order in which they were added.
+ * @param <T> The type of the records.
+ */
+public final class ExternalSorter<T> implements Closeable {
+
+    /** The maximum number of runs merged at once. If there are
+     * more runs, they are first merged into longer runs. */
+    private static final int MAX_FAN_IN = 64;
+
+    /** Size of the I/O buffer of each run, in bytes. */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /** Estimated heap size of a reference in the buffer,
+     * in bytes. */
+    private static final long REFERENCE_SIZE = 8;
+
+    /** The encoding of records in runs. */
+    public interface Codec<T> {
+
+        /** Write a record.
+         * @param out The output to which the record is written.
+         * @param record The record.
+         * @throws IOException If the record can not be written.
+         */
+        void write(DataOutput out, T record) throws IOException;
+
+        /** Read a record.
+         * @param in The input from which the record is read.
+         * @return The record.
+         * @throws IOException If the record can not be read.
+         */
+        T read(DataInput in) throws IOException;
+
+        /** Estimate the heap size of a record. The estimate need not
+         * be exact, but the heap budget is only as good as it is.
+         * @param record The record.
+         * @return The estimated heap size of the record, in bytes.
+         */
+        long size(T record);
+    }
+
+    /** A cursor over the sorted records. */
+    public interface Cursor<T> extends Closeable {
+
+        /** Get the next record.
+         * @return The next record, or null, if there are no more.
+         * @throws IOException If a run can not be read.
+         */
+        T next() throws IOException;
+    }
+
+    /** The directory in which runs are written. */
+    private final Path directory;
+
+    /** The heap budget of the buffer, in bytes. */
+    private final long budget;
+
+    /** The encoding of records in runs. */
+    private final Codec<T> codec;
+
+    /** The order of the records. */
+    private final Comparator<? super T> comparator;
+
+    /** The records not yet written to a run. */
+    private final List<T> buffer = new ArrayList<T>();
+
+    /** The estimated heap size of the buffer, in bytes. */
+    private long bufferSize;
+
+    /** The runs written so far, in the order written. */
+    private final List<Run> runs = new ArrayList<Run>();
+
+    /** The number of records added. */
+    private long count;
+
+    /** The number of temporary files created, used to name them. */
+    private int filesCreated;
+
+    /** Constructor.
+     * @param aDirectory The directory in which runs are written.
+     *      It must exist.
+     * @param aBudget The heap budget of the buffer, in bytes.
+     * @param aCodec The encoding of records in runs.
+     * @param aComparator The order of the records.
+     */
+    public ExternalSorter(final Path aDirectory, final long aBudget,
+            final Codec<T> aCodec, final Comparator<? super T> aComparator) {
+        directory = aDirectory;
+        budget = aBudget;
+        codec = aCodec;
+        comparator = aComparator;
+    }
+
+    /** Add a record.
+     * @param record The record to be added.
+     * @throws IOException If a run can not be written.
+     */
+    public void add(final T record) throws IOException {
+        buffer.add(record);
+        bufferSize += codec.size(record) + REFERENCE_SIZE;
+        count++;
+        if (bufferSize >= budget) {
+            writeBuffer();
+        }
+    }
+
+    /** Get the number of records added.
+     * @return The number of records added.
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /** Get the number of runs written. If this is 0, the records
+     * have so far fit in the heap budget.
+     * @return The number of runs written.
+     */
+    public int getRunCount() {
+        return runs.size();
+    }
+
+    /** Sort the records added. No more records may be added.
+     * @return A cursor over the sorted records. The caller
+     *      must close it.
+     * @throws IOException If the runs can not be written or read.
+     */
+    public Cursor<T> sort() throws IOException {
+        if (runs.isEmpty()) {
+            buffer.sort(comparator);
+            List<T> sorted = new ArrayList<T>(buffer);
+            buffer.clear();
+            bufferSize = 0;
+            return new ListCursor<T>(sorted);
+        }
+        writeBuffer();
+        while (runs.size() > MAX_FAN_IN) {
+            List<Run> merged = new ArrayList<Run>(runs.subList(0,
+                    MAX_FAN_IN));
+            Run run = newRun();
+            try (Cursor<T> cursor = new MergeCursor(merged);
+                    DataOutputStream out = run.openOutput()) {
+                T record;
+                while ((record = cursor.next()) != null) {
+                    codec.write(out, record);
+                    run.count++;
+                }
+            }
+            for (Run done : merged) {
+                done.delete();
+            }
+            runs.subList(0, MAX_FAN_IN).clear();
+            // Merging earlier runs before later ones keeps the
+            // sort stable.
+            runs.add(0, run);
+        }
+        return new MergeCursor(new ArrayList<Run>(runs));
+    }
+
+    /** Delete the runs. */
+    @Override
+    public void close() {
+        for (Run run : runs) {
+            run.delete();
+        }
+        runs.clear();
+        buffer.clear();
+    }
+
+    /** Sort the buffer and write it as a run.
+     * @throws IOException If the run can not be written.
+     */
+    private void writeBuffer() throws IOException {
+        if (buffer.isEmpty()) {
+            return;
+        }
+        buffer.sort(comparator);
+        Run run = newRun();
+        try (DataOutputStream out = run.openOutput()) {
+            for (T record : buffer) {
+                codec.write(out, record);
+            }
+        }
+        run.count = buffer.size();
+        runs.add(run);
+        buffer.clear();
+        bufferSize = 0;
+    }
+
+    /** Create a new, empty, run.
+     * @return The new run.
+     */
+    private Run newRun() {
+        filesCreated++;
+        return new Run(directory.resolve("run-" + filesCreated));
+    }
+
+    /** A sorted run of records, written to a temporary file. */
+    private static final class Run {
+
+        /** The file of the run. */
+        private final Path file;
+
+        /** The number of records in the run. */
+        private long count;
+
+        /** Constructor.
+         * @param aFile The file of the run.
+         */
+        private Run(final Path aFile) {
+            file = aFile;
+        }
+
+        /** Open the file of the run for writing.
+         * @return The output to which the records are written.
+         * @throws IOException If the file can not be opened.
+         */
+        private DataOutputStream openOutput() throws IOException {
+            return new DataOutputStream(new BufferedOutputStream(
+                    Files.newOutputStream(file), BUFFER_SIZE));
+        }
+
+        /** Open the file of the run for reading.
+         * @return The input from which the records are read.
+         * @throws IOException If the file can not be opened.
+         */
+        private DataInputStream openInput() throws IOException {
+            return new DataInputStream(new BufferedInputStream(
+                    Files.newInputStream(file), BUFFER_SIZE));
+        }
+
+        /** Delete the file of the run, if it exists. */
+        private void delete() {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                // Not fatal; the file is in a temporary directory.
+                file.toFile().deleteOnExit();
+            }
+        }
+    }
+
+    /** Cursor over a list of records sorted in the heap.
+     * @param <T> The type of the records.
+     */
+    private static final class ListCursor<T> implements Cursor<T> {
+
+        /** The records. */
+        private final List<T> records;
+
+        /** The index of the next record. */
+        private int next;
+
+        /** Constructor.
+         * @param aRecords The records.
+         */
+        private ListCursor(final List<T> aRecords) {
+            records = aRecords;
+        }
+
+        @Override
+        public T next() {
+            if (next >= records.size()) {
+                return null;
+            }
+            T record = records.get(next);
+            // Let the record be collected once the caller is done.
+            records.set(next, null);
+            next++;
+            return record;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /** Cursor that merges runs. */
+    private final class MergeCursor implements Cursor<T> {
+
+        /** The heads of the runs that have records left. Ties are
+         * broken by the position of the run, to keep the sort
+         * stable. */
+        private final PriorityQueue<Head> heads;
+
+        /** The inputs of the runs. */
+        private final List<DataInputStream> inputs =
+                new ArrayList<DataInputStream>();
+
+        /** Constructor.
+         * @param toMerge The runs to be merged.
+         * @throws IOException If a run can not be read.
+         */
+        private MergeCursor(final List<Run> toMerge) throws IOException {
+            heads = new PriorityQueue<Head>(toMerge.size() + 1,
+                    (h1, h2) -> {
+                        int c = comparator.compare(h1.record, h2.record);
+                        if (c != 0) {
+                            return c;
+                        }
+                        return Integer.compare(h1.position, h2.position);
+                    });
+            try {
+                for (int i = 0; i < toMerge.size(); i++) {
+                    Run run = toMerge.get(i);
+                    DataInputStream in = run.openInput();
+                    inputs.add(in);
+                    Head head = new Head(in, run.count, i);
+                    if (head.advance()) {
+                        heads.add(head);
+                    }
+                }
+            } catch (IOException e) {
+                close();
+                throw e;
+            }
+        }
+
+        @Override
+        public T next() throws IOException {
+            Head head = heads.poll();
+            if (head == null) {
+                return null;
+            }
+            T record = head.record;
+            if (head.advance()) {
+                heads.add(head);
+            }
+            return record;
+        }
+
+        @Override
+        public void close() throws IOException {
+            IOException failure = null;
+            for (DataInputStream in : inputs) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    failure = e;
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        }
+
+        /** The next record of a run. */
+        private final class Head {
+
+            /** The input of the run. */
+            private final DataInputStream in;
+
+            /** The number of records of the run not yet read. */
+            private long remaining;
+
+            /** The position of the run among the runs merged. */
+            private final int position;
+
+            /** The next record of the run. */
+            private T record;
+
+            /** Constructor.
+             * @param anIn The input of the run.
+             * @param aRemaining The number of records of the run.
+             * @param aPosition The position of the run among the
+             *      runs merged.
+             */
+            private Head(final DataInputStream anIn, final long aRemaining,
+                    final int aPosition) {
+                in = anIn;
+                remaining = aRemaining;
+                position = aPosition;
+            }
+
+            /** Read the next record of the run.
+             * @return True, iff there was another record.
+             * @throws IOException If the run can not be read.
+             */
+            private boolean advance() throws IOException {
+                if (remaining == 0) {
+                    record = null;
+                    return false;
+                }
+                remaining--;
+                record = codec.read(in);
+                return true;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,196 @@
+/** See the file "LICENSE" for the full license governing this code. */
+package au.org.ands.vocabs.toolkit.utils;
+
+import java.lang.invoke.MethodHandles;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import au.org.ands.vocabs.toolkit.tasks.TaskInfo;
+import au.org.ands.vocabs.toolkit.utils.jfr.JfrEvents;
+
+/** Java Flight Recorder events for the work done by the Toolkit:
+ * tasks, subtasks, the parsing of RDF files, exports of data from
+ * other services, and transactions on Sesame repositories. In a
+ * recording, they show which subtask and which provider call the
+ * time of a slow task went into, alongside the JVM's own events
+ * for GC and I/O.
+ *
+ * The events are defined in the
+ * {@link au.org.ands.vocabs.toolkit.utils.jfr} package. Not all Java 8
+ * JVMs have the jdk.jfr API, so that package is only used if it is
+ * available; otherwise, the methods of this class do nothing.
+ * If there is no recording in progress, the cost of an event is
+ * the creation of a small object, and a check that the event
+ * is not enabled.
+ *
+ * Close the result of each method in a finally block:
+ * <pre>
+ * FlightEvents.Span span = FlightEvents.rdfParse(...);
+ * try {
+ *     ...
+ * } finally {
+ *     span.close();
+ * }
+ * </pre>
+ * (A try-with-resources statement would also do, but javac warns
+ * about resources that are not referenced in its body.)
+ */
+public final class FlightEvents {
+
+    /** Logger for this class. */
+    private static final Logger LOGGER = LoggerFactory.getLogger(
+            MethodHandles.lookup().lookupClass());
+
+    /** The span used when an event is not recorded. */
+    private static final Span NONE = new Span() {
+        @Override
+        public void close() {
+        }
+    };
+
+    /** Whether the jdk.jfr API can be used. */
+    private static final boolean AVAILABLE = checkAvailable();
+
+    /** Private constructor for a utility class. */
+    private FlightEvents() {
+    }
+
+    /** The duration of an event, which ends when it is closed. */
+    public interface Span extends AutoCloseable {
+
+        /** Set the outcome of the work that the event records, if the
+         * event has an outcome. By default, this does nothing.
+         * @param outcome The outcome of the work.
+         */
+        default void setOutcome(final String outcome) {
+        }
+
+        /** End the event, and record it. */
+        @Override
+        void close();
+    }
+
+    /** Check whether the jdk.jfr API can be used.
+     * @return True, iff the jdk.jfr API can be used.
+     */
+    private static boolean checkAvailable() {
+        try {
+            return JfrEvents.isAvailable();
+        } catch (LinkageError e) {
+            LOGGER.info("Java Flight Recorder events are not "
+                    + "available: " + e);
+            return false;
+        }
+    }
+
+    /** Check whether the events can be recorded, i.e., whether the
+     * JVM supports the Flight Recorder.
+     * @return True, iff the events can be recorded.
+     */
+    public static boolean isAvailable() {
+        return AVAILABLE;
+    }
+
+    /** Begin an event for the run of a task. Set its outcome to the
+     * final status of the task.
+     * @param taskInfo The task.
+     * @return The event.
+     */
+    public static Span task(final TaskInfo taskInfo) {
+        if (!AVAILABLE) {
+            return NONE;
+        }
+        return orNone(JfrEvents.task(id(taskInfo.getTask().getId()),
+                id(taskInfo.getVocabulary().getId()),
+                id(taskInfo.getVersion().getId())));
+    }
+
+    /** Begin an event for the run of a subtask. Set its outcome to
+     * {@link Metrics#SUCCESS} or {@link Metrics#ERROR}.
+     * @param taskInfo The task.
+     * @param index The position of the subtask within the task.
+     * @param type The type of the subtask, e.g., "HARVEST".
+     * @param provider The provider type of the subtask, e.g.,
+     *      "PoolParty", or null, if the subtask does not specify one.
+     * @return The event.
+     */
+    public static Span subtask(final TaskInfo taskInfo, final int index,
+            final String type, final String provider) {
+        if (!AVAILABLE) {
+            return NONE;
+        }
+        return orNone(JfrEvents.subtask(id(taskInfo.getTask().getId()),
+                id(taskInfo.getVocabulary().getId()),
+                id(taskInfo.getVersion().getId()), index, type, provider));
+    }
+
+    /** Begin an event for the parsing of an RDF file.
+     * @param provider The provider that parses the file.
+     * @param file The path of the file.
+     * @param format The name of the RDF format of the file.
+     * @return The event.
+     */
+    public static Span rdfParse(final String provider, final String file,
+            final String format) {
+        if (!AVAILABLE) {
+            return NONE;
+        }
+        return orNone(JfrEvents.rdfParse(provider, file, format));
+    }
+
+    /** Begin an event for an export of data from another service.
+     * @param service The service, e.g., "PoolParty".
+     * @param export The part of the data that is exported, e.g.,
+     *      an export module of PoolParty, or a Sesame repository.
+     * @param url The URL from which the data is exported.
+     * @return The event.
+     */
+    public static Span httpExport(final String service, final String export,
+            final String url) {
+        if (!AVAILABLE) {
+            return NONE;
+        }
+        return orNone(JfrEvents.httpExport(service, export, url));
+    }
+
+    /** Begin an event for a transaction on a Sesame repository.
+     * @param operation The operation, e.g., "upload".
+     * @param repository The id of the repository.
+     * @param target What the operation works on, e.g., the file
+     *      uploaded, or null, if there is nothing to say.
+     * @return The event.
+     */
+    public static Span sesameTransaction(final String operation,
+            final String repository, final String target) {
+        if (!AVAILABLE) {
+            return NONE;
+        }
+        return orNone(JfrEvents.sesameTransaction(operation, repository,
+                target));
+    }
+
+    /** Use the span for events that are not recorded in place of
+     * a missing span.
+     * @param span The span, or null, if the event is not recorded.
+     * @return The span, or the span for events that are not recorded.
+     */
+    private static Span orNone(final Span span) {
+        if (span == null) {
+            return NONE;
+        }
+        return span;
+    }
+
+    /** Convert an id to the type used in events.
+     * @param id The id, or null, if there is none.
+     * @return The id, or 0, if there is none.
+     */
+    private static int id(final Integer id) {
+        if (id == null) {
+            return 0;
+        }
+        return id;
+    }
+
+}
@@ -0,0 +1,178 @@
+/** See the file "LICENSE" for the full license governing this code. */
+
+package au.org.ands.vocabs.toolkit.utils;
+
+import java.lang.invoke.MethodHandles;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.persistence.EntityManager;
+import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.Response;
+
+import org.glassfish.jersey.client.ClientProperties;
+import org.glassfish.jersey.client.authentication.HttpAuthenticationFeature;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import au.org.ands.vocabs.toolkit.db.DBContext;
+
+/** Cheap probes of the services on which the Toolkit depends.
+ * Each probe reports a status and the time it took. */
+public final class HealthCheckUtils {
+
+    /** Logger for this class. */
+    private static final Logger LOGGER = LoggerFactory.getLogger(
+            MethodHandles.lookup().lookupClass());
+
+    /** Status value for a service that responded correctly. */
+    public static final String STATUS_OK = "ok";
+
+    /** Status value for a service that did not respond correctly. */
+    public static final String STATUS_ERROR = "error";
+
+    /** Status value for a service that is not configured. */
+    public static final String STATUS_NOT_CONFIGURED = "notConfigured";
+
+    /** Default timeout for network probes, in milliseconds. */
+    private static final int DEFAULT_TIMEOUT = 5000;
+
+    /** Number of nanoseconds in a millisecond. */
+    private static final long NS_PER_MS = 1000000;
+
+    /** Timeout for network probes, in milliseconds. */
+    private static final int TIMEOUT = Integer.parseInt(
+            ToolkitProperties.getProperty(
+                    PropertyConstants.TOOLKIT_HEALTHCHECKTIMEOUT,
+                    Integer.toString(DEFAULT_TIMEOUT)));
+
+    /** Private constructor for a utility class. */
+    private HealthCheckUtils() {
+    }
+
+    /** Probe all services.
+     * @return A map with an overall "status" entry, and an entry
+     *      for each service. The overall status is {@link #STATUS_OK}
+     *      only if no service reported {@link #STATUS_ERROR}.
+     */
+    public static Map<String, Object> checkAll() {
+        Map<String, Object> result = new LinkedHashMap<String, Object>();
+        Map<String, Map<String, Object>> services =
+                new LinkedHashMap<String, Map<String, Object>>();
+        services.put("database", checkDatabase());
+        services.put("sesame", checkSesame());
+        services.put("poolParty", checkPoolParty());
+        String status = STATUS_OK;
+        for (Map<String, Object> service : services.values()) {
+            if (STATUS_ERROR.equals(service.get("status"))) {
+                status = STATUS_ERROR;
+            }
+        }
+        result.put("status", status);
+        result.putAll(services);
+        return result;
+    }
+
+    /** Probe the database, by getting a connection from the pool
+     * and running a trivial query.
+     * @return The result of the probe.
+     */
+    public static Map<String, Object> checkDatabase() {
+        long start = System.nanoTime();
+        EntityManager em = null;
+        try {
+            em = DBContext.getEntityManager();
+            em.createNativeQuery("SELECT 1").getSingleResult();
+            return makeResult(STATUS_OK, start, null);
+        } catch (RuntimeException e) {
+            LOGGER.error("Health check of database failed", e);
+            return makeResult(STATUS_ERROR, start, e.toString());
+        } finally {
+            if (em != null) {
+                em.close();
+            }
+        }
+    }
+
+    /** Probe Sesame, by fetching the protocol version supported
+     * by the server.
+     * @return The result of the probe.
+     */
+    public static Map<String, Object> checkSesame() {
+        String serverUrl = ToolkitProperties.getProperty(
+                PropertyConstants.SESAMEIMPORTER_SERVERURL);
+        if (serverUrl == null) {
+            return makeResult(STATUS_NOT_CONFIGURED, System.nanoTime(),
+                    null);
+        }
+        if (!serverUrl.endsWith("/")) {
+            serverUrl = serverUrl + "/";
+        }
+        return probe(ToolkitNetUtils.getClient().target(
+                serverUrl + "protocol"));
+    }
+
+    /** Probe PoolParty, by fetching the list of projects.
+     * @return The result of the probe.
+     */
+    public static Map<String, Object> checkPoolParty() {
+        String remoteUrl = ToolkitProperties.getProperty(
+                PropertyConstants.POOLPARTYHARVESTER_REMOTEURL);
+        if (remoteUrl == null) {
+            return makeResult(STATUS_NOT_CONFIGURED, System.nanoTime(),
+                    null);
+        }
+        WebTarget target = ToolkitNetUtils.getClient().target(remoteUrl);
+        target.register(HttpAuthenticationFeature.basic(
+                ToolkitProperties.getProperty(
+                        PropertyConstants.POOLPARTYHARVESTER_USERNAME, ""),
+                ToolkitProperties.getProperty(
+                        PropertyConstants.POOLPARTYHARVESTER_PASSWORD, "")));
+        return probe(target);
+    }
+
+    /** Probe a network service with a GET request. The response
+     * body is not read.
+     * @param target The target of the request.
+     * @return The result of the probe.
+     */
+    private static Map<String, Object> probe(final WebTarget target) {
+        long start = System.nanoTime();
+        try {
+            Response response = target.
+                    property(ClientProperties.CONNECT_TIMEOUT, TIMEOUT).
+                    property(ClientProperties.READ_TIMEOUT, TIMEOUT).
+                    request().get();
+            int status = response.getStatus();
+            response.close();
+            if (status >= Response.Status.BAD_REQUEST.getStatusCode()) {
+                return makeResult(STATUS_ERROR, start,
+                        "HTTP status " + status);
+            }
+            return makeResult(STATUS_OK, start, null);
+        } catch (RuntimeException e) {
+            LOGGER.error("Health check of " + target.getUri()
+                    + " failed", e);
+            return makeResult(STATUS_ERROR, start, e.toString());
+        }
+    }
+
+    /** Make the result of a probe.
+     * @param status The status of the service.
+     * @param start The value of System.nanoTime() at the start of
+     *      the probe.
+     * @param message An optional message; may be null.
+     * @return The result of the probe.
+     */
+    private static Map<String, Object> makeResult(final String status,
+            final long start, final String message) {
+        Map<String, Object> result = new LinkedHashMap<String, Object>();
+        result.put("status", status);
+        result.put("latencyMs", (System.nanoTime() - start) / NS_PER_MS);
+        if (message != null) {
+            result.put("message", message);
+        }
+        return result;
+    }
+
+}
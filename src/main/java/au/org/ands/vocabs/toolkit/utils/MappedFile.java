@@ -0,0 +1,190 @@
+/** See the file "LICENSE" for the full license governing this code. */
+package au.org.ands.vocabs.toolkit.utils;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/** Read-only view of a file mapped into memory. The contents
+ * of the file are not copied into the heap; the operating system
+ * pages them in as they are read, and can evict them as needed.
+ * Files larger than 2 GB are mapped as several segments.
+ * Values are read in big-endian byte order, as written by
+ * {@link java.io.DataOutputStream}.
+ *
+ * There is no portable way to unmap a file before the mapping is
+ * garbage collected, but on the platforms supported, the file can be
+ * deleted or replaced while it is still mapped.
+ */
+public final class MappedFile {
+
+    /** Number of bits of the offset within a segment. */
+    private static final int SEGMENT_BITS = 30;
+
+    /** Size of each segment, in bytes. */
+    private static final long SEGMENT_SIZE = 1L << SEGMENT_BITS;
+
+    /** Mask of the offset within a segment. */
+    private static final long SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+    /** Number of bytes in an int. */
+    private static final int INT_BYTES = 4;
+
+    /** Number of bytes in a long. */
+    private static final int LONG_BYTES = 8;
+
+    /** Number of bits in a byte. */
+    private static final int BYTE_BITS = 8;
+
+    /** Mask of the bits of a byte. */
+    private static final int BYTE_MASK = 0xff;
+
+    /** The segments of the file. */
+    private final MappedByteBuffer[] segments;
+
+    /** The size of the file, in bytes. */
+    private final long size;
+
+    /** Constructor. The file is mapped, and may then be closed.
+     * @param file The file to be mapped.
+     * @throws IOException If the file can not be mapped.
+     */
+    public MappedFile(final Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.READ)) {
+            size = channel.size();
+            int count = (int) ((size + SEGMENT_SIZE - 1) >>> SEGMENT_BITS);
+            segments = new MappedByteBuffer[count];
+            for (int i = 0; i < count; i++) {
+                long position = (long) i << SEGMENT_BITS;
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY,
+                        position, Math.min(SEGMENT_SIZE, size - position));
+                segments[i].order(ByteOrder.BIG_ENDIAN);
+            }
+        }
+    }
+
+    /** Get the size of the file.
+     * @return The size of the file, in bytes.
+     */
+    public long size() {
+        return size;
+    }
+
+    /** Get a byte.
+     * @param position The position of the byte.
+     * @return The byte.
+     */
+    public byte getByte(final long position) {
+        return segments[(int) (position >>> SEGMENT_BITS)].get(
+                (int) (position & SEGMENT_MASK));
+    }
+
+    /** Get an int.
+     * @param position The position of the first byte of the int.
+     * @return The int.
+     */
+    public int getInt(final long position) {
+        int offset = (int) (position & SEGMENT_MASK);
+        if (offset <= SEGMENT_SIZE - INT_BYTES) {
+            return segments[(int) (position >>> SEGMENT_BITS)].getInt(
+                    offset);
+        }
+        int value = 0;
+        for (int i = 0; i < INT_BYTES; i++) {
+            value = (value << BYTE_BITS)
+                    | (getByte(position + i) & BYTE_MASK);
+        }
+        return value;
+    }
+
+    /** Get a long.
+     * @param position The position of the first byte of the long.
+     * @return The long.
+     */
+    public long getLong(final long position) {
+        int offset = (int) (position & SEGMENT_MASK);
+        if (offset <= SEGMENT_SIZE - LONG_BYTES) {
+            return segments[(int) (position >>> SEGMENT_BITS)].getLong(
+                    offset);
+        }
+        long value = 0;
+        for (int i = 0; i < LONG_BYTES; i++) {
+            value = (value << BYTE_BITS)
+                    | (getByte(position + i) & BYTE_MASK);
+        }
+        return value;
+    }
+
+    /** Get bytes.
+     * @param position The position of the first byte.
+     * @param bytes The array into which the bytes are copied. Its
+     *      length is the number of bytes copied.
+     */
+    public void getBytes(final long position, final byte[] bytes) {
+        int copied = 0;
+        while (copied < bytes.length) {
+            long current = position + copied;
+            int offset = (int) (current & SEGMENT_MASK);
+            int length = (int) Math.min(bytes.length - copied,
+                    SEGMENT_SIZE - offset);
+            // Use a duplicate, so that readers in different threads
+            // don't share the position of the segment.
+            ByteBuffer view =
+                    segments[(int) (current >>> SEGMENT_BITS)].duplicate();
+            view.position(offset);
+            view.get(bytes, copied, length);
+            copied += length;
+        }
+    }
+
+    /** Get a string, written as an int length, followed by
+     * that many bytes of UTF-8. A length of -1 means null.
+     * @param position The position of the length.
+     * @return The string, or null.
+     */
+    public String getString(final long position) {
+        int length = getInt(position);
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        getBytes(position + INT_BYTES, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /** Write a string in the form read by {@link #getString(long)}.
+     * @param out The output to which the string is written.
+     * @param string The string, or null.
+     * @return The number of bytes written.
+     * @throws IOException If the string can not be written.
+     */
+    public static int writeString(final DataOutput out, final String string)
+            throws IOException {
+        if (string == null) {
+            out.writeInt(-1);
+            return INT_BYTES;
+        }
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+        return INT_BYTES + bytes.length;
+    }
+
+    /** Get the number of bytes taken by a string, written as
+     * read by {@link #getString(long)}.
+     * @param position The position of the length.
+     * @return The number of bytes taken by the string,
+     *      including its length.
+     */
+    public int getStringSize(final long position) {
+        return INT_BYTES + Math.max(0, getInt(position));
+    }
+
+}
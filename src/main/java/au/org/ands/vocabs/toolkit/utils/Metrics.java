@@ -0,0 +1,747 @@
+/** See the file "LICENSE" for the full license governing this code. */
+package au.org.ands.vocabs.toolkit.utils;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/** A registry of metrics: counters, and histograms of observed values,
+ * such as timings. Each metric is a family of series, one for each
+ * combination of the values of the labels of the metric.
+ *
+ * Metrics are declared as constants by the classes that update them,
+ * using {@link #counter(String, String, String...)},
+ * {@link #histogram(String, String, double[], String...)}, and
+ * {@link #timer(String, String, String...)}. Declaration is idempotent,
+ * so that two classes may share a metric by declaring it the same way.
+ * Updates are lock-free, and cheap enough to be made on every request.
+ *
+ * The metrics are exposed in the Prometheus text format, by the
+ * metrics restlet, and as the attributes of the JMX MBean
+ * {@value #MBEAN_NAME}, which is registered by
+ * {@link #registerMBean()}.
+ */
+public final class Metrics {
+
+    /** Logger for this class. */
+    private static final Logger LOGGER = LoggerFactory.getLogger(
+            MethodHandles.lookup().lookupClass());
+
+    /** Prefix of the names of all metrics. */
+    public static final String PREFIX = "toolkit_";
+
+    /** Name of the label that records the outcome of an operation. */
+    public static final String OUTCOME = "outcome";
+
+    /** Value of the outcome label for an operation that succeeded. */
+    public static final String SUCCESS = "success";
+
+    /** Value of the outcome label for an operation that failed. */
+    public static final String ERROR = "error";
+
+    /** The name of the JMX MBean. */
+    public static final String MBEAN_NAME =
+            "au.org.ands.vocabs.toolkit:type=Metrics";
+
+    /** The upper bounds of the buckets of timers, in seconds. Subtasks
+     * of big vocabularies run for minutes, so the buckets go further
+     * than those usual for request latencies. */
+    private static final double[] TIMER_BUCKETS =
+        {0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30,
+            60, 120, 300, 600, 1800};
+
+    /** Number of nanoseconds in a second. */
+    private static final double NS_PER_SECOND = 1e9;
+
+    /** The metrics, keyed by name. Sorted, so that the metrics
+     * are exposed in a stable order. */
+    private static final ConcurrentMap<String, Family<?>> FAMILIES =
+            new ConcurrentSkipListMap<String, Family<?>>();
+
+    /** The MBean server with which the MBean is registered, or null,
+     * if it is not registered. */
+    private static MBeanServer mBeanServer;
+
+    /** Private constructor for a utility class. */
+    private Metrics() {
+    }
+
+    /** Declare a counter.
+     * @param name The name of the counter, without {@link #PREFIX}.
+     *      By convention, it ends with "_total".
+     * @param help A description of the counter.
+     * @param labelNames The names of the labels of the counter.
+     * @return The counter.
+     * @throws IllegalArgumentException If a different metric with
+     *      the same name has already been declared.
+     */
+    public static Counter counter(final String name, final String help,
+            final String... labelNames) {
+        return register(new Counter(PREFIX + name, help, labelNames));
+    }
+
+    /** Declare a histogram.
+     * @param name The name of the histogram, without {@link #PREFIX}.
+     * @param help A description of the histogram.
+     * @param buckets The upper bounds of the buckets, in increasing
+     *      order. A bucket for all values is added.
+     * @param labelNames The names of the labels of the histogram.
+     * @return The histogram.
+     * @throws IllegalArgumentException If a different metric with
+     *      the same name has already been declared.
+     */
+    public static Histogram histogram(final String name, final String help,
+            final double[] buckets, final String... labelNames) {
+        return register(new Histogram(PREFIX + name, help, buckets,
+                labelNames));
+    }
+
+    /** Declare a timer, i.e., a histogram of durations in seconds.
+     * @param name The name of the timer, without {@link #PREFIX}.
+     *      By convention, it ends with "_seconds".
+     * @param help A description of the timer.
+     * @param labelNames The names of the labels of the timer.
+     * @return The timer.
+     * @throws IllegalArgumentException If a different metric with
+     *      the same name has already been declared.
+     */
+    public static Histogram timer(final String name, final String help,
+            final String... labelNames) {
+        return histogram(name, help, TIMER_BUCKETS, labelNames);
+    }
+
+    /** Start timing an operation. Use the result in a
+     * try-with-resources statement; see {@link Operation}.
+     * @param timer The timer of the operation.
+     * @param outcomes The counter of the outcomes of the operation.
+     *      Its labels must be those of the timer, followed by
+     *      {@link #OUTCOME}.
+     * @param labelValues The values of the labels of the timer.
+     * @return The operation.
+     */
+    public static Operation start(final Histogram timer,
+            final Counter outcomes, final String... labelValues) {
+        return new Operation(timer, outcomes, labelValues);
+    }
+
+    /** Register a metric, unless an equivalent metric has already
+     * been registered.
+     * @param <F> The type of the metric.
+     * @param family The metric.
+     * @return The metric that is registered.
+     * @throws IllegalArgumentException If a different metric with
+     *      the same name has already been declared.
+     */
+    @SuppressWarnings("unchecked")
+    private static <F extends Family<?>> F register(final F family) {
+        Family<?> existing = FAMILIES.putIfAbsent(family.getName(), family);
+        if (existing == null) {
+            return family;
+        }
+        if (existing.getClass() != family.getClass()
+                || !existing.getLabelNames().equals(family.getLabelNames())) {
+            throw new IllegalArgumentException("Metric " + family.getName()
+                    + " has already been declared differently");
+        }
+        return (F) existing;
+    }
+
+    /** Get all the metrics, in the Prometheus text exposition format,
+     * version 0.0.4.
+     * @return The metrics, in the Prometheus text format.
+     */
+    public static String toPrometheusText() {
+        StringBuilder sb = new StringBuilder();
+        for (Family<?> family : FAMILIES.values()) {
+            sb.append("# HELP ").append(family.getName()).append(' ').
+                append(escape(family.getHelp(), false)).append('\n');
+            sb.append("# TYPE ").append(family.getName()).append(' ').
+                append(family.getType()).append('\n');
+            for (Map.Entry<List<String>, ?> entry
+                    : family.sortedSeries().entrySet()) {
+                family.appendSeries(sb, entry.getKey());
+            }
+        }
+        return sb.toString();
+    }
+
+    /** Get the current values of all the series, keyed by series name,
+     * as used for the attributes of the MBean. For a histogram, only
+     * the count and sum of each series is included.
+     * @return The current values of all the series.
+     */
+    public static Map<String, Number> getValues() {
+        Map<String, Number> values = new TreeMap<String, Number>();
+        for (Family<?> family : FAMILIES.values()) {
+            for (List<String> labelValues : family.sortedSeries().keySet()) {
+                family.putValues(values, labelValues);
+            }
+        }
+        return values;
+    }
+
+    /** Register the MBean with the platform MBean server.
+     * Call this only in webapp context initialization! */
+    public static synchronized void registerMBean() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            ObjectName objectName = new ObjectName(MBEAN_NAME);
+            // Left behind by an earlier deployment that did not shut
+            // down cleanly.
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+            server.registerMBean(new MetricsMBean(), objectName);
+            mBeanServer = server;
+        } catch (JMException e) {
+            LOGGER.error("Unable to register the metrics MBean", e);
+        }
+    }
+
+    /** Unregister the MBean, so that it does not keep this web
+     * application's classes loaded after it is stopped.
+     * Call this only in webapp context shutdown! */
+    public static synchronized void doShutdown() {
+        if (mBeanServer == null) {
+            return;
+        }
+        try {
+            mBeanServer.unregisterMBean(new ObjectName(MBEAN_NAME));
+        } catch (JMException e) {
+            LOGGER.error("Unable to unregister the metrics MBean", e);
+        }
+        mBeanServer = null;
+    }
+
+    /** Format the labels of a series.
+     * @param labelNames The names of the labels.
+     * @param labelValues The values of the labels.
+     * @param quote Whether to quote the values, as Prometheus requires.
+     * @return The labels, in braces, or an empty string, if there are
+     *      no labels.
+     */
+    private static String formatLabels(final List<String> labelNames,
+            final List<String> labelValues, final boolean quote) {
+        if (labelNames.isEmpty()) {
+            return "";
+        }
+        StringBuilder sb = new StringBuilder("{");
+        for (int i = 0; i < labelNames.size(); i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(labelNames.get(i)).append('=');
+            if (quote) {
+                sb.append('"').append(escape(labelValues.get(i), true)).
+                    append('"');
+            } else {
+                sb.append(labelValues.get(i));
+            }
+        }
+        return sb.append('}').toString();
+    }
+
+    /** Escape text for the Prometheus text format.
+     * @param text The text to be escaped.
+     * @param isLabelValue Whether the text is a label value, in which
+     *      case double quotes are also escaped.
+     * @return The escaped text.
+     */
+    private static String escape(final String text,
+            final boolean isLabelValue) {
+        String escaped = text.replace("\\", "\\\\").replace("\n", "\\n");
+        if (isLabelValue) {
+            escaped = escaped.replace("\"", "\\\"");
+        }
+        return escaped;
+    }
+
+    /** Format a number for the Prometheus text format.
+     * @param value The number.
+     * @return The formatted number.
+     */
+    private static String formatDouble(final double value) {
+        if (value == Double.POSITIVE_INFINITY) {
+            return "+Inf";
+        }
+        return Double.toString(value);
+    }
+
+    /** A metric, i.e., a family of series.
+     * @param <S> The type of the series.
+     */
+    private abstract static class Family<S> {
+
+        /** The name of the metric, including {@link #PREFIX}. */
+        private final String name;
+
+        /** A description of the metric. */
+        private final String help;
+
+        /** The names of the labels. */
+        private final List<String> labelNames;
+
+        /** The series, keyed by the values of the labels. */
+        private final ConcurrentMap<List<String>, S> series =
+                new ConcurrentHashMap<List<String>, S>();
+
+        /** Constructor.
+         * @param aName The name of the metric.
+         * @param aHelp A description of the metric.
+         * @param aLabelNames The names of the labels.
+         */
+        Family(final String aName, final String aHelp,
+                final String[] aLabelNames) {
+            name = aName;
+            help = aHelp;
+            labelNames = Collections.unmodifiableList(
+                    new ArrayList<String>(Arrays.asList(aLabelNames)));
+        }
+
+        /** Get the Prometheus type of the metric.
+         * @return The Prometheus type of the metric.
+         */
+        abstract String getType();
+
+        /** Create a series.
+         * @return The new series.
+         */
+        abstract S newSeries();
+
+        /** Append a series in the Prometheus text format.
+         * @param sb The builder to which the series is appended.
+         * @param labelValues The values of the labels of the series.
+         */
+        abstract void appendSeries(StringBuilder sb,
+                List<String> labelValues);
+
+        /** Put the current values of a series into a map.
+         * @param values The map, keyed by series name.
+         * @param labelValues The values of the labels of the series.
+         */
+        abstract void putValues(Map<String, Number> values,
+                List<String> labelValues);
+
+        /** Get the series for some label values, creating it
+         * if necessary. Null label values are recorded as empty.
+         * @param labelValues The values of the labels.
+         * @return The series.
+         */
+        final S get(final String... labelValues) {
+            if (labelValues.length != labelNames.size()) {
+                throw new IllegalArgumentException("Metric " + name
+                        + " needs values for labels " + labelNames);
+            }
+            List<String> key = new ArrayList<String>(labelValues.length);
+            for (String value : labelValues) {
+                if (value == null) {
+                    key.add("");
+                } else {
+                    key.add(value);
+                }
+            }
+            S s = series.get(key);
+            if (s == null) {
+                s = newSeries();
+                S existing = series.putIfAbsent(key, s);
+                if (existing != null) {
+                    s = existing;
+                }
+            }
+            return s;
+        }
+
+        /** Get an existing series.
+         * @param labelValues The values of the labels of the series.
+         * @return The series.
+         */
+        final S getExisting(final List<String> labelValues) {
+            return series.get(labelValues);
+        }
+
+        /** Get the series, sorted by the values of their labels.
+         * @return The series, sorted.
+         */
+        final Map<List<String>, S> sortedSeries() {
+            Map<List<String>, S> sorted = new TreeMap<List<String>, S>(
+                    (a, b) -> a.toString().compareTo(b.toString()));
+            sorted.putAll(series);
+            return sorted;
+        }
+
+        /** Get the name of a series, in the Prometheus text format.
+         * @param suffix The suffix of the name of the metric.
+         * @param labelValues The values of the labels.
+         * @param quote Whether to quote the values of the labels.
+         * @return The name of the series.
+         */
+        final String seriesName(final String suffix,
+                final List<String> labelValues, final boolean quote) {
+            return name + suffix + formatLabels(labelNames, labelValues,
+                    quote);
+        }
+
+        /** Get the name of the metric.
+         * @return The name of the metric.
+         */
+        final String getName() {
+            return name;
+        }
+
+        /** Get the description of the metric.
+         * @return The description of the metric.
+         */
+        final String getHelp() {
+            return help;
+        }
+
+        /** Get the names of the labels.
+         * @return The names of the labels.
+         */
+        final List<String> getLabelNames() {
+            return labelNames;
+        }
+    }
+
+    /** A counter, i.e., a metric whose series only increase. */
+    public static final class Counter extends Family<LongAdder> {
+
+        /** Constructor.
+         * @param aName The name of the counter.
+         * @param aHelp A description of the counter.
+         * @param aLabelNames The names of the labels.
+         */
+        private Counter(final String aName, final String aHelp,
+                final String[] aLabelNames) {
+            super(aName, aHelp, aLabelNames);
+        }
+
+        /** Add one to a series of the counter.
+         * @param labelValues The values of the labels of the series.
+         */
+        public void inc(final String... labelValues) {
+            get(labelValues).increment();
+        }
+
+        /** Add to a series of the counter.
+         * @param amount The amount to be added; it must not be negative.
+         * @param labelValues The values of the labels of the series.
+         */
+        public void add(final long amount, final String... labelValues) {
+            get(labelValues).add(amount);
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        String getType() {
+            return "counter";
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        LongAdder newSeries() {
+            return new LongAdder();
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        void appendSeries(final StringBuilder sb,
+                final List<String> labelValues) {
+            sb.append(seriesName("", labelValues, true)).append(' ').
+                append(getExisting(labelValues).sum()).append('\n');
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        void putValues(final Map<String, Number> values,
+                final List<String> labelValues) {
+            values.put(seriesName("", labelValues, false),
+                    getExisting(labelValues).sum());
+        }
+    }
+
+    /** A histogram, i.e., a metric that counts observed values
+     * in buckets, and sums them. */
+    public static final class Histogram
+        extends Family<Histogram.Series> {
+
+        /** The upper bounds of the buckets, the last of which is
+         * positive infinity. */
+        private final double[] bounds;
+
+        /** Constructor.
+         * @param aName The name of the histogram.
+         * @param aHelp A description of the histogram.
+         * @param aBuckets The upper bounds of the buckets, not including
+         *      positive infinity.
+         * @param aLabelNames The names of the labels.
+         */
+        private Histogram(final String aName, final String aHelp,
+                final double[] aBuckets, final String[] aLabelNames) {
+            super(aName, aHelp, aLabelNames);
+            bounds = Arrays.copyOf(aBuckets, aBuckets.length + 1);
+            bounds[aBuckets.length] = Double.POSITIVE_INFINITY;
+        }
+
+        /** Observe a value.
+         * @param value The value.
+         * @param labelValues The values of the labels of the series.
+         */
+        public void observe(final double value,
+                final String... labelValues) {
+            Series s = get(labelValues);
+            int i = 0;
+            while (value > bounds[i]) {
+                i++;
+            }
+            s.buckets[i].increment();
+            s.sum.add(value);
+        }
+
+        /** Observe a duration, in seconds.
+         * @param startNanos The start of the duration, as returned
+         *      by {@link System#nanoTime()}.
+         * @param labelValues The values of the labels of the series.
+         */
+        public void observeSince(final long startNanos,
+                final String... labelValues) {
+            observe((System.nanoTime() - startNanos) / NS_PER_SECOND,
+                    labelValues);
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        String getType() {
+            return "histogram";
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        Series newSeries() {
+            return new Series(bounds.length);
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        void appendSeries(final StringBuilder sb,
+                final List<String> labelValues) {
+            Series s = getExisting(labelValues);
+            List<String> bucketLabelNames =
+                    new ArrayList<String>(getLabelNames());
+            bucketLabelNames.add("le");
+            long cumulative = 0;
+            for (int i = 0; i < bounds.length; i++) {
+                cumulative += s.buckets[i].sum();
+                List<String> bucketLabelValues =
+                        new ArrayList<String>(labelValues);
+                bucketLabelValues.add(formatDouble(bounds[i]));
+                sb.append(getName()).append("_bucket").
+                    append(formatLabels(bucketLabelNames,
+                            bucketLabelValues, true)).
+                    append(' ').append(cumulative).append('\n');
+            }
+            sb.append(seriesName("_sum", labelValues, true)).append(' ').
+                append(formatDouble(s.sum.sum())).append('\n');
+            sb.append(seriesName("_count", labelValues, true)).append(' ').
+                append(cumulative).append('\n');
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        void putValues(final Map<String, Number> values,
+                final List<String> labelValues) {
+            Series s = getExisting(labelValues);
+            long count = 0;
+            for (LongAdder bucket : s.buckets) {
+                count += bucket.sum();
+            }
+            values.put(seriesName("_count", labelValues, false), count);
+            values.put(seriesName("_sum", labelValues, false),
+                    s.sum.sum());
+        }
+
+        /** A series of a histogram. */
+        static final class Series {
+
+            /** The number of values in each bucket. Unlike in the
+             * Prometheus format, the buckets are not cumulative. */
+            private final LongAdder[] buckets;
+
+            /** The sum of the values. */
+            private final DoubleAdder sum = new DoubleAdder();
+
+            /** Constructor.
+             * @param size The number of buckets.
+             */
+            private Series(final int size) {
+                buckets = new LongAdder[size];
+                for (int i = 0; i < size; i++) {
+                    buckets[i] = new LongAdder();
+                }
+            }
+        }
+    }
+
+    /** A timed operation, whose outcome is counted. Use it in
+     * a try-with-resources statement:
+     * <pre>
+     * try (Metrics.Operation operation =
+     *         Metrics.start(TIMER, OUTCOMES, "a", "b")) {
+     *     ...
+     *     return operation.complete(success);
+     * }
+     * </pre>
+     * The operation is counted as an error, unless
+     * {@link #complete(boolean)} is called with true before
+     * it is closed, e.g., if an exception is thrown.
+     */
+    public static final class Operation implements AutoCloseable {
+
+        /** The timer of the operation. */
+        private final Histogram timer;
+
+        /** The counter of the outcomes of the operation. */
+        private final Counter outcomes;
+
+        /** The values of the labels of the timer. */
+        private final String[] labelValues;
+
+        /** The time at which the operation started, as returned
+         * by {@link System#nanoTime()}. */
+        private final long start = System.nanoTime();
+
+        /** Whether the operation succeeded. */
+        private boolean succeeded;
+
+        /** Constructor.
+         * @param aTimer The timer of the operation.
+         * @param anOutcomes The counter of the outcomes of the operation.
+         * @param aLabelValues The values of the labels of the timer.
+         */
+        private Operation(final Histogram aTimer, final Counter anOutcomes,
+                final String[] aLabelValues) {
+            timer = aTimer;
+            outcomes = anOutcomes;
+            labelValues = aLabelValues;
+        }
+
+        /** Record whether the operation succeeded.
+         * @param success Whether the operation succeeded.
+         * @return The value of success, so that this method can be
+         *      used in a return statement.
+         */
+        public boolean complete(final boolean success) {
+            succeeded = success;
+            return success;
+        }
+
+        /** Record the duration and outcome of the operation. */
+        @Override
+        public void close() {
+            timer.observeSince(start, labelValues);
+            String[] outcomeLabelValues =
+                    Arrays.copyOf(labelValues, labelValues.length + 1);
+            if (succeeded) {
+                outcomeLabelValues[labelValues.length] = SUCCESS;
+            } else {
+                outcomeLabelValues[labelValues.length] = ERROR;
+            }
+            outcomes.inc(outcomeLabelValues);
+        }
+    }
+
+    /** The MBean that exposes the metrics. Each series of a counter
+     * is an attribute; each series of a histogram is two attributes,
+     * its count and its sum. The attributes are read-only. */
+    private static final class MetricsMBean implements DynamicMBean {
+
+        /** {@inheritDoc} */
+        @Override
+        public Object getAttribute(final String attribute)
+                throws AttributeNotFoundException {
+            Number value = getValues().get(attribute);
+            if (value == null) {
+                throw new AttributeNotFoundException(attribute);
+            }
+            return value;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void setAttribute(final Attribute attribute)
+                throws AttributeNotFoundException {
+            throw new AttributeNotFoundException("Attribute "
+                    + attribute.getName() + " is read-only");
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public AttributeList getAttributes(final String[] attributes) {
+            Map<String, Number> values = getValues();
+            AttributeList list = new AttributeList();
+            for (String attribute : attributes) {
+                if (values.containsKey(attribute)) {
+                    list.add(new Attribute(attribute,
+                            values.get(attribute)));
+                }
+            }
+            return list;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public AttributeList setAttributes(final AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public Object invoke(final String actionName, final Object[] params,
+                final String[] signature) throws ReflectionException {
+            throw new ReflectionException(new NoSuchMethodException(
+                    actionName));
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            List<MBeanAttributeInfo> attributes =
+                    new ArrayList<MBeanAttributeInfo>();
+            for (Map.Entry<String, Number> entry : getValues().entrySet()) {
+                attributes.add(new MBeanAttributeInfo(entry.getKey(),
+                        entry.getValue().getClass().getName(),
+                        entry.getKey(), true, false, false));
+            }
+            return new MBeanInfo(Metrics.class.getName(),
+                    "Metrics of the Toolkit",
+                    attributes.toArray(new MBeanAttributeInfo[0]),
+                    null, new MBeanOperationInfo[0], null);
+        }
+    }
+
+}
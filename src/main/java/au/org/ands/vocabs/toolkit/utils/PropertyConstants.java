@@ -42,6 +42,116 @@ public final class PropertyConstants {
     public static final String TOOLKIT_DOWNLOADPREFIX =
             "Toolkit.downloadPrefix";
 
+    /** Toolkit download cache maximum size. */
+    public static final String TOOLKIT_DOWNLOADCACHESIZE =
+            "Toolkit.downloadCache.size";
+
+    /** Toolkit download cache time-to-live, in seconds. */
+    public static final String TOOLKIT_DOWNLOADCACHETTL =
+            "Toolkit.downloadCache.ttl";
+
+    /** Toolkit maximum age given to caches of the responses of the
+     * concept tree restlet, in seconds. */
+    public static final String TOOLKIT_TREEMAXAGE =
+            "Toolkit.tree.maxAge";
+
+    /** Toolkit timeout for network probes done by the system
+     * health check, in milliseconds. */
+    public static final String TOOLKIT_HEALTHCHECKTIMEOUT =
+            "Toolkit.healthCheck.timeout";
+
+    /** Toolkit interval between writes of task status updates
+     * to the database, in milliseconds. */
+    public static final String TOOLKIT_TASKSTATUSFLUSHINTERVAL =
+            "Toolkit.taskStatusFlushInterval";
+
+    /** Toolkit wall-clock time budget for a task, in seconds. */
+    public static final String TOOLKIT_TASKTIMEOUT =
+            "Toolkit.taskTimeout";
+
+    /** Prefix of the Toolkit wall-clock time budgets for subtasks,
+     * in seconds. The subtask type is appended, e.g.,
+     * "Toolkit.subtaskTimeout.HARVEST". */
+    public static final String TOOLKIT_SUBTASKTIMEOUT_PREFIX =
+            "Toolkit.subtaskTimeout.";
+
+    /** Prefix of the Toolkit sizes of the resource pools that limit
+     * concurrent use of external systems by subtasks. The pool name
+     * is appended, e.g., "Toolkit.bulkhead.poolparty". */
+    public static final String TOOLKIT_BULKHEAD_PREFIX =
+            "Toolkit.bulkhead.";
+
+    /** Toolkit aging interval of the resource pools, in seconds.
+     * For each interval that a subtask has waited for a permit,
+     * it is treated as being one priority class higher. */
+    public static final String TOOLKIT_SCHEDULERAGINGINTERVAL =
+            "Toolkit.scheduler.agingInterval";
+
+    /** Toolkit id of this node, used as the owner of leases on tasks
+     * held in the database. */
+    public static final String TOOLKIT_NODEID =
+            "Toolkit.nodeId";
+
+    /** Toolkit duration of leases on tasks and locks on versions
+     * held in the database, in seconds. */
+    public static final String TOOLKIT_TASKLEASEDURATION =
+            "Toolkit.taskLeaseDuration";
+
+    /** Toolkit interval at which the task table is polled for tasks
+     * to claim and run, in seconds. */
+    public static final String TOOLKIT_TASKPOLLERINTERVAL =
+            "Toolkit.taskPoller.interval";
+
+    /** Toolkit maximum number of tasks claimed by the task poller
+     * that may run at the same time. */
+    public static final String TOOLKIT_TASKPOLLERTHREADS =
+            "Toolkit.taskPoller.threads";
+
+    /** Toolkit maximum rate at which bulk jobs start tasks,
+     * in tasks per minute. */
+    public static final String TOOLKIT_BULKJOBRATE =
+            "Toolkit.bulkJob.rate";
+
+    /** Toolkit schedule of the backup job. */
+    public static final String TOOLKIT_SCHEDULEBACKUP =
+            "Toolkit.schedule.backup";
+
+    /** Toolkit schedule of the re-harvest job. */
+    public static final String TOOLKIT_SCHEDULEREHARVEST =
+            "Toolkit.schedule.reharvest";
+
+    /** Toolkit schedule of the cache warm-up job. */
+    public static final String TOOLKIT_SCHEDULEWARMUP =
+            "Toolkit.schedule.warmup";
+
+    /** Toolkit time to wait for scheduled jobs to finish on shutdown. */
+    public static final String TOOLKIT_SCHEDULEDRAINTIMEOUT =
+            "Toolkit.schedule.drainTimeout";
+
+    /** Toolkit number of database connections opened by warm-up. */
+    public static final String TOOLKIT_WARMUPCONNECTIONS =
+            "Toolkit.warmUp.connections";
+
+    /** Toolkit number of statements above which the JSON transforms
+     * spill their working data to disk. */
+    public static final String TOOLKIT_TRANSFORMSPILLTHRESHOLD =
+            "Toolkit.transform.spillThreshold";
+
+    /** Toolkit heap budget, in megabytes, of each JSON transform
+     * that spills its working data to disk. */
+    public static final String TOOLKIT_TRANSFORMSPILLHEAPBUDGET =
+            "Toolkit.transform.spillHeapBudget";
+
+    /** Toolkit size, in kilobytes, of the files into which the JSON
+     * tree transform shards the concept tree; 0 for a single file. */
+    public static final String TOOLKIT_TRANSFORMTREESHARDSIZE =
+            "Toolkit.transform.treeShardSize";
+
+    /** Toolkit default locale, as a BCP 47 language tag, by which the
+     * JSON tree transform sorts prefLabels. */
+    public static final String TOOLKIT_TRANSFORMCOLLATIONLOCALE =
+            "Toolkit.transform.collationLocale";
+
 //  /** Toolkit . */
 //  public static final String TOOLKIT_ =
 //          "Toolkit.";
@@ -0,0 +1,315 @@
+/** See the file "LICENSE" for the full license governing this code. */
+package au.org.ands.vocabs.toolkit.utils;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+import org.openrdf.model.Value;
+
+/** Dictionary of the IRIs and literals of a vocabulary, used by the
+ * RDF handlers of the transforms so that each distinct string is
+ * kept only once, and not in the heap. Each string added is given
+ * a compact id: ids are allocated in sequence, starting at 0.
+ * Handlers keep ids instead of strings, and decode them only when
+ * writing their output.
+ *
+ * The strings are kept as UTF-8 in direct buffers, which are not
+ * part of the heap. (Their total size is limited by the
+ * {@code -XX:MaxDirectMemorySize} option of the JVM, which defaults
+ * to the maximum size of the heap.) The heap holds only a hash table
+ * of the ids, and the location and hash code of each string:
+ * about 20 bytes for each distinct string.
+ *
+ * Direct buffers are only freed when they are garbage collected,
+ * which may be long after they are no longer used. So rather than
+ * being left to the garbage collector, the chunks of a closed
+ * dictionary are kept in a pool shared by all dictionaries, from
+ * which the next dictionaries to be used, e.g., those of the RDF
+ * handlers of the next transform, take their chunks. The pool
+ * holds at most {@link #MAX_POOLED_CHUNKS} chunks; chunks beyond
+ * that, and chunks larger than {@link #CHUNK_SIZE}, are left
+ * to the garbage collector.
+ *
+ * Instances are not thread-safe, but the pool is shared safely.
+ * Close an instance once its ids are no longer needed, so that its
+ * chunks are returned to the pool; the instance must then not be
+ * used until strings have been added to it again.
+ */
+public final class TermDictionary implements Closeable {
+
+    /** Size of each chunk of the arena, in bytes. Strings longer
+     * than this are given a chunk of their own. */
+    private static final int CHUNK_SIZE = 1 << 20;
+
+    /** Maximum number of chunks kept in {@link #POOL}. */
+    private static final int MAX_POOLED_CHUNKS = 16;
+
+    /** Chunks of closed dictionaries, available for reuse.
+     * Each has size {@link #CHUNK_SIZE}. Guarded by itself. */
+    private static final ArrayDeque<ByteBuffer> POOL =
+            new ArrayDeque<ByteBuffer>();
+
+    /** Initial number of slots in the hash table. Must be a power
+     * of two. */
+    private static final int INITIAL_SLOTS = 1 << 10;
+
+    /** Initial capacity of the array of chunks. */
+    private static final int INITIAL_CHUNKS = 16;
+
+    /** Number of bits by which the high bits of a hash code are
+     * shifted onto the low bits. */
+    private static final int MIX_SHIFT = 16;
+
+    /** Number of bits by which the index of the chunk of a string
+     * is shifted in its location. */
+    private static final int CHUNK_SHIFT = 32;
+
+    /** Mask of the offset within a chunk in the location of
+     * a string. */
+    private static final long OFFSET_MASK = 0xffffffffL;
+
+    /** Number of bytes in an int. */
+    private static final int INT_BYTES = 4;
+
+    /** The chunks of the arena, in which the strings are kept, each
+     * as an int length, followed by that many bytes of UTF-8. */
+    private ByteBuffer[] chunks = new ByteBuffer[INITIAL_CHUNKS];
+
+    /** The number of chunks in use. */
+    private int chunkCount;
+
+    /** The chunk into which strings are being added, or null. */
+    private ByteBuffer current;
+
+    /** The location of each string, by id: the index of its chunk,
+     * shifted by {@link #CHUNK_SHIFT}, plus its offset within
+     * the chunk. */
+    private long[] locations = new long[INITIAL_SLOTS];
+
+    /** The hash code of each string, by id. */
+    private int[] hashes = new int[INITIAL_SLOTS];
+
+    /** The hash table. Each slot holds an id plus one, or 0, if the
+     * slot is empty. Collisions are resolved by linear probing,
+     * and the table is kept at most half full. */
+    private int[] slots = new int[INITIAL_SLOTS];
+
+    /** The number of strings added. */
+    private int size;
+
+    /** The number of bytes in the arena used by strings. */
+    private long bytesUsed;
+
+    /** Get the id of a string, adding the string, if it has not been
+     * added already.
+     * @param string The string.
+     * @return The id of the string.
+     */
+    public int getId(final String string) {
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        int hash = string.hashCode();
+        int slot = findSlot(bytes, hash);
+        if (slots[slot] != 0) {
+            return slots[slot] - 1;
+        }
+        int id = add(bytes, hash);
+        slots[slot] = id + 1;
+        if (2L * size > slots.length) {
+            rehash();
+        }
+        return id;
+    }
+
+    /** Get the id of the string value of an RDF term, adding it,
+     * if it has not been added already. For an IRI, the string value
+     * is the IRI; for a literal, it is the label of the literal.
+     * @param value The RDF term.
+     * @return The id of the string value of the term.
+     */
+    public int getId(final Value value) {
+        return getId(value.stringValue());
+    }
+
+    /** Get the id of a string, without adding it.
+     * @param string The string.
+     * @return The id of the string, or -1, if it has not been added.
+     */
+    public int lookUp(final String string) {
+        int slot = findSlot(string.getBytes(StandardCharsets.UTF_8),
+                string.hashCode());
+        return slots[slot] - 1;
+    }
+
+    /** Get the string with an id.
+     * @param id The id of the string.
+     * @return The string.
+     * @throws IndexOutOfBoundsException If no string has the id.
+     */
+    public String getString(final int id) {
+        if (id < 0 || id >= size) {
+            throw new IndexOutOfBoundsException("No string with id " + id);
+        }
+        ByteBuffer chunk = chunks[(int) (locations[id] >>> CHUNK_SHIFT)];
+        int offset = (int) (locations[id] & OFFSET_MASK);
+        int length = chunk.getInt(offset);
+        byte[] bytes = new byte[length];
+        // Use a duplicate, so as not to disturb the position of
+        // the chunk.
+        ByteBuffer view = chunk.duplicate();
+        view.position(offset + INT_BYTES);
+        view.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /** Get the number of strings added.
+     * @return The number of strings added.
+     */
+    public int size() {
+        return size;
+    }
+
+    /** Get the number of bytes used by strings, outside the heap.
+     * @return The number of bytes used by strings.
+     */
+    public long getBytesUsed() {
+        return bytesUsed;
+    }
+
+    /** Return the chunks of the arena to the pool, from which other
+     * dictionaries may take them. The dictionary is then empty,
+     * and may be used again. */
+    @Override
+    public void close() {
+        synchronized (POOL) {
+            for (int i = 0; i < chunkCount
+                    && POOL.size() < MAX_POOLED_CHUNKS; i++) {
+                if (chunks[i].capacity() == CHUNK_SIZE) {
+                    chunks[i].clear();
+                    POOL.push(chunks[i]);
+                }
+            }
+        }
+        chunks = new ByteBuffer[INITIAL_CHUNKS];
+        chunkCount = 0;
+        current = null;
+        locations = new long[INITIAL_SLOTS];
+        hashes = new int[INITIAL_SLOTS];
+        slots = new int[INITIAL_SLOTS];
+        size = 0;
+        bytesUsed = 0;
+    }
+
+    /** Find the slot of the hash table that holds a string, or, if
+     * the string has not been added, the empty slot at which it
+     * would be added.
+     * @param bytes The UTF-8 bytes of the string.
+     * @param hash The hash code of the string.
+     * @return The index of the slot.
+     */
+    private int findSlot(final byte[] bytes, final int hash) {
+        int mask = slots.length - 1;
+        int slot = mix(hash) & mask;
+        while (slots[slot] != 0) {
+            int id = slots[slot] - 1;
+            if (hashes[id] == hash && matches(id, bytes)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /** Does the string with an id have the given UTF-8 bytes?
+     * @param id The id of the string.
+     * @param bytes The UTF-8 bytes.
+     * @return True, iff the string has the bytes.
+     */
+    private boolean matches(final int id, final byte[] bytes) {
+        ByteBuffer chunk = chunks[(int) (locations[id] >>> CHUNK_SHIFT)];
+        int offset = (int) (locations[id] & OFFSET_MASK);
+        if (chunk.getInt(offset) != bytes.length) {
+            return false;
+        }
+        offset += INT_BYTES;
+        for (int i = 0; i < bytes.length; i++) {
+            if (chunk.get(offset + i) != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Add a string to the arena, and give it the next id.
+     * @param bytes The UTF-8 bytes of the string.
+     * @param hash The hash code of the string.
+     * @return The id of the string.
+     */
+    private int add(final byte[] bytes, final int hash) {
+        int needed = INT_BYTES + bytes.length;
+        if (current == null || current.remaining() < needed) {
+            current = newChunk(needed);
+            if (chunkCount == chunks.length) {
+                chunks = Arrays.copyOf(chunks, 2 * chunkCount);
+            }
+            chunks[chunkCount] = current;
+            chunkCount++;
+        }
+        if (size == locations.length) {
+            locations = Arrays.copyOf(locations, 2 * size);
+            hashes = Arrays.copyOf(hashes, 2 * size);
+        }
+        int id = size;
+        locations[id] = ((long) (chunkCount - 1) << CHUNK_SHIFT)
+                | current.position();
+        hashes[id] = hash;
+        current.putInt(bytes.length);
+        current.put(bytes);
+        size++;
+        bytesUsed += needed;
+        return id;
+    }
+
+    /** Get a chunk for the arena, from the pool, if possible.
+     * @param needed The number of bytes needed in the chunk.
+     * @return The chunk, with its position at 0.
+     */
+    private static ByteBuffer newChunk(final int needed) {
+        if (needed <= CHUNK_SIZE) {
+            synchronized (POOL) {
+                ByteBuffer chunk = POOL.poll();
+                if (chunk != null) {
+                    return chunk;
+                }
+            }
+        }
+        return ByteBuffer.allocateDirect(Math.max(CHUNK_SIZE, needed));
+    }
+
+    /** Double the size of the hash table. */
+    private void rehash() {
+        int[] newSlots = new int[2 * slots.length];
+        int mask = newSlots.length - 1;
+        for (int id = 0; id < size; id++) {
+            int slot = mix(hashes[id]) & mask;
+            while (newSlots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            newSlots[slot] = id + 1;
+        }
+        slots = newSlots;
+    }
+
+    /** Spread the bits of a hash code, so that strings with hash
+     * codes that differ only in their high bits fall into different
+     * slots.
+     * @param hash The hash code.
+     * @return The spread hash code.
+     */
+    private static int mix(final int hash) {
+        return hash ^ (hash >>> MIX_SHIFT);
+    }
+
+}
@@ -185,13 +185,29 @@ public final class ToolkitFileUtils {
      */
     public static String getTaskOutputPath(final TaskInfo taskInfo,
             final String extraPath) {
+        return getVersionOutputPath(taskInfo.getVocabulary(),
+                taskInfo.getVersion(), extraPath);
+    }
+
+    /** Get the full path of the directory used to store all
+     * the files of a version. This is the directory used by
+     * the tasks of the version.
+     * @param vocabulary The vocabulary of the version.
+     * @param version The version.
+     * @param extraPath An optional additional path component to be added
+     * at the end. If not required, pass in null or an empty string.
+     * @return The full path of the directory used to store the
+     * version data.
+     */
+    public static String getVersionOutputPath(final Vocabulary vocabulary,
+            final Version version, final String extraPath) {
         // NB: We call makeSlug() on the vocabulary slug, which should
         // (as of ANDS-Registry-Core commit e365392831ae)
         // not really be necessary.
         Path path = Paths.get(ToolkitConfig.DATA_FILES_PATH)
-                .resolve(makeSlug(taskInfo.getVocabulary().getOwner()))
-                .resolve(makeSlug(taskInfo.getVocabulary().getSlug()))
-                .resolve(makeSlug(taskInfo.getVersion().getTitle()));
+                .resolve(makeSlug(vocabulary.getOwner()))
+                .resolve(makeSlug(vocabulary.getSlug()))
+                .resolve(makeSlug(version.getTitle()));
         if (extraPath != null && (!extraPath.isEmpty())) {
             path = path.resolve(extraPath);
         }
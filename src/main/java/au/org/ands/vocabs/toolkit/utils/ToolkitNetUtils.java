@@ -8,6 +8,19 @@ import javax.ws.rs.client.ClientBuilder;
 /** Utility methods for working with the network. */
 public final class ToolkitNetUtils {
 
+    /** Timer of the requests made to other services. */
+    private static final Metrics.Histogram HTTP_CLIENT_SECONDS =
+            Metrics.timer("http_client_request_duration_seconds",
+                    "Time taken by requests to other services, "
+                    + "including reading the response.",
+                    "service", "operation");
+
+    /** Counter of the requests made to other services, by outcome. */
+    private static final Metrics.Counter HTTP_CLIENT_REQUESTS =
+            Metrics.counter("http_client_requests_total",
+                    "Requests to other services, by outcome.",
+                    "service", "operation", Metrics.OUTCOME);
+
     /** A shared Client resource, initialized on class loading. */
     private static Client client = ClientBuilder.newClient();
 
@@ -22,6 +35,19 @@ public final class ToolkitNetUtils {
         return client;
     }
 
+    /** Start timing a request to another service. Use the result
+     * in a try-with-resources statement, and complete it with
+     * whether the request succeeded; see {@link Metrics.Operation}.
+     * @param service The service, e.g., "PoolParty".
+     * @param operation The operation of the service, e.g., "export".
+     * @return The request, as an operation to be metered.
+     */
+    public static Metrics.Operation startRequest(final String service,
+            final String operation) {
+        return Metrics.start(HTTP_CLIENT_SECONDS, HTTP_CLIENT_REQUESTS,
+                service, operation);
+    }
+
     /** Prepare for shutdown. Call this only in webapp context shutdown! */
     public static void doShutdown() {
         client.close();
@@ -0,0 +1,437 @@
+/** See the file "LICENSE" for the full license governing this code. */
+package au.org.ands.vocabs.toolkit.utils;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/** Index of a concept tree, as generated by the JsonTree transform,
+ * in a form that can be mapped into memory and read without
+ * parsing. It allows the children of a concept to be served
+ * without loading the whole tree.
+ *
+ * The concepts are numbered from 0, in order of IRI, so that a
+ * concept can be found by binary search. The file contains, in order:
+ * <ol>
+ *   <li>A header: a magic number, a format version, the number of
+ *     concepts, and the number of entries in the child list.</li>
+ *   <li>The node index: for each concept, the position of its
+ *     record within the node records.</li>
+ *   <li>The child index: for the virtual root, whose children are
+ *     the roots of the tree, and then for each concept, the position
+ *     in the child list of its first child. There is a final entry
+ *     for the end of the child list.</li>
+ *   <li>The child list: the numbers of the children of each concept,
+ *     in the order in which they appear in the tree.</li>
+ *   <li>The node records: for each concept, its IRI, prefLabel,
+ *     definition, and notation, in the form written by
+ *     {@link MappedFile#writeString}.</li>
+ * </ol>
+ * Use a {@link Writer} to create an index.
+ */
+public final class TreeIndex {
+
+    /** The name of the file of the index, within the directory
+     * of a version. */
+    public static final String FILE_NAME = "concepts_tree.index";
+
+    /** Magic number at the start of an index: "CTIX". */
+    private static final int MAGIC = 0x43544958;
+
+    /** The version of the format of the index. */
+    private static final int FORMAT_VERSION = 1;
+
+    /** Size of the header, in bytes. */
+    private static final int HEADER_SIZE = 16;
+
+    /** Position of the number of concepts in the header. */
+    private static final int COUNT_POSITION = 8;
+
+    /** Position of the number of entries in the child list
+     * in the header. */
+    private static final int CHILDREN_POSITION = 12;
+
+    /** Number of bytes in an int. */
+    private static final int INT_BYTES = 4;
+
+    /** Number of bytes in a long. */
+    private static final int LONG_BYTES = 8;
+
+    /** Number of the prefLabel field of a node record. */
+    private static final int PREF_LABEL = 1;
+
+    /** Number of the definition field of a node record. */
+    private static final int DEFINITION = 2;
+
+    /** Number of the notation field of a node record. */
+    private static final int NOTATION = 3;
+
+    /** The number of the virtual root, whose children are the roots
+     * of the tree. */
+    public static final int ROOT = -1;
+
+    /** The mapped index. */
+    private final MappedFile file;
+
+    /** The number of concepts. */
+    private final int count;
+
+    /** The position of the node index. */
+    private final long nodeIndexStart;
+
+    /** The position of the child index. */
+    private final long childIndexStart;
+
+    /** The position of the child list. */
+    private final long childrenStart;
+
+    /** The position of the node records. */
+    private final long nodesStart;
+
+    /** Open an index.
+     * @param path The file of the index.
+     * @throws IOException If the file can not be mapped, or is not
+     *      an index.
+     */
+    public TreeIndex(final Path path) throws IOException {
+        file = new MappedFile(path);
+        if (file.size() < HEADER_SIZE || file.getInt(0) != MAGIC
+                || file.getInt(INT_BYTES) != FORMAT_VERSION) {
+            throw new IOException("Not a concept tree index: " + path);
+        }
+        count = file.getInt(COUNT_POSITION);
+        int childCount = file.getInt(CHILDREN_POSITION);
+        nodeIndexStart = HEADER_SIZE;
+        childIndexStart = nodeIndexStart + (long) count * LONG_BYTES;
+        childrenStart = childIndexStart + (count + 2L) * LONG_BYTES;
+        nodesStart = childrenStart + (long) childCount * INT_BYTES;
+        if (nodesStart > file.size()) {
+            throw new IOException("Truncated concept tree index: " + path);
+        }
+    }
+
+    /** Get the number of concepts.
+     * @return The number of concepts.
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /** Find a concept by its IRI.
+     * @param iri The IRI of the concept.
+     * @return The number of the concept, or -1, if there is no
+     *      concept with the IRI.
+     */
+    public int find(final String iri) {
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int c = getIri(middle).compareTo(iri);
+            if (c < 0) {
+                low = middle + 1;
+            } else if (c > 0) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -1;
+    }
+
+    /** Get the number of children of a concept.
+     * @param node The number of the concept, or {@link #ROOT}.
+     * @return The number of children.
+     */
+    public int getChildCount(final int node) {
+        return (int) (getChildIndex(node + 1) - getChildIndex(node));
+    }
+
+    /** Get a child of a concept.
+     * @param node The number of the concept, or {@link #ROOT}.
+     * @param i The position of the child among the children
+     *      of the concept, from 0.
+     * @return The number of the child.
+     */
+    public int getChild(final int node, final int i) {
+        return file.getInt(childrenStart
+                + (getChildIndex(node) + i) * INT_BYTES);
+    }
+
+    /** Get the IRI of a concept.
+     * @param node The number of the concept.
+     * @return The IRI of the concept.
+     */
+    public String getIri(final int node) {
+        return file.getString(getNodePosition(node));
+    }
+
+    /** Get the prefLabel of a concept.
+     * @param node The number of the concept.
+     * @return The prefLabel of the concept, or null.
+     */
+    public String getPrefLabel(final int node) {
+        return getField(node, PREF_LABEL);
+    }
+
+    /** Get the definition of a concept.
+     * @param node The number of the concept.
+     * @return The definition of the concept, or null.
+     */
+    public String getDefinition(final int node) {
+        return getField(node, DEFINITION);
+    }
+
+    /** Get the notation of a concept.
+     * @param node The number of the concept.
+     * @return The notation of the concept, or null.
+     */
+    public String getNotation(final int node) {
+        return getField(node, NOTATION);
+    }
+
+    /** Get a field of the record of a concept.
+     * @param node The number of the concept.
+     * @param field The number of the field: 0 for the IRI, 1 for the
+     *      prefLabel, 2 for the definition, 3 for the notation.
+     * @return The value of the field, or null.
+     */
+    private String getField(final int node, final int field) {
+        long position = getNodePosition(node);
+        for (int i = 0; i < field; i++) {
+            position += file.getStringSize(position);
+        }
+        return file.getString(position);
+    }
+
+    /** Get the position of the record of a concept.
+     * @param node The number of the concept.
+     * @return The position of the record.
+     */
+    private long getNodePosition(final int node) {
+        if (node < 0 || node >= count) {
+            throw new IndexOutOfBoundsException("No concept " + node);
+        }
+        return nodesStart + file.getLong(nodeIndexStart
+                + (long) node * LONG_BYTES);
+    }
+
+    /** Get an entry of the child index.
+     * @param node The number of the concept, or {@link #ROOT}
+     *      (or the number of concepts, for the end of the child list).
+     * @return The position in the child list of the first child.
+     */
+    private long getChildIndex(final int node) {
+        if (node < ROOT || node > count) {
+            throw new IndexOutOfBoundsException("No concept " + node);
+        }
+        return file.getLong(childIndexStart + (node + 1L) * LONG_BYTES);
+    }
+
+    /** Writer of an index. Add all the concepts, in order of IRI, with
+     * {@link #addNode}, and the children of the virtual root and then
+     * of each concept, in order, with {@link #addChild}; then call
+     * {@link #finish()}. The sections are written to temporary files
+     * beside the index, and only the current entry is kept in the
+     * heap, so that indexes of any size can be written. The index
+     * replaces any existing file only once it is complete. */
+    public static final class Writer implements Closeable {
+
+        /** Size of the output buffers, in bytes. */
+        private static final int BUFFER_SIZE = 1 << 16;
+
+        /** The names of the sections, in order, used in the names
+         * of their temporary files. */
+        private static final String[] SECTION_NAMES =
+            {"nodeIndex", "childIndex", "children", "nodes"};
+
+        /** The file of the index. */
+        private final Path path;
+
+        /** The temporary files of the sections, in order. */
+        private final Path[] sections;
+
+        /** The outputs of the sections. */
+        private final DataOutputStream[] outputs;
+
+        /** The output of the node index. */
+        private final DataOutputStream nodeIndex;
+
+        /** The output of the child index. */
+        private final DataOutputStream childIndex;
+
+        /** The output of the child list. */
+        private final DataOutputStream children;
+
+        /** The output of the node records. */
+        private final DataOutputStream nodes;
+
+        /** The number of concepts added. */
+        private int count;
+
+        /** The size of the node records written. */
+        private long nodesSize;
+
+        /** The number of entries in the child list. */
+        private int childCount;
+
+        /** The number of entries written to the child index, which is
+         * one more than the number of the last parent. */
+        private long childIndexEntries;
+
+        /** Whether {@link #finish()} has completed. */
+        private boolean finished;
+
+        /** Constructor.
+         * @param aPath The file of the index.
+         * @throws IOException If the temporary files can not be
+         *      created.
+         */
+        public Writer(final Path aPath) throws IOException {
+            path = aPath;
+            sections = new Path[SECTION_NAMES.length];
+            outputs = new DataOutputStream[SECTION_NAMES.length];
+            try {
+                for (int i = 0; i < SECTION_NAMES.length; i++) {
+                    sections[i] = path.resolveSibling(path.getFileName()
+                            + "." + SECTION_NAMES[i] + ".tmp");
+                    outputs[i] = new DataOutputStream(
+                            new BufferedOutputStream(Files.newOutputStream(
+                                    sections[i]), BUFFER_SIZE));
+                }
+            } catch (IOException e) {
+                close();
+                throw e;
+            }
+            int section = 0;
+            nodeIndex = outputs[section++];
+            childIndex = outputs[section++];
+            children = outputs[section++];
+            nodes = outputs[section];
+        }
+
+        /** Add the next concept.
+         * @param iri The IRI of the concept. It must follow the IRI of
+         *      the previous concept in the order of
+         *      {@link String#compareTo(String)}.
+         * @param prefLabel The prefLabel of the concept, or null.
+         * @param definition The definition of the concept, or null.
+         * @param notation The notation of the concept, or null.
+         * @return The number of the concept.
+         * @throws IOException If the concept can not be written.
+         */
+        public int addNode(final String iri, final String prefLabel,
+                final String definition, final String notation)
+                throws IOException {
+            nodeIndex.writeLong(nodesSize);
+            nodesSize += MappedFile.writeString(nodes, iri)
+                    + MappedFile.writeString(nodes, prefLabel)
+                    + MappedFile.writeString(nodes, definition)
+                    + MappedFile.writeString(nodes, notation);
+            count++;
+            return count - 1;
+        }
+
+        /** Add the next child.
+         * @param parent The number of the parent concept, or
+         *      {@link TreeIndex#ROOT}. Parents must be given in order.
+         * @param child The number of the child concept.
+         * @throws IOException If the child can not be written.
+         */
+        public void addChild(final int parent, final int child)
+                throws IOException {
+            if (parent + 1L < childIndexEntries - 1) {
+                throw new IllegalArgumentException(
+                        "Children must be added in order of parent");
+            }
+            while (childIndexEntries <= parent + 1L) {
+                childIndex.writeLong(childCount);
+                childIndexEntries++;
+            }
+            children.writeInt(child);
+            childCount++;
+        }
+
+        /** Complete the index, and move it into place.
+         * @throws IOException If the index can not be written.
+         */
+        public void finish() throws IOException {
+            while (childIndexEntries <= count + 1L) {
+                childIndex.writeLong(childCount);
+                childIndexEntries++;
+            }
+            for (DataOutputStream output : outputs) {
+                output.close();
+            }
+            Path temporary = path.resolveSibling(path.getFileName()
+                    + ".tmp");
+            try (FileChannel out = FileChannel.open(temporary,
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                DataOutputStream header = new DataOutputStream(
+                        Channels.newOutputStream(out));
+                header.writeInt(MAGIC);
+                header.writeInt(FORMAT_VERSION);
+                header.writeInt(count);
+                header.writeInt(childCount);
+                header.flush();
+                for (Path section : sections) {
+                    try (FileChannel in = FileChannel.open(section,
+                            StandardOpenOption.READ)) {
+                        long size = in.size();
+                        long copied = 0;
+                        while (copied < size) {
+                            copied += in.transferTo(copied, size - copied,
+                                    out);
+                        }
+                    }
+                }
+            }
+            Files.move(temporary, path,
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            finished = true;
+            close();
+        }
+
+        /** Delete the temporary files. If {@link #finish()} has not
+         * completed, no index is written. */
+        @Override
+        public void close() {
+            for (int i = 0; i < sections.length; i++) {
+                if (outputs[i] != null) {
+                    try {
+                        outputs[i].close();
+                    } catch (IOException e) {
+                        // Nothing more can be done; the file is
+                        // deleted anyway.
+                    }
+                }
+                if (sections[i] != null) {
+                    try {
+                        Files.deleteIfExists(sections[i]);
+                    } catch (IOException e) {
+                        // Leave the file; it is replaced the
+                        // next time an index is written.
+                    }
+                }
+            }
+            if (!finished) {
+                try {
+                    Files.deleteIfExists(path.resolveSibling(
+                            path.getFileName() + ".tmp"));
+                } catch (IOException e) {
+                    // As above.
+                }
+            }
+        }
+    }
+
+}
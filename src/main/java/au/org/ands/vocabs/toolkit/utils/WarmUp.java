@@ -0,0 +1,304 @@
+/** See the file "LICENSE" for the full license governing this code. */
+package au.org.ands.vocabs.toolkit.utils;
+
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.persistence.EntityManager;
+
+import org.openrdf.repository.RepositoryException;
+import org.openrdf.repository.config.RepositoryConfigException;
+import org.openrdf.repository.manager.RepositoryManager;
+import org.openrdf.repository.manager.RepositoryProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import au.org.ands.vocabs.toolkit.db.DBContext;
+import au.org.ands.vocabs.toolkit.provider.backup.BackupProviderUtils;
+import au.org.ands.vocabs.toolkit.provider.harvest.HarvestProviderUtils;
+import au.org.ands.vocabs.toolkit.provider.importer.ImporterProviderUtils;
+import au.org.ands.vocabs.toolkit.provider.publish.PublishProviderUtils;
+import au.org.ands.vocabs.toolkit.provider.transform.TransformProviderUtils;
+
+/** Warm-up of the Toolkit at startup. Much of the Toolkit is
+ * initialized lazily: the JPA EntityManagerFactory and the database
+ * connection pool are created on first use of {@link DBContext},
+ * and the Sesame repository manager, the HTTP client, and the
+ * providers are loaded when first needed. Without warm-up, the first
+ * requests after a restart pay for all of this, and may time out.
+ *
+ * The warm-up is run in the background, so that it does not delay
+ * the deployment of the web application. The Toolkit is ready once
+ * the database step has succeeded; the other steps only make the
+ * first requests faster, so their failure is reported, but does not
+ * stop the Toolkit being ready. See the getInfo/ready restlet.
+ * If the database step fails, e.g., because the database is briefly
+ * unreachable, it is tried again, at increasing intervals, until
+ * it succeeds.
+ */
+public final class WarmUp {
+
+    /** Logger for this class. */
+    private static final Logger LOGGER = LoggerFactory.getLogger(
+            MethodHandles.lookup().lookupClass());
+
+    /** Default number of database connections opened during warm-up. */
+    private static final int DEFAULT_CONNECTIONS = 2;
+
+    /** Number of nanoseconds in a millisecond. */
+    private static final long NS_PER_MS = 1000000;
+
+    /** The harvest provider types loaded during warm-up. */
+    private static final String[] HARVEST_PROVIDERS =
+        {"PoolParty", "Sesame", "SPARQL", "File"};
+
+    /** The transform provider types loaded during warm-up. */
+    private static final String[] TRANSFORM_PROVIDERS =
+        {"JsonList", "JsonTree", "SolrIndex", "GetMetadata",
+            "PropertyRewriter", "SesameInsertMetadata",
+            "SesameSPARQLUpdate"};
+
+    /** Interval before the first retry of the database step,
+     * in milliseconds. The interval doubles after each retry. */
+    private static final long INITIAL_RETRY_INTERVAL = 1000;
+
+    /** Maximum interval between retries of the database step,
+     * in milliseconds. */
+    private static final long MAX_RETRY_INTERVAL = 60000;
+
+    /** Status of a step that has not finished. */
+    private static final String STATUS_PENDING = "pending";
+
+    /** The results of the steps, keyed by step name. Guarded
+     * by the map. */
+    private static final Map<String, Map<String, Object>> STEPS =
+            new LinkedHashMap<String, Map<String, Object>>();
+
+    /** Whether the Toolkit is ready to serve requests. */
+    private static volatile boolean ready;
+
+    /** The warm-up thread, or null, if warm-up has not been started. */
+    private static Thread thread;
+
+    /** Private constructor for a utility class. */
+    private WarmUp() {
+    }
+
+    /** Start the warm-up in the background.
+     * Call this only in webapp context initialization! */
+    public static synchronized void start() {
+        if (thread != null) {
+            return;
+        }
+        synchronized (STEPS) {
+            for (String step : new String[] {"properties", "database",
+                    "providers", "httpClient", "sesame"}) {
+                Map<String, Object> result =
+                        new LinkedHashMap<String, Object>();
+                result.put("status", STATUS_PENDING);
+                STEPS.put(step, result);
+            }
+        }
+        thread = new Thread(WarmUp::run, "WarmUp");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /** Stop the warm-up, if it is still running, e.g., retrying
+     * the database step.
+     * Call this only in webapp context shutdown! */
+    public static synchronized void doShutdown() {
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    /** Decide whether the Toolkit is ready to serve requests.
+     * @return True, iff the warm-up of the database has succeeded.
+     */
+    public static boolean isReady() {
+        return ready;
+    }
+
+    /** Get the state of the warm-up.
+     * @return A map with a "ready" entry, and an entry for each
+     *      step, giving its status, the time it took, and any error.
+     */
+    public static Map<String, Object> getStatus() {
+        Map<String, Object> status = new LinkedHashMap<String, Object>();
+        status.put("ready", ready);
+        synchronized (STEPS) {
+            for (Map.Entry<String, Map<String, Object>> step
+                    : STEPS.entrySet()) {
+                status.put(step.getKey(),
+                        new LinkedHashMap<String, Object>(step.getValue()));
+            }
+        }
+        return status;
+    }
+
+    /** Run the steps of the warm-up. */
+    private static void run() {
+        long start = System.nanoTime();
+        runStep("properties", WarmUp::warmProperties);
+        ready = runStep("database", WarmUp::warmDatabase);
+        runStep("providers", WarmUp::warmProviders);
+        runStep("httpClient", WarmUp::warmHttpClient);
+        runStep("sesame", WarmUp::warmSesame);
+        LOGGER.info("Warm-up finished in "
+                + (System.nanoTime() - start) / NS_PER_MS + " ms; ready: "
+                + ready);
+        long interval = INITIAL_RETRY_INTERVAL;
+        int attempts = 1;
+        while (!ready) {
+            try {
+                Thread.sleep(interval);
+            } catch (InterruptedException e) {
+                // The webapp is being stopped.
+                return;
+            }
+            interval = Math.min(2 * interval, MAX_RETRY_INTERVAL);
+            attempts++;
+            ready = runStep("database", WarmUp::warmDatabase);
+            synchronized (STEPS) {
+                STEPS.get("database").put("attempts", attempts);
+            }
+        }
+        if (attempts > 1) {
+            LOGGER.info("Warm-up of database succeeded after " + attempts
+                    + " attempts; ready");
+        }
+    }
+
+    /** Run one step of the warm-up, and record its result.
+     * @param name The name of the step.
+     * @param step The step.
+     * @return True, iff the step succeeded.
+     */
+    private static boolean runStep(final String name, final Step step) {
+        long start = System.nanoTime();
+        Map<String, Object> result = new LinkedHashMap<String, Object>();
+        boolean success;
+        try {
+            step.run();
+            result.put("status", HealthCheckUtils.STATUS_OK);
+            success = true;
+        } catch (Exception | LinkageError e) {
+            // LinkageError includes ExceptionInInitializerError and
+            // NoClassDefFoundError, thrown if a class used by the
+            // step can not be initialized. Without catching them,
+            // the warm-up thread would die, and not retry.
+            LOGGER.error("Warm-up of " + name + " failed", e);
+            result.put("status", HealthCheckUtils.STATUS_ERROR);
+            result.put("error", e.toString());
+            success = false;
+        }
+        result.put("time_ms", (System.nanoTime() - start) / NS_PER_MS);
+        synchronized (STEPS) {
+            STEPS.put(name, result);
+        }
+        return success;
+    }
+
+    /** Load the Toolkit properties. */
+    private static void warmProperties() {
+        ToolkitProperties.getProperties();
+    }
+
+    /** Create the EntityManagerFactory, and fill the connection pool
+     * with the number of connections set by the property
+     * {@link PropertyConstants#TOOLKIT_WARMUPCONNECTIONS}. The
+     * connections are held at the same time, so that the pool has to
+     * create that many. (Set hibernate.c3p0.min_size as well, so that
+     * the pool keeps them.) */
+    private static void warmDatabase() {
+        int connections = Integer.parseInt(ToolkitProperties.getProperty(
+                PropertyConstants.TOOLKIT_WARMUPCONNECTIONS,
+                Integer.toString(DEFAULT_CONNECTIONS)));
+        List<EntityManager> ems = new ArrayList<EntityManager>();
+        try {
+            for (int i = 0; i < Math.max(connections, 1); i++) {
+                EntityManager em = DBContext.getEntityManager();
+                ems.add(em);
+                em.getTransaction().begin();
+                em.createNativeQuery("SELECT 1").getSingleResult();
+            }
+        } finally {
+            for (EntityManager em : ems) {
+                if (em.getTransaction().isActive()) {
+                    em.getTransaction().rollback();
+                }
+                em.close();
+            }
+        }
+    }
+
+    /** Load the provider classes.
+     * @throws ReflectiveOperationException If a provider can not
+     *      be loaded.
+     */
+    private static void warmProviders() throws ReflectiveOperationException {
+        for (String type : HARVEST_PROVIDERS) {
+            HarvestProviderUtils.getProvider(type);
+        }
+        for (String type : TRANSFORM_PROVIDERS) {
+            TransformProviderUtils.getProvider(type);
+        }
+        ImporterProviderUtils.getProvider("Sesame");
+        PublishProviderUtils.getProvider("SISSVoc");
+        BackupProviderUtils.getProvider("PoolParty");
+    }
+
+    /** Load the HTTP client, and make first requests with it. The
+     * requests are the same as made by the system health checks of
+     * Sesame and PoolParty, for those that are configured.
+     * @throws IllegalStateException If a request fails.
+     */
+    private static void warmHttpClient() {
+        ToolkitNetUtils.getClient();
+        List<Map<String, Object>> results =
+                new ArrayList<Map<String, Object>>();
+        results.add(HealthCheckUtils.checkSesame());
+        results.add(HealthCheckUtils.checkPoolParty());
+        for (Map<String, Object> result : results) {
+            if (HealthCheckUtils.STATUS_ERROR.equals(result.get("status"))) {
+                throw new IllegalStateException(
+                        String.valueOf(result.get("message")));
+            }
+        }
+    }
+
+    /** Create the Sesame repository manager, and fetch the list of
+     * repositories with it. The manager is kept by Sesame, and
+     * reused by the Sesame providers.
+     * @throws RepositoryConfigException If the manager can not
+     *      be created.
+     * @throws RepositoryException If the repositories can not
+     *      be listed.
+     */
+    private static void warmSesame() throws RepositoryConfigException,
+            RepositoryException {
+        String serverUrl = ToolkitProperties.getProperty(
+                PropertyConstants.SESAMEIMPORTER_SERVERURL);
+        if (serverUrl == null) {
+            return;
+        }
+        RepositoryManager manager =
+                RepositoryProvider.getRepositoryManager(serverUrl);
+        manager.getRepositoryIDs();
+    }
+
+    /** One step of the warm-up. */
+    @FunctionalInterface
+    private interface Step {
+
+        /** Run the step.
+         * @throws Exception If the step fails.
+         */
+        void run() throws Exception;
+    }
+
+}
@@ -0,0 +1,41 @@
+/** See the file "LICENSE" for the full license governing this code. */
+package au.org.ands.vocabs.toolkit.utils.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/** Event recording the export of data from another service. */
+@Name("au.org.ands.vocabs.toolkit.HttpExport")
+@Label("HTTP Export")
+@Description("The download of data exported by another service, "
+        + "including reading the response")
+final class HttpExportEvent extends SpanEvent {
+
+    /** The service, e.g., "PoolParty". */
+    @Label("Service")
+    private String service;
+
+    /** The part of the data that is exported, e.g., an export module
+     * of PoolParty, or a Sesame repository. */
+    @Label("Export")
+    private String export;
+
+    /** The URL from which the data is exported. */
+    @Label("URL")
+    private String url;
+
+    /** Constructor.
+     * @param aService The service, e.g., "PoolParty".
+     * @param anExport The part of the data that is exported, e.g.,
+     *      an export module of PoolParty, or a Sesame repository.
+     * @param aUrl The URL from which the data is exported.
+     */
+    HttpExportEvent(final String aService, final String anExport,
+            final String aUrl) {
+        service = aService;
+        export = anExport;
+        url = aUrl;
+    }
+
+}
@@ -0,0 +1,104 @@
+/** See the file "LICENSE" for the full license governing this code. */
+package au.org.ands.vocabs.toolkit.utils.jfr;
+
+import au.org.ands.vocabs.toolkit.utils.FlightEvents;
+
+import jdk.jfr.FlightRecorder;
+
+/** Factory of the events of the Toolkit. This class uses the jdk.jfr
+ * API, so it must only be used once
+ * {@link au.org.ands.vocabs.toolkit.utils.FlightEvents} has
+ * checked that the API is available.
+ *
+ * Each method returns null, if its event is not enabled, e.g.,
+ * because there is no recording in progress, so that nothing
+ * more is done for it.
+ */
+public final class JfrEvents {
+
+    /** Private constructor for a utility class. */
+    private JfrEvents() {
+    }
+
+    /** Check whether the Flight Recorder can be used.
+     * @return True, iff the Flight Recorder can be used.
+     */
+    public static boolean isAvailable() {
+        return FlightRecorder.isAvailable();
+    }
+
+    /** Begin an event for the run of a task.
+     * @param taskId The id of the task.
+     * @param vocabularyId The id of the vocabulary.
+     * @param versionId The id of the version.
+     * @return The event, or null, if the event is not enabled.
+     */
+    public static FlightEvents.Span task(final int taskId,
+            final int vocabularyId, final int versionId) {
+        return begin(new TaskEvent(taskId, vocabularyId, versionId));
+    }
+
+    /** Begin an event for the run of a subtask.
+     * @param taskId The id of the task.
+     * @param vocabularyId The id of the vocabulary.
+     * @param versionId The id of the version.
+     * @param index The position of the subtask within the task.
+     * @param type The type of the subtask.
+     * @param provider The provider type of the subtask.
+     * @return The event, or null, if the event is not enabled.
+     */
+    public static FlightEvents.Span subtask(final int taskId,
+            final int vocabularyId, final int versionId, final int index,
+            final String type, final String provider) {
+        return begin(new SubtaskEvent(taskId, vocabularyId, versionId,
+                index, type, provider));
+    }
+
+    /** Begin an event for the parsing of an RDF file.
+     * @param provider The provider that parses the file.
+     * @param file The path of the file.
+     * @param format The name of the RDF format of the file.
+     * @return The event, or null, if the event is not enabled.
+     */
+    public static FlightEvents.Span rdfParse(final String provider,
+            final String file, final String format) {
+        return begin(new RdfParseEvent(provider, file, format));
+    }
+
+    /** Begin an event for an export of data from another service.
+     * @param service The service.
+     * @param export The part of the data that is exported.
+     * @param url The URL from which the data is exported.
+     * @return The event, or null, if the event is not enabled.
+     */
+    public static FlightEvents.Span httpExport(final String service,
+            final String export, final String url) {
+        return begin(new HttpExportEvent(service, export, url));
+    }
+
+    /** Begin an event for a transaction on a Sesame repository.
+     * @param operation The operation.
+     * @param repository The id of the repository.
+     * @param target What the operation works on.
+     * @return The event, or null, if the event is not enabled.
+     */
+    public static FlightEvents.Span sesameTransaction(
+            final String operation, final String repository,
+            final String target) {
+        return begin(new SesameTransactionEvent(operation, repository,
+                target));
+    }
+
+    /** Begin an event, if it is enabled.
+     * @param event The event.
+     * @return The event, or null, if the event is not enabled.
+     */
+    private static FlightEvents.Span begin(final SpanEvent event) {
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.begin();
+        return event;
+    }
+
+}
@@ -0,0 +1,38 @@
+/** See the file "LICENSE" for the full license governing this code. */
+package au.org.ands.vocabs.toolkit.utils.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/** Event recording the parsing of an RDF file. */
+@Name("au.org.ands.vocabs.toolkit.RdfParse")
+@Label("RDF Parse")
+@Description("The parsing of an RDF file by a provider")
+final class RdfParseEvent extends SpanEvent {
+
+    /** The provider that parses the file. */
+    @Label("Provider")
+    private String provider;
+
+    /** The path of the file. */
+    @Label("File")
+    private String file;
+
+    /** The name of the RDF format of the file. */
+    @Label("Format")
+    private String format;
+
+    /** Constructor.
+     * @param aProvider The provider that parses the file.
+     * @param aFile The path of the file.
+     * @param aFormat The name of the RDF format of the file.
+     */
+    RdfParseEvent(final String aProvider, final String aFile,
+            final String aFormat) {
+        provider = aProvider;
+        file = aFile;
+        format = aFormat;
+    }
+
+}
@@ -0,0 +1,39 @@
+/** See the file "LICENSE" for the full license governing this code. */
+package au.org.ands.vocabs.toolkit.utils.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/** Event recording a transaction on a Sesame repository. */
+@Name("au.org.ands.vocabs.toolkit.SesameTransaction")
+@Label("Sesame Transaction")
+@Description("A change to a Sesame repository, made in its own "
+        + "transaction")
+final class SesameTransactionEvent extends SpanEvent {
+
+    /** The operation, e.g., "upload". */
+    @Label("Operation")
+    private String operation;
+
+    /** The id of the repository. */
+    @Label("Repository")
+    private String repository;
+
+    /** What the operation works on, e.g., the file uploaded. */
+    @Label("Target")
+    private String target;
+
+    /** Constructor.
+     * @param anOperation The operation, e.g., "upload".
+     * @param aRepository The id of the repository.
+     * @param aTarget What the operation works on, e.g., the file uploaded.
+     */
+    SesameTransactionEvent(final String anOperation, final String aRepository,
+            final String aTarget) {
+        operation = anOperation;
+        repository = aRepository;
+        target = aTarget;
+    }
+
+}
@@ -0,0 +1,21 @@
+/** See the file "LICENSE" for the full license governing this code. */
+package au.org.ands.vocabs.toolkit.utils.jfr;
+
+import au.org.ands.vocabs.toolkit.utils.FlightEvents;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+
+/** Base class of the events of the Toolkit. Each event is begun when
+ * it is created, and committed when it is closed, so that its
+ * duration is that of the work it records. */
+@Category("ANDS Vocabs Toolkit")
+abstract class SpanEvent extends Event implements FlightEvents.Span {
+
+    /** Commit the event. */
+    @Override
+    public final void close() {
+        commit();
+    }
+
+}
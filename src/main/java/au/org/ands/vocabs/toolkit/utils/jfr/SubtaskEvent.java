@@ -0,0 +1,72 @@
+/** See the file "LICENSE" for the full license governing this code. */
+package au.org.ands.vocabs.toolkit.utils.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/** Event recording the run of a subtask. */
+@Name("au.org.ands.vocabs.toolkit.Subtask")
+@Label("Subtask")
+@Description("The run of a subtask by a provider, including any wait "
+        + "for a resource pool")
+@StackTrace(false)
+final class SubtaskEvent extends SpanEvent {
+
+    /** The id of the task. */
+    @Label("Task Id")
+    private int taskId;
+
+    /** The id of the vocabulary. */
+    @Label("Vocabulary Id")
+    private int vocabularyId;
+
+    /** The id of the version. */
+    @Label("Version Id")
+    private int versionId;
+
+    /** The position of the subtask within the task. */
+    @Label("Index")
+    private int index;
+
+    /** The type of the subtask, e.g., "HARVEST". */
+    @Label("Type")
+    private String type;
+
+    /** The provider type of the subtask, e.g., "PoolParty". */
+    @Label("Provider")
+    private String provider;
+
+    /** The outcome of the subtask. */
+    @Label("Outcome")
+    private String outcome;
+
+    /** Constructor.
+     * @param aTaskId The id of the task.
+     * @param aVocabularyId The id of the vocabulary.
+     * @param aVersionId The id of the version.
+     * @param anIndex The position of the subtask within the task.
+     * @param aType The type of the subtask, e.g., "HARVEST".
+     * @param aProvider The provider type of the subtask, e.g., "PoolParty".
+     */
+    SubtaskEvent(final int aTaskId, final int aVocabularyId,
+            final int aVersionId, final int anIndex, final String aType,
+            final String aProvider) {
+        taskId = aTaskId;
+        vocabularyId = aVocabularyId;
+        versionId = aVersionId;
+        index = anIndex;
+        type = aType;
+        provider = aProvider;
+    }
+
+    /** Set the outcome of the subtask.
+     * @param anOutcome The outcome of the subtask.
+     */
+    @Override
+    public void setOutcome(final String anOutcome) {
+        outcome = anOutcome;
+    }
+
+}
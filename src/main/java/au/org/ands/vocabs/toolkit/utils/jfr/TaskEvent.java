@@ -0,0 +1,53 @@
+/** See the file "LICENSE" for the full license governing this code. */
+package au.org.ands.vocabs.toolkit.utils.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/** Event recording the run of a task. */
+@Name("au.org.ands.vocabs.toolkit.Task")
+@Label("Task")
+@Description("The run of a task, from the claim of its lease "
+        + "to its final status")
+@StackTrace(false)
+final class TaskEvent extends SpanEvent {
+
+    /** The id of the task. */
+    @Label("Task Id")
+    private int taskId;
+
+    /** The id of the vocabulary. */
+    @Label("Vocabulary Id")
+    private int vocabularyId;
+
+    /** The id of the version. */
+    @Label("Version Id")
+    private int versionId;
+
+    /** The final status of the task. */
+    @Label("Status")
+    private String status;
+
+    /** Constructor.
+     * @param aTaskId The id of the task.
+     * @param aVocabularyId The id of the vocabulary.
+     * @param aVersionId The id of the version.
+     */
+    TaskEvent(final int aTaskId, final int aVocabularyId,
+            final int aVersionId) {
+        taskId = aTaskId;
+        vocabularyId = aVocabularyId;
+        versionId = aVersionId;
+    }
+
+    /** Set the final status of the task.
+     * @param outcome The final status of the task.
+     */
+    @Override
+    public void setOutcome(final String outcome) {
+        status = outcome;
+    }
+
+}
@@ -0,0 +1,5 @@
+/** See the file "LICENSE" for the full license governing this code. */
+/** Java Flight Recorder events of the toolkit. Use them only through
+ * {@link au.org.ands.vocabs.toolkit.utils.FlightEvents}, which checks
+ * that the JVM supports them. */
+package au.org.ands.vocabs.toolkit.utils.jfr;
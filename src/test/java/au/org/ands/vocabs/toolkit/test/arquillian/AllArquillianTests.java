@@ -6,13 +6,31 @@ import java.io.File;
 import java.io.IOException;
 import java.lang.invoke.MethodHandles;
 import java.net.URL;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Properties;
 
+import javax.ws.rs.HttpMethod;
+import javax.ws.rs.core.EntityTag;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.ResponseBuilder;
+import javax.ws.rs.core.Response.Status;
 import javax.ws.rs.core.Response.Status.Family;
+import javax.ws.rs.core.Variant;
 
 import org.apache.commons.io.FileUtils;
 import org.dbunit.DatabaseUnitException;
@@ -25,14 +43,31 @@ import org.testng.Assert;
 import org.testng.annotations.BeforeSuite;
 import org.testng.annotations.Test;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import au.org.ands.vocabs.toolkit.db.TaskLeaseUtils;
+import au.org.ands.vocabs.toolkit.db.TaskStatusJournal;
 import au.org.ands.vocabs.toolkit.db.TaskUtils;
 import au.org.ands.vocabs.toolkit.db.model.Task;
+import au.org.ands.vocabs.toolkit.restlet.GetTree;
+import au.org.ands.vocabs.toolkit.tasks.PriorityScheduler;
+import au.org.ands.vocabs.toolkit.tasks.TaskControl;
 import au.org.ands.vocabs.toolkit.tasks.TaskInfo;
+import au.org.ands.vocabs.toolkit.tasks.TaskLease;
+import au.org.ands.vocabs.toolkit.tasks.TaskPriority;
 import au.org.ands.vocabs.toolkit.tasks.TaskRunner;
+import au.org.ands.vocabs.toolkit.tasks.TaskStatus;
 import au.org.ands.vocabs.toolkit.test.utils.NetClientUtils;
 import au.org.ands.vocabs.toolkit.utils.ApplicationContextListener;
+import au.org.ands.vocabs.toolkit.utils.CronExpression;
+import au.org.ands.vocabs.toolkit.utils.HealthCheckUtils;
+import au.org.ands.vocabs.toolkit.utils.PropertyConstants;
 import au.org.ands.vocabs.toolkit.utils.ToolkitConfig;
 import au.org.ands.vocabs.toolkit.utils.ToolkitFileUtils;
+import au.org.ands.vocabs.toolkit.utils.ToolkitProperties;
 
 /** All Arquillian tests of the Toolkit.
  * Very unfortunately, there is no way to share Arquillian deployments
@@ -185,8 +220,809 @@ public class AllArquillianTests extends ArquillianBaseTest {
                 + "concepts_tree_not_provided");
 
     }
+
+    /** Server-side test of {@code JsonTreeTransformProvider} in spill
+     * mode. The test data of {@link #testJsonTreeTransformProvider1}
+     * is used, with a spill threshold so low that every task spills.
+     * The results must be the same as in that test.
+     * @throws DatabaseUnitException If a problem with DBUnit.
+     * @throws HibernateException If a problem getting the underlying
+     *          JDBC connection.
+     * @throws IOException If a problem getting test data for DBUnit,
+     *          or reading JSON from the correct and test output files.
+     * @throws SQLException If DBUnit has a problem performing
+     *           performing JDBC operations.
+     */
+    @Test
+    public final void testJsonTreeTransformProviderSpill() throws
+        DatabaseUnitException, HibernateException, IOException, SQLException {
+        logger.info("In testJsonTreeTransformProviderSpill()");
+        ArquillianTestUtils.loadDbUnitTestFile(
+                "testJsonTreeTransformProvider1");
+        String threshold = setToolkitProperty(
+                PropertyConstants.TOOLKIT_TRANSFORMSPILLTHRESHOLD, "1");
+        try {
+            for (int taskId = 1; taskId <= 2; taskId++) {
+                HashMap<String, String> results = runJsonTreeTask(taskId);
+                Assert.assertEquals(results.get("concepts_tree_spilled"),
+                        "true", "JsonTreeTransformProvider did not spill "
+                        + "on task " + taskId);
+                ArquillianTestUtils.compareJson(results.get("concepts_tree"),
+                        "src/test/resources/input/"
+                        + "au.org.ands.vocabs.toolkit.test.arquillian."
+                        + "AllArquillianTests.testJsonTreeTransformProvider1/"
+                        + "test-data1-concepts_tree.json");
+            }
+
+            // Polyhierarchy detection
+            HashMap<String, String> results = runJsonTreeTask(3);
+            Assert.assertFalse(results.containsKey("concepts_tree"),
+                    "JsonTreeTransformProvider task 3 returned a "
+                    + "concepts_tree value");
+            Assert.assertEquals(results.get("concepts_tree_not_provided"),
+                    "No concepts tree provided, because there is a forward "
+                    + "or cross edge.",
+                    "JsonTreeTransformProvider task 3 returned wrong value "
+                    + "for concepts_tree_not_provided");
+
+            // Cycle detection
+            results = runJsonTreeTask(4);
+            Assert.assertFalse(results.containsKey("concepts_tree"),
+                    "JsonTreeTransformProvider task 4 returned a "
+                    + "concepts_tree value");
+            Assert.assertEquals(results.get("concepts_tree_not_provided"),
+                    "No concepts tree provided, because there is a cycle.",
+                    "JsonTreeTransformProvider task 4 returned wrong value "
+                    + "for concepts_tree_not_provided");
+        } finally {
+            setToolkitProperty(
+                    PropertyConstants.TOOLKIT_TRANSFORMSPILLTHRESHOLD,
+                    threshold);
+        }
+    }
+    //CHECKSTYLE:ON: MagicNumber
+
+    /** Server-side test of {@code JsonTreeTransformProvider} with
+     * a small shard size. The test data of
+     * {@link #testJsonTreeTransformProvider1} is used. The tree
+     * reassembled from the shards must be the same as the tree
+     * of that test.
+     * @throws DatabaseUnitException If a problem with DBUnit.
+     * @throws HibernateException If a problem getting the underlying
+     *          JDBC connection.
+     * @throws IOException If a problem getting test data for DBUnit,
+     *          or reading JSON from the correct and test output files.
+     * @throws SQLException If DBUnit has a problem performing
+     *           performing JDBC operations.
+     */
+    @Test
+    public final void testJsonTreeTransformProviderShards() throws
+        DatabaseUnitException, HibernateException, IOException, SQLException {
+        logger.info("In testJsonTreeTransformProviderShards()");
+        ArquillianTestUtils.loadDbUnitTestFile(
+                "testJsonTreeTransformProvider1");
+        String shardSize = setToolkitProperty(
+                PropertyConstants.TOOLKIT_TRANSFORMTREESHARDSIZE, "1");
+        try {
+            HashMap<String, String> results = runJsonTreeTask(1);
+            Assert.assertFalse(results.containsKey("concepts_tree"),
+                    "JsonTreeTransformProvider returned a concepts_tree "
+                    + "value when sharding");
+            String indexFilename = results.get("concepts_tree_shards");
+            Assert.assertNotNull(indexFilename,
+                    "JsonTreeTransformProvider returned no "
+                    + "concepts_tree_shards value");
+            Path directory = Paths.get(indexFilename).getParent();
+            ArrayNode tree = readShard(directory,
+                    Paths.get(indexFilename).getFileName().toString());
+            Assert.assertEquals(tree, new ObjectMapper().readTree(new File(
+                    "src/test/resources/input/"
+                    + "au.org.ands.vocabs.toolkit.test.arquillian."
+                    + "AllArquillianTests.testJsonTreeTransformProvider1/"
+                    + "test-data1-concepts_tree.json")));
+        } finally {
+            setToolkitProperty(
+                    PropertyConstants.TOOLKIT_TRANSFORMTREESHARDSIZE,
+                    shardSize);
+        }
+    }
+
+    /** Read a file of a concept tree written in shards, replacing
+     * the "narrowerFiles" array of each concept with a "narrower" array
+     * of the concepts in those files.
+     * @param directory The directory of the shards.
+     * @param fileName The name of the file.
+     * @return The concepts of the file, with their narrower concepts.
+     * @throws IOException If a file can not be read.
+     */
+    private static ArrayNode readShard(final Path directory,
+            final String fileName) throws IOException {
+        ArrayNode concepts = (ArrayNode) new ObjectMapper().readTree(
+                directory.resolve(fileName).toFile());
+        inlineShards(directory, concepts);
+        return concepts;
+    }
+
+    /** Replace the "narrowerFiles" arrays of concepts, and of their
+     * narrower concepts, with "narrower" arrays of the concepts
+     * in those files.
+     * @param directory The directory of the shards.
+     * @param concepts The concepts.
+     * @throws IOException If a file can not be read.
+     */
+    private static void inlineShards(final Path directory,
+            final ArrayNode concepts) throws IOException {
+        for (JsonNode node : concepts) {
+            ObjectNode concept = (ObjectNode) node;
+            JsonNode files = concept.remove("narrowerFiles");
+            if (files != null) {
+                Assert.assertFalse(concept.has("narrower"),
+                        "Concept has both narrower and narrowerFiles");
+                ArrayNode narrower = concept.putArray("narrower");
+                for (JsonNode file : files) {
+                    narrower.addAll(readShard(directory, file.asText()));
+                }
+            } else if (concept.has("narrower")) {
+                inlineShards(directory, (ArrayNode) concept.get("narrower"));
+            }
+        }
+    }
+
+    // Task number 3 generates magic number warnings.
+    //CHECKSTYLE:OFF: MagicNumber
+    /** Server-side test of the order of concepts with non-ASCII
+     * prefLabels in the output of {@code JsonTreeTransformProvider}.
+     * Task 1 uses the collation locale given by the Toolkit property;
+     * tasks 2 and 3 use that given by the subtask, and task 3
+     * spills.
+     * @throws DatabaseUnitException If a problem with DBUnit.
+     * @throws HibernateException If a problem getting the underlying
+     *          JDBC connection.
+     * @throws IOException If a problem getting test data for DBUnit,
+     *          or reading JSON from the correct and test output files.
+     * @throws SQLException If DBUnit has a problem performing
+     *           performing JDBC operations.
+     */
+    @Test
+    public final void testJsonTreeTransformProviderCollation() throws
+        DatabaseUnitException, HibernateException, IOException, SQLException {
+        logger.info("In testJsonTreeTransformProviderCollation()");
+        ArquillianTestUtils.loadDbUnitTestFile(
+                "testJsonTreeTransformProviderCollation");
+        String correctPath = "src/test/resources/input/"
+                + "au.org.ands.vocabs.toolkit.test.arquillian."
+                + "AllArquillianTests.testJsonTreeTransformProviderCollation/";
+        String locale = setToolkitProperty(
+                PropertyConstants.TOOLKIT_TRANSFORMCOLLATIONLOCALE, "en");
+        try {
+            HashMap<String, String> results = runJsonTreeTask(1);
+            ArquillianTestUtils.compareJson(results.get("concepts_tree"),
+                    correctPath + "test-data1-concepts_tree-en.json");
+
+            results = runJsonTreeTask(2);
+            ArquillianTestUtils.compareJson(results.get("concepts_tree"),
+                    correctPath + "test-data1-concepts_tree-sv.json");
+        } finally {
+            setToolkitProperty(
+                    PropertyConstants.TOOLKIT_TRANSFORMCOLLATIONLOCALE,
+                    locale);
+        }
+
+        String threshold = setToolkitProperty(
+                PropertyConstants.TOOLKIT_TRANSFORMSPILLTHRESHOLD, "1");
+        try {
+            HashMap<String, String> results = runJsonTreeTask(3);
+            Assert.assertEquals(results.get("concepts_tree_spilled"),
+                    "true", "JsonTreeTransformProvider did not spill "
+                    + "on task 3");
+            ArquillianTestUtils.compareJson(results.get("concepts_tree"),
+                    correctPath + "test-data1-concepts_tree-sv.json");
+        } finally {
+            setToolkitProperty(
+                    PropertyConstants.TOOLKIT_TRANSFORMSPILLTHRESHOLD,
+                    threshold);
+        }
+    }
+    //CHECKSTYLE:ON: MagicNumber
+
+    // Tests of class au.org.ands.vocabs.toolkit.restlet.GetTree.
+
+    // Counts, offsets, and limits generate magic number warnings.
+    //CHECKSTYLE:OFF: MagicNumber
+    /** Server-side test of {@code GetTree.getChildren()}. The concept
+     * tree of the test data of {@link #testJsonTreeTransformProvider1}
+     * is fetched a page at a time.
+     * @throws DatabaseUnitException If a problem with DBUnit.
+     * @throws HibernateException If a problem getting the underlying
+     *          JDBC connection.
+     * @throws IOException If a problem getting test data for DBUnit.
+     * @throws SQLException If DBUnit has a problem performing
+     *           performing JDBC operations.
+     */
+    @Test
+    public final void testGetTreeChildren() throws
+        DatabaseUnitException, HibernateException, IOException, SQLException {
+        logger.info("In testGetTreeChildren()");
+        ArquillianTestUtils.loadDbUnitTestFile(
+                "testJsonTreeTransformProvider1");
+        runJsonTreeTask(1);
+        GetTree getTree = new GetTree();
+        Request request = new UnconditionalRequest();
+
+        // The second page of the roots, two to a page.
+        Response response = getTree.getChildren(request, 1, null, 2, 2);
+        Assert.assertEquals(response.getStatus(),
+                Status.OK.getStatusCode(), "getChildren of roots status");
+        Assert.assertNotNull(response.getEntityTag(),
+                "getChildren of roots ETag");
+        Map<?, ?> page = (Map<?, ?>) response.getEntity();
+        Assert.assertEquals(page.get("total"), 4, "Number of roots");
+        Assert.assertEquals(page.get("offset"), 2, "Offset of page");
+        Assert.assertEquals(page.get("limit"), 2, "Limit of page");
+        List<?> children = (List<?>) page.get("children");
+        Assert.assertEquals(children.size(), 2, "Size of page of roots");
+        Map<?, ?> child = (Map<?, ?>) children.get(0);
+        Assert.assertEquals(child.get("iri"), "http://test/noPrefLabel1",
+                "First root on page");
+        Assert.assertFalse(child.containsKey("prefLabel"),
+                "Root without prefLabel has a prefLabel");
+        Assert.assertEquals(child.get("childCount"), 0,
+                "Child count of root without children");
+        child = (Map<?, ?>) children.get(1);
+        Assert.assertEquals(child.get("iri"), "http://test/noPrefLabel2",
+                "Second root on page");
+
+        // The children of a concept.
+        response = getTree.getChildren(request, 1, "http://test/uri1", 0,
+                10);
+        Assert.assertEquals(response.getStatus(),
+                Status.OK.getStatusCode(), "getChildren of concept status");
+        page = (Map<?, ?>) response.getEntity();
+        Assert.assertEquals(page.get("node"), "http://test/uri1",
+                "Node of page");
+        Assert.assertEquals(page.get("total"), 1, "Number of children");
+        children = (List<?>) page.get("children");
+        Assert.assertEquals(children.size(), 1, "Size of page of children");
+        child = (Map<?, ?>) children.get(0);
+        Assert.assertEquals(child.get("iri"), "http://test/uri1/narrower1",
+                "Child of concept");
+        Assert.assertEquals(child.get("prefLabel"), "Label 1.1",
+                "prefLabel of child");
+        Assert.assertEquals(child.get("definition"), "Definition 1.1",
+                "definition of child");
+        Assert.assertEquals(child.get("notation"), "1.1",
+                "notation of child");
+        Assert.assertEquals(child.get("childCount"), 1,
+                "Child count of child");
+
+        // No such concept, and no such version.
+        Assert.assertEquals(getTree.getChildren(request, 1,
+                "http://test/noSuchConcept", 0, 10).getStatus(),
+                Status.NOT_FOUND.getStatusCode(),
+                "getChildren of no such concept status");
+        Assert.assertEquals(getTree.getChildren(request, 99, null, 0, 10).
+                getStatus(), Status.NOT_FOUND.getStatusCode(),
+                "getChildren of no such version status");
+    }
+    //CHECKSTYLE:ON: MagicNumber
+
+    /** A request without preconditions, for use in calls of restlet
+     * methods from server-side tests. */
+    private static final class UnconditionalRequest implements Request {
+
+        @Override
+        public String getMethod() {
+            return HttpMethod.GET;
+        }
+
+        @Override
+        public Variant selectVariant(final List<Variant> variants) {
+            return null;
+        }
+
+        @Override
+        public ResponseBuilder evaluatePreconditions(
+                final EntityTag eTag) {
+            return null;
+        }
+
+        @Override
+        public ResponseBuilder evaluatePreconditions(
+                final Date lastModified) {
+            return null;
+        }
+
+        @Override
+        public ResponseBuilder evaluatePreconditions(
+                final Date lastModified, final EntityTag eTag) {
+            return null;
+        }
+
+        @Override
+        public ResponseBuilder evaluatePreconditions() {
+            return null;
+        }
+    }
+
+    /** Run a task that includes a JsonTree transform, asserting
+     * that it succeeds.
+     * @param taskId The id of the task.
+     * @return The results of the task.
+     */
+    private HashMap<String, String> runJsonTreeTask(final int taskId) {
+        TaskInfo taskInfo = ToolkitFileUtils.getTaskInfo(taskId);
+        Assert.assertNotNull(taskInfo, "Test data not loaded, task "
+                + taskId);
+        TaskRunner runner = new TaskRunner(taskInfo);
+        runner.runTask();
+        HashMap<String, String> results = runner.getResults();
+        Assert.assertNotNull(results);
+        Assert.assertEquals(results.get("status"), "success",
+                "JsonTreeTransformProvider failed on task " + taskId);
+        return results;
+    }
+
+    /** Set a Toolkit property. Tests that change a property must
+     * restore it afterwards.
+     * @param name The name of the property.
+     * @param value The new value of the property, or null, to remove it.
+     * @return The previous value of the property, or null, if it
+     *      was not set.
+     */
+    private static String setToolkitProperty(final String name,
+            final String value) {
+        Properties properties = ToolkitProperties.getProperties();
+        String previous = properties.getProperty(name);
+        if (value == null) {
+            properties.remove(name);
+        } else {
+            properties.setProperty(name, value);
+        }
+        return previous;
+    }
+
+    // Tests of class au.org.ands.vocabs.toolkit.db.TaskLeaseUtils.
+
+    /** Server-side test of {@code TaskLeaseUtils}. Two nodes
+     * sharing the database are emulated by using two different
+     * lease owners.
+     * @throws DatabaseUnitException If a problem with DBUnit.
+     * @throws HibernateException If a problem getting the underlying
+     *          JDBC connection.
+     * @throws IOException If a problem getting test data for DBUnit.
+     * @throws SQLException If DBUnit has a problem performing
+     *           performing JDBC operations.
+     */
+    @Test
+    public final void testTaskLeases() throws
+        DatabaseUnitException, HibernateException, IOException, SQLException {
+        logger.info("In testTaskLeases()");
+        ArquillianTestUtils.loadDbUnitTestFile("testTaskLeases");
+        final String nodeA = "nodeA";
+        final String nodeB = "nodeB";
+        final long duration = 60000;
+
+        // Task leases.
+        Assert.assertTrue(TaskLeaseUtils.getClaimableTaskIds(10).isEmpty(),
+                "Task 1 claimable by the poller before it was ever claimed");
+        Assert.assertTrue(TaskLeaseUtils.claimTask(1, nodeA, duration),
+                "Node A could not claim task 1");
+        Assert.assertFalse(TaskLeaseUtils.claimTask(1, nodeB, duration),
+                "Node B claimed task 1 while node A held it");
+        Assert.assertTrue(TaskLeaseUtils.getClaimableTaskIds(10).isEmpty(),
+                "Task 1 claimable while node A held it");
+        Task task = TaskUtils.getTaskById(1);
+        Assert.assertEquals(task.getLeaseOwner(), nodeA,
+                "Wrong lease owner of task 1");
+        Assert.assertEquals(task.getStatus(), TaskStatus.CLAIMED,
+                "Wrong status of claimed task 1");
+        Assert.assertTrue(TaskLeaseUtils.renewTaskLease(1, nodeA, duration),
+                "Node A could not renew its lease");
+        Assert.assertFalse(TaskLeaseUtils.renewTaskLease(1, nodeB, duration),
+                "Node B renewed a lease it did not hold");
+        TaskLeaseUtils.releaseTaskLease(1, nodeA);
+        Assert.assertEquals(TaskLeaseUtils.getClaimableTaskIds(10),
+                Arrays.asList(1), "Unfinished task 1 not claimable after "
+                + "release");
+        Assert.assertTrue(TaskLeaseUtils.claimTask(1, nodeB, duration),
+                "Node B could not claim released task 1");
+        // Emulate the death of node B by letting its lease expire.
+        Assert.assertTrue(TaskLeaseUtils.renewTaskLease(1, nodeB,
+                -duration), "Node B could not renew its lease");
+        Assert.assertEquals(TaskLeaseUtils.getClaimableTaskIds(10),
+                Arrays.asList(1), "Task 1 not claimable after expiry");
+        Assert.assertTrue(TaskLeaseUtils.claimTask(1, nodeA, duration),
+                "Node A could not reclaim task 1 after expiry");
+        Assert.assertFalse(TaskLeaseUtils.renewTaskLease(1, nodeB, duration),
+                "Node B renewed a lease that was reclaimed");
+        TaskLeaseUtils.releaseTaskLease(1, nodeA);
+
+        // Version locks.
+        Assert.assertTrue(TaskLeaseUtils.takeVersionLock(1, nodeA, duration),
+                "Node A could not take the lock on version 1");
+        Assert.assertTrue(TaskLeaseUtils.takeVersionLock(1, nodeA, duration),
+                "Node A could not take again the lock it held");
+        Assert.assertFalse(TaskLeaseUtils.takeVersionLock(1, nodeB, duration),
+                "Node B took the lock on version 1 while node A held it");
+        Assert.assertTrue(TaskLeaseUtils.renewVersionLock(1, nodeA,
+                -duration), "Node A could not renew its lock");
+        Assert.assertTrue(TaskLeaseUtils.takeVersionLock(1, nodeB, duration),
+                "Node B could not take the lock after expiry");
+        Assert.assertFalse(TaskLeaseUtils.renewVersionLock(1, nodeA,
+                duration), "Node A renewed a lock that was taken over");
+        TaskLeaseUtils.releaseVersionLock(1, nodeB);
+        Assert.assertTrue(TaskLeaseUtils.takeVersionLock(1, nodeA, duration),
+                "Node A could not take the released lock");
+        TaskLeaseUtils.releaseVersionLock(1, nodeA);
+    }
+
+    /** Server-side test of {@code TaskLease.claim()}, while another
+     * node holds the lease on the task. The other node is emulated
+     * by a thread that uses a different lease owner.
+     * @throws DatabaseUnitException If a problem with DBUnit.
+     * @throws HibernateException If a problem getting the underlying
+     *          JDBC connection.
+     * @throws IOException If a problem getting test data for DBUnit.
+     * @throws SQLException If DBUnit has a problem performing
+     *           performing JDBC operations.
+     * @throws InterruptedException If interrupted while waiting for
+     *           the other node.
+     */
+    @Test
+    public final void testTaskLeaseClaim() throws
+        DatabaseUnitException, HibernateException, IOException, SQLException,
+        InterruptedException {
+        logger.info("In testTaskLeaseClaim()");
+        ArquillianTestUtils.loadDbUnitTestFile("testTaskLeases");
+        final String otherNode = "otherNode";
+        final long duration = 60000;
+        Task task = TaskUtils.getTaskById(1);
+
+        // The other node finishes the task while this node waits
+        // for the lease: the task is not run again.
+        Assert.assertTrue(TaskLeaseUtils.claimTask(1, otherNode, duration),
+                "Other node could not claim task 1");
+        Thread other = releaseTaskLater(otherNode, TaskStatus.SUCCESS);
+        TaskLease lease = TaskLease.claim(task, TaskControl.unbounded());
+        other.join();
+        Assert.assertNull(lease,
+                "Task 1 claimed after the other node finished it");
+        Assert.assertEquals(TaskUtils.getTaskById(1).getStatus(),
+                TaskStatus.SUCCESS, "Wrong status of task 1");
+
+        // A task that has finished can be claimed, to be run again.
+        lease = TaskLease.claim(task, TaskControl.unbounded());
+        Assert.assertNotNull(lease, "Finished task 1 not claimed");
+        Assert.assertEquals(TaskUtils.getTaskById(1).getLeaseOwner(),
+                TaskLeaseUtils.getNodeId(), "Wrong lease owner of task 1");
+        lease.close();
+
+        // The other node gives up the task without finishing it:
+        // the task is claimed.
+        Assert.assertTrue(TaskLeaseUtils.claimTask(1, otherNode, duration),
+                "Other node could not claim task 1 again");
+        other = releaseTaskLater(otherNode, null);
+        lease = TaskLease.claim(task, TaskControl.unbounded());
+        other.join();
+        Assert.assertNotNull(lease,
+                "Task 1 not claimed after the other node released it");
+        Assert.assertEquals(TaskUtils.getTaskById(1).getStatus(),
+                TaskStatus.CLAIMED, "Wrong status of claimed task 1");
+        lease.close();
+    }
+
+    /** Start a thread that, after a delay, releases the lease
+     * on task 1 held by another node.
+     * @param owner The owner of the lease.
+     * @param status If not null, the status to give the task
+     *      before releasing the lease, as if the other node had
+     *      run it.
+     * @return The thread.
+     */
+    private Thread releaseTaskLater(final String owner,
+            final String status) {
+        final long delay = 2000;
+        Thread thread = new Thread(() -> {
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (status != null) {
+                HashMap<String, String> results =
+                        new HashMap<String, String>();
+                results.put("status", status);
+                TaskStatusJournal.record(TaskUtils.getTaskById(1),
+                        status, results);
+            }
+            TaskLeaseUtils.releaseTaskLease(1, owner);
+        });
+        thread.start();
+        return thread;
+    }
+
+
+    // Tests of class au.org.ands.vocabs.toolkit.utils.CronExpression.
+
+    // Dates and times generate magic number warnings.
+    //CHECKSTYLE:OFF: MagicNumber
+    /** Server-side test of {@code CronExpression} with values,
+     * lists, ranges, and steps in the minute, hour, day-of-month,
+     * and month fields. */
+    @Test
+    public final void testCronExpressionFields() {
+        logger.info("In testCronExpressionFields()");
+        // 2016-01-01 is a Friday.
+        ZonedDateTime start = ZonedDateTime.of(2016, 1, 1, 0, 0, 0, 0,
+                ZoneOffset.UTC);
+        Assert.assertEquals(cronNext("*/15 * * * *", start),
+                start.withMinute(15), "Step of *");
+        Assert.assertEquals(cronNext("*/15 * * * *",
+                start.withMinute(14).withSecond(30)),
+                start.withMinute(15), "Seconds not ignored");
+        Assert.assertEquals(cronNext("*/15 * * * *", start.withMinute(45)),
+                start.withHour(1), "Step does not wrap to next hour");
+        Assert.assertEquals(cronNext("5/20 * * * *", start),
+                start.withMinute(5), "Step of a value");
+        Assert.assertEquals(cronNext("5/20 * * * *", start.withMinute(45)),
+                start.withHour(1).withMinute(5),
+                "Step of a value does not run to the maximum");
+        Assert.assertEquals(cronNext("0-30/10 9-17 * * *",
+                start.withHour(8).withMinute(50)),
+                start.withHour(9), "Start of range of hours");
+        Assert.assertEquals(cronNext("0-30/10 9-17 * * *",
+                start.withHour(9).withMinute(30)),
+                start.withHour(10), "Step of a range of minutes");
+        Assert.assertEquals(cronNext("0-30/10 9-17 * * *",
+                start.withHour(17).withMinute(30)),
+                start.plusDays(1).withHour(9), "End of range of hours");
+        Assert.assertEquals(cronNext("0 0 1,15 * *", start),
+                start.withDayOfMonth(15), "List of days of month");
+        Assert.assertEquals(cronNext("0 0 1 3 *", start),
+                start.withMonth(3), "Month");
+        Assert.assertEquals(cronNext("0 0 29 2 *", start),
+                start.withMonth(2).withDayOfMonth(29), "Leap day");
+        Assert.assertNull(cronNext("0 0 31 2 *", start),
+                "Impossible date matched");
+        Assert.assertNull(cronNext("0 0 30 2 *", start),
+                "Impossible date matched");
+        Assert.assertEquals(new CronExpression(" 0 0 * * * ").toString(),
+                "0 0 * * *", "Expression not trimmed");
+    }
+
+    /** Server-side test of the day-of-week field of
+     * {@code CronExpression}, and of its combination with the
+     * day-of-month field. */
+    @Test
+    public final void testCronExpressionDays() {
+        logger.info("In testCronExpressionDays()");
+        // 2016-01-01 is a Friday; 2016-01-03 is a Sunday.
+        ZonedDateTime start = ZonedDateTime.of(2016, 1, 1, 0, 0, 0, 0,
+                ZoneOffset.UTC);
+        ZonedDateTime sunday = start.withDayOfMonth(3).withHour(12);
+        Assert.assertEquals(cronNext("0 12 * * 0", start), sunday,
+                "Sunday as 0");
+        Assert.assertEquals(cronNext("0 12 * * 7", start), sunday,
+                "Sunday as 7");
+        Assert.assertEquals(cronNext("0 12 * * 5-7", start.withHour(13)),
+                start.withDayOfMonth(2).withHour(12),
+                "Saturday in range ending at 7");
+        Assert.assertEquals(cronNext("0 12 * * 5-7",
+                start.withDayOfMonth(2).withHour(13)), sunday,
+                "Sunday in range ending at 7");
+        Assert.assertEquals(cronNext("0 12 * * 0-1", start), sunday,
+                "Sunday in range starting at 0");
+        Assert.assertEquals(cronNext("0 12 * * 0-1", sunday),
+                sunday.plusDays(1), "Monday in range starting at 0");
+        Assert.assertEquals(cronNext("0 12 * * 1-5/2", start.withHour(13)),
+                start.withDayOfMonth(4).withHour(12),
+                "Step of a range of days of week");
+        Assert.assertEquals(cronNext("0 12 * * 1-5/2",
+                start.withDayOfMonth(4).withHour(13)),
+                start.withDayOfMonth(6).withHour(12),
+                "Step of a range of days of week");
+
+        // If one of the day fields is "*", both must match.
+        Assert.assertEquals(cronNext("0 0 13 * *", start),
+                start.withDayOfMonth(13), "Day of month only");
+        Assert.assertEquals(cronNext("0 0 * * 5", start),
+                start.withDayOfMonth(8), "Day of week only");
+        // If neither is "*", either may match.
+        Assert.assertEquals(cronNext("0 0 13 * 5", start),
+                start.withDayOfMonth(8), "Day of week of OR rule");
+        Assert.assertEquals(cronNext("0 0 13 * 5",
+                start.withDayOfMonth(8)),
+                start.withDayOfMonth(13), "Day of month of OR rule");
+        Assert.assertEquals(cronNext("0 0 13 * 5",
+                start.withDayOfMonth(13)),
+                start.withDayOfMonth(15), "OR rule after day of month");
+        Assert.assertEquals(cronNext("0 0 13 2 5", start),
+                start.withMonth(2).withDayOfMonth(5),
+                "OR rule ignores the month");
+    }
+
+    /** Server-side test of {@code CronExpression} across changes
+     * to and from daylight saving time. In Sydney, in 2016, clocks
+     * went back from 03:00 to 02:00 on 3 April, and forward from
+     * 02:00 to 03:00 on 2 October. */
+    @Test
+    public final void testCronExpressionDaylightSaving() {
+        logger.info("In testCronExpressionDaylightSaving()");
+        ZoneId sydney = ZoneId.of("Australia/Sydney");
+
+        // A time in the gap does not exist, and is skipped.
+        ZonedDateTime beforeGap = ZonedDateTime.of(2016, 10, 1, 3, 0, 0, 0,
+                sydney);
+        Assert.assertEquals(cronNext("30 2 * * *", beforeGap),
+                ZonedDateTime.of(2016, 10, 3, 2, 30, 0, 0, sydney),
+                "Time in the gap not skipped");
+        ZonedDateTime next = cronNext("*/30 * * * *",
+                beforeGap.withDayOfMonth(2).withHour(1).withMinute(45));
+        Assert.assertEquals(next,
+                ZonedDateTime.of(2016, 10, 2, 3, 0, 0, 0, sydney),
+                "First time after the gap");
+        Assert.assertEquals(next.getOffset(), ZoneOffset.ofHours(11),
+                "Wrong offset after the gap");
+
+        // A time in the overlap occurs twice, but matches once.
+        ZonedDateTime beforeOverlap = ZonedDateTime.of(2016, 4, 2, 12, 0,
+                0, 0, sydney);
+        next = cronNext("30 2 * * *", beforeOverlap);
+        Assert.assertEquals(next.toLocalDateTime(),
+                LocalDateTime.of(2016, 4, 3, 2, 30),
+                "Time in the overlap");
+        Assert.assertEquals(next.getOffset(), ZoneOffset.ofHours(11),
+                "Time in the overlap not the earlier one");
+        Assert.assertEquals(cronNext("30 2 * * *", next),
+                ZonedDateTime.of(2016, 4, 4, 2, 30, 0, 0, sydney),
+                "Time in the overlap matched twice");
+    }
+
+    /** Server-side test of {@code CronExpression} with expressions
+     * that are not valid. */
+    @Test
+    public final void testCronExpressionInvalid() {
+        logger.info("In testCronExpressionInvalid()");
+        String[] invalid = {
+            "",
+            "* * * *",
+            "* * * * * *",
+            "60 * * * *",
+            "* 24 * * *",
+            "* * 0 * *",
+            "* * 32 * *",
+            "* * * 0 *",
+            "* * * 13 *",
+            "* * * * 8",
+            "-1 * * * *",
+            "5-1 * * * *",
+            "*/0 * * * *",
+            "*/61 * * * *",
+            "1-2-3 * * * *",
+            "1,,2 * * * *",
+            "a * * * *",
+            "* * * JAN *",
+            "* * * * MON",
+        };
+        for (String expression : invalid) {
+            try {
+                new CronExpression(expression);
+                Assert.fail("Invalid expression accepted: \""
+                        + expression + "\"");
+            } catch (IllegalArgumentException e) {
+                // Expected.
+            }
+        }
+    }
+    //CHECKSTYLE:ON: MagicNumber
+
+    /** Get the next time that matches a cron expression.
+     * @param expression The cron expression.
+     * @param after The time after which to look.
+     * @return The next time that matches the expression.
+     */
+    private ZonedDateTime cronNext(final String expression,
+            final ZonedDateTime after) {
+        return new CronExpression(expression).next(after);
+    }
+
+    // Tests of class au.org.ands.vocabs.toolkit.tasks.PriorityScheduler.
+
+    // Aging intervals and delays generate magic number warnings.
+    //CHECKSTYLE:OFF: MagicNumber
+    /** Server-side test of {@code PriorityScheduler}: a waiting task
+     * of high priority is given a permit before a task of low
+     * priority that has waited longer.
+     * @throws InterruptedException If interrupted while waiting
+     *      for the tasks.
+     */
+    @Test
+    public final void testPrioritySchedulerOrder()
+            throws InterruptedException {
+        logger.info("In testPrioritySchedulerOrder()");
+        // An aging interval long enough that no task ages.
+        PriorityScheduler scheduler = new PriorityScheduler(1, 60000);
+        List<String> granted = Collections.synchronizedList(
+                new ArrayList<String>());
+        scheduler.acquire(TaskPriority.NORMAL, TaskControl.unbounded());
+        Thread batch = startSchedulerWaiter(scheduler, TaskPriority.LOW,
+                "batch", granted);
+        Thread high = startSchedulerWaiter(scheduler, TaskPriority.HIGH,
+                "high", granted);
+        Assert.assertTrue(granted.isEmpty(),
+                "Permit given while none was free");
+        scheduler.release();
+        batch.join();
+        high.join();
+        Assert.assertEquals(granted, Arrays.asList("high", "batch"),
+                "Wrong order of permits");
+    }
+
+    /** Server-side test of {@code PriorityScheduler}: a task of low
+     * priority that has waited for long enough is given a permit
+     * before a task of high priority that arrived later.
+     * @throws InterruptedException If interrupted while waiting
+     *      for the tasks.
+     */
+    @Test
+    public final void testPrioritySchedulerAging()
+            throws InterruptedException {
+        logger.info("In testPrioritySchedulerAging()");
+        final long agingInterval = 500;
+        PriorityScheduler scheduler =
+                new PriorityScheduler(1, agingInterval);
+        List<String> granted = Collections.synchronizedList(
+                new ArrayList<String>());
+        scheduler.acquire(TaskPriority.NORMAL, TaskControl.unbounded());
+        Thread batch = startSchedulerWaiter(scheduler, TaskPriority.LOW,
+                "batch", granted);
+        // Long enough for the batch task to age by more than
+        // the two classes between it and the high priority task.
+        Thread.sleep(agingInterval * 3 + 100);
+        Thread high = startSchedulerWaiter(scheduler, TaskPriority.HIGH,
+                "high", granted);
+        scheduler.release();
+        batch.join();
+        high.join();
+        Assert.assertEquals(granted, Arrays.asList("batch", "high"),
+                "Aged task not given a permit first");
+    }
     //CHECKSTYLE:ON: MagicNumber
 
+    /** Start a thread that waits for a permit from a scheduler.
+     * When it is given a permit, it adds its name to a list,
+     * and releases the permit. This method returns once the
+     * thread is waiting.
+     * @param scheduler The scheduler.
+     * @param priority The priority class of the waiting task.
+     * @param name The name of the waiting task.
+     * @param granted The list to which the name is added.
+     * @return The thread.
+     * @throws InterruptedException If interrupted while waiting
+     *      for the thread to start waiting.
+     */
+    private Thread startSchedulerWaiter(final PriorityScheduler scheduler,
+            final int priority, final String name,
+            final List<String> granted) throws InterruptedException {
+        final long pollInterval = 10;
+        String className = TaskPriority.getName(priority);
+        int waiting = scheduler.getQueueDepths().get(className);
+        Thread thread = new Thread(() -> {
+            try {
+                scheduler.acquire(priority, TaskControl.unbounded());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            granted.add(name);
+            scheduler.release();
+        });
+        thread.start();
+        while (scheduler.getQueueDepths().get(className) == waiting) {
+            Thread.sleep(pollInterval);
+        }
+        return thread;
+    }
 
     // Client-side tests go here. Server-side tests are above this line.
 
@@ -224,9 +1060,70 @@ public class AllArquillianTests extends ArquillianBaseTest {
         String body = response.readEntity(String.class);
         response.close();
 
-        Assert.assertEquals(body, "[]",
-            "systemHealthCheck return value");
+        JsonNode bodyJson = TaskUtils.jsonStringToTree(body);
+        Assert.assertNotNull(bodyJson, "systemHealthCheck return value");
+        Assert.assertEquals(bodyJson.path("database").path("status").
+                asText(), HealthCheckUtils.STATUS_OK,
+            "systemHealthCheck database status");
+        Assert.assertTrue(bodyJson.path("database").has("latencyMs"),
+            "systemHealthCheck database latency");
         // Assert.fail("Test of failing in testSystemHealthCheck");
     }
 
+    /** Client-side test of the task listing function, when
+     * there are no tasks.
+     * @throws DatabaseUnitException If a problem with DBUnit.
+     * @throws IOException If a problem getting test data for DBUnit.
+     * @throws SQLException If DBUnit has a problem performing
+     *           performing JDBC operations.
+     */
+    @Test
+    @RunAsClient
+    public final void testGetTasks() throws
+        DatabaseUnitException, IOException, SQLException {
+        logger.info("In testGetTasks()");
+        ArquillianTestUtils.clientClearDatabase(baseURL);
+        Response response = NetClientUtils.doGet(baseURL,
+                "getInfo/tasks", MediaType.APPLICATION_JSON_TYPE);
+
+        Assert.assertEquals(response.getStatusInfo().getFamily(),
+                Family.SUCCESSFUL,
+                "getTasks response status");
+        String body = response.readEntity(String.class);
+        response.close();
+
+        Assert.assertEquals(body, "[]",
+            "getTasks return value");
+    }
+
+    /** Client-side test of the metrics function. The database
+     * operation of a task listing must be counted.
+     * @throws DatabaseUnitException If a problem with DBUnit.
+     * @throws IOException If a problem getting test data for DBUnit.
+     * @throws SQLException If DBUnit has a problem performing
+     *           performing JDBC operations.
+     */
+    @Test
+    @RunAsClient
+    public final void testGetMetrics() throws
+        DatabaseUnitException, IOException, SQLException {
+        logger.info("In testGetMetrics()");
+        ArquillianTestUtils.clientClearDatabase(baseURL);
+        Response response = NetClientUtils.doGet(baseURL,
+                "getInfo/tasks", MediaType.APPLICATION_JSON_TYPE);
+        response.close();
+        response = NetClientUtils.doGet(baseURL, "metrics");
+
+        Assert.assertEquals(response.getStatusInfo().getFamily(),
+                Family.SUCCESSFUL,
+                "getMetrics response status");
+        String body = response.readEntity(String.class);
+        response.close();
+
+        Assert.assertTrue(body.contains("toolkit_db_operations_total{"
+                + "operation=\"TaskUtils.getTaskSummaries\","
+                + "outcome=\"success\"}"),
+            "getMetrics counts the task listing");
+    }
+
 }
@@ -0,0 +1,20 @@
+-- Schema changes for running tasks on several Toolkit nodes that
+-- share the database. MANDATORY: apply these before deploying this
+-- version of the Toolkit, even if it runs on only one node, as the
+-- lease columns are part of the mapping of the task table.
+-- See "Upgrading" in README.md. (MySQL syntax.)
+
+-- The lease on a task: the node that has claimed it, and when
+-- the lease expires, in milliseconds since the epoch.
+ALTER TABLE task
+  ADD COLUMN lease_owner VARCHAR(255) NULL,
+  ADD COLUMN lease_expiry BIGINT NULL;
+
+-- Locks on versions, so that tasks on the same version do not run
+-- at the same time on different nodes.
+CREATE TABLE version_lock (
+  version_id INT NOT NULL,
+  owner VARCHAR(255) NOT NULL,
+  expiry BIGINT NOT NULL,
+  PRIMARY KEY (version_id)
+);
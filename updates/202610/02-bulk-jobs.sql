@@ -0,0 +1,25 @@
+-- Schema changes for bulk jobs, which run the same subtasks on
+-- a selection of versions. MANDATORY: apply these, after those in
+-- 01-task-leases.sql, before deploying this version of the Toolkit.
+-- See "Upgrading" in README.md. (MySQL syntax.)
+
+CREATE TABLE bulk_job (
+  id INT NOT NULL AUTO_INCREMENT,
+  -- The selection of versions. Null values select all versions.
+  vocabulary_id INT NULL,
+  version_status VARCHAR(45) NULL,
+  owner VARCHAR(255) NULL,
+  -- The subtasks to be run on each version, as a JSON array.
+  params TEXT NULL,
+  status VARCHAR(45) NULL,
+  -- Progress: the job resumes after last_version_id.
+  last_version_id INT NULL,
+  total INT NULL,
+  processed INT NULL,
+  failed INT NULL,
+  elapsed_ms BIGINT NULL,
+  -- The lease on the job, held by the node running it.
+  lease_owner VARCHAR(255) NULL,
+  lease_expiry BIGINT NULL,
+  PRIMARY KEY (id)
+);